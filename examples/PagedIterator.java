@@ -19,5 +19,20 @@ public class PagedIterator {
           }
           System.out.println();
         }
+
+        // pages of an intersection are computed lazily, without computing the
+        // whole intersection first
+        RoaringBitmap multiplesOf3 = new RoaringBitmap();
+        for(int k = 0; k < 200; k++) {
+          multiplesOf3.add(k * 3);
+        }
+        PeekableIntIterator j = LazyIntIterator.and(rr.getIntIterator(),
+            multiplesOf3.getIntIterator());
+        // we skip to the page starting at 200
+        j.advanceIfNeeded(200);
+        for(int k = 0; (k < pageSize) && j.hasNext() ; k++) {
+          System.out.print(j.next()+" ");
+        }
+        System.out.println();
   }
 }
@@ -5,6 +5,8 @@
 package org.roaringbitmap;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -705,7 +707,7 @@ public final class ArrayContainer extends Container implements Cloneable {
         bc.cardinality += Long.bitCount(k);
       }
       if (bc.cardinality <= DEFAULT_MAX_SIZE) {
-        return bc.toArrayContainer();
+        return bc.toArrayContainerAndRecycle();
       } else if (bc.isFull()) {
         return RunContainer.full();
       }
@@ -948,7 +950,7 @@ public final class ArrayContainer extends Container implements Cloneable {
         bc.cardinality += Long.bitCount(k);
       }
       if (bc.cardinality <= DEFAULT_MAX_SIZE) {
-        return bc.toArrayContainer();
+        return bc.toArrayContainerAndRecycle();
       } else if (bc.isFull()) {
         return RunContainer.full();
       }
@@ -1134,8 +1136,8 @@ public final class ArrayContainer extends Container implements Cloneable {
   @Override
   public int nextValue(short fromValue) {
     int index = Util.advanceUntil(content, -1, cardinality, fromValue);
-    if (index == content.length) {
-      return fromValue == content[cardinality - 1] ? toIntUnsigned(fromValue) : -1;
+    if (index == cardinality) {
+      return -1;
     }
     return toIntUnsigned(content[index]);
   }
@@ -1143,12 +1145,31 @@ public final class ArrayContainer extends Container implements Cloneable {
   @Override
   public int previousValue(short fromValue) {
     int index = Util.advanceUntil(content, -1, cardinality, fromValue);
-    if (content.length != index && content[index] == fromValue) {
+    if (index != cardinality && content[index] == fromValue) {
       return toIntUnsigned(content[index]);
     }
     return index == 0 ? -1 : toIntUnsigned(content[index - 1]);
   }
 
+  @Override
+  void andInto(long[] bits) {
+    int start = 0;
+    for (int i = 0; i < cardinality; ++i) {
+      int value = toIntUnsigned(content[i]);
+      Util.resetBitmapRange(bits, start, value);
+      start = value + 1;
+    }
+    Util.resetBitmapRange(bits, start, BitmapContainer.MAX_CAPACITY);
+  }
+
+  @Override
+  void orInto(long[] bits) {
+    for (int i = 0; i < cardinality; ++i) {
+      int value = toIntUnsigned(content[i]);
+      bits[value >>> 6] |= 1L << value;
+    }
+  }
+
   @Override
   public int first() {
     assertNonEmpty(cardinality == 0);
@@ -1211,6 +1232,13 @@ public final class ArrayContainer extends Container implements Cloneable {
     }
   }
 
+  @Override
+  protected void writeArray(ByteBuffer buffer) {
+    assert buffer.order() == ByteOrder.LITTLE_ENDIAN;
+    buffer.asShortBuffer().put(content, 0, cardinality);
+    buffer.position(buffer.position() + 2 * cardinality);
+  }
+
   @Override
   public void writeExternal(ObjectOutput out) throws IOException {
     serialize(out);
@@ -1237,7 +1265,7 @@ public final class ArrayContainer extends Container implements Cloneable {
         bc.cardinality += Long.bitCount(k);
       }
       if (bc.cardinality <= DEFAULT_MAX_SIZE) {
-        return bc.toArrayContainer();
+        return bc.toArrayContainerAndRecycle();
       }
       return bc;
     }
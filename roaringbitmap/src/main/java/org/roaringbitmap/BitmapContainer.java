@@ -8,6 +8,8 @@ import org.roaringbitmap.buffer.MappeableBitmapContainer;
 import org.roaringbitmap.buffer.MappeableContainer;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.LongBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -75,7 +77,7 @@ public final class BitmapContainer extends Container implements Cloneable {
    */
   public BitmapContainer() {
     this.cardinality = 0;
-    this.bitmap = new long[MAX_CAPACITY / 64];
+    this.bitmap = BitmapContainerPool.allocate();
   }
 
 
@@ -89,13 +91,13 @@ public final class BitmapContainer extends Container implements Cloneable {
    */
   public BitmapContainer(final int firstOfRun, final int lastOfRun) {
     this.cardinality = lastOfRun - firstOfRun;
-    this.bitmap = new long[MAX_CAPACITY / 64];
+    this.bitmap = BitmapContainerPool.allocate();
     Util.setBitmapRange(bitmap, firstOfRun, lastOfRun);
   }
 
   private BitmapContainer(int newCardinality, long[] newBitmap) {
     this.cardinality = newCardinality;
-    this.bitmap = Arrays.copyOf(newBitmap, newBitmap.length);
+    this.bitmap = BitmapContainerPool.copyOf(newBitmap);
   }
 
   /**
@@ -168,15 +170,10 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container and(final BitmapContainer value2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] & value2.bitmap[k]);
-    }
+    int newCardinality = BitmapKernels.andCardinality(this.bitmap, value2.bitmap);
     if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
       final BitmapContainer answer = new BitmapContainer();
-      for (int k = 0; k < answer.bitmap.length; ++k) {
-        answer.bitmap[k] = this.bitmap[k] & value2.bitmap[k];
-      }
+      BitmapKernels.and(this.bitmap, value2.bitmap, answer.bitmap);
       answer.cardinality = newCardinality;
       return answer;
     }
@@ -204,11 +201,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public int andCardinality(final BitmapContainer value2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] & value2.bitmap[k]);
-    }
-    return newCardinality;
+    return BitmapKernels.andCardinality(this.bitmap, value2.bitmap);
   }
 
   @Override
@@ -229,22 +222,17 @@ public final class BitmapContainer extends Container implements Cloneable {
       answer.cardinality -= (w ^ aft) >>> v;
     }
     if (answer.cardinality <= ArrayContainer.DEFAULT_MAX_SIZE) {
-      return answer.toArrayContainer();
+      return answer.toArrayContainerAndRecycle();
     }
     return answer;
   }
 
   @Override
   public Container andNot(final BitmapContainer value2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] & (~value2.bitmap[k]));
-    }
+    int newCardinality = BitmapKernels.andNotCardinality(this.bitmap, value2.bitmap);
     if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
       final BitmapContainer answer = new BitmapContainer();
-      for (int k = 0; k < answer.bitmap.length; ++k) {
-        answer.bitmap[k] = this.bitmap[k] & (~value2.bitmap[k]);
-      }
+      BitmapKernels.andNot(this.bitmap, value2.bitmap, answer.bitmap);
       answer.cardinality = newCardinality;
       return answer;
     }
@@ -268,7 +256,7 @@ public final class BitmapContainer extends Container implements Cloneable {
     if (answer.getCardinality() > ArrayContainer.DEFAULT_MAX_SIZE) {
       return answer;
     } else {
-      return answer.toArrayContainer();
+      return answer.toArrayContainerAndRecycle();
     }
   }
 
@@ -294,10 +282,7 @@ public final class BitmapContainer extends Container implements Cloneable {
    * Recomputes the cardinality of the bitmap.
    */
   protected void computeCardinality() {
-    this.cardinality = 0;
-    for (int k = 0; k < this.bitmap.length; k++) {
-      this.cardinality += Long.bitCount(this.bitmap[k]);
-    }
+    this.cardinality = BitmapKernels.cardinality(this.bitmap);
   }
 
   protected int cardinalityInRange(int start, int end) {
@@ -547,14 +532,9 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container iand(final BitmapContainer b2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] & b2.bitmap[k]);
-    }
+    int newCardinality = BitmapKernels.andCardinality(this.bitmap, b2.bitmap);
     if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
-      for (int k = 0; k < this.bitmap.length; ++k) {
-        this.bitmap[k] = this.bitmap[k] & b2.bitmap[k];
-      }
+      BitmapKernels.and(this.bitmap, b2.bitmap, this.bitmap);
       this.cardinality = newCardinality;
       return this;
     }
@@ -596,7 +576,7 @@ public final class BitmapContainer extends Container implements Cloneable {
     if (getCardinality() > ArrayContainer.DEFAULT_MAX_SIZE) {
       return this;
     } else {
-      return toArrayContainer();
+      return toArrayContainerAndRecycle();
     }
   }
 
@@ -606,21 +586,16 @@ public final class BitmapContainer extends Container implements Cloneable {
       this.remove(b2.content[k]);
     }
     if (cardinality <= ArrayContainer.DEFAULT_MAX_SIZE) {
-      return this.toArrayContainer();
+      return this.toArrayContainerAndRecycle();
     }
     return this;
   }
 
   @Override
   public Container iandNot(final BitmapContainer b2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] & (~b2.bitmap[k]));
-    }
+    int newCardinality = BitmapKernels.andNotCardinality(this.bitmap, b2.bitmap);
     if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
-      for (int k = 0; k < this.bitmap.length; ++k) {
-        this.bitmap[k] = this.bitmap[k] & (~b2.bitmap[k]);
-      }
+      BitmapKernels.andNot(this.bitmap, b2.bitmap, this.bitmap);
       this.cardinality = newCardinality;
       return this;
     }
@@ -643,7 +618,7 @@ public final class BitmapContainer extends Container implements Cloneable {
     if (getCardinality() > ArrayContainer.DEFAULT_MAX_SIZE) {
       return this;
     } else {
-      return toArrayContainer();
+      return toArrayContainerAndRecycle();
     }
   }
 
@@ -683,7 +658,7 @@ public final class BitmapContainer extends Container implements Cloneable {
     Util.flipBitmapRange(bitmap, firstOfRange, lastOfRange);
     updateCardinality(prevOnes, lastOfRange - firstOfRange - prevOnes);
     if (cardinality <= ArrayContainer.DEFAULT_MAX_SIZE) {
-      return toArrayContainer();
+      return toArrayContainerAndRecycle();
     }
     return this;
   }
@@ -757,12 +732,7 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container ior(final BitmapContainer b2) {
-    this.cardinality = 0;
-    for (int k = 0; k < this.bitmap.length; k++) {
-      long w = this.bitmap[k] | b2.bitmap[k];
-      this.bitmap[k] = w;
-      this.cardinality += Long.bitCount(w);
-    }
+    this.cardinality = BitmapKernels.or(this.bitmap, b2.bitmap, this.bitmap);
     if (isFull()) {
       return RunContainer.full();
     }
@@ -797,7 +767,7 @@ public final class BitmapContainer extends Container implements Cloneable {
     Util.resetBitmapRange(bitmap, begin, end);
     updateCardinality(prevOnesInRange, 0);
     if (getCardinality() <= ArrayContainer.DEFAULT_MAX_SIZE) {
-      return toArrayContainer();
+      return toArrayContainerAndRecycle();
     }
     return this;
   }
@@ -838,7 +808,7 @@ public final class BitmapContainer extends Container implements Cloneable {
       this.bitmap[index] = ba ^ mask;
     }
     if (this.cardinality <= ArrayContainer.DEFAULT_MAX_SIZE) {
-      return this.toArrayContainer();
+      return this.toArrayContainerAndRecycle();
     }
     return this;
   }
@@ -846,14 +816,9 @@ public final class BitmapContainer extends Container implements Cloneable {
 
   @Override
   public Container ixor(BitmapContainer b2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] ^ b2.bitmap[k]);
-    }
+    int newCardinality = BitmapKernels.xorCardinality(this.bitmap, b2.bitmap);
     if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
-      for (int k = 0; k < this.bitmap.length; ++k) {
-        this.bitmap[k] = this.bitmap[k] ^ b2.bitmap[k];
-      }
+      BitmapKernels.xor(this.bitmap, b2.bitmap, this.bitmap);
       this.cardinality = newCardinality;
       return this;
     }
@@ -876,7 +841,7 @@ public final class BitmapContainer extends Container implements Cloneable {
     if (this.getCardinality() > ArrayContainer.DEFAULT_MAX_SIZE) {
       return this;
     } else {
-      return toArrayContainer();
+      return toArrayContainerAndRecycle();
     }
   }
 
@@ -1138,7 +1103,7 @@ public final class BitmapContainer extends Container implements Cloneable {
     Util.resetBitmapRange(answer.bitmap, begin, end);
     answer.updateCardinality(prevOnesInRange, 0);
     if (answer.getCardinality() <= ArrayContainer.DEFAULT_MAX_SIZE) {
-      return answer.toArrayContainer();
+      return answer.toArrayContainerAndRecycle();
     }
     return answer;
   }
@@ -1226,6 +1191,18 @@ public final class BitmapContainer extends Container implements Cloneable {
     return serializedSizeInBytes(0);
   }
 
+  /**
+   * Copies the data to an array container, then hands the bitmap to the active
+   * {@link BitmapContainerPool}: this container must no longer be used.
+   *
+   * @return the array container
+   */
+  ArrayContainer toArrayContainerAndRecycle() {
+    ArrayContainer ac = toArrayContainer();
+    BitmapContainerPool.recycle(bitmap);
+    return ac;
+  }
+
   /**
    * Copies the data to an array container
    *
@@ -1280,6 +1257,13 @@ public final class BitmapContainer extends Container implements Cloneable {
     serialize(out);
   }
 
+  @Override
+  protected void writeArray(ByteBuffer buffer) {
+    assert buffer.order() == ByteOrder.LITTLE_ENDIAN;
+    buffer.asLongBuffer().put(bitmap);
+    buffer.position(buffer.position() + 8 * bitmap.length);
+  }
+
   @Override
   public void writeExternal(ObjectOutput out) throws IOException {
     serialize(out);
@@ -1299,22 +1283,17 @@ public final class BitmapContainer extends Container implements Cloneable {
       answer.bitmap[index] = val ^ mask;
     }
     if (answer.cardinality <= ArrayContainer.DEFAULT_MAX_SIZE) {
-      return answer.toArrayContainer();
+      return answer.toArrayContainerAndRecycle();
     }
     return answer;
   }
 
   @Override
   public Container xor(BitmapContainer value2) {
-    int newCardinality = 0;
-    for (int k = 0; k < this.bitmap.length; ++k) {
-      newCardinality += Long.bitCount(this.bitmap[k] ^ value2.bitmap[k]);
-    }
+    int newCardinality = BitmapKernels.xorCardinality(this.bitmap, value2.bitmap);
     if (newCardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
       final BitmapContainer answer = new BitmapContainer();
-      for (int k = 0; k < answer.bitmap.length; ++k) {
-        answer.bitmap[k] = this.bitmap[k] ^ value2.bitmap[k];
-      }
+      BitmapKernels.xor(this.bitmap, value2.bitmap, answer.bitmap);
       answer.cardinality = newCardinality;
       return answer;
     }
@@ -1356,6 +1335,20 @@ public final class BitmapContainer extends Container implements Cloneable {
     return prevSetBit(Util.toIntUnsigned(fromValue));
   }
 
+  @Override
+  void andInto(long[] bits) {
+    for (int i = 0; i < bitmap.length; ++i) {
+      bits[i] &= bitmap[i];
+    }
+  }
+
+  @Override
+  void orInto(long[] bits) {
+    for (int i = 0; i < bitmap.length; ++i) {
+      bits[i] |= bitmap[i];
+    }
+  }
+
   @Override
   public int first() {
     assertNonEmpty(cardinality == 0);
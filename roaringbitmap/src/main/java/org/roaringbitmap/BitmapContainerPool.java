@@ -0,0 +1,191 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap;
+
+import java.util.Arrays;
+
+/**
+ * Opt-in pool of the 1024-word arrays backing {@link BitmapContainer}s.
+ *
+ * While a pool is active on a thread, the bitmap containers created on this thread draw their
+ * arrays from it, and the operations which turn a bitmap container into another kind of
+ * container, such as {@link RoaringBitmap#andNot(RoaringBitmap)} or
+ * {@link FastAggregation#horizontal_or(RoaringBitmap...)} when a union is sparse, return the
+ * arrays they drop to it. Short-lived bitmaps can hand back their arrays with
+ * {@link RoaringBitmap#release()}. When no pool is active, containers allocate their arrays as
+ * usual.
+ *
+ * A pool is meant to be used by a single thread, typically for the duration of a query:
+ *
+ * <pre>
+ * {@code
+ *      try (BitmapContainerPool pool = new BitmapContainerPool(64).activate()) {
+ *        RoaringBitmap union = FastAggregation.or(bitmaps);
+ *        RoaringBitmap result = RoaringBitmap.and(union, filter);
+ *        union.release();
+ *        // ...
+ *      }
+ * }
+ * </pre>
+ */
+public final class BitmapContainerPool implements AutoCloseable {
+
+  private static final int WORD_COUNT = BitmapContainer.MAX_CAPACITY / 64;
+
+  private static final ThreadLocal<BitmapContainerPool> ACTIVE = new ThreadLocal<>();
+
+  // skips the thread-local lookup until a pool is activated for the first time
+  private static volatile boolean used;
+
+  private final long[][] arrays;
+  private int size;
+  private Thread owner;
+  private BitmapContainerPool previous;
+
+  /**
+   * Create an empty pool.
+   *
+   * @param capacity the maximal number of arrays the pool keeps, each of them taking 8kB
+   */
+  public BitmapContainerPool(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("The capacity must be non-negative: " + capacity);
+    }
+    this.arrays = new long[capacity][];
+  }
+
+  /**
+   * Make this pool the source of the arrays of the bitmap containers created on the current
+   * thread, until it is closed. Pools can be nested: closing a pool activates the previous one.
+   *
+   * @return this pool
+   */
+  public BitmapContainerPool activate() {
+    if (owner != null) {
+      throw new IllegalStateException("The pool is already active on " + owner.getName());
+    }
+    owner = Thread.currentThread();
+    previous = ACTIVE.get();
+    ACTIVE.set(this);
+    used = true;
+    return this;
+  }
+
+  /**
+   * Deactivate the pool on the current thread, restoring the pool which was active before it.
+   * The arrays in the pool are kept, so that it can be activated again.
+   */
+  @Override
+  public void close() {
+    if (owner == null) {
+      return;
+    }
+    if (owner != Thread.currentThread()) {
+      throw new IllegalStateException("The pool must be closed by " + owner.getName());
+    }
+    if (previous == null) {
+      ACTIVE.remove();
+    } else {
+      ACTIVE.set(previous);
+    }
+    owner = null;
+    previous = null;
+  }
+
+  /**
+   * Drop the arrays held by the pool.
+   */
+  public void clear() {
+    Arrays.fill(arrays, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * @return the number of arrays currently in the pool
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the maximal number of arrays the pool keeps
+   */
+  public int capacity() {
+    return arrays.length;
+  }
+
+  /**
+   * @return the pool active on the current thread, or null
+   */
+  public static BitmapContainerPool active() {
+    return used ? ACTIVE.get() : null;
+  }
+
+  private static long[] take() {
+    BitmapContainerPool pool = active();
+    if (pool == null || pool.size == 0) {
+      return null;
+    }
+    long[] array = pool.arrays[--pool.size];
+    pool.arrays[pool.size] = null;
+    return array;
+  }
+
+  /**
+   * Returns an array of 1024 zeros, from the active pool when possible.
+   *
+   * @return a zeroed array
+   */
+  static long[] allocate() {
+    long[] array = take();
+    if (array == null) {
+      return new long[WORD_COUNT];
+    }
+    Arrays.fill(array, 0L);
+    return array;
+  }
+
+  /**
+   * Returns a copy of the words, backed by an array from the active pool when possible.
+   *
+   * @param words the words to copy
+   * @return a copy of the words
+   */
+  static long[] copyOf(long[] words) {
+    long[] array = words.length == WORD_COUNT ? take() : null;
+    if (array == null) {
+      return Arrays.copyOf(words, words.length);
+    }
+    System.arraycopy(words, 0, array, 0, WORD_COUNT);
+    return array;
+  }
+
+  /**
+   * Hands an array which is no longer referenced to the active pool, if any and if it has room.
+   *
+   * @param words the array to recycle
+   */
+  static void recycle(long[] words) {
+    BitmapContainerPool pool = active();
+    if (pool != null && pool.size < pool.arrays.length && words.length == WORD_COUNT) {
+      pool.arrays[pool.size++] = words;
+    }
+  }
+
+  /**
+   * Repairs a container after lazy operations, recycling its array when it is converted. The
+   * caller must own the container.
+   *
+   * @param container the container to repair
+   * @return the repaired container
+   */
+  static Container repairAfterLazy(Container container) {
+    Container repaired = container.repairAfterLazy();
+    if (repaired != container && container instanceof BitmapContainer) {
+      recycle(((BitmapContainer) container).bitmap);
+    }
+    return repaired;
+  }
+}
@@ -0,0 +1,453 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap;
+
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MappeableContainerPointer;
+
+/**
+ * A tree of AND, OR and ANDNOT operations over bitmaps, evaluated in a single pass over the
+ * keys of the containers, without materializing the intermediate bitmaps:
+ *
+ * <pre>
+ * {@code
+ *      // (A AND B AND NOT C) OR D
+ *      BitmapExpression filter = BitmapExpression.or(
+ *          BitmapExpression.andNot(
+ *              BitmapExpression.and(BitmapExpression.of(a), BitmapExpression.of(b)),
+ *              BitmapExpression.of(c)),
+ *          BitmapExpression.of(d));
+ *      RoaringBitmap result = filter.evaluate();
+ *      long count = filter.cardinality();
+ * }
+ * </pre>
+ *
+ * The keys which cannot be in the result are skipped across the whole expression: an AND only
+ * visits the keys present in all its operands, and an ANDNOT the keys of its first operand.
+ * The containers of each key are combined into one or two scratch containers per operation,
+ * which are reused from key to key.
+ *
+ * An expression is immutable and can be evaluated concurrently, as long as its bitmaps are not
+ * modified meanwhile. The containers of an {@link ImmutableRoaringBitmap} are copied to the
+ * heap as the evaluation visits their keys.
+ */
+public abstract class BitmapExpression {
+
+  // past the largest key
+  private static final int NO_KEY = 1 << 16;
+
+  BitmapExpression() {
+  }
+
+  /**
+   * Creates an expression whose value is a bitmap.
+   *
+   * @param bitmap the bitmap
+   * @return the expression
+   */
+  public static BitmapExpression of(final RoaringBitmap bitmap) {
+    return new Leaf(bitmap);
+  }
+
+  /**
+   * Creates an expression whose value is an immutable bitmap.
+   *
+   * @param bitmap the bitmap
+   * @return the expression
+   */
+  public static BitmapExpression of(final ImmutableRoaringBitmap bitmap) {
+    return new ImmutableLeaf(bitmap);
+  }
+
+  /**
+   * Creates the intersection of expressions.
+   *
+   * @param operands the expressions, at least one
+   * @return the expression
+   */
+  public static BitmapExpression and(final BitmapExpression... operands) {
+    return new Operation(Operation.AND, check(operands));
+  }
+
+  /**
+   * Creates the union of expressions.
+   *
+   * @param operands the expressions, at least one
+   * @return the expression
+   */
+  public static BitmapExpression or(final BitmapExpression... operands) {
+    return new Operation(Operation.OR, check(operands));
+  }
+
+  /**
+   * Creates the difference of two expressions.
+   *
+   * @param minuend the values to keep
+   * @param subtrahend the values to remove
+   * @return the expression
+   */
+  public static BitmapExpression andNot(final BitmapExpression minuend,
+      final BitmapExpression subtrahend) {
+    return new Operation(Operation.ANDNOT, check(minuend, subtrahend));
+  }
+
+  private static BitmapExpression[] check(final BitmapExpression... operands) {
+    if (operands.length == 0) {
+      throw new IllegalArgumentException("An operation needs at least one operand");
+    }
+    for (BitmapExpression operand : operands) {
+      if (operand == null) {
+        throw new NullPointerException("Null operand");
+      }
+    }
+    return operands.clone();
+  }
+
+  /**
+   * Computes the value of the expression.
+   *
+   * @return a new bitmap
+   */
+  public RoaringBitmap evaluate() {
+    final RoaringBitmap answer = new RoaringBitmap();
+    final Cursor cursor = cursor();
+    for (int key = cursor.nextKey(0); key != NO_KEY; key = cursor.nextKey(key + 1)) {
+      final Container container = cursor.evaluate(key);
+      if (container != null) {
+        answer.highLowContainer.append((short) key, container.clone());
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * Computes the cardinality of the value of the expression, without building it: the last
+   * operation on each key only counts the values.
+   *
+   * @return the cardinality
+   */
+  public long cardinality() {
+    long cardinality = 0;
+    final Cursor cursor = cursor();
+    for (int key = cursor.nextKey(0); key != NO_KEY; key = cursor.nextKey(key + 1)) {
+      cardinality += cursor.cardinality(key);
+    }
+    return cardinality;
+  }
+
+  abstract Cursor cursor();
+
+  /**
+   * The state of an evaluation, visiting the keys in increasing order. A cursor is only asked
+   * for the container of a key after its nextKey method returned this key.
+   */
+  abstract static class Cursor {
+
+    /**
+     * @param key a key, at least the previous one
+     * @return the smallest key, at least the given one, whose container may be non-empty, or
+     *     NO_KEY
+     */
+    abstract int nextKey(int key);
+
+    /**
+     * @param key the current key
+     * @return the container of the key, which the caller must not modify nor keep beyond the
+     *     next key, or null if it is empty
+     */
+    abstract Container evaluate(int key);
+
+    /**
+     * @param key the current key
+     * @return the cardinality of the container of the key
+     */
+    int cardinality(int key) {
+      final Container container = evaluate(key);
+      return container == null ? 0 : container.getCardinality();
+    }
+  }
+
+  private static final class Leaf extends BitmapExpression {
+
+    private final RoaringBitmap bitmap;
+
+    Leaf(final RoaringBitmap bitmap) {
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    Cursor cursor() {
+      return new Cursor() {
+        private final RoaringArray array = bitmap.highLowContainer;
+        private int pos = 0;
+
+        @Override
+        int nextKey(final int key) {
+          if (pos < array.size && Util.toIntUnsigned(array.keys[pos]) < key) {
+            pos = array.advanceUntil((short) key, pos);
+          }
+          return pos < array.size ? Util.toIntUnsigned(array.keys[pos]) : NO_KEY;
+        }
+
+        @Override
+        Container evaluate(final int key) {
+          return array.values[pos];
+        }
+      };
+    }
+  }
+
+  private static final class ImmutableLeaf extends BitmapExpression {
+
+    private final ImmutableRoaringBitmap bitmap;
+
+    ImmutableLeaf(final ImmutableRoaringBitmap bitmap) {
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    Cursor cursor() {
+      return new Cursor() {
+        // skips the keys one by one, reading them without decoding their containers
+        private final MappeableContainerPointer pointer = bitmap.getContainerPointer();
+
+        @Override
+        int nextKey(final int key) {
+          while (pointer.hasContainer() && Util.toIntUnsigned(pointer.key()) < key) {
+            pointer.advance();
+          }
+          return pointer.hasContainer() ? Util.toIntUnsigned(pointer.key()) : NO_KEY;
+        }
+
+        @Override
+        Container evaluate(final int key) {
+          return pointer.getContainer().toContainer();
+        }
+
+        @Override
+        int cardinality(final int key) {
+          return pointer.getCardinality();
+        }
+      };
+    }
+  }
+
+  private static final class Operation extends BitmapExpression {
+
+    static final int AND = 0;
+    static final int OR = 1;
+    static final int ANDNOT = 2;
+
+    private final int type;
+    private final BitmapExpression[] operands;
+
+    Operation(final int type, final BitmapExpression[] operands) {
+      this.type = type;
+      this.operands = operands;
+    }
+
+    @Override
+    Cursor cursor() {
+      final Cursor[] cursors = new Cursor[operands.length];
+      for (int i = 0; i < cursors.length; ++i) {
+        cursors[i] = operands[i].cursor();
+      }
+      switch (type) {
+        case AND:
+          return new AndCursor(cursors);
+        case OR:
+          return new OrCursor(cursors);
+        default:
+          return new AndNotCursor(cursors[0], cursors[1]);
+      }
+    }
+  }
+
+  private abstract static class OperationCursor extends Cursor {
+
+    // results of the previous keys, overwritten by the next ones
+    private final Container[] scratch = new Container[2];
+
+    // the containers of the operands may not be overwritten, nor those of the fallbacks of
+    // ContainerRecycler which return one of their operands
+    final Container keep(final int slot, final Container result, final Container x,
+        final Container y) {
+      if (result != x && result != y) {
+        scratch[slot] = result;
+      }
+      return result;
+    }
+
+    final Container scratch(final int slot) {
+      return scratch[slot];
+    }
+  }
+
+  private static final class AndCursor extends OperationCursor {
+
+    private final Cursor[] cursors;
+
+    AndCursor(final Cursor[] cursors) {
+      this.cursors = cursors;
+    }
+
+    @Override
+    int nextKey(final int key) {
+      // leapfrogs until all the operands agree on a key
+      int candidate = key;
+      int agreed = 0;
+      for (int i = 0; agreed < cursors.length; i = (i + 1) % cursors.length) {
+        final int next = cursors[i].nextKey(candidate);
+        if (next == candidate) {
+          ++agreed;
+        } else if (next == NO_KEY) {
+          return NO_KEY;
+        } else {
+          candidate = next;
+          agreed = 1;
+        }
+      }
+      return candidate;
+    }
+
+    // the intersection of all the operands but the last, alternating between the scratch slots
+    private Container evaluate(final int key, final int count) {
+      Container answer = cursors[0].evaluate(key);
+      for (int i = 1, slot = 0; i < count && answer != null; ++i, slot ^= 1) {
+        final Container container = cursors[i].evaluate(key);
+        if (container == null) {
+          return null;
+        }
+        answer = keep(slot, ContainerRecycler.and(answer, container, scratch(slot)), answer,
+            container);
+        if (answer.isEmpty()) {
+          return null;
+        }
+      }
+      return answer;
+    }
+
+    @Override
+    Container evaluate(final int key) {
+      return evaluate(key, cursors.length);
+    }
+
+    @Override
+    int cardinality(final int key) {
+      if (cursors.length == 1) {
+        return cursors[0].cardinality(key);
+      }
+      final Container container = evaluate(key, cursors.length - 1);
+      if (container == null) {
+        return 0;
+      }
+      final Container last = cursors[cursors.length - 1].evaluate(key);
+      return last == null ? 0 : container.andCardinality(last);
+    }
+  }
+
+  private static final class OrCursor extends OperationCursor {
+
+    private final Cursor[] cursors;
+
+    OrCursor(final Cursor[] cursors) {
+      this.cursors = cursors;
+    }
+
+    @Override
+    int nextKey(final int key) {
+      int next = NO_KEY;
+      for (Cursor cursor : cursors) {
+        next = Math.min(next, cursor.nextKey(key));
+      }
+      return next;
+    }
+
+    @Override
+    Container evaluate(final int key) {
+      Container answer = null;
+      int slot = 0;
+      for (Cursor cursor : cursors) {
+        if (cursor.nextKey(key) != key) {
+          continue;
+        }
+        final Container container = cursor.evaluate(key);
+        if (container == null) {
+          continue;
+        }
+        if (answer == null) {
+          answer = container;
+        } else {
+          answer = keep(slot, ContainerRecycler.or(answer, container, scratch(slot)), answer,
+              container);
+          slot ^= 1;
+        }
+      }
+      return answer;
+    }
+
+    @Override
+    int cardinality(final int key) {
+      if (cursors.length != 2) {
+        return super.cardinality(key);
+      }
+      // inclusion-exclusion
+      final Container first = cursors[0].nextKey(key) == key ? cursors[0].evaluate(key) : null;
+      final Container second = cursors[1].nextKey(key) == key ? cursors[1].evaluate(key) : null;
+      if (first == null) {
+        return second == null ? 0 : second.getCardinality();
+      }
+      if (second == null) {
+        return first.getCardinality();
+      }
+      return first.getCardinality() + second.getCardinality() - first.andCardinality(second);
+    }
+  }
+
+  private static final class AndNotCursor extends OperationCursor {
+
+    private final Cursor minuend;
+    private final Cursor subtrahend;
+
+    AndNotCursor(final Cursor minuend, final Cursor subtrahend) {
+      this.minuend = minuend;
+      this.subtrahend = subtrahend;
+    }
+
+    @Override
+    int nextKey(final int key) {
+      return minuend.nextKey(key);
+    }
+
+    @Override
+    Container evaluate(final int key) {
+      final Container kept = minuend.evaluate(key);
+      if (kept == null || subtrahend.nextKey(key) != key) {
+        return kept;
+      }
+      final Container removed = subtrahend.evaluate(key);
+      if (removed == null) {
+        return kept;
+      }
+      final Container answer =
+          keep(0, ContainerRecycler.andNot(kept, removed, scratch(0)), kept, removed);
+      return answer.isEmpty() ? null : answer;
+    }
+
+    @Override
+    int cardinality(final int key) {
+      final Container kept = minuend.evaluate(key);
+      if (kept == null) {
+        return 0;
+      }
+      if (subtrahend.nextKey(key) != key) {
+        return kept.getCardinality();
+      }
+      final Container removed = subtrahend.evaluate(key);
+      return removed == null
+          ? kept.getCardinality() : kept.getCardinality() - kept.andCardinality(removed);
+    }
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A thread-safe bitmap for read-mostly workloads. The readers never block: each read works on
+ * a snapshot of the bitmap, published atomically by the writers. A writer copies the key and
+ * container arrays, which only hold references, and the containers it modifies: an update
+ * touching a single container costs one container copy, whatever the size of the bitmap.
+ * The writers are serialized.
+ *
+ * <pre>
+ * {@code
+ *      ConcurrentRoaringBitmap index = new ConcurrentRoaringBitmap();
+ *      // writer threads
+ *      index.add(17);
+ *      index.or(batch);
+ *      // reader threads, never blocked by the writers
+ *      boolean found = index.contains(17);
+ *      ImmutableBitmapDataProvider snapshot = index.snapshot();
+ *      snapshot.forEach(...);
+ * }
+ * </pre>
+ *
+ * An iteration, or a sequence of reads on the same {@link #snapshot()}, sees a consistent state
+ * of the bitmap, ignoring the later updates. Each read method of this class takes the latest
+ * snapshot.
+ */
+public class ConcurrentRoaringBitmap implements ImmutableBitmapDataProvider {
+
+  // never modified once published: the writers copy what they change
+  private volatile RoaringBitmap current;
+
+  private final Object writeLock = new Object();
+
+  /**
+   * Create an empty bitmap.
+   */
+  public ConcurrentRoaringBitmap() {
+    this.current = new RoaringBitmap();
+  }
+
+  /**
+   * Create a bitmap holding a copy of the values of another.
+   *
+   * @param bitmap the values
+   */
+  public ConcurrentRoaringBitmap(RoaringBitmap bitmap) {
+    this.current = bitmap.clone();
+  }
+
+  /**
+   * Returns the current state of the bitmap, which later updates do not modify. The snapshot
+   * must not be modified either, by casting it: it shares its containers with the later
+   * snapshots.
+   *
+   * @return the current state of the bitmap
+   */
+  public ImmutableBitmapDataProvider snapshot() {
+    return current;
+  }
+
+  /**
+   * @return a modifiable copy of the current state of the bitmap
+   */
+  public RoaringBitmap toRoaringBitmap() {
+    return current.clone();
+  }
+
+  /**
+   * Add the value to the container (set the value to "true"), whether it already appears or
+   * not.
+   *
+   * @param x integer value
+   */
+  public void add(int x) {
+    checkedAdd(x);
+  }
+
+  /**
+   * Add the integer element to the bitmap.
+   *
+   * @param x integer value
+   * @return true if the value was added, false if it was already present
+   */
+  public boolean checkedAdd(int x) {
+    final short hb = Util.highbits(x);
+    final short lb = Util.lowbits(x);
+    synchronized (writeLock) {
+      final RoaringArray array = current.highLowContainer;
+      final int i = array.getIndex(hb);
+      if (i >= 0) {
+        final Container container = array.values[i];
+        if (container.contains(lb)) {
+          return false;
+        }
+        publish(replace(array, i, container.clone().add(lb)));
+      } else {
+        publish(insert(array, -i - 1, hb, new ArrayContainer().add(lb)));
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Add the integers to the bitmap, publishing them at once.
+   *
+   * @param dat set values
+   */
+  public void add(int... dat) {
+    or(RoaringBitmap.bitmapOf(dat));
+  }
+
+  /**
+   * Add to the bitmap all the values in a range, publishing them at once.
+   *
+   * @param rangeStart inclusive beginning of range
+   * @param rangeEnd exclusive ending of range
+   */
+  public void add(long rangeStart, long rangeEnd) {
+    final RoaringBitmap range = new RoaringBitmap();
+    range.add(rangeStart, rangeEnd);
+    or(range);
+  }
+
+  /**
+   * If present remove the specified integer (effectively, sets its bit value to false)
+   *
+   * @param x integer value representing the index in a bitmap
+   */
+  public void remove(int x) {
+    checkedRemove(x);
+  }
+
+  /**
+   * Remove the integer element from the bitmap.
+   *
+   * @param x integer value
+   * @return true if the value was removed, false if it was not present
+   */
+  public boolean checkedRemove(int x) {
+    final short hb = Util.highbits(x);
+    final short lb = Util.lowbits(x);
+    synchronized (writeLock) {
+      final RoaringArray array = current.highLowContainer;
+      final int i = array.getIndex(hb);
+      if (i < 0 || !array.values[i].contains(lb)) {
+        return false;
+      }
+      final Container container = array.values[i].clone().remove(lb);
+      publish(container.isEmpty() ? delete(array, i) : replace(array, i, container));
+      return true;
+    }
+  }
+
+  /**
+   * Remove from the bitmap all the values in a range, publishing the removal at once.
+   *
+   * @param rangeStart inclusive beginning of range
+   * @param rangeEnd exclusive ending of range
+   */
+  public void remove(long rangeStart, long rangeEnd) {
+    final RoaringBitmap range = new RoaringBitmap();
+    range.add(rangeStart, rangeEnd);
+    andNot(range);
+  }
+
+  /**
+   * Add all the values of a bitmap, publishing them at once. Only the containers whose keys
+   * appear in the other bitmap are copied.
+   *
+   * @param x2 other bitmap, which is not modified
+   */
+  public void or(RoaringBitmap x2) {
+    synchronized (writeLock) {
+      final RoaringArray array1 = current.highLowContainer;
+      final RoaringArray array2 = x2.highLowContainer;
+      final RoaringArray answer = new RoaringArray(new short[array1.size + array2.size],
+          new Container[array1.size + array2.size], 0);
+      int pos1 = 0, pos2 = 0;
+      while (pos1 < array1.size && pos2 < array2.size) {
+        final short s1 = array1.keys[pos1];
+        final short s2 = array2.keys[pos2];
+        if (s1 == s2) {
+          answer.append(s1, detach(array1.values[pos1].or(array2.values[pos2]),
+              array2.values[pos2]));
+          ++pos1;
+          ++pos2;
+        } else if (Util.compareUnsigned(s1, s2) < 0) {
+          answer.append(s1, array1.values[pos1++]);
+        } else {
+          answer.append(s2, array2.values[pos2++].clone());
+        }
+      }
+      while (pos1 < array1.size) {
+        answer.append(array1.keys[pos1], array1.values[pos1++]);
+      }
+      while (pos2 < array2.size) {
+        answer.append(array2.keys[pos2], array2.values[pos2++].clone());
+      }
+      publish(answer);
+    }
+  }
+
+  /**
+   * Remove all the values of a bitmap, publishing the removal at once. Only the containers
+   * whose keys appear in the other bitmap are copied.
+   *
+   * @param x2 other bitmap, which is not modified
+   */
+  public void andNot(RoaringBitmap x2) {
+    synchronized (writeLock) {
+      final RoaringArray array1 = current.highLowContainer;
+      final RoaringArray array2 = x2.highLowContainer;
+      final RoaringArray answer =
+          new RoaringArray(new short[array1.size], new Container[array1.size], 0);
+      int pos1 = 0, pos2 = 0;
+      while (pos1 < array1.size) {
+        final short s1 = array1.keys[pos1];
+        if (pos2 < array2.size && Util.compareUnsigned(array2.keys[pos2], s1) < 0) {
+          pos2 = array2.advanceUntil(s1, pos2);
+          continue;
+        }
+        final Container c1 = array1.values[pos1++];
+        if (pos2 < array2.size && array2.keys[pos2] == s1) {
+          final Container c = detach(c1.andNot(array2.values[pos2]), array2.values[pos2]);
+          if (!c.isEmpty()) {
+            answer.append(s1, c);
+          }
+        } else {
+          answer.append(s1, c1);
+        }
+      }
+      publish(answer);
+    }
+  }
+
+  /**
+   * Remove all the values.
+   */
+  public void clear() {
+    synchronized (writeLock) {
+      publish(new RoaringArray());
+    }
+  }
+
+  // the containers of the other bitmaps may be modified after the update
+  private static Container detach(Container result, Container other) {
+    return result == other ? other.clone() : result;
+  }
+
+  private void publish(RoaringArray array) {
+    current = new RoaringBitmap(array);
+  }
+
+  private static RoaringArray replace(RoaringArray array, int i, Container container) {
+    final Container[] values = Arrays.copyOf(array.values, array.size);
+    values[i] = container;
+    return new RoaringArray(Arrays.copyOf(array.keys, array.size), values, array.size);
+  }
+
+  private static RoaringArray insert(RoaringArray array, int i, short key, Container container) {
+    final short[] keys = new short[array.size + 1];
+    final Container[] values = new Container[array.size + 1];
+    System.arraycopy(array.keys, 0, keys, 0, i);
+    System.arraycopy(array.values, 0, values, 0, i);
+    keys[i] = key;
+    values[i] = container;
+    System.arraycopy(array.keys, i, keys, i + 1, array.size - i);
+    System.arraycopy(array.values, i, values, i + 1, array.size - i);
+    return new RoaringArray(keys, values, array.size + 1);
+  }
+
+  private static RoaringArray delete(RoaringArray array, int i) {
+    final short[] keys = new short[array.size - 1];
+    final Container[] values = new Container[array.size - 1];
+    System.arraycopy(array.keys, 0, keys, 0, i);
+    System.arraycopy(array.values, 0, values, 0, i);
+    System.arraycopy(array.keys, i + 1, keys, i, array.size - i - 1);
+    System.arraycopy(array.values, i + 1, values, i, array.size - i - 1);
+    return new RoaringArray(keys, values, array.size - 1);
+  }
+
+  @Override
+  public boolean contains(int x) {
+    return current.contains(x);
+  }
+
+  @Override
+  public int getCardinality() {
+    return current.getCardinality();
+  }
+
+  @Override
+  public long getLongCardinality() {
+    return current.getLongCardinality();
+  }
+
+  @Override
+  public void forEach(IntConsumer ic) {
+    current.forEach(ic);
+  }
+
+  @Override
+  public PeekableIntIterator getIntIterator() {
+    return current.getIntIterator();
+  }
+
+  @Override
+  public IntIterator getReverseIntIterator() {
+    return current.getReverseIntIterator();
+  }
+
+  @Override
+  public BatchIterator getBatchIterator() {
+    return current.getBatchIterator();
+  }
+
+  @Override
+  public int getSizeInBytes() {
+    return current.getSizeInBytes();
+  }
+
+  @Override
+  public long getLongSizeInBytes() {
+    return current.getLongSizeInBytes();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return current.isEmpty();
+  }
+
+  @Override
+  public RoaringBitmap limit(int x) {
+    return current.limit(x);
+  }
+
+  @Override
+  public int rank(int x) {
+    return current.rank(x);
+  }
+
+  @Override
+  public long rankLong(int x) {
+    return current.rankLong(x);
+  }
+
+  @Override
+  public long rangeCardinality(long start, long end) {
+    return current.rangeCardinality(start, end);
+  }
+
+  @Override
+  public int select(int j) {
+    return current.select(j);
+  }
+
+  @Override
+  public int first() {
+    return current.first();
+  }
+
+  @Override
+  public int last() {
+    return current.last();
+  }
+
+  @Override
+  public long nextValue(int fromValue) {
+    return current.nextValue(fromValue);
+  }
+
+  @Override
+  public long previousValue(int fromValue) {
+    return current.previousValue(fromValue);
+  }
+
+  @Override
+  public void serialize(DataOutput out) throws IOException {
+    current.serialize(out);
+  }
+
+  @Override
+  public int serializedSizeInBytes() {
+    return current.serializedSizeInBytes();
+  }
+
+  @Override
+  public int[] toArray() {
+    return current.toArray();
+  }
+
+  @Override
+  public String toString() {
+    return current.toString();
+  }
+}
@@ -8,6 +8,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 
 import org.roaringbitmap.buffer.MappeableContainer;
@@ -832,6 +833,14 @@ public abstract class Container implements Iterable<Short>, Cloneable, Externali
    */
   protected abstract void writeArray(DataOutput out) throws IOException;
 
+  /**
+   * Write just the underlying array, at the position of a little endian ByteBuffer which is
+   * advanced past the written bytes.
+   *
+   * @param buffer ByteBuffer to write to, in little endian order
+   */
+  protected abstract void writeArray(ByteBuffer buffer);
+
 
   /**
    * Computes the bitwise XOR of this container with another (symmetric difference). This container
@@ -898,6 +907,18 @@ public abstract class Container implements Iterable<Short>, Cloneable, Externali
    */
   public abstract int previousValue(short fromValue);
 
+  /**
+   * Clear, in a 1024-word bitmap, the bits which are not in this container.
+   * @param bits the 65536 bits to intersect with this container
+   */
+  abstract void andInto(long[] bits);
+
+  /**
+   * Set, in a 1024-word bitmap, the bits which are in this container.
+   * @param bits the 65536 bits to unite with this container
+   */
+  abstract void orInto(long[] bits);
+
   /**
    * Get the first integer held in the container
    * @return the first integer in the container
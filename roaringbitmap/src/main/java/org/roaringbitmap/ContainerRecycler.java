@@ -0,0 +1,278 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap;
+
+/**
+ * Binary container operations writing their result into a recycled container, when its type
+ * and size fit the result, instead of a new one. They produce the same kind of container as
+ * the corresponding methods of {@link Container}, to which they fall back when a run container
+ * is involved. The recycled container, which may be null, must not be one of the operands, nor
+ * be used elsewhere: its content is overwritten.
+ */
+final class ContainerRecycler {
+
+  private ContainerRecycler() {
+  }
+
+  private static ArrayContainer array(Container recycled, int capacity) {
+    if (recycled instanceof ArrayContainer
+        && ((ArrayContainer) recycled).content.length >= capacity) {
+      return (ArrayContainer) recycled;
+    }
+    return new ArrayContainer(capacity);
+  }
+
+  // the words of the result are all overwritten by the caller
+  private static BitmapContainer bitmap(Container recycled) {
+    return recycled instanceof BitmapContainer
+        ? (BitmapContainer) recycled : new BitmapContainer();
+  }
+
+  private static BitmapContainer copy(BitmapContainer source, Container recycled) {
+    BitmapContainer answer = bitmap(recycled);
+    System.arraycopy(source.bitmap, 0, answer.bitmap, 0, source.bitmap.length);
+    answer.cardinality = source.cardinality;
+    return answer;
+  }
+
+  /**
+   * Copies a container.
+   *
+   * @param source the container to copy
+   * @param recycled the container to overwrite, or null
+   * @return a copy of the source
+   */
+  static Container copy(Container source, Container recycled) {
+    if (source instanceof BitmapContainer) {
+      return copy((BitmapContainer) source, recycled);
+    }
+    if (source instanceof ArrayContainer) {
+      ArrayContainer array = (ArrayContainer) source;
+      ArrayContainer answer = array(recycled, array.cardinality);
+      System.arraycopy(array.content, 0, answer.content, 0, array.cardinality);
+      answer.cardinality = array.cardinality;
+      return answer;
+    }
+    RunContainer run = (RunContainer) source;
+    if (recycled instanceof RunContainer
+        && ((RunContainer) recycled).valueslength.length >= 2 * run.nbrruns) {
+      RunContainer answer = (RunContainer) recycled;
+      System.arraycopy(run.valueslength, 0, answer.valueslength, 0, 2 * run.nbrruns);
+      answer.nbrruns = run.nbrruns;
+      return answer;
+    }
+    return run.clone();
+  }
+
+  /**
+   * Computes the intersection of two containers.
+   *
+   * @param c1 first container
+   * @param c2 second container
+   * @param recycled the container to overwrite, or null
+   * @return the intersection, possibly empty
+   */
+  static Container and(Container c1, Container c2, Container recycled) {
+    if (c1 instanceof BitmapContainer && c2 instanceof BitmapContainer) {
+      long[] b1 = ((BitmapContainer) c1).bitmap;
+      long[] b2 = ((BitmapContainer) c2).bitmap;
+      int cardinality = BitmapKernels.andCardinality(b1, b2);
+      if (cardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
+        BitmapContainer answer = bitmap(recycled);
+        BitmapKernels.and(b1, b2, answer.bitmap);
+        answer.cardinality = cardinality;
+        return answer;
+      }
+      ArrayContainer answer = array(recycled, cardinality);
+      Util.fillArrayAND(answer.content, b1, b2);
+      answer.cardinality = cardinality;
+      return answer;
+    }
+    if (c1 instanceof ArrayContainer && c2 instanceof ArrayContainer) {
+      ArrayContainer a1 = (ArrayContainer) c1;
+      ArrayContainer a2 = (ArrayContainer) c2;
+      ArrayContainer answer = array(recycled, Math.min(a1.cardinality, a2.cardinality));
+      answer.cardinality = Util.unsignedIntersect2by2(a1.content, a1.cardinality, a2.content,
+          a2.cardinality, answer.content);
+      return answer;
+    }
+    if (c1 instanceof ArrayContainer && c2 instanceof BitmapContainer) {
+      return filter((ArrayContainer) c1, (BitmapContainer) c2, true, recycled);
+    }
+    if (c1 instanceof BitmapContainer && c2 instanceof ArrayContainer) {
+      return filter((ArrayContainer) c2, (BitmapContainer) c1, true, recycled);
+    }
+    return c1.and(c2);
+  }
+
+  /**
+   * Computes the difference of two containers.
+   *
+   * @param c1 first container
+   * @param c2 second container
+   * @param recycled the container to overwrite, or null
+   * @return the difference, possibly empty
+   */
+  static Container andNot(Container c1, Container c2, Container recycled) {
+    if (c1 instanceof BitmapContainer && c2 instanceof BitmapContainer) {
+      long[] b1 = ((BitmapContainer) c1).bitmap;
+      long[] b2 = ((BitmapContainer) c2).bitmap;
+      int cardinality = BitmapKernels.andNotCardinality(b1, b2);
+      if (cardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
+        BitmapContainer answer = bitmap(recycled);
+        BitmapKernels.andNot(b1, b2, answer.bitmap);
+        answer.cardinality = cardinality;
+        return answer;
+      }
+      ArrayContainer answer = array(recycled, cardinality);
+      Util.fillArrayANDNOT(answer.content, b1, b2);
+      answer.cardinality = cardinality;
+      return answer;
+    }
+    if (c1 instanceof ArrayContainer && c2 instanceof ArrayContainer) {
+      ArrayContainer a1 = (ArrayContainer) c1;
+      ArrayContainer a2 = (ArrayContainer) c2;
+      ArrayContainer answer = array(recycled, a1.cardinality);
+      answer.cardinality = Util.unsignedDifference(a1.content, a1.cardinality, a2.content,
+          a2.cardinality, answer.content);
+      return answer;
+    }
+    if (c1 instanceof ArrayContainer && c2 instanceof BitmapContainer) {
+      return filter((ArrayContainer) c1, (BitmapContainer) c2, false, recycled);
+    }
+    if (c1 instanceof BitmapContainer && c2 instanceof ArrayContainer) {
+      BitmapContainer answer = copy((BitmapContainer) c1, recycled);
+      ArrayContainer a2 = (ArrayContainer) c2;
+      for (int k = 0; k < a2.cardinality; ++k) {
+        int v = Util.toIntUnsigned(a2.content[k]);
+        long w = answer.bitmap[v >>> 6];
+        long aft = w & (~(1L << v));
+        answer.bitmap[v >>> 6] = aft;
+        answer.cardinality -= (w ^ aft) >>> v;
+      }
+      return answer.cardinality <= ArrayContainer.DEFAULT_MAX_SIZE
+          ? answer.toArrayContainerAndRecycle() : answer;
+    }
+    return c1.andNot(c2);
+  }
+
+  /**
+   * Computes the union of two containers.
+   *
+   * @param c1 first container
+   * @param c2 second container
+   * @param recycled the container to overwrite, or null
+   * @return the union
+   */
+  static Container or(Container c1, Container c2, Container recycled) {
+    if (c1 instanceof BitmapContainer && c2 instanceof BitmapContainer) {
+      BitmapContainer answer = bitmap(recycled);
+      answer.cardinality = BitmapKernels.or(((BitmapContainer) c1).bitmap,
+          ((BitmapContainer) c2).bitmap, answer.bitmap);
+      return answer.isFull() ? RunContainer.full() : answer;
+    }
+    if (c1 instanceof ArrayContainer && c2 instanceof ArrayContainer) {
+      ArrayContainer a1 = (ArrayContainer) c1;
+      ArrayContainer a2 = (ArrayContainer) c2;
+      if (a1.cardinality + a2.cardinality <= ArrayContainer.DEFAULT_MAX_SIZE) {
+        ArrayContainer answer = array(recycled, a1.cardinality + a2.cardinality);
+        answer.cardinality = Util.unsignedUnion2by2(a1.content, 0, a1.cardinality,
+            a2.content, 0, a2.cardinality, answer.content);
+        return answer;
+      }
+      return a1.or(a2);
+    }
+    if (c1 instanceof ArrayContainer && c2 instanceof BitmapContainer) {
+      return or((BitmapContainer) c2, (ArrayContainer) c1, recycled);
+    }
+    if (c1 instanceof BitmapContainer && c2 instanceof ArrayContainer) {
+      return or((BitmapContainer) c1, (ArrayContainer) c2, recycled);
+    }
+    return c1.or(c2);
+  }
+
+  private static Container or(BitmapContainer c1, ArrayContainer c2, Container recycled) {
+    BitmapContainer answer = copy(c1, recycled);
+    for (int k = 0; k < c2.cardinality; ++k) {
+      int v = Util.toIntUnsigned(c2.content[k]);
+      long w = answer.bitmap[v >>> 6];
+      long aft = w | (1L << v);
+      answer.bitmap[v >>> 6] = aft;
+      answer.cardinality += (w - aft) >>> 63;
+    }
+    return answer.isFull() ? RunContainer.full() : answer;
+  }
+
+  /**
+   * Computes the symmetric difference of two containers.
+   *
+   * @param c1 first container
+   * @param c2 second container
+   * @param recycled the container to overwrite, or null
+   * @return the symmetric difference, possibly empty
+   */
+  static Container xor(Container c1, Container c2, Container recycled) {
+    if (c1 instanceof BitmapContainer && c2 instanceof BitmapContainer) {
+      long[] b1 = ((BitmapContainer) c1).bitmap;
+      long[] b2 = ((BitmapContainer) c2).bitmap;
+      int cardinality = BitmapKernels.xorCardinality(b1, b2);
+      if (cardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
+        BitmapContainer answer = bitmap(recycled);
+        BitmapKernels.xor(b1, b2, answer.bitmap);
+        answer.cardinality = cardinality;
+        return answer;
+      }
+      ArrayContainer answer = array(recycled, cardinality);
+      Util.fillArrayXOR(answer.content, b1, b2);
+      answer.cardinality = cardinality;
+      return answer;
+    }
+    if (c1 instanceof ArrayContainer && c2 instanceof ArrayContainer) {
+      ArrayContainer a1 = (ArrayContainer) c1;
+      ArrayContainer a2 = (ArrayContainer) c2;
+      if (a1.cardinality + a2.cardinality <= ArrayContainer.DEFAULT_MAX_SIZE) {
+        ArrayContainer answer = array(recycled, a1.cardinality + a2.cardinality);
+        answer.cardinality = Util.unsignedExclusiveUnion2by2(a1.content, a1.cardinality,
+            a2.content, a2.cardinality, answer.content);
+        return answer;
+      }
+      return a1.xor(a2);
+    }
+    if (c1 instanceof ArrayContainer && c2 instanceof BitmapContainer) {
+      return xor((BitmapContainer) c2, (ArrayContainer) c1, recycled);
+    }
+    if (c1 instanceof BitmapContainer && c2 instanceof ArrayContainer) {
+      return xor((BitmapContainer) c1, (ArrayContainer) c2, recycled);
+    }
+    return c1.xor(c2);
+  }
+
+  private static Container xor(BitmapContainer c1, ArrayContainer c2, Container recycled) {
+    BitmapContainer answer = copy(c1, recycled);
+    for (int k = 0; k < c2.cardinality; ++k) {
+      int v = Util.toIntUnsigned(c2.content[k]);
+      long w = answer.bitmap[v >>> 6];
+      answer.cardinality += 1 - 2 * (int) ((w >>> v) & 1);
+      answer.bitmap[v >>> 6] = w ^ (1L << v);
+    }
+    return answer.cardinality <= ArrayContainer.DEFAULT_MAX_SIZE
+        ? answer.toArrayContainerAndRecycle() : answer;
+  }
+
+  // the values of the array which are, or are not, in the bitmap
+  private static ArrayContainer filter(ArrayContainer values, BitmapContainer bitmap,
+      boolean in, Container recycled) {
+    ArrayContainer answer = array(recycled, values.cardinality);
+    int pos = 0;
+    for (int k = 0; k < values.cardinality; ++k) {
+      short v = values.content[k];
+      if (bitmap.contains(v) == in) {
+        answer.content[pos++] = v;
+      }
+    }
+    answer.cardinality = pos;
+    return answer;
+  }
+}
@@ -25,25 +25,273 @@ public final class FastAggregation {
   /**
    * Compute the AND aggregate.
    *
-   * In practice, calls {#link naive_and}
+   * In practice, calls {#link workShyAnd}
    *
    * @param bitmaps input bitmaps
    * @return aggregated bitmap
    */
   public static RoaringBitmap and(Iterator<? extends RoaringBitmap> bitmaps) {
-    return naive_and(bitmaps);
+    List<RoaringBitmap> list = new ArrayList<>();
+    while (bitmaps.hasNext()) {
+      list.add(bitmaps.next());
+    }
+    return and(list.toArray(new RoaringBitmap[0]));
   }
 
   /**
    * Compute the AND aggregate.
    *
-   * In practice, calls {#link naive_and}
+   * In practice, calls {#link workShyAnd}
    *
    * @param bitmaps input bitmaps
    * @return aggregated bitmap
    */
   public static RoaringBitmap and(RoaringBitmap... bitmaps) {
-    return naive_and(bitmaps);
+    switch (bitmaps.length) {
+      case 0:
+        return new RoaringBitmap();
+      case 1:
+        return bitmaps[0].clone();
+      case 2:
+        return RoaringBitmap.and(bitmaps[0], bitmaps[1]);
+      default:
+        return workShyAnd(new long[1024], bitmaps);
+    }
+  }
+
+  /**
+   * Compute the AND aggregate, doing as little work as possible.
+   *
+   * The keys shared by all the bitmaps are found first. Then, for each of them, the containers
+   * are intersected in the provided buffer and a single container is emitted, so that no
+   * intermediate bitmap or container is allocated. The buffer can be reused across calls.
+   *
+   * @param buffer scratch space, of length 1024, overwritten by this method
+   * @param bitmaps input bitmaps
+   * @return aggregated bitmap
+   */
+  public static RoaringBitmap workShyAnd(long[] buffer, RoaringBitmap... bitmaps) {
+    if (buffer.length != 1024) {
+      throw new IllegalArgumentException("The buffer must hold 1024 words");
+    }
+    if (bitmaps.length == 0) {
+      return new RoaringBitmap();
+    }
+    int maxKeys = Integer.MAX_VALUE;
+    for (RoaringBitmap bitmap : bitmaps) {
+      maxKeys = Math.min(maxKeys, bitmap.highLowContainer.size);
+    }
+    if (maxKeys == 0) {
+      return new RoaringBitmap();
+    }
+    // positions[i][j] is the index in bitmaps[i] of the j-th shared key
+    final int[][] positions = new int[bitmaps.length][maxKeys];
+    final int numKeys = intersectKeys(bitmaps, positions);
+    final RoaringArray first = bitmaps[0].highLowContainer;
+    final short[] keys = new short[numKeys];
+    final Container[] values = new Container[numKeys];
+    int size = 0;
+    for (int j = 0; j < numKeys; ++j) {
+      Arrays.fill(buffer, 0L);
+      first.values[positions[0][j]].orInto(buffer);
+      for (int i = 1; i < bitmaps.length; ++i) {
+        bitmaps[i].highLowContainer.values[positions[i][j]].andInto(buffer);
+      }
+      Container container = toContainer(buffer);
+      if (container != null) {
+        keys[size] = first.keys[positions[0][j]];
+        values[size] = container;
+        ++size;
+      }
+    }
+    return new RoaringBitmap(new RoaringArray(keys, values, size));
+  }
+
+  // gallops all the bitmaps to their shared keys, returns their number
+  private static int intersectKeys(RoaringBitmap[] bitmaps, int[][] positions) {
+    final int[] cursors = new int[bitmaps.length];
+    int numKeys = 0;
+    int key = Util.toIntUnsigned(bitmaps[0].highLowContainer.keys[0]);
+    while (true) {
+      boolean aligned = true;
+      for (int i = 0; i < bitmaps.length; ++i) {
+        RoaringArray array = bitmaps[i].highLowContainer;
+        if (Util.toIntUnsigned(array.keys[cursors[i]]) < key) {
+          cursors[i] = array.advanceUntil((short) key, cursors[i]);
+          if (cursors[i] == array.size) {
+            return numKeys;
+          }
+        }
+        int currentKey = Util.toIntUnsigned(array.keys[cursors[i]]);
+        if (currentKey > key) {
+          key = currentKey;
+          aligned = false;
+        }
+      }
+      if (aligned) {
+        for (int i = 0; i < bitmaps.length; ++i) {
+          positions[i][numKeys] = cursors[i];
+        }
+        ++numKeys;
+        for (int i = 0; i < bitmaps.length; ++i) {
+          if (++cursors[i] == bitmaps[i].highLowContainer.size) {
+            return numKeys;
+          }
+        }
+        key = Util.toIntUnsigned(bitmaps[0].highLowContainer.keys[cursors[0]]);
+      }
+    }
+  }
+
+  // copies the bits out of the buffer into the smallest container, or null if there is none
+  private static Container toContainer(long[] words) {
+    int cardinality = popcount(words);
+    if (cardinality == 0) {
+      return null;
+    }
+    if (cardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
+      return new BitmapContainer(words.clone(), cardinality);
+    }
+    short[] content = new short[cardinality];
+    int pos = 0;
+    for (int i = 0; i < words.length; ++i) {
+      long word = words[i];
+      while (word != 0) {
+        content[pos++] = (short) ((i << 6) + Long.numberOfTrailingZeros(word));
+        word &= word - 1;
+      }
+    }
+    return new ArrayContainer(content);
+  }
+
+  /**
+   * Compute the cardinality of the AND aggregate, without materializing it.
+   *
+   * Only the containers whose key is shared by all the bitmaps are visited, and they are
+   * intersected in a single scratch buffer of 1024 words, so no container is allocated.
+   *
+   * @param bitmaps input bitmaps
+   * @return the cardinality of the intersection
+   */
+  public static int andCardinality(RoaringBitmap... bitmaps) {
+    switch (bitmaps.length) {
+      case 0:
+        return 0;
+      case 1:
+        return bitmaps[0].getCardinality();
+      case 2:
+        return RoaringBitmap.andCardinality(bitmaps[0], bitmaps[1]);
+      default:
+        break;
+    }
+    for (RoaringBitmap bitmap : bitmaps) {
+      if (bitmap.highLowContainer.size == 0) {
+        return 0;
+      }
+    }
+    final long[] words = new long[1024];
+    final int[] positions = new int[bitmaps.length];
+    int cardinality = 0;
+    int key = Util.toIntUnsigned(bitmaps[0].highLowContainer.keys[0]);
+    while (true) {
+      // gallop every bitmap to the largest key seen so far
+      boolean aligned = true;
+      for (int i = 0; i < bitmaps.length; ++i) {
+        RoaringArray array = bitmaps[i].highLowContainer;
+        if (Util.toIntUnsigned(array.keys[positions[i]]) < key) {
+          positions[i] = array.advanceUntil((short) key, positions[i]);
+          if (positions[i] == array.size) {
+            return cardinality;
+          }
+        }
+        int currentKey = Util.toIntUnsigned(array.keys[positions[i]]);
+        if (currentKey > key) {
+          key = currentKey;
+          aligned = false;
+        }
+      }
+      if (aligned) {
+        Arrays.fill(words, 0L);
+        bitmaps[0].highLowContainer.values[positions[0]].orInto(words);
+        for (int i = 1; i < bitmaps.length; ++i) {
+          bitmaps[i].highLowContainer.values[positions[i]].andInto(words);
+        }
+        cardinality += popcount(words);
+        for (int i = 0; i < bitmaps.length; ++i) {
+          if (++positions[i] == bitmaps[i].highLowContainer.size) {
+            return cardinality;
+          }
+        }
+        key = Util.toIntUnsigned(bitmaps[0].highLowContainer.keys[positions[0]]);
+      }
+    }
+  }
+
+  /**
+   * Compute the cardinality of the OR aggregate, without materializing it.
+   *
+   * Keys present in a single bitmap contribute the cardinality of their container, the others
+   * are united in a single scratch buffer of 1024 words, so no container is allocated.
+   *
+   * @param bitmaps input bitmaps
+   * @return the cardinality of the union
+   */
+  public static int orCardinality(RoaringBitmap... bitmaps) {
+    switch (bitmaps.length) {
+      case 0:
+        return 0;
+      case 1:
+        return bitmaps[0].getCardinality();
+      case 2:
+        return RoaringBitmap.orCardinality(bitmaps[0], bitmaps[1]);
+      default:
+        break;
+    }
+    final long[] words = new long[1024];
+    final int[] positions = new int[bitmaps.length];
+    int cardinality = 0;
+    while (true) {
+      int minKey = 1 << 16;
+      int count = 0;
+      int last = -1;
+      for (int i = 0; i < bitmaps.length; ++i) {
+        RoaringArray array = bitmaps[i].highLowContainer;
+        if (positions[i] < array.size) {
+          int key = Util.toIntUnsigned(array.keys[positions[i]]);
+          if (key < minKey) {
+            minKey = key;
+            count = 1;
+            last = i;
+          } else if (key == minKey) {
+            ++count;
+            last = i;
+          }
+        }
+      }
+      if (count == 0) {
+        return cardinality;
+      }
+      if (count == 1) {
+        cardinality += bitmaps[last].highLowContainer.values[positions[last]++].getCardinality();
+        continue;
+      }
+      Arrays.fill(words, 0L);
+      for (int i = 0; i <= last; ++i) {
+        RoaringArray array = bitmaps[i].highLowContainer;
+        if (positions[i] < array.size && Util.toIntUnsigned(array.keys[positions[i]]) == minKey) {
+          array.values[positions[i]++].orInto(words);
+        }
+      }
+      cardinality += popcount(words);
+    }
+  }
+
+  private static int popcount(long[] words) {
+    int cardinality = 0;
+    for (long word : words) {
+      cardinality += Long.bitCount(word);
+    }
+    return cardinality;
   }
 
   /**
@@ -103,7 +351,7 @@ public final class FastAggregation {
           break;
         }
       }
-      newc = newc.repairAfterLazy();
+      newc = BitmapContainerPool.repairAfterLazy(newc);
       answer.highLowContainer.append(x1.key(), newc);
       x1.advance();
       if (x1.getContainer() != null) {
@@ -162,7 +410,7 @@ public final class FastAggregation {
           break;
         }
       }
-      newc = newc.repairAfterLazy();
+      newc = BitmapContainerPool.repairAfterLazy(newc);
       answer.highLowContainer.append(x1.key(), newc);
       x1.advance();
       if (x1.getContainer() != null) {
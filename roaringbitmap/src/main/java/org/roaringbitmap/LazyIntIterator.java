@@ -0,0 +1,333 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy views of the intersection, union or difference of iterators, such as those of
+ * {@link RoaringBitmap#getIntIterator()}. The values are computed as they are consumed, the
+ * iterators of an intersection or a difference skipping ahead of each other with
+ * {@link PeekableIntIterator#advanceIfNeeded(int)}: taking a page of the values costs in
+ * proportion to the page, rather than to the whole result.
+ *
+ * <pre>
+ * {@code
+ *      PeekableIntIterator it = LazyIntIterator.and(a.getIntIterator(), b.getIntIterator());
+ *      it.advanceIfNeeded(pageStart);
+ *      for (int k = 0; k < pageSize && it.hasNext(); ++k) {
+ *        int value = it.next();
+ *        // ...
+ *      }
+ * }
+ * </pre>
+ *
+ * The values come in ascending unsigned order, like those of a bitmap. The views take
+ * ownership of their iterators, which must not be used elsewhere.
+ */
+public abstract class LazyIntIterator implements PeekableIntIterator {
+
+  LazyIntIterator() {
+  }
+
+  /**
+   * Creates a view of the values found in all the iterators.
+   *
+   * @param iterators the iterators, at least one
+   * @return the intersection
+   */
+  public static LazyIntIterator and(PeekableIntIterator... iterators) {
+    return new And(check(iterators));
+  }
+
+  /**
+   * Creates a view of the values found in any of the iterators.
+   *
+   * @param iterators the iterators, at least one
+   * @return the union
+   */
+  public static LazyIntIterator or(PeekableIntIterator... iterators) {
+    return new Or(check(iterators));
+  }
+
+  /**
+   * Creates a view of the values of an iterator which are not found in another.
+   *
+   * @param kept the values to keep
+   * @param removed the values to remove
+   * @return the difference
+   */
+  public static LazyIntIterator andNot(PeekableIntIterator kept, PeekableIntIterator removed) {
+    PeekableIntIterator[] iterators = check(kept, removed);
+    return new AndNot(iterators[0], iterators[1]);
+  }
+
+  private static PeekableIntIterator[] check(PeekableIntIterator... iterators) {
+    if (iterators.length == 0) {
+      throw new IllegalArgumentException("At least one iterator is needed");
+    }
+    for (PeekableIntIterator iterator : iterators) {
+      if (iterator == null) {
+        throw new NullPointerException("Null iterator");
+      }
+    }
+    return iterators.clone();
+  }
+
+  private static PeekableIntIterator[] cloneAll(PeekableIntIterator[] iterators) {
+    PeekableIntIterator[] clones = new PeekableIntIterator[iterators.length];
+    for (int i = 0; i < iterators.length; ++i) {
+      clones[i] = iterators[i].clone();
+    }
+    return clones;
+  }
+
+  /**
+   * Creates a batch iterator over the remaining values, which consumes this iterator.
+   *
+   * @return the batch iterator
+   */
+  public BatchIterator batchIterator() {
+    return new Batches(this);
+  }
+
+  @Override
+  public abstract LazyIntIterator clone();
+
+  private static final class Batches implements BatchIterator {
+
+    private LazyIntIterator iterator;
+
+    Batches(LazyIntIterator iterator) {
+      this.iterator = iterator;
+    }
+
+    @Override
+    public int nextBatch(int[] buffer) {
+      int count = 0;
+      while (count < buffer.length && iterator.hasNext()) {
+        buffer[count++] = iterator.next();
+      }
+      return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return iterator.hasNext();
+    }
+
+    @Override
+    public BatchIterator clone() {
+      return new Batches(iterator.clone());
+    }
+  }
+
+  private static final class And extends LazyIntIterator {
+
+    private final PeekableIntIterator[] iterators;
+    // whether all the iterators are positioned on the same value, or one of them is exhausted
+    private boolean aligned;
+    private boolean exhausted;
+
+    And(PeekableIntIterator[] iterators) {
+      this.iterators = iterators;
+    }
+
+    private void align() {
+      if (aligned) {
+        return;
+      }
+      aligned = true;
+      if (!iterators[0].hasNext()) {
+        exhausted = true;
+        return;
+      }
+      int candidate = iterators[0].peekNext();
+      int agreed = 1;
+      for (int i = 1; agreed < iterators.length; ++i) {
+        PeekableIntIterator iterator = iterators[i % iterators.length];
+        iterator.advanceIfNeeded(candidate);
+        if (!iterator.hasNext()) {
+          exhausted = true;
+          return;
+        }
+        int value = iterator.peekNext();
+        if (value == candidate) {
+          ++agreed;
+        } else {
+          candidate = value;
+          agreed = 1;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      align();
+      return !exhausted;
+    }
+
+    @Override
+    public int peekNext() {
+      align();
+      if (exhausted) {
+        throw new NoSuchElementException();
+      }
+      return iterators[0].peekNext();
+    }
+
+    @Override
+    public int next() {
+      align();
+      if (exhausted) {
+        throw new NoSuchElementException();
+      }
+      int value = 0;
+      for (PeekableIntIterator iterator : iterators) {
+        value = iterator.next();
+      }
+      aligned = false;
+      return value;
+    }
+
+    @Override
+    public void advanceIfNeeded(int minval) {
+      if (exhausted) {
+        return;
+      }
+      for (PeekableIntIterator iterator : iterators) {
+        iterator.advanceIfNeeded(minval);
+      }
+      aligned = false;
+    }
+
+    @Override
+    public LazyIntIterator clone() {
+      And clone = new And(cloneAll(iterators));
+      clone.aligned = aligned;
+      clone.exhausted = exhausted;
+      return clone;
+    }
+  }
+
+  // merges the iterators by scanning them all for each value, unions having few operands
+  private static final class Or extends LazyIntIterator {
+
+    private final PeekableIntIterator[] iterators;
+
+    Or(PeekableIntIterator[] iterators) {
+      this.iterators = iterators;
+    }
+
+    @Override
+    public boolean hasNext() {
+      for (PeekableIntIterator iterator : iterators) {
+        if (iterator.hasNext()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public int peekNext() {
+      boolean found = false;
+      int min = 0;
+      for (PeekableIntIterator iterator : iterators) {
+        if (iterator.hasNext()) {
+          int value = iterator.peekNext();
+          if (!found || Integer.compareUnsigned(value, min) < 0) {
+            min = value;
+            found = true;
+          }
+        }
+      }
+      if (!found) {
+        throw new NoSuchElementException();
+      }
+      return min;
+    }
+
+    @Override
+    public int next() {
+      int min = peekNext();
+      for (PeekableIntIterator iterator : iterators) {
+        if (iterator.hasNext() && iterator.peekNext() == min) {
+          iterator.next();
+        }
+      }
+      return min;
+    }
+
+    @Override
+    public void advanceIfNeeded(int minval) {
+      for (PeekableIntIterator iterator : iterators) {
+        iterator.advanceIfNeeded(minval);
+      }
+    }
+
+    @Override
+    public LazyIntIterator clone() {
+      return new Or(cloneAll(iterators));
+    }
+  }
+
+  private static final class AndNot extends LazyIntIterator {
+
+    private final PeekableIntIterator kept;
+    private final PeekableIntIterator removed;
+
+    AndNot(PeekableIntIterator kept, PeekableIntIterator removed) {
+      this.kept = kept;
+      this.removed = removed;
+    }
+
+    // skips the values to remove
+    private void align() {
+      while (kept.hasNext()) {
+        int value = kept.peekNext();
+        removed.advanceIfNeeded(value);
+        if (!removed.hasNext() || removed.peekNext() != value) {
+          return;
+        }
+        kept.next();
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      align();
+      return kept.hasNext();
+    }
+
+    @Override
+    public int peekNext() {
+      align();
+      if (!kept.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return kept.peekNext();
+    }
+
+    @Override
+    public int next() {
+      align();
+      if (!kept.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return kept.next();
+    }
+
+    @Override
+    public void advanceIfNeeded(int minval) {
+      kept.advanceIfNeeded(minval);
+    }
+
+    @Override
+    public LazyIntIterator clone() {
+      return new AndNot(kept.clone(), removed.clone());
+    }
+  }
+}
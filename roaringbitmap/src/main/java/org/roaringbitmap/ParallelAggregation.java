@@ -1,8 +1,11 @@
 package org.roaringbitmap;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -15,15 +18,19 @@ import static org.roaringbitmap.Util.compareUnsigned;
 /**
  *
  * These utility methods provide parallel implementations of
- * logical aggregation operators. AND is not implemented
- * because it is unlikely to be profitable.
+ * logical aggregation operators. The keys are independent, so
+ * they are aggregated by different tasks. AND and ANDNOT only
+ * aggregate the keys which can be in their result: those of all
+ * the bitmaps for AND, and those of the first bitmap for ANDNOT.
  *
  * There is a temporary memory overhead in using these methods,
  * since a materialisation of the rotated containers grouped by key
  * is created in each case.
  *
  * Each method executes on the default fork join pool by default.
- * If this is undesirable (it usually is) wrap the call inside
+ * If this is undesirable (it usually is) use the overloads taking
+ * a {@link ForkJoinPool} or an {@link Executor}, along with the
+ * number of keys aggregated by each task, or wrap the call inside
  * a submission of a runnable to your own thread pool.
  *
  * <pre>
@@ -34,21 +41,23 @@ import static org.roaringbitmap.Util.compareUnsigned;
  *       ExecutorService executor = ...
  *       RoaringBitmap[] bitmaps = ...
  *       // executes on executors threads
- *       RoaringBitmap result = executor.submit(() -> ParallelAggregation.or(bitmaps)).get();
+ *       RoaringBitmap result = ParallelAggregation.or(executor, 16, bitmaps);
  * }
  * </pre>
  */
 public class ParallelAggregation {
 
-  private static final Collector<Map.Entry<Short,List<Container>>, RoaringArray, RoaringBitmap> XOR
-          = new ContainerCollector(ParallelAggregation::xor);
-
   private static final OrCollector OR = new OrCollector();
 
   /**
    * Collects containers grouped by their key into a RoaringBitmap, applying the
    * supplied aggregation function to each group.
+   *
+   * @deprecated the aggregations no longer collect the groups of
+   *             {@link ParallelAggregation#groupByKey}, but reduce the slices of a counting sort
+   *             of the containers by key
    */
+  @Deprecated
   public static class ContainerCollector implements
           Collector<Map.Entry<Short,List<Container>>, RoaringArray, RoaringBitmap> {
 
@@ -136,45 +145,74 @@ public class ParallelAggregation {
    * @return The containers from the bitmaps grouped by key
    */
   public static SortedMap<Short, List<Container>> groupByKey(RoaringBitmap... bitmaps) {
-    Map<Short, List<Container>> grouped = new HashMap<>();
+    KeyGroups groups = group(bitmaps);
+    SortedMap<Short, List<Container>> sorted = new TreeMap<>(Util::compareUnsigned);
+    for (int i = 0; i < groups.keys.length; ++i) {
+      sorted.put(groups.keys[i], new ArrayList<>(Arrays.asList(groups.slices[i])));
+    }
+    return sorted;
+  }
+
+  /**
+   * Containers grouped by key, the keys in ascending unsigned order.
+   */
+  private static final class KeyGroups {
+
+    final short[] keys;
+    final Container[][] slices;
+
+    KeyGroups(short[] keys, Container[][] slices) {
+      this.keys = keys;
+      this.slices = slices;
+    }
+  }
+
+  /**
+   * Groups the containers by their keys with a counting sort over the 2^16 possible keys,
+   * the containers of each key in the order of the bitmaps.
+   */
+  private static KeyGroups group(RoaringBitmap... bitmaps) {
+    int[] counts = new int[1 << 16];
     for (RoaringBitmap bitmap : bitmaps) {
       RoaringArray ra = bitmap.highLowContainer;
       for (int i = 0; i < ra.size; ++i) {
-        Container container = ra.values[i];
-        Short key = ra.keys[i];
-        List<Container> slice = grouped.get(key);
-        if (null == slice) {
-          slice = new ArrayList<>();
-          grouped.put(key, slice);
-        }
-        slice.add(container);
+        ++counts[Util.toIntUnsigned(ra.keys[i])];
       }
     }
-    SortedMap<Short, List<Container>> sorted = new TreeMap<>(Util::compareUnsigned);
-    sorted.putAll(grouped);
-    return sorted;
+    int distinct = 0;
+    for (int count : counts) {
+      if (count != 0) {
+        ++distinct;
+      }
+    }
+    short[] keys = new short[distinct];
+    Container[][] slices = new Container[distinct][];
+    // from now on, counts holds the index of the slice of each key
+    for (int key = 0, slice = 0; slice < distinct; ++key) {
+      if (counts[key] != 0) {
+        keys[slice] = (short) key;
+        slices[slice] = new Container[counts[key]];
+        counts[key] = slice++;
+      }
+    }
+    int[] filled = new int[distinct];
+    for (RoaringBitmap bitmap : bitmaps) {
+      RoaringArray ra = bitmap.highLowContainer;
+      for (int i = 0; i < ra.size; ++i) {
+        int slice = counts[Util.toIntUnsigned(ra.keys[i])];
+        slices[slice][filled[slice]++] = ra.values[i];
+      }
+    }
+    return new KeyGroups(keys, slices);
   }
 
-
   /**
    * Computes the bitwise union of the input bitmaps
    * @param bitmaps the input bitmaps
    * @return the union of the bitmaps
    */
   public static RoaringBitmap or(RoaringBitmap... bitmaps) {
-    SortedMap<Short, List<Container>> grouped = groupByKey(bitmaps);
-    short[] keys = new short[grouped.size()];
-    Container[] values = new Container[grouped.size()];
-    List<List<Container>> slices = new ArrayList<>(grouped.size());
-    int i = 0;
-    for (Map.Entry<Short, List<Container>> slice : grouped.entrySet()) {
-      keys[i++] = slice.getKey();
-      slices.add(slice.getValue());
-    }
-    IntStream.range(0, i)
-             .parallel()
-             .forEach(position -> values[position] = or(slices.get(position)));
-    return new RoaringBitmap(new RoaringArray(keys, values, i));
+    return aggregate(ParallelAggregation::or, group(bitmaps));
   }
 
   /**
@@ -183,10 +221,316 @@ public class ParallelAggregation {
    * @return the symmetric difference of the bitmaps
    */
   public static RoaringBitmap xor(RoaringBitmap... bitmaps) {
-    return groupByKey(bitmaps)
-            .entrySet()
-            .parallelStream()
-            .collect(XOR);
+    return aggregate(ParallelAggregation::xor, group(bitmaps));
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static RoaringBitmap and(RoaringBitmap... bitmaps) {
+    return aggregate(ParallelAggregation::and, intersectKeys(bitmaps));
+  }
+
+  /**
+   * Computes the bitwise difference of the first bitmap and the others
+   * @param minuend the bitmap whose values are kept
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the difference of the bitmaps
+   */
+  public static RoaringBitmap andNot(RoaringBitmap minuend, RoaringBitmap... subtrahends) {
+    return aggregate(ParallelAggregation::andNot, subtractKeys(minuend, subtrahends));
+  }
+
+  /**
+   * Computes the bitwise union of the input bitmaps on the supplied pool
+   * @param pool the pool executing the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the union of the bitmaps
+   */
+  public static RoaringBitmap or(ForkJoinPool pool, int grainSize, RoaringBitmap... bitmaps) {
+    return aggregate(pool, grainSize, ParallelAggregation::or, bitmaps);
+  }
+
+  /**
+   * Computes the bitwise union of the input bitmaps on the supplied executor.
+   * Unless the executor is a {@link ForkJoinPool}, the containers sharing a key
+   * are aggregated by a single task.
+   * @param executor the executor running the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the union of the bitmaps
+   */
+  public static RoaringBitmap or(Executor executor, int grainSize, RoaringBitmap... bitmaps) {
+    return aggregate(executor, grainSize, executor instanceof ForkJoinPool
+        ? ParallelAggregation::or : ParallelAggregation::orSequential, bitmaps);
+  }
+
+  /**
+   * Computes the bitwise symmetric difference of the input bitmaps on the supplied pool
+   * @param pool the pool executing the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the symmetric difference of the bitmaps
+   */
+  public static RoaringBitmap xor(ForkJoinPool pool, int grainSize, RoaringBitmap... bitmaps) {
+    return aggregate(pool, grainSize, ParallelAggregation::xor, bitmaps);
+  }
+
+  /**
+   * Computes the bitwise symmetric difference of the input bitmaps on the supplied executor
+   * @param executor the executor running the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the symmetric difference of the bitmaps
+   */
+  public static RoaringBitmap xor(Executor executor, int grainSize, RoaringBitmap... bitmaps) {
+    return aggregate(executor, grainSize, ParallelAggregation::xor, bitmaps);
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps on the supplied pool
+   * @param pool the pool executing the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static RoaringBitmap and(ForkJoinPool pool, int grainSize, RoaringBitmap... bitmaps) {
+    return and((Executor) pool, grainSize, bitmaps);
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps on the supplied executor
+   * @param executor the executor running the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static RoaringBitmap and(Executor executor, int grainSize, RoaringBitmap... bitmaps) {
+    checkGrainSize(grainSize);
+    return aggregate(executor, grainSize, ParallelAggregation::and, intersectKeys(bitmaps));
+  }
+
+  /**
+   * Computes the bitwise difference of the first bitmap and the others on the supplied pool
+   * @param pool the pool executing the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param minuend the bitmap whose values are kept
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the difference of the bitmaps
+   */
+  public static RoaringBitmap andNot(ForkJoinPool pool, int grainSize, RoaringBitmap minuend,
+          RoaringBitmap... subtrahends) {
+    return andNot((Executor) pool, grainSize, minuend, subtrahends);
+  }
+
+  /**
+   * Computes the bitwise difference of the first bitmap and the others on the supplied executor
+   * @param executor the executor running the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param minuend the bitmap whose values are kept
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the difference of the bitmaps
+   */
+  public static RoaringBitmap andNot(Executor executor, int grainSize, RoaringBitmap minuend,
+          RoaringBitmap... subtrahends) {
+    checkGrainSize(grainSize);
+    return aggregate(executor, grainSize, ParallelAggregation::andNot,
+        subtractKeys(minuend, subtrahends));
+  }
+
+  private static void checkGrainSize(int grainSize) {
+    if (grainSize < 1) {
+      throw new IllegalArgumentException("grainSize must be positive: " + grainSize);
+    }
+  }
+
+  /**
+   * Groups the containers of the keys present in all the bitmaps, the key-intersection
+   * prefilter of the AND aggregation.
+   */
+  private static KeyGroups intersectKeys(RoaringBitmap... bitmaps) {
+    if (bitmaps.length == 0) {
+      return new KeyGroups(new short[0], new Container[0][]);
+    }
+    RoaringArray smallest = bitmaps[0].highLowContainer;
+    for (RoaringBitmap bitmap : bitmaps) {
+      if (bitmap.highLowContainer.size < smallest.size) {
+        smallest = bitmap.highLowContainer;
+      }
+    }
+    short[] keys = new short[smallest.size];
+    Container[][] slices = new Container[smallest.size][];
+    // the index of the last key of each bitmap smaller than the current key
+    int[] positions = new int[bitmaps.length];
+    Arrays.fill(positions, -1);
+    int size = 0;
+    candidates:
+    for (int i = 0; i < smallest.size; ++i) {
+      short key = smallest.keys[i];
+      Container[] slice = new Container[bitmaps.length];
+      for (int j = 0; j < bitmaps.length; ++j) {
+        RoaringArray ra = bitmaps[j].highLowContainer;
+        int position = ra.advanceUntil(key, positions[j]);
+        if (position == ra.size) {
+          break candidates;
+        }
+        if (ra.keys[position] != key) {
+          positions[j] = position - 1;
+          continue candidates;
+        }
+        positions[j] = position;
+        slice[j] = ra.values[position];
+      }
+      keys[size] = key;
+      slices[size++] = slice;
+    }
+    return new KeyGroups(Arrays.copyOf(keys, size), Arrays.copyOf(slices, size));
+  }
+
+  /**
+   * Groups the containers of the keys of the minuend, followed by those of the subtrahends.
+   */
+  private static KeyGroups subtractKeys(RoaringBitmap minuend, RoaringBitmap... subtrahends) {
+    RoaringArray kept = minuend.highLowContainer;
+    Container[][] slices = new Container[kept.size][];
+    Container[] found = new Container[1 + subtrahends.length];
+    int[] positions = new int[subtrahends.length];
+    Arrays.fill(positions, -1);
+    for (int i = 0; i < kept.size; ++i) {
+      short key = kept.keys[i];
+      found[0] = kept.values[i];
+      int count = 1;
+      for (int j = 0; j < subtrahends.length; ++j) {
+        RoaringArray ra = subtrahends[j].highLowContainer;
+        int position = ra.advanceUntil(key, positions[j]);
+        if (position < ra.size && ra.keys[position] == key) {
+          positions[j] = position;
+          found[count++] = ra.values[position];
+        } else {
+          positions[j] = position - 1;
+        }
+      }
+      slices[i] = Arrays.copyOf(found, count);
+    }
+    return new KeyGroups(Arrays.copyOf(kept.keys, kept.size), slices);
+  }
+
+  private static RoaringBitmap aggregate(Function<List<Container>, Container> reducer,
+          KeyGroups groups) {
+    Container[][] slices = groups.slices;
+    Container[] values = new Container[slices.length];
+    IntStream.range(0, slices.length)
+             .parallel()
+             .forEach(position -> values[position] =
+                     reducer.apply(Arrays.asList(slices[position])));
+    return toBitmap(groups.keys, values, values.length);
+  }
+
+  private static RoaringBitmap aggregate(Executor executor, int grainSize,
+          Function<List<Container>, Container> reducer, RoaringBitmap... bitmaps) {
+    checkGrainSize(grainSize);
+    return aggregate(executor, grainSize, reducer, group(bitmaps));
+  }
+
+  private static RoaringBitmap aggregate(Executor executor, int grainSize,
+          Function<List<Container>, Container> reducer, KeyGroups groups) {
+    Container[][] slices = groups.slices;
+    int size = slices.length;
+    Container[] values = new Container[size];
+    if (executor instanceof ForkJoinPool) {
+      ((ForkJoinPool) executor).invoke(
+          new ReduceTask(reducer, slices, values, 0, size, grainSize));
+    } else {
+      CompletableFuture<?>[] tasks = new CompletableFuture<?>[(size + grainSize - 1) / grainSize];
+      for (int i = 0; i < tasks.length; ++i) {
+        final int from = i * grainSize;
+        final int to = Math.min(size, from + grainSize);
+        tasks[i] = CompletableFuture.runAsync(
+            () -> reduce(reducer, slices, values, from, to), executor);
+      }
+      CompletableFuture.allOf(tasks).join();
+    }
+    return toBitmap(groups.keys, values, size);
+  }
+
+  private static RoaringBitmap toBitmap(short[] keys, Container[] values, int size) {
+    int nonEmpty = 0;
+    for (int i = 0; i < size; ++i) {
+      if (!values[i].isEmpty()) {
+        keys[nonEmpty] = keys[i];
+        values[nonEmpty++] = values[i];
+      }
+    }
+    return new RoaringBitmap(new RoaringArray(keys, values, nonEmpty));
+  }
+
+  private static void reduce(Function<List<Container>, Container> reducer,
+          Container[][] slices, Container[] values, int from, int to) {
+    for (int position = from; position < to; ++position) {
+      values[position] = reducer.apply(Arrays.asList(slices[position]));
+    }
+  }
+
+  /**
+   * Splits the keys in halves until no more than grainSize remain.
+   */
+  private static final class ReduceTask extends RecursiveAction {
+
+    private final Function<List<Container>, Container> reducer;
+    private final Container[][] slices;
+    private final Container[] values;
+    private final int from;
+    private final int to;
+    private final int grainSize;
+
+    ReduceTask(Function<List<Container>, Container> reducer, Container[][] slices,
+               Container[] values, int from, int to, int grainSize) {
+      this.reducer = reducer;
+      this.slices = slices;
+      this.values = values;
+      this.from = from;
+      this.to = to;
+      this.grainSize = grainSize;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grainSize) {
+        reduce(reducer, slices, values, from, to);
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new ReduceTask(reducer, slices, values, from, middle, grainSize),
+                  new ReduceTask(reducer, slices, values, middle, to, grainSize));
+      }
+    }
+  }
+
+  private static Container and(List<Container> containers) {
+    // starts from the smallest container, the result being at most as large
+    int smallest = 0;
+    for (int i = 1; i < containers.size(); ++i) {
+      if (containers.get(i).getCardinality() < containers.get(smallest).getCardinality()) {
+        smallest = i;
+      }
+    }
+    Container result = containers.get(smallest).clone();
+    for (int i = 0; i < containers.size() && !result.isEmpty(); ++i) {
+      if (i != smallest) {
+        result = result.iand(containers.get(i));
+      }
+    }
+    return result;
+  }
+
+  private static Container andNot(List<Container> containers) {
+    Container result = containers.get(0).clone();
+    for (int i = 1; i < containers.size() && !result.isEmpty(); ++i) {
+      result = result.iandNot(containers.get(i));
+    }
+    return result;
   }
 
   private static Container xor(List<Container> containers) {
@@ -199,6 +543,19 @@ public class ParallelAggregation {
 
   private static Container or(List<Container> containers) {
     int parallelism;
+    if (containers.size() < 512 || (parallelism = availableParallelism()) == 1) {
+      return orSequential(containers);
+    }
+    // we have an enormous slice (probably skewed), parallelise it
+    int partitionSize = (containers.size() + parallelism - 1) / parallelism;
+    return IntStream.range(0, parallelism)
+            .parallel()
+            .mapToObj(i -> containers.subList(i * partitionSize,
+                    Math.min((i + 1) * partitionSize, containers.size())))
+            .collect(OR);
+  }
+
+  private static Container orSequential(List<Container> containers) {
     // if there are few enough containers it's possible no bitmaps will be materialised
     if (containers.size() < 16) {
       Container result = containers.get(0).clone();
@@ -208,20 +565,11 @@ public class ParallelAggregation {
       return result.repairAfterLazy();
     }
     // heuristic to save memory if the union is large and likely to end up as a bitmap
-    if (containers.size() < 512 || (parallelism = availableParallelism()) == 1) {
-      Container result = new BitmapContainer(new long[1 << 10], -1);
-      for (Container container : containers) {
-        result = result.lazyIOR(container);
-      }
-      return result.repairAfterLazy();
+    Container result = new BitmapContainer(new long[1 << 10], -1);
+    for (Container container : containers) {
+      result = result.lazyIOR(container);
     }
-    // we have an enormous slice (probably skewed), parallelise it
-    int partitionSize = (containers.size() + parallelism - 1) / parallelism;
-    return IntStream.range(0, parallelism)
-            .parallel()
-            .mapToObj(i -> containers.subList(i * partitionSize,
-                    Math.min((i + 1) * partitionSize, containers.size())))
-            .collect(OR);
+    return result.repairAfterLazy();
   }
 
   private static int availableParallelism() {
@@ -6,9 +6,11 @@ package org.roaringbitmap;
 
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.NoSuchElementException;
 
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
 import static org.roaringbitmap.Util.compareUnsigned;
 import static org.roaringbitmap.Util.toIntUnsigned;
 
@@ -345,6 +347,226 @@ public final class RoaringArray implements Cloneable, Externalizable, Appendable
     }
   }
 
+  /**
+   * Deserialize, recycling the current containers: the container found at a given position is
+   * overwritten in place when the container read at this position has the same type and fits in
+   * its array. The whole input, the header included, is read in chunks through the provided
+   * scratch buffer, so that deserializing repeatedly into the same bitmap allocates little memory.
+   *
+   * The containers must not be shared with another bitmap.
+   *
+   * @param in the DataInput stream
+   * @param buffer scratch space of at least 8 bytes, overwritten by this method
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void deserialize(DataInput in, byte[] buffer) throws IOException {
+    if (buffer.length < 8) {
+      throw new IllegalArgumentException("The buffer must hold at least 8 bytes");
+    }
+    final ByteBuffer scratch = ByteBuffer.wrap(buffer).order(LITTLE_ENDIAN);
+    final Container[] previous = this.values;
+    final int previousSize = this.size;
+    // little endian
+    final int cookie = Integer.reverseBytes(in.readInt());
+    if ((cookie & 0xFFFF) != SERIAL_COOKIE && cookie != SERIAL_COOKIE_NO_RUNCONTAINER) {
+      this.clear();
+      throw new InvalidRoaringFormat("I failed to find a valid cookie.");
+    }
+    final boolean hasrun = (cookie & 0xFFFF) == SERIAL_COOKIE;
+    final int size = hasrun ? (cookie >>> 16) + 1 : Integer.reverseBytes(in.readInt());
+    // logically we cannot have more than (1<<16) containers.
+    if (size > (1 << 16)) {
+      this.clear();
+      throw new InvalidRoaringFormat("Size too large");
+    }
+    if ((this.keys == null) || (this.keys.length < size)) {
+      this.keys = new short[size];
+      this.values = new Container[size];
+    }
+    this.size = 0;
+
+    // The run markers and the header are decoded through the scratch buffer, and what they tell
+    // is kept in the containers themselves: first each position gets a run container if and only
+    // if it is marked as such
+    final int chunk = buffer.length;
+    for (int k = 0; k < size; ++k) {
+      this.values[k] = k < previousSize ? previous[k] : null;
+    }
+    final int markerBytes = hasrun ? (size + 7) / 8 : 0;
+    for (int offset = 0; offset < markerBytes; offset += chunk) {
+      final int count = Math.min(chunk, markerBytes - offset);
+      in.readFully(buffer, 0, count);
+      for (int k = 8 * offset; k < Math.min(size, 8 * (offset + count)); ++k) {
+        final boolean isRun = (buffer[k / 8 - offset] & (1 << (k % 8))) != 0;
+        if (isRun != (this.values[k] instanceof RunContainer)) {
+          this.values[k] = isRun ? new RunContainer(new short[0], 0) : null;
+        }
+      }
+    }
+    if (!hasrun) {
+      for (int k = 0; k < size; ++k) {
+        if (this.values[k] instanceof RunContainer) {
+          this.values[k] = null;
+        }
+      }
+    }
+    // then the keys and cardinalities, interleaved, give the type and the cardinality of the
+    // other containers
+    final int entries = chunk / 4;
+    for (int offset = 0; offset < size; offset += entries) {
+      final int count = Math.min(entries, size - offset);
+      in.readFully(buffer, 0, 4 * count);
+      for (int i = 0; i < count; ++i) {
+        final int k = offset + i;
+        this.keys[k] = scratch.getShort(4 * i);
+        final Container container = this.values[k];
+        if (container instanceof RunContainer) {
+          continue;
+        }
+        final int cardinality = 1 + toIntUnsigned(scratch.getShort(4 * i + 2));
+        if (cardinality > ArrayContainer.DEFAULT_MAX_SIZE) {
+          BitmapContainer bc = container instanceof BitmapContainer
+              ? (BitmapContainer) container : new BitmapContainer();
+          bc.cardinality = cardinality;
+          this.values[k] = bc;
+        } else {
+          ArrayContainer ac;
+          if (container instanceof ArrayContainer
+              && ((ArrayContainer) container).content.length >= cardinality) {
+            ac = (ArrayContainer) container;
+          } else {
+            ac = new ArrayContainer(new short[cardinality]);
+          }
+          ac.cardinality = cardinality;
+          this.values[k] = ac;
+        }
+      }
+    }
+    if ((!hasrun) || (size >= NO_OFFSET_THRESHOLD)) {
+      // skipping the offsets
+      in.skipBytes(size * 4);
+    }
+    // Reading the containers
+    for (int k = 0; k < size; ++k) {
+      final Container container = this.values[k];
+      if (container instanceof RunContainer) {
+        // cf RunContainer.writeArray()
+        final RunContainer rc = (RunContainer) container;
+        rc.nbrruns = toIntUnsigned(Short.reverseBytes(in.readShort()));
+        if (rc.valueslength.length < 2 * rc.nbrruns) {
+          rc.valueslength = new short[2 * rc.nbrruns];
+        }
+        readShorts(in, scratch, rc.valueslength, 2 * rc.nbrruns);
+      } else if (container instanceof BitmapContainer) {
+        final BitmapContainer bc = (BitmapContainer) container;
+        readLongs(in, scratch, bc.bitmap, bc.bitmap.length);
+      } else {
+        final ArrayContainer ac = (ArrayContainer) container;
+        readShorts(in, scratch, ac.content, ac.cardinality);
+      }
+    }
+    this.size = size;
+    if (previousSize > size && this.values == previous) {
+      Arrays.fill(this.values, size, previousSize, null);
+    }
+  }
+
+  private static void readShorts(DataInput in, ByteBuffer scratch, short[] dest, int length)
+      throws IOException {
+    final int chunk = scratch.capacity() >>> 1;
+    for (int offset = 0; offset < length; offset += chunk) {
+      int count = Math.min(chunk, length - offset);
+      in.readFully(scratch.array(), 0, 2 * count);
+      scratch.clear();
+      scratch.asShortBuffer().get(dest, offset, count);
+    }
+  }
+
+  private static void readLongs(DataInput in, ByteBuffer scratch, long[] dest, int length)
+      throws IOException {
+    final int chunk = scratch.capacity() >>> 3;
+    for (int offset = 0; offset < length; offset += chunk) {
+      int count = Math.min(chunk, length - offset);
+      in.readFully(scratch.array(), 0, 8 * count);
+      scratch.clear();
+      scratch.asLongBuffer().get(dest, offset, count);
+    }
+  }
+
+  /**
+   * Deserialize, starting at the position of the ByteBuffer, which is then advanced past the
+   * serialized bitmap. The payloads of the containers are bulk-copied.
+   *
+   * @param bbf the byte buffer (can be mapped, direct, array backed etc.)
+   */
+  public void deserialize(ByteBuffer bbf) {
+    this.clear();
+    final ByteBuffer buffer = bbf.order() == LITTLE_ENDIAN ? bbf : bbf.slice().order(LITTLE_ENDIAN);
+    final int cookie = buffer.getInt();
+    if ((cookie & 0xFFFF) != SERIAL_COOKIE && cookie != SERIAL_COOKIE_NO_RUNCONTAINER) {
+      throw new InvalidRoaringFormat("I failed to find a valid cookie.");
+    }
+    boolean hasrun = (cookie & 0xFFFF) == SERIAL_COOKIE;
+    this.size = hasrun ? (cookie >>> 16) + 1 : buffer.getInt();
+    // logically we cannot have more than (1<<16) containers.
+    if (this.size > (1 << 16)) {
+      throw new InvalidRoaringFormat("Size too large");
+    }
+    if ((this.keys == null) || (this.keys.length < this.size)) {
+      this.keys = new short[this.size];
+      this.values = new Container[this.size];
+    }
+
+    byte[] bitmapOfRunContainers = null;
+    if (hasrun) {
+      bitmapOfRunContainers = new byte[(size + 7) / 8];
+      buffer.get(bitmapOfRunContainers);
+    }
+
+    final short[] keys = new short[this.size];
+    final int[] cardinalities = new int[this.size];
+    final boolean[] isBitmap = new boolean[this.size];
+    for (int k = 0; k < this.size; ++k) {
+      keys[k] = buffer.getShort();
+      cardinalities[k] = 1 + (0xFFFF & buffer.getShort());
+      isBitmap[k] = cardinalities[k] > ArrayContainer.DEFAULT_MAX_SIZE;
+      if (bitmapOfRunContainers != null && (bitmapOfRunContainers[k / 8] & (1 << (k % 8))) != 0) {
+        isBitmap[k] = false;
+      }
+    }
+    if ((!hasrun) || (this.size >= NO_OFFSET_THRESHOLD)) {
+      // skipping the offsets
+      buffer.position(buffer.position() + this.size * 4);
+    }
+    // Reading the containers
+    for (int k = 0; k < this.size; ++k) {
+      Container val;
+      if (isBitmap[k]) {
+        final long[] bitmapArray = new long[BitmapContainer.MAX_CAPACITY / 64];
+        buffer.asLongBuffer().get(bitmapArray);
+        buffer.position(buffer.position() + bitmapArray.length * 8);
+        val = new BitmapContainer(bitmapArray, cardinalities[k]);
+      } else if (bitmapOfRunContainers != null
+          && ((bitmapOfRunContainers[k / 8] & (1 << (k % 8))) != 0)) {
+        int nbrruns = toIntUnsigned(buffer.getShort());
+        final short[] lengthsAndValues = new short[2 * nbrruns];
+        buffer.asShortBuffer().get(lengthsAndValues);
+        buffer.position(buffer.position() + lengthsAndValues.length * 2);
+        val = new RunContainer(lengthsAndValues, nbrruns);
+      } else {
+        final short[] shortArray = new short[cardinalities[k]];
+        buffer.asShortBuffer().get(shortArray);
+        buffer.position(buffer.position() + shortArray.length * 2);
+        val = new ArrayContainer(shortArray);
+      }
+      this.keys[k] = keys[k];
+      this.values[k] = val;
+    }
+    if (buffer != bbf) {
+      bbf.position(bbf.position() + buffer.position());
+    }
+  }
+
   @Override
   public boolean equals(Object o) {
     if (o instanceof RoaringArray) {
@@ -364,6 +586,43 @@ public final class RoaringArray implements Cloneable, Externalizable, Appendable
     return false;
   }
 
+  /**
+   * While the array is being rewritten from position 0, returns the container which used to be
+   * at the next position, so that it can be recycled.
+   *
+   * @param previousSize the size of the array before it was rewritten
+   * @return the container at the next position, or null
+   */
+  Container recycled(int previousSize) {
+    return size < previousSize ? values[size] : null;
+  }
+
+  /**
+   * While the array is being rewritten from position 0, appends copies of a range of
+   * containers, recycling the containers found at their new positions.
+   *
+   * @param previousSize the size of the array before it was rewritten
+   * @param source the array to copy from
+   * @param startingIndex starting index in the source
+   * @param end last index (exclusive) in the source
+   */
+  void appendRecycledCopies(int previousSize, RoaringArray source, int startingIndex, int end) {
+    for (int i = startingIndex; i < end; ++i) {
+      append(source.keys[i], ContainerRecycler.copy(source.values[i], recycled(previousSize)));
+    }
+  }
+
+  /**
+   * Ends the rewriting of the array, dropping the containers which were not recycled.
+   *
+   * @param previousSize the size of the array before it was rewritten
+   */
+  void dropRecycled(int previousSize) {
+    if (previousSize > size) {
+      Arrays.fill(values, size, previousSize, null);
+    }
+  }
+
   // make sure there is capacity for at least k more elements
   protected void extendArray(int k) {
     // size + 1 could overflow
@@ -606,6 +865,59 @@ public final class RoaringArray implements Cloneable, Externalizable, Appendable
     }
   }
 
+  /**
+   * Serialize, starting at the position of the ByteBuffer, which is then advanced past the
+   * serialized bitmap. The payloads of the containers are bulk-copied.
+   *
+   * @param buffer the ByteBuffer, with at least serializedSizeInBytes() remaining bytes
+   */
+  public void serialize(ByteBuffer buffer) {
+    final ByteBuffer buf = buffer.order() == LITTLE_ENDIAN
+        ? buffer : buffer.slice().order(LITTLE_ENDIAN);
+    int startOffset;
+    boolean hasrun = hasRunContainer();
+    if (hasrun) {
+      buf.putInt(SERIAL_COOKIE | ((size - 1) << 16));
+      int offset = buf.position();
+      for (int i = 0; i < size; i += 8) {
+        int runMarker = 0;
+        for (int j = 0; j < 8 && i + j < size; ++j) {
+          if (values[i + j] instanceof RunContainer) {
+            runMarker |= (1 << j);
+          }
+        }
+        buf.put((byte) runMarker);
+      }
+      int runMarkersLength = buf.position() - offset;
+      if (this.size < NO_OFFSET_THRESHOLD) {
+        startOffset = 4 + 4 * this.size + runMarkersLength;
+      } else {
+        startOffset = 4 + 8 * this.size + runMarkersLength;
+      }
+    } else { // backwards compatibility
+      buf.putInt(SERIAL_COOKIE_NO_RUNCONTAINER);
+      buf.putInt(size);
+      startOffset = 4 + 4 + 4 * this.size + 4 * this.size;
+    }
+    for (int k = 0; k < size; ++k) {
+      buf.putShort(this.keys[k]);
+      buf.putShort((short) (this.values[k].getCardinality() - 1));
+    }
+    if ((!hasrun) || (this.size >= NO_OFFSET_THRESHOLD)) {
+      // writing the containers offsets
+      for (int k = 0; k < this.size; k++) {
+        buf.putInt(startOffset);
+        startOffset = startOffset + this.values[k].getArraySizeInBytes();
+      }
+    }
+    for (int k = 0; k < size; ++k) {
+      values[k].writeArray(buf);
+    }
+    if (buf != buffer) {
+      buffer.position(buffer.position() + buf.position());
+    }
+  }
+
   /**
    * Report the number of bytes required for serialization.
    *
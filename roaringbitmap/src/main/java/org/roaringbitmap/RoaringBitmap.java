@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -1004,6 +1005,161 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
     return answer;
   }
 
+  /**
+   * Bitwise AND (intersection) operation into a destination bitmap, whose previous content is
+   * overwritten. The provided bitmaps are *not* modified. The arrays of the destination are
+   * reused, and so are its containers, position by position, whenever their type and size fit
+   * the result: a destination kept across calls allocates little memory. The containers of the
+   * destination must not be shared with another bitmap.
+   *
+   * @param x1 first bitmap
+   * @param x2 other bitmap
+   * @param answer the destination, which must differ from x1 and x2
+   * @return the destination
+   */
+  public static RoaringBitmap andInto(final RoaringBitmap x1, final RoaringBitmap x2,
+      final RoaringBitmap answer) {
+    final RoaringArray out = destination(x1, x2, answer);
+    final int previousSize = out.size;
+    out.size = 0;
+    final int length1 = x1.highLowContainer.size(), length2 = x2.highLowContainer.size();
+    int pos1 = 0, pos2 = 0;
+    while (pos1 < length1 && pos2 < length2) {
+      final short s1 = x1.highLowContainer.getKeyAtIndex(pos1);
+      final short s2 = x2.highLowContainer.getKeyAtIndex(pos2);
+      if (s1 == s2) {
+        final Container c = ContainerRecycler.and(x1.highLowContainer.getContainerAtIndex(pos1),
+            x2.highLowContainer.getContainerAtIndex(pos2), out.recycled(previousSize));
+        if (!c.isEmpty()) {
+          out.append(s1, c);
+        }
+        ++pos1;
+        ++pos2;
+      } else if (Util.compareUnsigned(s1, s2) < 0) { // s1 < s2
+        pos1 = x1.highLowContainer.advanceUntil(s2, pos1);
+      } else { // s1 > s2
+        pos2 = x2.highLowContainer.advanceUntil(s1, pos2);
+      }
+    }
+    out.dropRecycled(previousSize);
+    return answer;
+  }
+
+  /**
+   * Bitwise ANDNOT (difference) operation into a destination bitmap, whose previous content is
+   * overwritten. The provided bitmaps are *not* modified.
+   *
+   * @param x1 first bitmap
+   * @param x2 other bitmap
+   * @param answer the destination, which must differ from x1 and x2
+   * @return the destination
+   * @see #andInto(RoaringBitmap, RoaringBitmap, RoaringBitmap)
+   */
+  public static RoaringBitmap andNotInto(final RoaringBitmap x1, final RoaringBitmap x2,
+      final RoaringBitmap answer) {
+    final RoaringArray out = destination(x1, x2, answer);
+    final int previousSize = out.size;
+    out.size = 0;
+    final int length1 = x1.highLowContainer.size(), length2 = x2.highLowContainer.size();
+    int pos1 = 0, pos2 = 0;
+    while (pos1 < length1 && pos2 < length2) {
+      final short s1 = x1.highLowContainer.getKeyAtIndex(pos1);
+      final short s2 = x2.highLowContainer.getKeyAtIndex(pos2);
+      if (s1 == s2) {
+        final Container c = ContainerRecycler.andNot(
+            x1.highLowContainer.getContainerAtIndex(pos1),
+            x2.highLowContainer.getContainerAtIndex(pos2), out.recycled(previousSize));
+        if (!c.isEmpty()) {
+          out.append(s1, c);
+        }
+        ++pos1;
+        ++pos2;
+      } else if (Util.compareUnsigned(s1, s2) < 0) { // s1 < s2
+        final int nextPos1 = x1.highLowContainer.advanceUntil(s2, pos1);
+        out.appendRecycledCopies(previousSize, x1.highLowContainer, pos1, nextPos1);
+        pos1 = nextPos1;
+      } else { // s1 > s2
+        pos2 = x2.highLowContainer.advanceUntil(s1, pos2);
+      }
+    }
+    out.appendRecycledCopies(previousSize, x1.highLowContainer, pos1, length1);
+    out.dropRecycled(previousSize);
+    return answer;
+  }
+
+  /**
+   * Bitwise OR (union) operation into a destination bitmap, whose previous content is
+   * overwritten. The provided bitmaps are *not* modified.
+   *
+   * @param x1 first bitmap
+   * @param x2 other bitmap
+   * @param answer the destination, which must differ from x1 and x2
+   * @return the destination
+   * @see #andInto(RoaringBitmap, RoaringBitmap, RoaringBitmap)
+   */
+  public static RoaringBitmap orInto(final RoaringBitmap x1, final RoaringBitmap x2,
+      final RoaringBitmap answer) {
+    return symmetricInto(x1, x2, answer, false);
+  }
+
+  /**
+   * Bitwise XOR (symmetric difference) operation into a destination bitmap, whose previous
+   * content is overwritten. The provided bitmaps are *not* modified.
+   *
+   * @param x1 first bitmap
+   * @param x2 other bitmap
+   * @param answer the destination, which must differ from x1 and x2
+   * @return the destination
+   * @see #andInto(RoaringBitmap, RoaringBitmap, RoaringBitmap)
+   */
+  public static RoaringBitmap xorInto(final RoaringBitmap x1, final RoaringBitmap x2,
+      final RoaringBitmap answer) {
+    return symmetricInto(x1, x2, answer, true);
+  }
+
+  private static RoaringBitmap symmetricInto(final RoaringBitmap x1, final RoaringBitmap x2,
+      final RoaringBitmap answer, final boolean xor) {
+    final RoaringArray out = destination(x1, x2, answer);
+    final int previousSize = out.size;
+    out.size = 0;
+    final int length1 = x1.highLowContainer.size(), length2 = x2.highLowContainer.size();
+    int pos1 = 0, pos2 = 0;
+    while (pos1 < length1 && pos2 < length2) {
+      final short s1 = x1.highLowContainer.getKeyAtIndex(pos1);
+      final short s2 = x2.highLowContainer.getKeyAtIndex(pos2);
+      if (s1 == s2) {
+        final Container c1 = x1.highLowContainer.getContainerAtIndex(pos1);
+        final Container c2 = x2.highLowContainer.getContainerAtIndex(pos2);
+        final Container recycled = out.recycled(previousSize);
+        final Container c = xor
+            ? ContainerRecycler.xor(c1, c2, recycled) : ContainerRecycler.or(c1, c2, recycled);
+        if (!c.isEmpty()) {
+          out.append(s1, c);
+        }
+        ++pos1;
+        ++pos2;
+      } else if (Util.compareUnsigned(s1, s2) < 0) { // s1 < s2
+        out.appendRecycledCopies(previousSize, x1.highLowContainer, pos1, pos1 + 1);
+        ++pos1;
+      } else { // s1 > s2
+        out.appendRecycledCopies(previousSize, x2.highLowContainer, pos2, pos2 + 1);
+        ++pos2;
+      }
+    }
+    out.appendRecycledCopies(previousSize, x1.highLowContainer, pos1, length1);
+    out.appendRecycledCopies(previousSize, x2.highLowContainer, pos2, length2);
+    out.dropRecycled(previousSize);
+    return answer;
+  }
+
+  private static RoaringArray destination(final RoaringBitmap x1, final RoaringBitmap x2,
+      final RoaringBitmap answer) {
+    if (answer == x1 || answer == x2) {
+      throw new IllegalArgumentException("The destination must differ from the operands");
+    }
+    return answer.highLowContainer;
+  }
+
   RoaringArray highLowContainer = null;
 
   /**
@@ -1362,6 +1518,22 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
     highLowContainer = new RoaringArray(); // lose references
   }
 
+  /**
+   * Clears the bitmap, handing the arrays of its bitmap containers to the
+   * {@link BitmapContainerPool} active on the current thread, if any, so that the next
+   * containers can reuse them. This is meant for short-lived intermediate results: the
+   * containers must not be shared with another bitmap or referenced elsewhere.
+   */
+  public void release() {
+    for (int k = 0; k < highLowContainer.size(); ++k) {
+      Container c = highLowContainer.getContainerAtIndex(k);
+      if (c instanceof BitmapContainer) {
+        BitmapContainerPool.recycle(((BitmapContainer) c).bitmap);
+      }
+    }
+    clear();
+  }
+
   @Override
   public RoaringBitmap clone() {
     try {
@@ -1446,6 +1618,46 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
     }
   }
 
+  /**
+   * Deserialize (retrieve) this bitmap, recycling its containers.
+   * See format specification at https://github.com/RoaringBitmap/RoaringFormatSpec
+   *
+   * The current bitmap is overwritten: its containers are reused, position by position, when
+   * the type and the size of the deserialized container fit, and the input is read in chunks
+   * through the scratch buffer. When deserializing repeatedly into the same bitmap, with the same
+   * buffer, few arrays get allocated. The containers of this bitmap must not be shared with
+   * another bitmap.
+   *
+   * @param in the DataInput stream
+   * @param buffer scratch space of at least 8 bytes, overwritten by this method
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void deserialize(DataInput in, byte[] buffer) throws IOException {
+    try {
+      this.highLowContainer.deserialize(in, buffer);
+    } catch (InvalidRoaringFormat cookie) {
+      throw cookie.toIOException();// we convert it to an IOException
+    }
+  }
+
+  /**
+   * Deserialize (retrieve) this bitmap from a ByteBuffer, starting at its position, which is then
+   * advanced past the serialized bitmap. The containers are bulk-copied from the ByteBuffer.
+   * See format specification at https://github.com/RoaringBitmap/RoaringFormatSpec
+   *
+   * The current bitmap is overwritten.
+   *
+   * @param bbf the byte buffer (can be mapped, direct, array backed etc.)
+   * @throws IOException Signals that the ByteBuffer does not hold a valid bitmap.
+   */
+  public void deserialize(ByteBuffer bbf) throws IOException {
+    try {
+      this.highLowContainer.deserialize(bbf);
+    } catch (InvalidRoaringFormat cookie) {
+      throw cookie.toIOException();// we convert it to an IOException
+    }
+  }
+
   @Override
   public boolean equals(Object o) {
     if (o instanceof RoaringBitmap) {
@@ -2210,7 +2422,7 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
   protected void repairAfterLazy() {
     for (int k = 0; k < highLowContainer.size(); ++k) {
       Container c = highLowContainer.getContainerAtIndex(k);
-      highLowContainer.setContainerAtIndex(k, c.repairAfterLazy());
+      highLowContainer.setContainerAtIndex(k, BitmapContainerPool.repairAfterLazy(c));
     }
   }
 
@@ -2316,6 +2528,11 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
   public long previousValue(int fromValue) {
     short key = Util.highbits(fromValue);
     int containerIndex = highLowContainer.advanceUntil(key, -1);
+    if (containerIndex == highLowContainer.size()
+        || highLowContainer.getKeyAtIndex(containerIndex) != key) {
+      // starts from the last container before the key
+      --containerIndex;
+    }
     long prevSetBit = -1L;
     while (containerIndex != -1 && containerIndex < highLowContainer.size() && prevSetBit == -1L) {
       short containerKey = highLowContainer.getKeyAtIndex(containerIndex);
@@ -2400,6 +2617,19 @@ public class RoaringBitmap implements Cloneable, Serializable, Iterable<Integer>
     this.highLowContainer.serialize(out);
   }
 
+  /**
+   * Serialize this bitmap to a ByteBuffer, starting at its position, which is then advanced past
+   * the serialized bitmap. The format is the same as {@link #serialize(DataOutput)}, and the
+   * containers are bulk-copied into the ByteBuffer, whatever its byte order.
+   *
+   * The current bitmap is not modified.
+   *
+   * @param buffer the ByteBuffer, with at least {@link #serializedSizeInBytes()} remaining bytes
+   */
+  public void serialize(ByteBuffer buffer) {
+    this.highLowContainer.serialize(buffer);
+  }
+
 
   /**
    * Assume that one wants to store "cardinality" integers in [0, universe_size), this function
@@ -8,6 +8,8 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -95,7 +97,7 @@ public final class RunContainer extends Container implements Cloneable {
 
   }
 
-  private short[] valueslength;// we interleave values and lengths, so
+  short[] valueslength;// we interleave values and lengths, so
   // that if you have the values 11,12,13,14,15, you store that as 11,4 where 4 means that beyond 11
   // itself, there are
   // 4 contiguous values that follows.
@@ -379,7 +381,7 @@ public final class RunContainer extends Container implements Cloneable {
     if (answer.getCardinality() > ArrayContainer.DEFAULT_MAX_SIZE) {
       return answer;
     } else {
-      return answer.toArrayContainer();
+      return answer.toArrayContainerAndRecycle();
     }
   }
 
@@ -636,7 +638,7 @@ public final class RunContainer extends Container implements Cloneable {
     if (answer.getCardinality() > ArrayContainer.DEFAULT_MAX_SIZE) {
       return answer;
     } else {
-      return answer.toArrayContainer();
+      return answer.toArrayContainerAndRecycle();
     }
   }
 
@@ -1620,7 +1622,7 @@ public final class RunContainer extends Container implements Cloneable {
 
       // last run is one shorter
       if (getLength(eIndex) == 0) {// special case where we remove last run
-        recoverRoomsInRange(eIndex, eIndex + 1);
+        recoverRoomsInRange(eIndex - 1, eIndex);
       } else {
         incrementValue(eIndex);
         decrementLength(eIndex);
@@ -2419,6 +2421,14 @@ public final class RunContainer extends Container implements Cloneable {
     }
   }
 
+  @Override
+  protected void writeArray(ByteBuffer buffer) {
+    assert buffer.order() == ByteOrder.LITTLE_ENDIAN;
+    buffer.putShort((short) nbrruns);
+    buffer.asShortBuffer().put(valueslength, 0, 2 * nbrruns);
+    buffer.position(buffer.position() + 4 * nbrruns);
+  }
+
   @Override
   public void writeExternal(ObjectOutput out) throws IOException {
     serialize(out);
@@ -2456,7 +2466,7 @@ public final class RunContainer extends Container implements Cloneable {
     if (answer.getCardinality() > ArrayContainer.DEFAULT_MAX_SIZE) {
       return answer;
     } else {
-      return answer.toArrayContainer();
+      return answer.toArrayContainerAndRecycle();
     }
   }
 
@@ -2562,6 +2572,25 @@ public final class RunContainer extends Container implements Cloneable {
     return startValue + le;
   }
 
+  @Override
+  void andInto(long[] bits) {
+    int start = 0;
+    for (int i = 0; i < nbrruns; ++i) {
+      int runStart = toIntUnsigned(getValue(i));
+      Util.resetBitmapRange(bits, start, runStart);
+      start = runStart + toIntUnsigned(getLength(i)) + 1;
+    }
+    Util.resetBitmapRange(bits, start, BitmapContainer.MAX_CAPACITY);
+  }
+
+  @Override
+  void orInto(long[] bits) {
+    for (int i = 0; i < nbrruns; ++i) {
+      int runStart = toIntUnsigned(getValue(i));
+      Util.setBitmapRange(bits, runStart, runStart + toIntUnsigned(getLength(i)) + 1);
+    }
+  }
+
   @Override
   public int first() {
     assertNonEmpty(numberOfRuns() == 0);
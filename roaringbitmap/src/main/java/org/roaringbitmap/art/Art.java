@@ -0,0 +1,251 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.art;
+
+import java.util.Arrays;
+
+import org.roaringbitmap.Container;
+
+/**
+ * An adaptive radix tree (see Leis et al., "The Adaptive Radix Tree: ARTful Indexing for
+ * Main-Memory Databases") mapping 48-bit keys to containers. Inner nodes grow and shrink between
+ * 4, 16, 48 and 256 children, and single-child paths are compressed into node prefixes. Keys are
+ * ordered as unsigned integers.
+ *
+ * This is not meant to be used by end users.
+ */
+// this class is not thread-safe
+public class Art {
+
+  /**
+   * The number of bytes in a key.
+   */
+  public static final int KEY_BYTES = 6;
+
+  /**
+   * The mask of the bits which may be set in a key.
+   */
+  public static final long KEY_MASK = (1L << (KEY_BYTES * 8)) - 1;
+
+  private Node root;
+  private long keySize;
+
+  /**
+   * Create an empty tree.
+   */
+  public Art() {
+    root = null;
+    keySize = 0;
+  }
+
+  /**
+   * @return true if the tree has no key
+   */
+  public boolean isEmpty() {
+    return root == null;
+  }
+
+  /**
+   * @return the number of keys in the tree
+   */
+  public long getKeySize() {
+    return keySize;
+  }
+
+  /**
+   * Remove all keys.
+   */
+  public void clear() {
+    root = null;
+    keySize = 0;
+  }
+
+  /**
+   * Find the leaf attached to a key.
+   *
+   * @param key a 48-bit key
+   * @return the leaf, or null if the key is absent
+   */
+  public LeafNode findLeaf(long key) {
+    Node node = root;
+    int depth = 0;
+    while (node != null) {
+      if (node.isLeaf()) {
+        LeafNode leaf = (LeafNode) node;
+        return leaf.getKey() == key ? leaf : null;
+      }
+      if (prefixMismatch(node, key, depth) < node.prefixLength()) {
+        return null;
+      }
+      depth += node.prefixLength();
+      int pos = node.getChildPos(Node.keyByte(key, depth));
+      if (pos == Node.ILLEGAL_IDX) {
+        return null;
+      }
+      node = node.getChild(pos);
+      depth++;
+    }
+    return null;
+  }
+
+  /**
+   * Find the container attached to a key.
+   *
+   * @param key a 48-bit key
+   * @return the container, or null if the key is absent
+   */
+  public Container findByKey(long key) {
+    LeafNode leaf = findLeaf(key);
+    return leaf == null ? null : leaf.getContainer();
+  }
+
+  /**
+   * Attach a container to a key, replacing any container already attached to it.
+   *
+   * @param key a 48-bit key
+   * @param container the container
+   * @return the leaf holding the key
+   */
+  public LeafNode insert(long key, Container container) {
+    LeafNode existing = findLeaf(key);
+    if (existing != null) {
+      existing.setContainer(container);
+      return existing;
+    }
+    LeafNode leaf = new LeafNode(key, container);
+    root = insert(root, leaf, 0);
+    keySize++;
+    return leaf;
+  }
+
+  // the key of the leaf is known to be absent from the subtree
+  private static Node insert(Node node, LeafNode leaf, int depth) {
+    if (node == null) {
+      return leaf;
+    }
+    long key = leaf.getKey();
+    if (node.isLeaf()) {
+      long otherKey = ((LeafNode) node).getKey();
+      int common = depth;
+      while (Node.keyByte(otherKey, common) == Node.keyByte(key, common)) {
+        common++;
+      }
+      Node4 node4 = new Node4(prefixOf(key, depth, common));
+      node4.insert(Node.keyByte(otherKey, common), node);
+      node4.insert(Node.keyByte(key, common), leaf);
+      return node4;
+    }
+    int mismatch = prefixMismatch(node, key, depth);
+    if (mismatch < node.prefixLength()) {
+      // split the compressed path
+      byte[] prefix = node.prefix;
+      Node4 node4 = new Node4(Arrays.copyOf(prefix, mismatch));
+      byte nodeKey = prefix[mismatch];
+      node.prefix = Arrays.copyOfRange(prefix, mismatch + 1, prefix.length);
+      node4.insert(nodeKey, node);
+      node4.insert(Node.keyByte(key, depth + mismatch), leaf);
+      return node4;
+    }
+    depth += node.prefixLength();
+    byte keyByte = Node.keyByte(key, depth);
+    int pos = node.getChildPos(keyByte);
+    if (pos == Node.ILLEGAL_IDX) {
+      return node.insert(keyByte, leaf);
+    }
+    Node child = node.getChild(pos);
+    Node newChild = insert(child, leaf, depth + 1);
+    if (newChild != child) {
+      node.replaceChild(pos, newChild);
+    }
+    return node;
+  }
+
+  /**
+   * Remove a key.
+   *
+   * @param key a 48-bit key
+   * @return the container which was attached to the key, or null if the key was absent
+   */
+  public Container remove(long key) {
+    LeafNode leaf = findLeaf(key);
+    if (leaf == null) {
+      return null;
+    }
+    root = remove(root, key, 0);
+    keySize--;
+    return leaf.getContainer();
+  }
+
+  // the key is known to be present in the subtree
+  private static Node remove(Node node, long key, int depth) {
+    if (node.isLeaf()) {
+      return null;
+    }
+    depth += node.prefixLength();
+    int pos = node.getChildPos(Node.keyByte(key, depth));
+    Node child = node.getChild(pos);
+    Node newChild = remove(child, key, depth + 1);
+    if (newChild == child) {
+      return node;
+    }
+    if (newChild != null) {
+      node.replaceChild(pos, newChild);
+      return node;
+    }
+    return node.remove(pos);
+  }
+
+  /**
+   * Iterate over the leaves in key order.
+   *
+   * @param reverse true to iterate from the largest key down to the smallest
+   * @return an iterator over the leaves
+   */
+  public LeafNodeIterator leafNodeIterator(boolean reverse) {
+    return new LeafNodeIterator(root, reverse);
+  }
+
+  /**
+   * Estimate of the memory used by the nodes of the tree, excluding the containers.
+   *
+   * @return estimated memory usage in bytes
+   */
+  public long getSizeInBytes() {
+    return 16 + 8 + 8 + getSizeInBytes(root);
+  }
+
+  private static long getSizeInBytes(Node node) {
+    if (node == null) {
+      return 0;
+    }
+    long size = node.getSizeInBytes();
+    if (!node.isLeaf()) {
+      for (int pos = node.getMinPos(); pos != Node.ILLEGAL_IDX;
+          pos = node.getNextLargerPos(pos)) {
+        size += getSizeInBytes(node.getChild(pos));
+      }
+    }
+    return size;
+  }
+
+  // the number of bytes of the node prefix matching the key from the given depth
+  private static int prefixMismatch(Node node, long key, int depth) {
+    byte[] prefix = node.prefix;
+    for (int i = 0; i < prefix.length; i++) {
+      if (prefix[i] != Node.keyByte(key, depth + i)) {
+        return i;
+      }
+    }
+    return prefix.length;
+  }
+
+  private static byte[] prefixOf(long key, int from, int to) {
+    byte[] prefix = new byte[to - from];
+    for (int i = from; i < to; i++) {
+      prefix[i - from] = Node.keyByte(key, i);
+    }
+    return prefix;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.art;
+
+import org.roaringbitmap.Container;
+
+/**
+ * A leaf of the adaptive radix tree: it holds the full 48-bit key together with the container
+ * storing the 16 low bits of the values sharing this key.
+ */
+public class LeafNode extends Node {
+
+  private static final byte[] EMPTY_PREFIX = new byte[0];
+
+  private final long key;
+  private Container container;
+
+  LeafNode(long key, Container container) {
+    super(EMPTY_PREFIX);
+    this.key = key;
+    this.container = container;
+  }
+
+  /**
+   * @return the 48-bit key of this leaf
+   */
+  public long getKey() {
+    return key;
+  }
+
+  /**
+   * @return the container attached to the key
+   */
+  public Container getContainer() {
+    return container;
+  }
+
+  /**
+   * Replace the container attached to the key. The container should not be empty.
+   *
+   * @param container the new container
+   */
+  public void setContainer(Container container) {
+    this.container = container;
+  }
+
+  @Override
+  boolean isLeaf() {
+    return true;
+  }
+
+  @Override
+  int getChildPos(byte key) {
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  Node getChild(int pos) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  byte getChildKey(int pos) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  void replaceChild(int pos, Node child) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  int getMinPos() {
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  int getMaxPos() {
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  int getNextLargerPos(int pos) {
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  int getNextSmallerPos(int pos) {
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  Node insert(byte key, Node child) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  Node remove(int pos) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  int getSizeInBytes() {
+    // object header, key and container reference
+    return 16 + 8 + 8;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.art;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the leaves of an {@link Art}, in ascending or descending key order. The tree
+ * should not be modified while iterating.
+ */
+public class LeafNodeIterator implements Iterator<LeafNode> {
+
+  // a path from the root holds at most one inner node per key byte
+  private final Node[] stack = new Node[Art.KEY_BYTES + 1];
+  private final int[] positions = new int[Art.KEY_BYTES + 1];
+  private final boolean reverse;
+  private int depth = -1;
+  private LeafNode next;
+
+  LeafNodeIterator(Node root, boolean reverse) {
+    this.reverse = reverse;
+    if (root != null) {
+      descend(root);
+    }
+  }
+
+  private LeafNodeIterator(LeafNodeIterator other) {
+    this.reverse = other.reverse;
+    this.depth = other.depth;
+    this.next = other.next;
+    System.arraycopy(other.stack, 0, stack, 0, stack.length);
+    System.arraycopy(other.positions, 0, positions, 0, positions.length);
+  }
+
+  // walk down to the first (or last) leaf of the subtree
+  private void descend(Node node) {
+    while (!node.isLeaf()) {
+      int pos = reverse ? node.getMaxPos() : node.getMinPos();
+      depth++;
+      stack[depth] = node;
+      positions[depth] = pos;
+      node = node.getChild(pos);
+    }
+    next = (LeafNode) node;
+  }
+
+  private void advance() {
+    next = null;
+    while (depth >= 0) {
+      Node node = stack[depth];
+      int pos = reverse ? node.getNextSmallerPos(positions[depth])
+          : node.getNextLargerPos(positions[depth]);
+      if (pos == Node.ILLEGAL_IDX) {
+        stack[depth] = null;
+        depth--;
+      } else {
+        positions[depth] = pos;
+        descend(node.getChild(pos));
+        return;
+      }
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return next != null;
+  }
+
+  @Override
+  public LeafNode next() {
+    if (next == null) {
+      throw new NoSuchElementException();
+    }
+    LeafNode current = next;
+    advance();
+    return current;
+  }
+
+  /**
+   * Look at the next leaf without advancing.
+   *
+   * @return the next leaf
+   */
+  public LeafNode peekNext() {
+    if (next == null) {
+      throw new NoSuchElementException();
+    }
+    return next;
+  }
+
+  /**
+   * Copy the iterator: the copy starts at the same leaf and then moves on its own.
+   *
+   * @return a copy of the iterator
+   */
+  @Override
+  public LeafNodeIterator clone() {
+    return new LeafNodeIterator(this);
+  }
+}
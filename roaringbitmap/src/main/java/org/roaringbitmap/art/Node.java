@@ -0,0 +1,117 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.art;
+
+/**
+ * An inner or leaf node of the adaptive radix tree. Inner nodes address their children through
+ * an opaque position: for Node4 and Node16 it is the index in the sorted key array, for Node48
+ * and Node256 it is the (unsigned) key byte itself.
+ */
+abstract class Node {
+
+  static final int ILLEGAL_IDX = -1;
+
+  // the compressed path leading to this node, relative to the depth of its parent
+  byte[] prefix;
+  // number of children
+  short count;
+
+  Node(byte[] prefix) {
+    this.prefix = prefix;
+  }
+
+  int prefixLength() {
+    return prefix.length;
+  }
+
+  /**
+   * @param key the key byte of the child
+   * @return the position of the child or ILLEGAL_IDX
+   */
+  abstract int getChildPos(byte key);
+
+  abstract Node getChild(int pos);
+
+  abstract byte getChildKey(int pos);
+
+  abstract void replaceChild(int pos, Node child);
+
+  abstract int getMinPos();
+
+  abstract int getMaxPos();
+
+  /**
+   * @param pos a child position, or ILLEGAL_IDX to start from the smallest child
+   * @return the position of the next larger child or ILLEGAL_IDX
+   */
+  abstract int getNextLargerPos(int pos);
+
+  /**
+   * @param pos a child position, or ILLEGAL_IDX to start from the largest child
+   * @return the position of the next smaller child or ILLEGAL_IDX
+   */
+  abstract int getNextSmallerPos(int pos);
+
+  /**
+   * Insert a child which is known to be absent.
+   *
+   * @param key the key byte of the child
+   * @param child the child
+   * @return this node, or a larger node type if this node was full
+   */
+  abstract Node insert(byte key, Node child);
+
+  /**
+   * Remove the child at the given position.
+   *
+   * @param pos the position of the child
+   * @return this node, a smaller node type, or the only remaining child
+   */
+  abstract Node remove(int pos);
+
+  /**
+   * @return an estimation of the memory used by this node, not accounting for its children
+   */
+  abstract int getSizeInBytes();
+
+  boolean isLeaf() {
+    return false;
+  }
+
+  /**
+   * Extract the key byte at the given depth of a 48-bit key.
+   *
+   * @param key a 48-bit key
+   * @param depth 0 for the most significant byte, up to 5
+   * @return the key byte
+   */
+  static byte keyByte(long key, int depth) {
+    return (byte) (key >>> ((Art.KEY_BYTES - 1 - depth) << 3));
+  }
+
+  static int toIntUnsigned(byte b) {
+    return b & 0xFF;
+  }
+
+  /**
+   * Collapse a node having a single child into that child, merging the compressed paths.
+   */
+  static Node collapse(byte[] prefix, byte childKey, Node child) {
+    if (child.isLeaf()) {
+      return child;
+    }
+    byte[] merged = new byte[prefix.length + 1 + child.prefix.length];
+    System.arraycopy(prefix, 0, merged, 0, prefix.length);
+    merged[prefix.length] = childKey;
+    System.arraycopy(child.prefix, 0, merged, prefix.length + 1, child.prefix.length);
+    child.prefix = merged;
+    return child;
+  }
+
+  // the size of the object header, the prefix reference and the count
+  static int baseSizeInBytes(byte[] prefix) {
+    return 16 + 8 + 16 + prefix.length;
+  }
+}
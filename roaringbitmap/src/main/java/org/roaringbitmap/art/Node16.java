@@ -0,0 +1,125 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.art;
+
+/**
+ * Inner node holding from 5 up to 16 children, with keys kept sorted (as unsigned bytes).
+ */
+class Node16 extends Node {
+
+  // below this number of children, the node is turned back into a Node4
+  private static final int SHRINK_THRESHOLD = 3;
+
+  byte[] keys = new byte[16];
+  Node[] children = new Node[16];
+
+  Node16(byte[] prefix) {
+    super(prefix);
+  }
+
+  @Override
+  int getChildPos(byte key) {
+    int target = toIntUnsigned(key);
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midVal = toIntUnsigned(keys[mid]);
+      if (midVal < target) {
+        low = mid + 1;
+      } else if (midVal > target) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  Node getChild(int pos) {
+    return children[pos];
+  }
+
+  @Override
+  byte getChildKey(int pos) {
+    return keys[pos];
+  }
+
+  @Override
+  void replaceChild(int pos, Node child) {
+    children[pos] = child;
+  }
+
+  @Override
+  int getMinPos() {
+    return count == 0 ? ILLEGAL_IDX : 0;
+  }
+
+  @Override
+  int getMaxPos() {
+    return count - 1;
+  }
+
+  @Override
+  int getNextLargerPos(int pos) {
+    int next = pos + 1;
+    return next < count ? next : ILLEGAL_IDX;
+  }
+
+  @Override
+  int getNextSmallerPos(int pos) {
+    if (pos == ILLEGAL_IDX) {
+      return getMaxPos();
+    }
+    return pos - 1;
+  }
+
+  @Override
+  Node insert(byte key, Node child) {
+    if (count < 16) {
+      int i = count;
+      while (i > 0 && toIntUnsigned(keys[i - 1]) > toIntUnsigned(key)) {
+        keys[i] = keys[i - 1];
+        children[i] = children[i - 1];
+        i--;
+      }
+      keys[i] = key;
+      children[i] = child;
+      count++;
+      return this;
+    }
+    Node48 node48 = new Node48(prefix);
+    for (int i = 0; i < count; i++) {
+      node48.childIndex[toIntUnsigned(keys[i])] = (byte) i;
+      node48.children[i] = children[i];
+    }
+    node48.count = count;
+    return node48.insert(key, child);
+  }
+
+  @Override
+  Node remove(int pos) {
+    System.arraycopy(keys, pos + 1, keys, pos, count - pos - 1);
+    System.arraycopy(children, pos + 1, children, pos, count - pos - 1);
+    count--;
+    children[count] = null;
+    if (count > SHRINK_THRESHOLD) {
+      return this;
+    }
+    Node4 node4 = new Node4(prefix);
+    for (int i = 0; i < count; i++) {
+      node4.keys[i] = keys[i];
+      node4.children[i] = children[i];
+    }
+    node4.count = count;
+    return node4;
+  }
+
+  @Override
+  int getSizeInBytes() {
+    return baseSizeInBytes(prefix) + 16 + 16 + 16 + 16 * 8;
+  }
+}
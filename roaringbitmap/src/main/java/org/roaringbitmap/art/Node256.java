@@ -0,0 +1,105 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.art;
+
+/**
+ * Inner node holding from 49 up to 256 children, directly addressed by their key byte. The
+ * position of a child is its (unsigned) key byte.
+ */
+class Node256 extends Node {
+
+  // below this number of children, the node is turned back into a Node48
+  private static final int SHRINK_THRESHOLD = 36;
+
+  Node[] children = new Node[256];
+
+  Node256(byte[] prefix) {
+    super(prefix);
+  }
+
+  @Override
+  int getChildPos(byte key) {
+    int pos = toIntUnsigned(key);
+    return children[pos] == null ? ILLEGAL_IDX : pos;
+  }
+
+  @Override
+  Node getChild(int pos) {
+    return children[pos];
+  }
+
+  @Override
+  byte getChildKey(int pos) {
+    return (byte) pos;
+  }
+
+  @Override
+  void replaceChild(int pos, Node child) {
+    children[pos] = child;
+  }
+
+  @Override
+  int getMinPos() {
+    return getNextLargerPos(ILLEGAL_IDX);
+  }
+
+  @Override
+  int getMaxPos() {
+    return getNextSmallerPos(ILLEGAL_IDX);
+  }
+
+  @Override
+  int getNextLargerPos(int pos) {
+    for (int i = pos + 1; i < 256; i++) {
+      if (children[i] != null) {
+        return i;
+      }
+    }
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  int getNextSmallerPos(int pos) {
+    int start = pos == ILLEGAL_IDX ? 255 : pos - 1;
+    for (int i = start; i >= 0; i--) {
+      if (children[i] != null) {
+        return i;
+      }
+    }
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  Node insert(byte key, Node child) {
+    children[toIntUnsigned(key)] = child;
+    count++;
+    return this;
+  }
+
+  @Override
+  Node remove(int pos) {
+    children[pos] = null;
+    count--;
+    if (count > SHRINK_THRESHOLD) {
+      return this;
+    }
+    Node48 node48 = new Node48(prefix);
+    int slot = 0;
+    for (int i = 0; i < 256; i++) {
+      if (children[i] != null) {
+        node48.childIndex[i] = (byte) slot;
+        node48.children[slot] = children[i];
+        slot++;
+      }
+    }
+    node48.count = count;
+    return node48;
+  }
+
+  @Override
+  int getSizeInBytes() {
+    return baseSizeInBytes(prefix) + 16 + 256 * 8;
+  }
+}
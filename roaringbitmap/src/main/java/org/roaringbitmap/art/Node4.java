@@ -0,0 +1,107 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.art;
+
+/**
+ * Inner node holding up to 4 children, with keys kept sorted (as unsigned bytes).
+ */
+class Node4 extends Node {
+
+  byte[] keys = new byte[4];
+  Node[] children = new Node[4];
+
+  Node4(byte[] prefix) {
+    super(prefix);
+  }
+
+  @Override
+  int getChildPos(byte key) {
+    for (int i = 0; i < count; i++) {
+      if (keys[i] == key) {
+        return i;
+      }
+    }
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  Node getChild(int pos) {
+    return children[pos];
+  }
+
+  @Override
+  byte getChildKey(int pos) {
+    return keys[pos];
+  }
+
+  @Override
+  void replaceChild(int pos, Node child) {
+    children[pos] = child;
+  }
+
+  @Override
+  int getMinPos() {
+    return count == 0 ? ILLEGAL_IDX : 0;
+  }
+
+  @Override
+  int getMaxPos() {
+    return count - 1;
+  }
+
+  @Override
+  int getNextLargerPos(int pos) {
+    int next = pos + 1;
+    return next < count ? next : ILLEGAL_IDX;
+  }
+
+  @Override
+  int getNextSmallerPos(int pos) {
+    if (pos == ILLEGAL_IDX) {
+      return getMaxPos();
+    }
+    return pos - 1;
+  }
+
+  @Override
+  Node insert(byte key, Node child) {
+    if (count < 4) {
+      int i = count;
+      while (i > 0 && toIntUnsigned(keys[i - 1]) > toIntUnsigned(key)) {
+        keys[i] = keys[i - 1];
+        children[i] = children[i - 1];
+        i--;
+      }
+      keys[i] = key;
+      children[i] = child;
+      count++;
+      return this;
+    }
+    Node16 node16 = new Node16(prefix);
+    for (int i = 0; i < count; i++) {
+      node16.keys[i] = keys[i];
+      node16.children[i] = children[i];
+    }
+    node16.count = count;
+    return node16.insert(key, child);
+  }
+
+  @Override
+  Node remove(int pos) {
+    System.arraycopy(keys, pos + 1, keys, pos, count - pos - 1);
+    System.arraycopy(children, pos + 1, children, pos, count - pos - 1);
+    count--;
+    children[count] = null;
+    if (count == 1) {
+      return collapse(prefix, keys[0], children[0]);
+    }
+    return this;
+  }
+
+  @Override
+  int getSizeInBytes() {
+    return baseSizeInBytes(prefix) + 16 + 4 + 16 + 4 * 8;
+  }
+}
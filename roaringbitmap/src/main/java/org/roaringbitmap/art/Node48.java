@@ -0,0 +1,126 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.art;
+
+import java.util.Arrays;
+
+/**
+ * Inner node holding from 17 up to 48 children. A 256-entry index maps each key byte to a slot
+ * in the children array. The position of a child is its (unsigned) key byte.
+ */
+class Node48 extends Node {
+
+  private static final byte EMPTY = -1;
+  // below this number of children, the node is turned back into a Node16
+  private static final int SHRINK_THRESHOLD = 12;
+
+  byte[] childIndex = new byte[256];
+  Node[] children = new Node[48];
+
+  Node48(byte[] prefix) {
+    super(prefix);
+    Arrays.fill(childIndex, EMPTY);
+  }
+
+  @Override
+  int getChildPos(byte key) {
+    int pos = toIntUnsigned(key);
+    return childIndex[pos] == EMPTY ? ILLEGAL_IDX : pos;
+  }
+
+  @Override
+  Node getChild(int pos) {
+    return children[childIndex[pos]];
+  }
+
+  @Override
+  byte getChildKey(int pos) {
+    return (byte) pos;
+  }
+
+  @Override
+  void replaceChild(int pos, Node child) {
+    children[childIndex[pos]] = child;
+  }
+
+  @Override
+  int getMinPos() {
+    return getNextLargerPos(ILLEGAL_IDX);
+  }
+
+  @Override
+  int getMaxPos() {
+    return getNextSmallerPos(ILLEGAL_IDX);
+  }
+
+  @Override
+  int getNextLargerPos(int pos) {
+    for (int i = pos + 1; i < 256; i++) {
+      if (childIndex[i] != EMPTY) {
+        return i;
+      }
+    }
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  int getNextSmallerPos(int pos) {
+    int start = pos == ILLEGAL_IDX ? 255 : pos - 1;
+    for (int i = start; i >= 0; i--) {
+      if (childIndex[i] != EMPTY) {
+        return i;
+      }
+    }
+    return ILLEGAL_IDX;
+  }
+
+  @Override
+  Node insert(byte key, Node child) {
+    if (count < 48) {
+      int slot = 0;
+      while (children[slot] != null) {
+        slot++;
+      }
+      children[slot] = child;
+      childIndex[toIntUnsigned(key)] = (byte) slot;
+      count++;
+      return this;
+    }
+    Node256 node256 = new Node256(prefix);
+    for (int i = 0; i < 256; i++) {
+      if (childIndex[i] != EMPTY) {
+        node256.children[i] = children[childIndex[i]];
+      }
+    }
+    node256.count = count;
+    return node256.insert(key, child);
+  }
+
+  @Override
+  Node remove(int pos) {
+    children[childIndex[pos]] = null;
+    childIndex[pos] = EMPTY;
+    count--;
+    if (count > SHRINK_THRESHOLD) {
+      return this;
+    }
+    Node16 node16 = new Node16(prefix);
+    int j = 0;
+    for (int i = 0; i < 256; i++) {
+      if (childIndex[i] != EMPTY) {
+        node16.keys[j] = (byte) i;
+        node16.children[j] = children[childIndex[i]];
+        j++;
+      }
+    }
+    node16.count = count;
+    return node16;
+  }
+
+  @Override
+  int getSizeInBytes() {
+    return baseSizeInBytes(prefix) + 16 + 256 + 16 + 48 * 8;
+  }
+}
@@ -0,0 +1,14 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+
+
+/**
+ * The org.roaringbitmap.art package provides an adaptive radix tree
+ * ({@link org.roaringbitmap.art.Art}) indexing containers by 48-bit keys.
+ * It backs {@link org.roaringbitmap.longlong.Roaring64Bitmap} and is not
+ * meant to be used directly by end users.
+ *
+ */
+package org.roaringbitmap.art;
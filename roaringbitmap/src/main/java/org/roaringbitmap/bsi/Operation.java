@@ -0,0 +1,26 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.bsi;
+
+/**
+ * Comparisons supported by {@link RoaringBitmapSliceIndex#compare(Operation, long, long,
+ * org.roaringbitmap.RoaringBitmap)}.
+ */
+public enum Operation {
+  /** equal to the value */
+  EQ,
+  /** not equal to the value */
+  NEQ,
+  /** strictly lower than the value */
+  LT,
+  /** lower than or equal to the value */
+  LE,
+  /** strictly greater than the value */
+  GT,
+  /** greater than or equal to the value */
+  GE,
+  /** between the two values, inclusive */
+  RANGE
+}
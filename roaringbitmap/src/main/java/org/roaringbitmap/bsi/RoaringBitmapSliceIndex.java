@@ -0,0 +1,414 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.bsi;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.RoaringBitmapWriter;
+
+/**
+ * A bit-sliced index associating non-negative long values to row ids (columns of the index). It
+ * is made of an existence bitmap, holding the rows which have a value, and one RoaringBitmap per
+ * bit of the largest value: slice i holds the rows whose value has its i-th bit set.
+ *
+ * Aggregations over a set of rows (sum, min, max, top-k) and comparisons are computed with a
+ * handful of bitmap operations per slice, such as {@link RoaringBitmap#andCardinality}, instead of
+ * visiting every row. The algorithms are described in
+ * <ul>
+ * <li>Patrick O'Neil, Dallan Quass, Improved Query Performance with Variant Indexes, SIGMOD 1997,
+ * </li>
+ * <li>Denis Rinfret, Patrick O'Neil, Elizabeth O'Neil, Bit-Sliced Index Arithmetic, SIGMOD 2001.
+ * </li>
+ * </ul>
+ *
+ * In all the methods below, a null found set stands for all the rows having a value.
+ */
+public class RoaringBitmapSliceIndex {
+
+  private RoaringBitmap ebm;
+  private RoaringBitmap[] slices;
+
+  /**
+   * Create an empty index.
+   */
+  public RoaringBitmapSliceIndex() {
+    this.ebm = new RoaringBitmap();
+    this.slices = new RoaringBitmap[0];
+  }
+
+  /**
+   * Create an index where the value of row i is values[i].
+   *
+   * @param values non-negative values, indexed by row id
+   * @return a new index
+   */
+  public static RoaringBitmapSliceIndex fromValues(long[] values) {
+    long or = 0;
+    for (long value : values) {
+      if (value < 0) {
+        throw new IllegalArgumentException("Negative value " + value);
+      }
+      or |= value;
+    }
+    int bitCount = 64 - Long.numberOfLeadingZeros(or);
+    @SuppressWarnings("unchecked")
+    RoaringBitmapWriter<RoaringBitmap>[] writers = new RoaringBitmapWriter[bitCount];
+    for (int i = 0; i < bitCount; ++i) {
+      writers[i] = RoaringBitmapWriter.writer().get();
+    }
+    for (int row = 0; row < values.length; ++row) {
+      long value = values[row];
+      while (value != 0) {
+        writers[Long.numberOfTrailingZeros(value)].add(row);
+        value &= value - 1;
+      }
+    }
+    RoaringBitmapSliceIndex bsi = new RoaringBitmapSliceIndex();
+    bsi.ebm.add(0L, values.length);
+    bsi.slices = new RoaringBitmap[bitCount];
+    for (int i = 0; i < bitCount; ++i) {
+      bsi.slices[i] = writers[i].get();
+    }
+    return bsi;
+  }
+
+  /**
+   * @return the number of slices, that is the number of bits of the largest value
+   */
+  public int bitCount() {
+    return slices.length;
+  }
+
+  /**
+   * The existence bitmap holds the rows which have a value. It should not be modified.
+   *
+   * @return the existence bitmap
+   */
+  public RoaringBitmap getExistenceBitmap() {
+    return ebm;
+  }
+
+  /**
+   * @param columnId the row id
+   * @return whether the row has a value
+   */
+  public boolean valueExists(int columnId) {
+    return ebm.contains(columnId);
+  }
+
+  /**
+   * @param columnId the row id
+   * @return the value of the row
+   * @throws NoSuchElementException if the row has no value
+   */
+  public long getValue(int columnId) {
+    if (!ebm.contains(columnId)) {
+      throw new NoSuchElementException("No value for " + columnId);
+    }
+    long value = 0;
+    for (int i = 0; i < slices.length; ++i) {
+      if (slices[i].contains(columnId)) {
+        value |= 1L << i;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Set the value of a row, replacing the previous one if any.
+   *
+   * @param columnId the row id
+   * @param value a non-negative value
+   */
+  public void setValue(int columnId, long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Negative value " + value);
+    }
+    int bitCount = 64 - Long.numberOfLeadingZeros(value);
+    if (bitCount > slices.length) {
+      int oldLength = slices.length;
+      slices = Arrays.copyOf(slices, bitCount);
+      for (int i = oldLength; i < bitCount; ++i) {
+        slices[i] = new RoaringBitmap();
+      }
+    }
+    boolean existed = !ebm.checkedAdd(columnId);
+    for (int i = 0; i < slices.length; ++i) {
+      if ((value & (1L << i)) != 0) {
+        slices[i].add(columnId);
+      } else if (existed) {
+        slices[i].remove(columnId);
+      }
+    }
+  }
+
+  /**
+   * Remove the value of a row, if any.
+   *
+   * @param columnId the row id
+   */
+  public void removeValue(int columnId) {
+    if (ebm.checkedRemove(columnId)) {
+      for (RoaringBitmap slice : slices) {
+        slice.remove(columnId);
+      }
+    }
+  }
+
+  /**
+   * Sum of the values of the found set, computed from the cardinality of its intersection with
+   * each slice. The sum wraps around on overflow.
+   *
+   * @param foundSet the rows to aggregate, or null for all rows
+   * @return the sum of the values
+   */
+  public long sum(RoaringBitmap foundSet) {
+    long sum = 0;
+    for (int i = 0; i < slices.length; ++i) {
+      long cardinality = foundSet == null ? slices[i].getLongCardinality()
+          : RoaringBitmap.andCardinality(slices[i], foundSet);
+      sum += cardinality << i;
+    }
+    return sum;
+  }
+
+  /**
+   * @param foundSet the rows to aggregate, or null for all rows
+   * @return the number of rows of the found set having a value
+   */
+  public long count(RoaringBitmap foundSet) {
+    return foundSet == null ? ebm.getLongCardinality()
+        : RoaringBitmap.andCardinality(ebm, foundSet);
+  }
+
+  /**
+   * @param foundSet the rows to aggregate, or null for all rows
+   * @return the smallest value of the found set
+   * @throws NoSuchElementException if no row of the found set has a value
+   */
+  public long min(RoaringBitmap foundSet) {
+    RoaringBitmap candidates = candidates(foundSet);
+    long min = 0;
+    for (int i = slices.length - 1; i >= 0; --i) {
+      // keep the candidates whose bit is cleared, if any
+      if (RoaringBitmap.andCardinality(candidates, slices[i]) < candidates.getCardinality()) {
+        candidates.andNot(slices[i]);
+      } else {
+        min |= 1L << i;
+      }
+    }
+    return min;
+  }
+
+  /**
+   * @param foundSet the rows to aggregate, or null for all rows
+   * @return the largest value of the found set
+   * @throws NoSuchElementException if no row of the found set has a value
+   */
+  public long max(RoaringBitmap foundSet) {
+    RoaringBitmap candidates = candidates(foundSet);
+    long max = 0;
+    for (int i = slices.length - 1; i >= 0; --i) {
+      // keep the candidates whose bit is set, if any
+      if (RoaringBitmap.intersects(candidates, slices[i])) {
+        candidates.and(slices[i]);
+        max |= 1L << i;
+      }
+    }
+    return max;
+  }
+
+  private RoaringBitmap candidates(RoaringBitmap foundSet) {
+    RoaringBitmap candidates = foundSet == null ? ebm.clone() : RoaringBitmap.and(ebm, foundSet);
+    if (candidates.isEmpty()) {
+      throw new NoSuchElementException("Empty found set");
+    }
+    return candidates;
+  }
+
+  /**
+   * The k rows of the found set having the largest values. Among rows sharing the k-th largest
+   * value, the smallest row ids are kept.
+   *
+   * @param k the number of rows to return
+   * @param foundSet the rows to consider, or null for all rows
+   * @return at most k rows
+   */
+  public RoaringBitmap topK(int k, RoaringBitmap foundSet) {
+    if (k <= 0) {
+      return new RoaringBitmap();
+    }
+    // greater holds rows known to be in the top k, equal the rows tied so far
+    RoaringBitmap greater = new RoaringBitmap();
+    RoaringBitmap equal = foundSet == null ? ebm.clone() : RoaringBitmap.and(ebm, foundSet);
+    if (equal.getLongCardinality() <= k) {
+      return equal;
+    }
+    long greaterCardinality = 0;
+    for (int i = slices.length - 1; i >= 0; --i) {
+      long withBit = RoaringBitmap.andCardinality(equal, slices[i]);
+      long cardinality = greaterCardinality + withBit;
+      if (cardinality > k) {
+        equal.and(slices[i]);
+      } else if (cardinality < k) {
+        greater.or(RoaringBitmap.and(equal, slices[i]));
+        greaterCardinality = cardinality;
+        equal.andNot(slices[i]);
+      } else {
+        equal.and(slices[i]);
+        greater.or(equal);
+        return greater;
+      }
+    }
+    greater.or(equal.limit((int) (k - greaterCardinality)));
+    return greater;
+  }
+
+  /**
+   * Rows of the found set whose value compares to the given value.
+   *
+   * @param operation the comparison, other than {@link Operation#RANGE}
+   * @param value the value to compare with
+   * @param foundSet the rows to consider, or null for all rows
+   * @return the matching rows
+   */
+  public RoaringBitmap compare(Operation operation, long value, RoaringBitmap foundSet) {
+    if (operation == Operation.RANGE) {
+      throw new IllegalArgumentException("RANGE requires two values");
+    }
+    return compare(operation, value, value, foundSet);
+  }
+
+  /**
+   * Rows of the found set whose value compares to the given values. Only {@link Operation#RANGE}
+   * uses the end value.
+   *
+   * @param operation the comparison
+   * @param start the value to compare with, or the inclusive lower bound of the range
+   * @param end the inclusive upper bound of the range
+   * @param foundSet the rows to consider, or null for all rows
+   * @return the matching rows
+   */
+  public RoaringBitmap compare(Operation operation, long start, long end,
+      RoaringBitmap foundSet) {
+    RoaringBitmap fixedSet = foundSet == null ? ebm.clone() : RoaringBitmap.and(ebm, foundSet);
+    if (operation == Operation.RANGE) {
+      if (start > end) {
+        return new RoaringBitmap();
+      }
+      return compareSlices(Operation.LE, end, compareSlices(Operation.GE, start, fixedSet));
+    }
+    return compareSlices(operation, start, fixedSet);
+  }
+
+  // fixedSet is consumed
+  private RoaringBitmap compareSlices(Operation operation, long value, RoaringBitmap fixedSet) {
+    boolean lower = operation == Operation.LT || operation == Operation.LE;
+    boolean greater = operation == Operation.GT || operation == Operation.GE;
+    if (value < 0 || 64 - Long.numberOfLeadingZeros(value) > slices.length) {
+      // every stored value is greater (resp. lower) than the value
+      boolean all = operation == Operation.NEQ || (value < 0 ? greater : lower);
+      return all ? fixedSet : new RoaringBitmap();
+    }
+    RoaringBitmap lt = new RoaringBitmap();
+    RoaringBitmap gt = new RoaringBitmap();
+    RoaringBitmap eq = fixedSet.clone();
+    for (int i = slices.length - 1; i >= 0 && !eq.isEmpty(); --i) {
+      if ((value & (1L << i)) != 0) {
+        if (lower) {
+          lt.or(RoaringBitmap.andNot(eq, slices[i]));
+        }
+        eq.and(slices[i]);
+      } else {
+        if (greater) {
+          gt.or(RoaringBitmap.and(eq, slices[i]));
+        }
+        eq.andNot(slices[i]);
+      }
+    }
+    switch (operation) {
+      case EQ:
+        return eq;
+      case NEQ:
+        fixedSet.andNot(eq);
+        return fixedSet;
+      case LT:
+        return lt;
+      case LE:
+        lt.or(eq);
+        return lt;
+      case GT:
+        return gt;
+      case GE:
+        gt.or(eq);
+        return gt;
+      default:
+        throw new IllegalArgumentException("Unsupported operation " + operation);
+    }
+  }
+
+  /**
+   * Use a run-length encoding where it is more space efficient.
+   */
+  public void runOptimize() {
+    ebm.runOptimize();
+    for (RoaringBitmap slice : slices) {
+      slice.runOptimize();
+    }
+  }
+
+  /**
+   * Serialize this index: the number of slices as a little endian 32-bit integer, the existence
+   * bitmap, then the slices from the least significant bit, each in the RoaringBitmap format.
+   *
+   * @param out the DataOutput stream
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void serialize(DataOutput out) throws IOException {
+    out.writeInt(Integer.reverseBytes(slices.length));
+    ebm.serialize(out);
+    for (RoaringBitmap slice : slices) {
+      slice.serialize(out);
+    }
+  }
+
+  /**
+   * Deserialize (retrieve) this index. The current content is replaced.
+   *
+   * @param in the DataInput stream
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void deserialize(DataInput in) throws IOException {
+    int bitCount = Integer.reverseBytes(in.readInt());
+    if (bitCount < 0 || bitCount > 63) {
+      throw new IOException("Invalid number of slices " + bitCount);
+    }
+    RoaringBitmap ebm = new RoaringBitmap();
+    ebm.deserialize(in);
+    RoaringBitmap[] slices = new RoaringBitmap[bitCount];
+    for (int i = 0; i < bitCount; ++i) {
+      slices[i] = new RoaringBitmap();
+      slices[i].deserialize(in);
+    }
+    this.ebm = ebm;
+    this.slices = slices;
+  }
+
+  /**
+   * @return the number of bytes written by {@link #serialize(DataOutput)}
+   */
+  public long serializedSizeInBytes() {
+    long size = 4 + ebm.serializedSizeInBytes();
+    for (RoaringBitmap slice : slices) {
+      size += slice.serializedSizeInBytes();
+    }
+    return size;
+  }
+}
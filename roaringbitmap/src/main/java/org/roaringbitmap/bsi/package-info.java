@@ -0,0 +1,23 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+/**
+ * The org.roaringbitmap.bsi package provides a bit-sliced index
+ * ({@link org.roaringbitmap.bsi.RoaringBitmapSliceIndex}) mapping row ids to non-negative
+ * long values, with aggregations (sum, min, max, top-k) and comparisons computed slice by slice.
+ *
+ * <pre>
+ * {@code
+ *      import org.roaringbitmap.bsi.*;
+ *
+ *      //...
+ *
+ *      RoaringBitmapSliceIndex metric = RoaringBitmapSliceIndex.fromValues(values);
+ *      long total = metric.sum(foundSet);
+ *      RoaringBitmap large = metric.compare(Operation.GE, 1000, foundSet);
+ * }
+ * </pre>
+ *
+ */
+package org.roaringbitmap.bsi;
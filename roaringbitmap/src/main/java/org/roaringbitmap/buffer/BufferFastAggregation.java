@@ -11,6 +11,8 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.PriorityQueue;
 
+import static org.roaringbitmap.buffer.BufferUtil.toIntUnsigned;
+
 
 /**
  * Fast algorithms to aggregate many bitmaps.
@@ -32,6 +34,168 @@ public final class BufferFastAggregation {
     return naive_and(bitmaps);
   }
 
+  /**
+   * Compute the cardinality of the AND aggregate, without materializing it.
+   *
+   * Only the containers whose key is shared by all the bitmaps are visited, and they are
+   * intersected in a single scratch buffer of 1024 words, so no container is allocated.
+   *
+   * @param bitmaps input bitmaps
+   * @return the cardinality of the intersection
+   */
+  public static int andCardinality(ImmutableRoaringBitmap... bitmaps) {
+    switch (bitmaps.length) {
+      case 0:
+        return 0;
+      case 1:
+        return bitmaps[0].getCardinality();
+      case 2:
+        return ImmutableRoaringBitmap.andCardinality(bitmaps[0], bitmaps[1]);
+      default:
+        break;
+    }
+    for (ImmutableRoaringBitmap bitmap : bitmaps) {
+      if (bitmap.highLowContainer.size() == 0) {
+        return 0;
+      }
+    }
+    final long[] words = new long[1024];
+    final int[] positions = new int[bitmaps.length];
+    final ImmutableContainerCursor[] cursors = cursors(bitmaps);
+    int cardinality = 0;
+    int key = toIntUnsigned(bitmaps[0].highLowContainer.getKeyAtIndex(0));
+    while (true) {
+      // gallop every bitmap to the largest key seen so far
+      boolean aligned = true;
+      for (int i = 0; i < bitmaps.length; ++i) {
+        PointableRoaringArray array = bitmaps[i].highLowContainer;
+        if (toIntUnsigned(array.getKeyAtIndex(positions[i])) < key) {
+          positions[i] = array.advanceUntil((short) key, positions[i]);
+          if (positions[i] == array.size()) {
+            return cardinality;
+          }
+        }
+        int currentKey = toIntUnsigned(array.getKeyAtIndex(positions[i]));
+        if (currentKey > key) {
+          key = currentKey;
+          aligned = false;
+        }
+      }
+      if (aligned) {
+        Arrays.fill(words, 0L);
+        orInto(bitmaps[0], cursors[0], positions[0], words);
+        for (int i = 1; i < bitmaps.length; ++i) {
+          andInto(bitmaps[i], cursors[i], positions[i], words);
+        }
+        cardinality += popcount(words);
+        for (int i = 0; i < bitmaps.length; ++i) {
+          if (++positions[i] == bitmaps[i].highLowContainer.size()) {
+            return cardinality;
+          }
+        }
+        key = toIntUnsigned(bitmaps[0].highLowContainer.getKeyAtIndex(positions[0]));
+      }
+    }
+  }
+
+  /**
+   * Compute the cardinality of the OR aggregate, without materializing it.
+   *
+   * Keys present in a single bitmap contribute the cardinality of their container, the others
+   * are united in a single scratch buffer of 1024 words, so no container is allocated.
+   *
+   * @param bitmaps input bitmaps
+   * @return the cardinality of the union
+   */
+  public static int orCardinality(ImmutableRoaringBitmap... bitmaps) {
+    switch (bitmaps.length) {
+      case 0:
+        return 0;
+      case 1:
+        return bitmaps[0].getCardinality();
+      case 2:
+        return ImmutableRoaringBitmap.orCardinality(bitmaps[0], bitmaps[1]);
+      default:
+        break;
+    }
+    final long[] words = new long[1024];
+    final int[] positions = new int[bitmaps.length];
+    final ImmutableContainerCursor[] cursors = cursors(bitmaps);
+    int cardinality = 0;
+    while (true) {
+      int minKey = 1 << 16;
+      int count = 0;
+      int last = -1;
+      for (int i = 0; i < bitmaps.length; ++i) {
+        PointableRoaringArray array = bitmaps[i].highLowContainer;
+        if (positions[i] < array.size()) {
+          int key = toIntUnsigned(array.getKeyAtIndex(positions[i]));
+          if (key < minKey) {
+            minKey = key;
+            count = 1;
+            last = i;
+          } else if (key == minKey) {
+            ++count;
+            last = i;
+          }
+        }
+      }
+      if (count == 0) {
+        return cardinality;
+      }
+      if (count == 1) {
+        cardinality += bitmaps[last].highLowContainer.getCardinality(positions[last]++);
+        continue;
+      }
+      Arrays.fill(words, 0L);
+      for (int i = 0; i <= last; ++i) {
+        PointableRoaringArray array = bitmaps[i].highLowContainer;
+        if (positions[i] < array.size()
+            && toIntUnsigned(array.getKeyAtIndex(positions[i])) == minKey) {
+          orInto(bitmaps[i], cursors[i], positions[i]++, words);
+        }
+      }
+      cardinality += popcount(words);
+    }
+  }
+
+  // mapped bitmaps are read in place, without wrapping their containers
+  private static ImmutableContainerCursor[] cursors(ImmutableRoaringBitmap... bitmaps) {
+    ImmutableContainerCursor[] cursors = new ImmutableContainerCursor[bitmaps.length];
+    for (int i = 0; i < bitmaps.length; ++i) {
+      cursors[i] = ImmutableRoaringBitmap.cursorOrNull(bitmaps[i]);
+    }
+    return cursors;
+  }
+
+  private static void orInto(ImmutableRoaringBitmap bitmap, ImmutableContainerCursor cursor,
+      int index, long[] words) {
+    if (cursor != null) {
+      cursor.moveTo(index);
+      cursor.orInto(words);
+    } else {
+      bitmap.highLowContainer.getContainerAtIndex(index).orInto(words);
+    }
+  }
+
+  private static void andInto(ImmutableRoaringBitmap bitmap, ImmutableContainerCursor cursor,
+      int index, long[] words) {
+    if (cursor != null) {
+      cursor.moveTo(index);
+      cursor.andInto(words);
+    } else {
+      bitmap.highLowContainer.getContainerAtIndex(index).andInto(words);
+    }
+  }
+
+  private static int popcount(long[] words) {
+    int cardinality = 0;
+    for (long word : words) {
+      cardinality += Long.bitCount(word);
+    }
+    return cardinality;
+  }
+
   /**
    * Compute the AND aggregate.
    * 
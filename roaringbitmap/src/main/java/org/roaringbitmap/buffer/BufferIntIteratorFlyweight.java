@@ -28,6 +28,10 @@ public class BufferIntIteratorFlyweight implements PeekableIntIterator {
 
   private MappeableRunContainerShortIterator runIter = new MappeableRunContainerShortIterator();
 
+  // reads mapped bitmaps in place, null for mutable bitmaps
+  private ImmutableContainerCursor cursor;
+
+  private ImmutableContainerShortIterator cursorIter = new ImmutableContainerShortIterator();
 
   private int pos;
 
@@ -54,8 +58,12 @@ public class BufferIntIteratorFlyweight implements PeekableIntIterator {
   public PeekableIntIterator clone() {
     try {
       BufferIntIteratorFlyweight x = (BufferIntIteratorFlyweight) super.clone();
+      x.cursorIter = this.cursorIter.clone();
+      if (this.cursor != null) {
+        x.cursor = this.cursor.clone();
+      }
       if(this.iter != null) {
-        x.iter = this.iter.clone();
+        x.iter = this.iter == this.cursorIter ? x.cursorIter : this.iter.clone();
       }
       return x;
     } catch (CloneNotSupportedException e) {
@@ -80,6 +88,17 @@ public class BufferIntIteratorFlyweight implements PeekableIntIterator {
 
   private void nextContainer() {
     if (pos < this.roaringBitmap.highLowContainer.size()) {
+      if (cursor != null) {
+        if (cursor.getIndex() == pos - 1) {
+          cursor.advance();
+        } else if (cursor.getIndex() != pos) {
+          cursor.moveTo(pos);
+        }
+        cursorIter.wrap(cursor);
+        iter = cursorIter;
+        hs = BufferUtil.toIntUnsigned(cursor.key()) << 16;
+        return;
+      }
 
       MappeableContainer container = this.roaringBitmap.highLowContainer.getContainerAtIndex(pos);
 
@@ -107,6 +126,14 @@ public class BufferIntIteratorFlyweight implements PeekableIntIterator {
     this.hs = 0;
     this.pos = 0;
     this.roaringBitmap = r;
+    if (r.highLowContainer instanceof ImmutableRoaringArray) {
+      if (cursor == null) {
+        cursor = new ImmutableContainerCursor();
+      }
+      cursor.wrap((ImmutableRoaringArray) r.highLowContainer);
+    } else {
+      cursor = null;
+    }
     this.nextContainer();
   }
 
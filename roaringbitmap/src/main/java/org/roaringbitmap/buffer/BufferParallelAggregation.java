@@ -2,8 +2,11 @@ package org.roaringbitmap.buffer;
 
 import java.nio.LongBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -16,15 +19,19 @@ import static org.roaringbitmap.Util.compareUnsigned;
 /**
  *
  * These utility methods provide parallel implementations of
- * logical aggregation operators. AND is not implemented
- * because it is unlikely to be profitable.
+ * logical aggregation operators. The keys are independent, so
+ * they are aggregated by different tasks. AND and ANDNOT only
+ * aggregate the keys which can be in their result: those of all
+ * the bitmaps for AND, and those of the first bitmap for ANDNOT.
  *
  * There is a temporary memory overhead in using these methods,
  * since a materialisation of the rotated containers grouped by key
  * is created in each case.
  *
  * Each method executes on the default fork join pool by default.
- * If this is undesirable (it usually is) wrap the call inside
+ * If this is undesirable (it usually is) use the overloads taking
+ * a {@link ForkJoinPool} or an {@link Executor}, along with the
+ * number of keys aggregated by each task, or wrap the call inside
  * a submission of a runnable to your own thread pool.
  *
  * <pre>
@@ -35,23 +42,23 @@ import static org.roaringbitmap.Util.compareUnsigned;
  *       ExecutorService executor = ...
  *       ImmutableRoaringBitmap[] bitmaps = ...
  *       // executes on executors threads
- *       MutableRoaringBitmap result = executor.submit(
- *            () -> BufferParallelAggregation.or(bitmaps)).get();
+ *       MutableRoaringBitmap result = BufferParallelAggregation.or(executor, 16, bitmaps);
  * }
  * </pre>
  */
 public class BufferParallelAggregation {
 
-  private static final Collector<
-          Map.Entry<Short,List<MappeableContainer>>, MutableRoaringArray, MutableRoaringBitmap> XOR
-          = new ContainerCollector(BufferParallelAggregation::xor);
-
   private static final OrCollector OR = new OrCollector();
 
   /**
    * Collects containers grouped by their key into a RoaringBitmap, applying the
    * supplied aggregation function to each group.
+   *
+   * @deprecated the aggregations no longer collect the groups of
+   *             {@link BufferParallelAggregation#groupByKey}, but reduce the slices of a
+   *             counting sort of the containers by key
    */
+  @Deprecated
   public static class ContainerCollector implements Collector<
           Map.Entry<Short,List<MappeableContainer>>, MutableRoaringArray, MutableRoaringBitmap> {
 
@@ -141,24 +148,65 @@ public class BufferParallelAggregation {
    */
   public static SortedMap<Short, List<MappeableContainer>> groupByKey(
           ImmutableRoaringBitmap... bitmaps) {
-    Map<Short, List<MappeableContainer>> grouped = new HashMap<>();
+    KeyGroups groups = group(bitmaps);
+    SortedMap<Short, List<MappeableContainer>> sorted = new TreeMap<>(BufferUtil::compareUnsigned);
+    for (int i = 0; i < groups.keys.length; ++i) {
+      sorted.put(groups.keys[i], new ArrayList<>(Arrays.asList(groups.slices[i])));
+    }
+    return sorted;
+  }
+
+  /**
+   * Containers grouped by key, the keys in ascending unsigned order.
+   */
+  private static final class KeyGroups {
+
+    final short[] keys;
+    final MappeableContainer[][] slices;
+
+    KeyGroups(short[] keys, MappeableContainer[][] slices) {
+      this.keys = keys;
+      this.slices = slices;
+    }
+  }
+
+  /**
+   * Groups the containers by their keys with a counting sort over the 2^16 possible keys,
+   * the containers of each key in the order of the bitmaps.
+   */
+  private static KeyGroups group(ImmutableRoaringBitmap... bitmaps) {
+    int[] counts = new int[1 << 16];
     for (ImmutableRoaringBitmap bitmap : bitmaps) {
-      MappeableContainerPointer it = bitmap.highLowContainer.getContainerPointer();
-      while (null != it.getContainer()) {
-        MappeableContainer container = it.getContainer();
-        Short key = it.key();
-        List<MappeableContainer> slice = grouped.get(key);
-        if (null == slice) {
-          slice = new ArrayList<>();
-          grouped.put(key, slice);
-        }
-        slice.add(container);
-        it.advance();
+      PointableRoaringArray ra = bitmap.highLowContainer;
+      for (int i = 0; i < ra.size(); ++i) {
+        ++counts[BufferUtil.toIntUnsigned(ra.getKeyAtIndex(i))];
       }
     }
-    SortedMap<Short, List<MappeableContainer>> sorted = new TreeMap<>(BufferUtil::compareUnsigned);
-    sorted.putAll(grouped);
-    return sorted;
+    int distinct = 0;
+    for (int count : counts) {
+      if (count != 0) {
+        ++distinct;
+      }
+    }
+    short[] keys = new short[distinct];
+    MappeableContainer[][] slices = new MappeableContainer[distinct][];
+    // from now on, counts holds the index of the slice of each key
+    for (int key = 0, slice = 0; slice < distinct; ++key) {
+      if (counts[key] != 0) {
+        keys[slice] = (short) key;
+        slices[slice] = new MappeableContainer[counts[key]];
+        counts[key] = slice++;
+      }
+    }
+    int[] filled = new int[distinct];
+    for (ImmutableRoaringBitmap bitmap : bitmaps) {
+      PointableRoaringArray ra = bitmap.highLowContainer;
+      for (int i = 0; i < ra.size(); ++i) {
+        int slice = counts[BufferUtil.toIntUnsigned(ra.getKeyAtIndex(i))];
+        slices[slice][filled[slice]++] = ra.getContainerAtIndex(i);
+      }
+    }
+    return new KeyGroups(keys, slices);
   }
 
   /**
@@ -167,19 +215,7 @@ public class BufferParallelAggregation {
    * @return the union of the bitmaps
    */
   public static MutableRoaringBitmap or(ImmutableRoaringBitmap... bitmaps) {
-    SortedMap<Short, List<MappeableContainer>> grouped = groupByKey(bitmaps);
-    short[] keys = new short[grouped.size()];
-    MappeableContainer[] values = new MappeableContainer[grouped.size()];
-    List<List<MappeableContainer>> slices = new ArrayList<>(grouped.size());
-    int i = 0;
-    for (Map.Entry<Short, List<MappeableContainer>> slice : grouped.entrySet()) {
-      keys[i++] = slice.getKey();
-      slices.add(slice.getValue());
-    }
-    IntStream.range(0, i)
-            .parallel()
-            .forEach(position -> values[position] = or(slices.get(position)));
-    return new MutableRoaringBitmap(new MutableRoaringArray(keys, values, i));
+    return aggregate(BufferParallelAggregation::or, group(bitmaps));
   }
 
   /**
@@ -188,13 +224,331 @@ public class BufferParallelAggregation {
    * @return the symmetric difference of the bitmaps
    */
   public static MutableRoaringBitmap xor(ImmutableRoaringBitmap... bitmaps) {
-    return groupByKey(bitmaps)
-            .entrySet()
-            .parallelStream()
-            .collect(XOR);
+    return aggregate(BufferParallelAggregation::xor, group(bitmaps));
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static MutableRoaringBitmap and(ImmutableRoaringBitmap... bitmaps) {
+    return aggregate(BufferParallelAggregation::and, intersectKeys(bitmaps));
+  }
+
+  /**
+   * Computes the bitwise difference of the first bitmap and the others
+   * @param minuend the bitmap whose values are kept
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the difference of the bitmaps
+   */
+  public static MutableRoaringBitmap andNot(ImmutableRoaringBitmap minuend,
+          ImmutableRoaringBitmap... subtrahends) {
+    return aggregate(BufferParallelAggregation::andNot, subtractKeys(minuend, subtrahends));
+  }
+
+  /**
+   * Computes the bitwise union of the input bitmaps on the supplied pool
+   * @param pool the pool executing the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the union of the bitmaps
+   */
+  public static MutableRoaringBitmap or(ForkJoinPool pool, int grainSize,
+          ImmutableRoaringBitmap... bitmaps) {
+    return aggregate(pool, grainSize, BufferParallelAggregation::or, bitmaps);
   }
 
+  /**
+   * Computes the bitwise union of the input bitmaps on the supplied executor.
+   * Unless the executor is a {@link ForkJoinPool}, the containers sharing a key
+   * are aggregated by a single task.
+   * @param executor the executor running the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the union of the bitmaps
+   */
+  public static MutableRoaringBitmap or(Executor executor, int grainSize,
+          ImmutableRoaringBitmap... bitmaps) {
+    return aggregate(executor, grainSize, executor instanceof ForkJoinPool
+        ? BufferParallelAggregation::or : BufferParallelAggregation::orSequential, bitmaps);
+  }
+
+  /**
+   * Computes the bitwise symmetric difference of the input bitmaps on the supplied pool
+   * @param pool the pool executing the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the symmetric difference of the bitmaps
+   */
+  public static MutableRoaringBitmap xor(ForkJoinPool pool, int grainSize,
+          ImmutableRoaringBitmap... bitmaps) {
+    return aggregate(pool, grainSize, BufferParallelAggregation::xor, bitmaps);
+  }
+
+  /**
+   * Computes the bitwise symmetric difference of the input bitmaps on the supplied executor
+   * @param executor the executor running the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the symmetric difference of the bitmaps
+   */
+  public static MutableRoaringBitmap xor(Executor executor, int grainSize,
+          ImmutableRoaringBitmap... bitmaps) {
+    return aggregate(executor, grainSize, BufferParallelAggregation::xor, bitmaps);
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps on the supplied pool
+   * @param pool the pool executing the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static MutableRoaringBitmap and(ForkJoinPool pool, int grainSize,
+          ImmutableRoaringBitmap... bitmaps) {
+    return and((Executor) pool, grainSize, bitmaps);
+  }
+
+  /**
+   * Computes the bitwise intersection of the input bitmaps on the supplied executor
+   * @param executor the executor running the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param bitmaps the input bitmaps
+   * @return the intersection of the bitmaps
+   */
+  public static MutableRoaringBitmap and(Executor executor, int grainSize,
+          ImmutableRoaringBitmap... bitmaps) {
+    checkGrainSize(grainSize);
+    return aggregate(executor, grainSize, BufferParallelAggregation::and,
+        intersectKeys(bitmaps));
+  }
 
+  /**
+   * Computes the bitwise difference of the first bitmap and the others on the supplied pool
+   * @param pool the pool executing the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param minuend the bitmap whose values are kept
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the difference of the bitmaps
+   */
+  public static MutableRoaringBitmap andNot(ForkJoinPool pool, int grainSize,
+          ImmutableRoaringBitmap minuend, ImmutableRoaringBitmap... subtrahends) {
+    return andNot((Executor) pool, grainSize, minuend, subtrahends);
+  }
+
+  /**
+   * Computes the bitwise difference of the first bitmap and the others on the supplied executor
+   * @param executor the executor running the aggregation
+   * @param grainSize the number of keys aggregated by each task
+   * @param minuend the bitmap whose values are kept
+   * @param subtrahends the bitmaps whose values are removed
+   * @return the difference of the bitmaps
+   */
+  public static MutableRoaringBitmap andNot(Executor executor, int grainSize,
+          ImmutableRoaringBitmap minuend, ImmutableRoaringBitmap... subtrahends) {
+    checkGrainSize(grainSize);
+    return aggregate(executor, grainSize, BufferParallelAggregation::andNot,
+        subtractKeys(minuend, subtrahends));
+  }
+
+  private static void checkGrainSize(int grainSize) {
+    if (grainSize < 1) {
+      throw new IllegalArgumentException("grainSize must be positive: " + grainSize);
+    }
+  }
+
+  /**
+   * Groups the containers of the keys present in all the bitmaps, the key-intersection
+   * prefilter of the AND aggregation.
+   */
+  private static KeyGroups intersectKeys(ImmutableRoaringBitmap... bitmaps) {
+    if (bitmaps.length == 0) {
+      return new KeyGroups(new short[0], new MappeableContainer[0][]);
+    }
+    PointableRoaringArray smallest = bitmaps[0].highLowContainer;
+    for (ImmutableRoaringBitmap bitmap : bitmaps) {
+      if (bitmap.highLowContainer.size() < smallest.size()) {
+        smallest = bitmap.highLowContainer;
+      }
+    }
+    short[] keys = new short[smallest.size()];
+    MappeableContainer[][] slices = new MappeableContainer[smallest.size()][];
+    // the index of the last key of each bitmap smaller than the current key
+    int[] positions = new int[bitmaps.length];
+    Arrays.fill(positions, -1);
+    int size = 0;
+    candidates:
+    for (int i = 0; i < smallest.size(); ++i) {
+      short key = smallest.getKeyAtIndex(i);
+      MappeableContainer[] slice = new MappeableContainer[bitmaps.length];
+      for (int j = 0; j < bitmaps.length; ++j) {
+        PointableRoaringArray ra = bitmaps[j].highLowContainer;
+        int position = ra.advanceUntil(key, positions[j]);
+        if (position == ra.size()) {
+          break candidates;
+        }
+        if (ra.getKeyAtIndex(position) != key) {
+          positions[j] = position - 1;
+          continue candidates;
+        }
+        positions[j] = position;
+        slice[j] = ra.getContainerAtIndex(position);
+      }
+      keys[size] = key;
+      slices[size++] = slice;
+    }
+    return new KeyGroups(Arrays.copyOf(keys, size), Arrays.copyOf(slices, size));
+  }
+
+  /**
+   * Groups the containers of the keys of the minuend, followed by those of the subtrahends.
+   */
+  private static KeyGroups subtractKeys(ImmutableRoaringBitmap minuend,
+          ImmutableRoaringBitmap... subtrahends) {
+    PointableRoaringArray kept = minuend.highLowContainer;
+    short[] keys = new short[kept.size()];
+    MappeableContainer[][] slices = new MappeableContainer[keys.length][];
+    MappeableContainer[] found = new MappeableContainer[1 + subtrahends.length];
+    int[] positions = new int[subtrahends.length];
+    Arrays.fill(positions, -1);
+    for (int i = 0; i < keys.length; ++i) {
+      short key = kept.getKeyAtIndex(i);
+      keys[i] = key;
+      found[0] = kept.getContainerAtIndex(i);
+      int count = 1;
+      for (int j = 0; j < subtrahends.length; ++j) {
+        PointableRoaringArray ra = subtrahends[j].highLowContainer;
+        int position = ra.advanceUntil(key, positions[j]);
+        if (position < ra.size() && ra.getKeyAtIndex(position) == key) {
+          positions[j] = position;
+          found[count++] = ra.getContainerAtIndex(position);
+        } else {
+          positions[j] = position - 1;
+        }
+      }
+      slices[i] = Arrays.copyOf(found, count);
+    }
+    return new KeyGroups(keys, slices);
+  }
+
+  private static MutableRoaringBitmap aggregate(
+          Function<List<MappeableContainer>, MappeableContainer> reducer, KeyGroups groups) {
+    MappeableContainer[][] slices = groups.slices;
+    MappeableContainer[] values = new MappeableContainer[slices.length];
+    IntStream.range(0, slices.length)
+            .parallel()
+            .forEach(position -> values[position] =
+                    reducer.apply(Arrays.asList(slices[position])));
+    return toBitmap(groups.keys, values, values.length);
+  }
+
+  private static MutableRoaringBitmap aggregate(Executor executor, int grainSize,
+          Function<List<MappeableContainer>, MappeableContainer> reducer,
+          ImmutableRoaringBitmap... bitmaps) {
+    checkGrainSize(grainSize);
+    return aggregate(executor, grainSize, reducer, group(bitmaps));
+  }
+
+  private static MutableRoaringBitmap aggregate(Executor executor, int grainSize,
+          Function<List<MappeableContainer>, MappeableContainer> reducer, KeyGroups groups) {
+    MappeableContainer[][] slices = groups.slices;
+    int size = slices.length;
+    MappeableContainer[] values = new MappeableContainer[size];
+    if (executor instanceof ForkJoinPool) {
+      ((ForkJoinPool) executor).invoke(
+          new ReduceTask(reducer, slices, values, 0, size, grainSize));
+    } else {
+      CompletableFuture<?>[] tasks = new CompletableFuture<?>[(size + grainSize - 1) / grainSize];
+      for (int i = 0; i < tasks.length; ++i) {
+        final int from = i * grainSize;
+        final int to = Math.min(size, from + grainSize);
+        tasks[i] = CompletableFuture.runAsync(
+            () -> reduce(reducer, slices, values, from, to), executor);
+      }
+      CompletableFuture.allOf(tasks).join();
+    }
+    return toBitmap(groups.keys, values, size);
+  }
+
+  private static MutableRoaringBitmap toBitmap(short[] keys, MappeableContainer[] values,
+          int size) {
+    int nonEmpty = 0;
+    for (int i = 0; i < size; ++i) {
+      if (!values[i].isEmpty()) {
+        keys[nonEmpty] = keys[i];
+        values[nonEmpty++] = values[i];
+      }
+    }
+    return new MutableRoaringBitmap(new MutableRoaringArray(keys, values, nonEmpty));
+  }
+
+  private static void reduce(Function<List<MappeableContainer>, MappeableContainer> reducer,
+          MappeableContainer[][] slices, MappeableContainer[] values, int from, int to) {
+    for (int position = from; position < to; ++position) {
+      values[position] = reducer.apply(Arrays.asList(slices[position]));
+    }
+  }
+
+  /**
+   * Splits the keys in halves until no more than grainSize remain.
+   */
+  private static final class ReduceTask extends RecursiveAction {
+
+    private final Function<List<MappeableContainer>, MappeableContainer> reducer;
+    private final MappeableContainer[][] slices;
+    private final MappeableContainer[] values;
+    private final int from;
+    private final int to;
+    private final int grainSize;
+
+    ReduceTask(Function<List<MappeableContainer>, MappeableContainer> reducer,
+               MappeableContainer[][] slices, MappeableContainer[] values,
+               int from, int to, int grainSize) {
+      this.reducer = reducer;
+      this.slices = slices;
+      this.values = values;
+      this.from = from;
+      this.to = to;
+      this.grainSize = grainSize;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grainSize) {
+        reduce(reducer, slices, values, from, to);
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new ReduceTask(reducer, slices, values, from, middle, grainSize),
+                  new ReduceTask(reducer, slices, values, middle, to, grainSize));
+      }
+    }
+  }
+
+  private static MappeableContainer and(List<MappeableContainer> containers) {
+    // starts from the smallest container, the result being at most as large
+    int smallest = 0;
+    for (int i = 1; i < containers.size(); ++i) {
+      if (containers.get(i).getCardinality() < containers.get(smallest).getCardinality()) {
+        smallest = i;
+      }
+    }
+    MappeableContainer result = containers.get(smallest).clone();
+    for (int i = 0; i < containers.size() && !result.isEmpty(); ++i) {
+      if (i != smallest) {
+        result = result.iand(containers.get(i));
+      }
+    }
+    return result;
+  }
+
+  private static MappeableContainer andNot(List<MappeableContainer> containers) {
+    MappeableContainer result = containers.get(0).clone();
+    for (int i = 1; i < containers.size() && !result.isEmpty(); ++i) {
+      result = result.iandNot(containers.get(i));
+    }
+    return result;
+  }
 
   private static MappeableContainer xor(List<MappeableContainer> containers) {
     MappeableContainer result = containers.get(0).clone();
@@ -206,6 +560,19 @@ public class BufferParallelAggregation {
 
   private static MappeableContainer or(List<MappeableContainer> containers) {
     int parallelism;
+    if (containers.size() < 512 || (parallelism = availableParallelism()) == 1) {
+      return orSequential(containers);
+    }
+    // we have an enormous slice (probably skewed), parallelise it
+    int partitionSize = (containers.size() + parallelism - 1) / parallelism;
+    return IntStream.range(0, parallelism)
+            .parallel()
+            .mapToObj(i -> containers.subList(i * partitionSize,
+                    Math.min((i + 1) * partitionSize, containers.size())))
+            .collect(OR);
+  }
+
+  private static MappeableContainer orSequential(List<MappeableContainer> containers) {
     // if there are few enough containers it's possible no bitmaps will be materialised
     if (containers.size() < 16) {
       MappeableContainer result = containers.get(0).clone();
@@ -215,20 +582,11 @@ public class BufferParallelAggregation {
       return result.repairAfterLazy();
     }
     // heuristic to save memory if the union is large and likely to end up as a bitmap
-    if (containers.size() < 512 || (parallelism = availableParallelism()) == 1) {
-      MappeableContainer result = new MappeableBitmapContainer(LongBuffer.allocate(1 << 10), -1);
-      for (MappeableContainer container : containers) {
-        result = result.lazyIOR(container);
-      }
-      return result.repairAfterLazy();
+    MappeableContainer result = new MappeableBitmapContainer(LongBuffer.allocate(1 << 10), -1);
+    for (MappeableContainer container : containers) {
+      result = result.lazyIOR(container);
     }
-    // we have an enormous slice (probably skewed), parallelise it
-    int partitionSize = (containers.size() + parallelism - 1) / parallelism;
-    return IntStream.range(0, parallelism)
-            .parallel()
-            .mapToObj(i -> containers.subList(i * partitionSize,
-                    Math.min((i + 1) * partitionSize, containers.size())))
-            .collect(OR);
+    return result.repairAfterLazy();
   }
 
   private static int availableParallelism() {
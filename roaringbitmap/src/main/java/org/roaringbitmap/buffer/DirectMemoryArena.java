@@ -0,0 +1,213 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.buffer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe allocator carving container buffers out of large chunks of direct memory.
+ *
+ * Requests are rounded up to a power of two, from 16 bytes up to the size of a bitmap container
+ * (8kB), and released buffers are recycled by size. Larger requests get a dedicated direct
+ * buffer. Since the chunks are few and large, the Java heap only holds a handful of objects no
+ * matter how much memory is in use.
+ *
+ * A closed arena allocates no more, and frees all its memory as soon as every buffer it handed
+ * out has been freed: at once when closing it after closing the bitmaps it backs, or else when
+ * the last of them is closed. Until then their buffers stay valid, so that a bitmap outliving
+ * its arena can still be read and closed, but fails with an {@link IllegalStateException} when
+ * it needs more memory. Freeing a dedicated buffer frees its memory as well. The memory is
+ * returned to the operating system right away on the JVMs whose direct buffers expose their
+ * cleaner (OpenJDK 8 and later), and only when the garbage collector reclaims the buffers
+ * otherwise.
+ *
+ * <pre>
+ * {@code
+ *      try (DirectMemoryArena arena = new DirectMemoryArena()) {
+ *        OffHeapRoaringBitmap bitmap = new OffHeapRoaringBitmap(arena);
+ *        // ...
+ *      }
+ * }
+ * </pre>
+ */
+public final class DirectMemoryArena implements MemoryAllocator, AutoCloseable {
+
+  private static final int MIN_SHIFT = 4;
+  private static final int MAX_SHIFT = 13;
+  private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+  // frees the memory of a direct buffer at once, or null when the JVM does not allow it
+  private static final Consumer<ByteBuffer> CLEANER = findCleaner();
+
+  private final int chunkSize;
+  private final List<ByteBuffer> chunks = new ArrayList<>();
+  private final Set<ByteBuffer> dedicated = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final ArrayDeque<ByteBuffer>[] freeLists;
+  private ByteBuffer current;
+  private long allocatedBytes;
+  private long reservedBytes;
+  private boolean closed;
+
+  /**
+   * Creates an arena reserving direct memory by chunks of 1MB.
+   */
+  public DirectMemoryArena() {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates an arena reserving direct memory by chunks of the provided size.
+   *
+   * @param chunkSize the size of the chunks, at least 8kB
+   */
+  @SuppressWarnings("unchecked")
+  public DirectMemoryArena(int chunkSize) {
+    if (chunkSize < 1 << MAX_SHIFT) {
+      throw new IllegalArgumentException("Chunks must hold at least 8kB: " + chunkSize);
+    }
+    this.chunkSize = chunkSize;
+    this.freeLists = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+    for (int i = 0; i < freeLists.length; ++i) {
+      freeLists[i] = new ArrayDeque<>();
+    }
+  }
+
+  @Override
+  public synchronized ByteBuffer allocate(int bytes) {
+    if (closed) {
+      throw new IllegalStateException("The arena is closed");
+    }
+    final ByteBuffer buffer;
+    if (bytes > 1 << MAX_SHIFT) {
+      buffer = ByteBuffer.allocateDirect(bytes);
+      dedicated.add(buffer);
+      reservedBytes += bytes;
+    } else {
+      int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(bytes - 1));
+      ArrayDeque<ByteBuffer> freeList = freeLists[shift - MIN_SHIFT];
+      buffer = freeList.isEmpty() ? carve(1 << shift) : freeList.pop();
+    }
+    allocatedBytes += buffer.capacity();
+    return buffer;
+  }
+
+  private ByteBuffer carve(int size) {
+    if (current == null || current.remaining() < size) {
+      current = ByteBuffer.allocateDirect(chunkSize);
+      chunks.add(current);
+      reservedBytes += chunkSize;
+    }
+    int position = current.position();
+    current.limit(position + size);
+    ByteBuffer buffer = current.slice();
+    current.limit(current.capacity());
+    current.position(position + size);
+    return buffer;
+  }
+
+  @Override
+  public synchronized void free(ByteBuffer buffer) {
+    allocatedBytes -= buffer.capacity();
+    if (buffer.capacity() > 1 << MAX_SHIFT) {
+      reservedBytes -= buffer.capacity();
+      if (dedicated.remove(buffer)) {
+        release(buffer);
+      }
+    } else if (!closed) {
+      buffer.clear();
+      freeLists[Integer.numberOfTrailingZeros(buffer.capacity()) - MIN_SHIFT].push(buffer);
+    }
+    if (closed && allocatedBytes == 0) {
+      releaseChunks();
+    }
+  }
+
+  /**
+   * @return the number of bytes handed out and not yet released
+   */
+  public synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * @return the number of bytes of direct memory held by the arena
+   */
+  public synchronized long getReservedBytes() {
+    return reservedBytes;
+  }
+
+  /**
+   * Stops allocating, and frees all the memory of the arena once every buffer it allocated has
+   * been freed, which may be right away.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (ArrayDeque<ByteBuffer> freeList : freeLists) {
+      freeList.clear();
+    }
+    current = null;
+    if (allocatedBytes == 0) {
+      releaseChunks();
+    }
+  }
+
+  private void releaseChunks() {
+    for (ByteBuffer chunk : chunks) {
+      release(chunk);
+    }
+    chunks.clear();
+    reservedBytes = 0;
+  }
+
+  private static void release(ByteBuffer buffer) {
+    if (CLEANER != null) {
+      CLEANER.accept(buffer);
+    }
+  }
+
+  private static Consumer<ByteBuffer> findCleaner() {
+    try {
+      // Java 9 and later
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      return buffer -> invoke(invokeCleaner, unsafe, buffer);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Java 8 has no invokeCleaner, its direct buffers have a cleaner() method instead
+    }
+    try {
+      Method cleaner = ByteBuffer.allocateDirect(1).getClass().getMethod("cleaner");
+      cleaner.setAccessible(true);
+      Method clean = cleaner.getReturnType().getMethod("clean");
+      clean.setAccessible(true);
+      return buffer -> invoke(clean, invoke(cleaner, buffer));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static Object invoke(Method method, Object target, Object... arguments) {
+    try {
+      return method.invoke(target, arguments);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,864 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import org.roaringbitmap.IntConsumer;
+import org.roaringbitmap.PeekableShortIterator;
+import org.roaringbitmap.Util;
+
+import static java.lang.Long.bitCount;
+import static java.lang.Long.numberOfTrailingZeros;
+import static org.roaringbitmap.buffer.BufferUtil.toIntUnsigned;
+
+/**
+ * Flyweight over the containers of a bitmap mapped from a ByteBuffer. Unlike
+ * {@link MappeableContainerPointer#getContainer()}, which duplicates the buffer and wraps a view
+ * of it in a new container each time, the cursor reads the serialized containers in place, at
+ * absolute offsets of the backing buffer, so moving it around does not allocate. You can create
+ * one reusable instance of this class and then {@link #wrap(ImmutableRoaringBitmap)}.
+ *
+ * <pre>
+ * {@code
+ *      ImmutableContainerCursor cursor = new ImmutableContainerCursor(bitmap);
+ *      long[] words = new long[1024];
+ *      for (; cursor.hasContainer(); cursor.advance()) {
+ *        cursor.orInto(words);
+ *      }
+ * }
+ * </pre>
+ *
+ * Like the bitmap it wraps, a cursor can be used concurrently with other cursors over the same
+ * bitmap, but a single cursor is not thread-safe.
+ */
+public final class ImmutableContainerCursor implements Cloneable {
+
+  private static final int ARRAY = 0;
+  private static final int BITMAP = 1;
+  private static final int RUN = 2;
+
+  private ImmutableRoaringArray array;
+  private ByteBuffer buffer;
+  private boolean hasrun;
+  private int index;
+  private int offset;
+  private int type;
+  private int cardinality;
+  private int nbrruns;
+
+  /**
+   * Creates an instance that is not ready for use. You must first call
+   * {@link #wrap(ImmutableRoaringBitmap)}.
+   */
+  public ImmutableContainerCursor() {
+
+  }
+
+  /**
+   * Creates an instance positioned on the first container of the bitmap.
+   *
+   * @param bitmap bitmap mapped from a ByteBuffer
+   */
+  public ImmutableContainerCursor(ImmutableRoaringBitmap bitmap) {
+    wrap(bitmap);
+  }
+
+  /**
+   * Positions the cursor on the first container of the bitmap.
+   *
+   * @param bitmap bitmap mapped from a ByteBuffer
+   * @throws IllegalArgumentException if the bitmap is not backed by a ByteBuffer, as is the case
+   *         of a {@link MutableRoaringBitmap}
+   */
+  public void wrap(ImmutableRoaringBitmap bitmap) {
+    if (!(bitmap.highLowContainer instanceof ImmutableRoaringArray)) {
+      throw new IllegalArgumentException("Only bitmaps mapped from a ByteBuffer can be wrapped");
+    }
+    wrap((ImmutableRoaringArray) bitmap.highLowContainer);
+  }
+
+  void wrap(ImmutableRoaringArray array) {
+    this.array = array;
+    this.buffer = array.buffer;
+    this.hasrun = !array.isEmpty() && array.hasRunCompression();
+    moveTo(0);
+  }
+
+  @Override
+  public ImmutableContainerCursor clone() {
+    try {
+      return (ImmutableContainerCursor) super.clone();
+    } catch (CloneNotSupportedException e) {
+      return null;// will not happen
+    }
+  }
+
+  /**
+   * @return whether the cursor is on a container
+   */
+  public boolean hasContainer() {
+    return index < array.size;
+  }
+
+  /**
+   * Moves to the next container. Sequential moves do not read the offsets of the containers,
+   * which serialized bitmaps with few containers do not store.
+   */
+  public void advance() {
+    int next = offset + BufferUtil.getSizeInBytesFromCardinalityEtc(cardinality, nbrruns,
+        type == RUN);
+    ++index;
+    if (hasContainer()) {
+      load(next);
+    }
+  }
+
+  /**
+   * Moves to the first container whose key is greater than or equal to the provided key,
+   * unless the cursor is already past it.
+   *
+   * @param key the most significant 16 bits of a value
+   * @return whether the cursor is on a container
+   */
+  public boolean advanceUntil(short key) {
+    if (hasContainer() && toIntUnsigned(key()) < toIntUnsigned(key)) {
+      int next = array.advanceUntil(key, index);
+      if (next == index + 1) {
+        advance();
+      } else {
+        moveTo(next);
+      }
+    }
+    return hasContainer();
+  }
+
+  /**
+   * Moves to the container at the provided index.
+   *
+   * @param index index of the container, in [0, number of containers]
+   */
+  public void moveTo(int index) {
+    this.index = index;
+    if (hasContainer()) {
+      load(array.getOffsetContainer(index));
+    }
+  }
+
+  private void load(int offset) {
+    this.offset = offset;
+    this.cardinality = array.getCardinality(index);
+    if (array.isRunContainer(index, hasrun)) {
+      type = RUN;
+      nbrruns = toIntUnsigned(buffer.getShort(offset));
+    } else {
+      type = cardinality > MappeableArrayContainer.DEFAULT_MAX_SIZE ? BITMAP : ARRAY;
+      nbrruns = 0;
+    }
+  }
+
+  /**
+   * @return index of the current container
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * @return key of the current container
+   */
+  public short key() {
+    return array.getKeyAtIndex(index);
+  }
+
+  /**
+   * @return cardinality of the current container
+   */
+  public int getCardinality() {
+    return cardinality;
+  }
+
+  /**
+   * @return whether the current container is a bitmap container
+   */
+  public boolean isBitmapContainer() {
+    return type == BITMAP;
+  }
+
+  /**
+   * @return whether the current container is a run container
+   */
+  public boolean isRunContainer() {
+    return type == RUN;
+  }
+
+  /**
+   * Checks whether the current container contains the value.
+   *
+   * @param x the least significant 16 bits of a value
+   * @return whether the value is in the current container
+   */
+  public boolean contains(short x) {
+    switch (type) {
+      case RUN:
+        return MappeableRunContainer.contains(buffer, offset + 2, x, nbrruns);
+      case BITMAP:
+        return MappeableBitmapContainer.contains(buffer, offset, x);
+      default:
+        return MappeableArrayContainer.contains(buffer, offset, x, cardinality);
+    }
+  }
+
+  /**
+   * Computes the cardinality of the intersection of the current containers of both cursors.
+   *
+   * @param other a cursor on a container with the same key
+   * @return the cardinality of the intersection
+   */
+  public int andCardinality(ImmutableContainerCursor other) {
+    return intersection(other, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Checks whether the current containers of both cursors intersect.
+   *
+   * @param other a cursor on a container with the same key
+   * @return whether the containers intersect
+   */
+  public boolean intersects(ImmutableContainerCursor other) {
+    return intersection(other, 1) > 0;
+  }
+
+  /**
+   * Sets the bits of the current container in the 1024 words of the provided buffer.
+   *
+   * @param words a buffer of 1024 words
+   */
+  public void orInto(long[] words) {
+    switch (type) {
+      case RUN:
+        for (int i = 0; i < nbrruns; ++i) {
+          int start = runStart(i);
+          Util.setBitmapRange(words, start, start + runLength(i) + 1);
+        }
+        break;
+      case BITMAP:
+        for (int i = 0; i < words.length; ++i) {
+          words[i] |= word(i);
+        }
+        break;
+      default:
+        for (int i = 0; i < cardinality; ++i) {
+          int value = value(i);
+          words[value >>> 6] |= 1L << value;
+        }
+    }
+  }
+
+  /**
+   * Clears the bits of the 1024 words of the provided buffer which are absent from the current
+   * container.
+   *
+   * @param words a buffer of 1024 words
+   */
+  public void andInto(long[] words) {
+    int start = 0;
+    switch (type) {
+      case RUN:
+        for (int i = 0; i < nbrruns; ++i) {
+          int runStart = runStart(i);
+          Util.resetBitmapRange(words, start, runStart);
+          start = runStart + runLength(i) + 1;
+        }
+        break;
+      case BITMAP:
+        for (int i = 0; i < words.length; ++i) {
+          words[i] &= word(i);
+        }
+        return;
+      default:
+        for (int i = 0; i < cardinality; ++i) {
+          int value = value(i);
+          Util.resetBitmapRange(words, start, value);
+          start = value + 1;
+        }
+    }
+    Util.resetBitmapRange(words, start, MappeableBitmapContainer.MAX_CAPACITY);
+  }
+
+  /**
+   * Copies the current container onto the heap, reading the buffer in place.
+   *
+   * @return a modifiable copy of the current container
+   */
+  public MappeableContainer copy() {
+    switch (type) {
+      case RUN:
+        short[] runs = new short[2 * nbrruns];
+        for (int i = 0; i < runs.length; ++i) {
+          runs[i] = buffer.getShort(offset + 2 + 2 * i);
+        }
+        return new MappeableRunContainer(ShortBuffer.wrap(runs), nbrruns);
+      case BITMAP:
+        long[] bitmap = new long[MappeableBitmapContainer.MAX_CAPACITY / 64];
+        for (int i = 0; i < bitmap.length; ++i) {
+          bitmap[i] = word(i);
+        }
+        return new MappeableBitmapContainer(LongBuffer.wrap(bitmap), cardinality);
+      default:
+        short[] values = new short[cardinality];
+        for (int i = 0; i < cardinality; ++i) {
+          values[i] = buffer.getShort(offset + 2 * i);
+        }
+        return new MappeableArrayContainer(ShortBuffer.wrap(values), cardinality);
+    }
+  }
+
+  /**
+   * Computes the intersection of the current containers of both cursors, like
+   * {@link MappeableContainer#and(MappeableContainer)} without wrapping them.
+   *
+   * @param other a cursor on a container with the same key
+   * @param words a scratch buffer of 1024 words, overwritten
+   * @return the intersection, or null if it is empty
+   */
+  public MappeableContainer and(ImmutableContainerCursor other, long[] words) {
+    if (type == ARRAY) {
+      return filter(other, true);
+    }
+    if (other.type == ARRAY) {
+      return other.filter(this, true);
+    }
+    clear(words);
+    orInto(words);
+    other.andInto(words);
+    return fromWords(words, type == RUN || other.type == RUN);
+  }
+
+  /**
+   * Computes the union of the current containers of both cursors, like
+   * {@link MappeableContainer#or(MappeableContainer)} without wrapping them.
+   *
+   * @param other a cursor on a container with the same key
+   * @param words a scratch buffer of 1024 words, overwritten
+   * @return the union
+   */
+  public MappeableContainer or(ImmutableContainerCursor other, long[] words) {
+    if (type == ARRAY && other.type == ARRAY
+        && cardinality + other.cardinality <= MappeableArrayContainer.DEFAULT_MAX_SIZE) {
+      return mergeArrays(other, false);
+    }
+    clear(words);
+    orInto(words);
+    other.orInto(words);
+    return fromWords(words, type == RUN || other.type == RUN);
+  }
+
+  /**
+   * Computes the difference of the current containers of both cursors, like
+   * {@link MappeableContainer#andNot(MappeableContainer)} without wrapping them.
+   *
+   * @param other a cursor on a container with the same key
+   * @param words a scratch buffer of 1024 words, overwritten
+   * @return the difference, or null if it is empty
+   */
+  public MappeableContainer andNot(ImmutableContainerCursor other, long[] words) {
+    if (type == ARRAY) {
+      return filter(other, false);
+    }
+    clear(words);
+    orInto(words);
+    other.andNotInto(words);
+    return fromWords(words, type == RUN || other.type == RUN);
+  }
+
+  /**
+   * Computes the symmetric difference of the current containers of both cursors, like
+   * {@link MappeableContainer#xor(MappeableContainer)} without wrapping them.
+   *
+   * @param other a cursor on a container with the same key
+   * @param words a scratch buffer of 1024 words, overwritten
+   * @return the symmetric difference, or null if it is empty
+   */
+  public MappeableContainer xor(ImmutableContainerCursor other, long[] words) {
+    if (type == ARRAY && other.type == ARRAY
+        && cardinality + other.cardinality <= MappeableArrayContainer.DEFAULT_MAX_SIZE) {
+      return mergeArrays(other, true);
+    }
+    clear(words);
+    orInto(words);
+    other.xorInto(words);
+    return fromWords(words, type == RUN || other.type == RUN);
+  }
+
+  /**
+   * Visits the values of the current container, in ascending order.
+   *
+   * @param ic the consumer
+   */
+  public void forEach(IntConsumer ic) {
+    final int high = toIntUnsigned(key()) << 16;
+    switch (type) {
+      case RUN:
+        for (int i = 0; i < nbrruns; ++i) {
+          // loops on the low bits, as high | end may be Integer.MAX_VALUE
+          int start = runStart(i);
+          int end = start + runLength(i);
+          for (int low = start; low <= end; ++low) {
+            ic.accept(high | low);
+          }
+        }
+        break;
+      case BITMAP:
+        for (int i = 0; i < MappeableBitmapContainer.MAX_CAPACITY / 64; ++i) {
+          long w = word(i);
+          while (w != 0) {
+            ic.accept(high | (i << 6) + numberOfTrailingZeros(w));
+            w &= w - 1;
+          }
+        }
+        break;
+      default:
+        for (int i = 0; i < cardinality; ++i) {
+          ic.accept(high | value(i));
+        }
+    }
+  }
+
+  /**
+   * Iterates over the current container. The iterator reads the buffer in place and remains
+   * valid when the cursor moves.
+   *
+   * @return an iterator over the least significant 16 bits of the values
+   */
+  public PeekableShortIterator getShortIterator() {
+    ImmutableContainerShortIterator iterator = new ImmutableContainerShortIterator();
+    iterator.wrap(this);
+    return iterator;
+  }
+
+  /**
+   * Wraps the current container in a new container object, when the flyweight methods do not
+   * suffice.
+   *
+   * @return the current container
+   */
+  public MappeableContainer getContainer() {
+    return array.getContainerAtIndex(index);
+  }
+
+  // clears the bits of the words which are in the current container
+  private void andNotInto(long[] words) {
+    switch (type) {
+      case RUN:
+        for (int i = 0; i < nbrruns; ++i) {
+          int start = runStart(i);
+          Util.resetBitmapRange(words, start, start + runLength(i) + 1);
+        }
+        break;
+      case BITMAP:
+        for (int i = 0; i < words.length; ++i) {
+          words[i] &= ~word(i);
+        }
+        break;
+      default:
+        for (int i = 0; i < cardinality; ++i) {
+          int value = value(i);
+          words[value >>> 6] &= ~(1L << value);
+        }
+    }
+  }
+
+  // flips the bits of the words which are in the current container
+  private void xorInto(long[] words) {
+    switch (type) {
+      case RUN:
+        for (int i = 0; i < nbrruns; ++i) {
+          int start = runStart(i);
+          Util.flipBitmapRange(words, start, start + runLength(i) + 1);
+        }
+        break;
+      case BITMAP:
+        for (int i = 0; i < words.length; ++i) {
+          words[i] ^= word(i);
+        }
+        break;
+      default:
+        for (int i = 0; i < cardinality; ++i) {
+          int value = value(i);
+          words[value >>> 6] ^= 1L << value;
+        }
+    }
+  }
+
+  private static void clear(long[] words) {
+    Arrays.fill(words, 0L);
+  }
+
+  // the container holding the bits of the words, or null if there are none. Like the container
+  // kernels, arrays hold at most DEFAULT_MAX_SIZE values, and runs are kept if smaller
+  private static MappeableContainer fromWords(long[] words, boolean runs) {
+    int cardinality = 0;
+    for (long w : words) {
+      cardinality += bitCount(w);
+    }
+    if (cardinality == 0) {
+      return null;
+    }
+    final MappeableContainer answer;
+    if (cardinality <= MappeableArrayContainer.DEFAULT_MAX_SIZE) {
+      short[] values = new short[cardinality];
+      int pos = 0;
+      for (int i = 0; i < words.length; ++i) {
+        long w = words[i];
+        while (w != 0) {
+          values[pos++] = (short) ((i << 6) + numberOfTrailingZeros(w));
+          w &= w - 1;
+        }
+      }
+      answer = new MappeableArrayContainer(ShortBuffer.wrap(values), cardinality);
+    } else {
+      answer = new MappeableBitmapContainer(LongBuffer.wrap(words.clone()), cardinality);
+    }
+    return runs ? answer.runOptimize() : answer;
+  }
+
+  // this cursor is on an array container: keeps its values which are, or are not, in the other
+  private MappeableContainer filter(ImmutableContainerCursor other, boolean in) {
+    short[] values = new short[cardinality];
+    int count = 0;
+    for (int i = 0; i < cardinality; ++i) {
+      short value = buffer.getShort(offset + 2 * i);
+      if (other.contains(value) == in) {
+        values[count++] = value;
+      }
+    }
+    if (count == 0) {
+      return null;
+    }
+    return new MappeableArrayContainer(ShortBuffer.wrap(values, 0, count), count);
+  }
+
+  // both cursors are on array containers: merges their union, or their symmetric difference
+  private MappeableContainer mergeArrays(ImmutableContainerCursor other, boolean exclusive) {
+    short[] values = new short[cardinality + other.cardinality];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < cardinality && j < other.cardinality) {
+      int v1 = value(i);
+      int v2 = other.value(j);
+      if (v1 < v2) {
+        values[count++] = (short) v1;
+        ++i;
+      } else if (v1 > v2) {
+        values[count++] = (short) v2;
+        ++j;
+      } else {
+        if (!exclusive) {
+          values[count++] = (short) v1;
+        }
+        ++i;
+        ++j;
+      }
+    }
+    for (; i < cardinality; ++i) {
+      values[count++] = (short) value(i);
+    }
+    for (; j < other.cardinality; ++j) {
+      values[count++] = (short) other.value(j);
+    }
+    if (count == 0) {
+      return null;
+    }
+    return new MappeableArrayContainer(ShortBuffer.wrap(values, 0, count), count);
+  }
+
+  private int value(int i) {
+    return toIntUnsigned(buffer.getShort(offset + 2 * i));
+  }
+
+  private long word(int i) {
+    return buffer.getLong(offset + 8 * i);
+  }
+
+  private int runStart(int i) {
+    return toIntUnsigned(buffer.getShort(offset + 2 + 4 * i));
+  }
+
+  private int runLength(int i) {
+    return toIntUnsigned(buffer.getShort(offset + 4 + 4 * i));
+  }
+
+  // counts the common values, stopping as soon as there are limit of them
+  private int intersection(ImmutableContainerCursor other, int limit) {
+    if (type == ARRAY && other.type == ARRAY) {
+      return intersectArrays(other, limit);
+    }
+    if (type == ARRAY) {
+      return countContainedIn(other, limit);
+    }
+    if (other.type == ARRAY) {
+      return other.countContainedIn(this, limit);
+    }
+    if (type == BITMAP && other.type == BITMAP) {
+      int count = 0;
+      for (int i = 0; i < MappeableBitmapContainer.MAX_CAPACITY / 64 && count < limit; ++i) {
+        count += bitCount(word(i) & other.word(i));
+      }
+      return count;
+    }
+    if (type == BITMAP) {
+      return countInRuns(other, limit);
+    }
+    if (other.type == BITMAP) {
+      return other.countInRuns(this, limit);
+    }
+    return intersectRuns(other, limit);
+  }
+
+  private int intersectArrays(ImmutableContainerCursor other, int limit) {
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < cardinality && j < other.cardinality && count < limit) {
+      int v1 = value(i);
+      int v2 = other.value(j);
+      if (v1 < v2) {
+        ++i;
+      } else if (v1 > v2) {
+        ++j;
+      } else {
+        ++count;
+        ++i;
+        ++j;
+      }
+    }
+    return count;
+  }
+
+  // this cursor is on an array container
+  private int countContainedIn(ImmutableContainerCursor other, int limit) {
+    int count = 0;
+    for (int i = 0; i < cardinality && count < limit; ++i) {
+      if (other.contains((short) value(i))) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  // this cursor is on a bitmap container, the other on a run container
+  private int countInRuns(ImmutableContainerCursor runs, int limit) {
+    int count = 0;
+    for (int i = 0; i < runs.nbrruns && count < limit; ++i) {
+      int start = runs.runStart(i);
+      int end = start + runs.runLength(i);
+      int firstWord = start >>> 6;
+      int lastWord = end >>> 6;
+      long lastMask = -1L >>> (63 - (end & 63));
+      if (firstWord == lastWord) {
+        count += bitCount(word(firstWord) & (-1L << start) & lastMask);
+      } else {
+        count += bitCount(word(firstWord) & (-1L << start));
+        for (int w = firstWord + 1; w < lastWord; ++w) {
+          count += bitCount(word(w));
+        }
+        count += bitCount(word(lastWord) & lastMask);
+      }
+    }
+    return count;
+  }
+
+  private int intersectRuns(ImmutableContainerCursor other, int limit) {
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < nbrruns && j < other.nbrruns && count < limit) {
+      int start1 = runStart(i);
+      int end1 = start1 + runLength(i);
+      int start2 = other.runStart(j);
+      int end2 = start2 + other.runLength(j);
+      int start = Math.max(start1, start2);
+      int end = Math.min(end1, end2);
+      if (start <= end) {
+        count += end - start + 1;
+      }
+      if (end1 < end2) {
+        ++i;
+      } else {
+        ++j;
+      }
+    }
+    return count;
+  }
+
+  ByteBuffer buffer() {
+    return buffer;
+  }
+
+  int offset() {
+    return offset;
+  }
+
+  int numberOfRuns() {
+    return nbrruns;
+  }
+}
+
+
+/**
+ * Iterator over a container read in place by an {@link ImmutableContainerCursor}.
+ */
+final class ImmutableContainerShortIterator implements PeekableShortIterator {
+
+  private static final int WORDS = MappeableBitmapContainer.MAX_CAPACITY / 64;
+
+  private ByteBuffer buffer;
+  private int offset;
+  private boolean run;
+  private boolean bitmap;
+  // array containers: position and cardinality
+  private int pos;
+  private int cardinality;
+  // bitmap containers: index and remaining bits of the current word
+  private int x;
+  private long w;
+  // run containers: index of the run, next value and last value of the run
+  private int nbrruns;
+  private int value;
+  private int end;
+
+  void wrap(ImmutableContainerCursor cursor) {
+    buffer = cursor.buffer();
+    offset = cursor.offset();
+    run = cursor.isRunContainer();
+    bitmap = cursor.isBitmapContainer();
+    pos = 0;
+    if (run) {
+      nbrruns = cursor.numberOfRuns();
+      loadRun();
+    } else if (bitmap) {
+      x = -1;
+      w = 0;
+      nextWord();
+    } else {
+      cardinality = cursor.getCardinality();
+    }
+  }
+
+  private void loadRun() {
+    if (pos < nbrruns) {
+      value = toIntUnsigned(buffer.getShort(offset + 2 + 4 * pos));
+      end = value + toIntUnsigned(buffer.getShort(offset + 4 + 4 * pos));
+    }
+  }
+
+  private void nextWord() {
+    while (w == 0 && ++x < WORDS) {
+      w = buffer.getLong(offset + 8 * x);
+    }
+  }
+
+  @Override
+  public ImmutableContainerShortIterator clone() {
+    try {
+      return (ImmutableContainerShortIterator) super.clone();
+    } catch (CloneNotSupportedException e) {
+      return null;// will not happen
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (run) {
+      return pos < nbrruns;
+    }
+    if (bitmap) {
+      return x < WORDS;
+    }
+    return pos < cardinality;
+  }
+
+  @Override
+  public short next() {
+    if (run) {
+      short answer = (short) value;
+      if (value++ == end) {
+        ++pos;
+        loadRun();
+      }
+      return answer;
+    }
+    if (bitmap) {
+      short answer = (short) ((x << 6) + numberOfTrailingZeros(w));
+      w &= w - 1;
+      nextWord();
+      return answer;
+    }
+    return buffer.getShort(offset + 2 * pos++);
+  }
+
+  @Override
+  public int nextAsInt() {
+    return toIntUnsigned(next());
+  }
+
+  @Override
+  public short peekNext() {
+    if (run) {
+      return (short) value;
+    }
+    if (bitmap) {
+      return (short) ((x << 6) + numberOfTrailingZeros(w));
+    }
+    return buffer.getShort(offset + 2 * pos);
+  }
+
+  @Override
+  public void advanceIfNeeded(short minval) {
+    final int min = toIntUnsigned(minval);
+    if (run) {
+      while (pos < nbrruns && end < min) {
+        ++pos;
+        loadRun();
+      }
+      if (pos < nbrruns && value < min) {
+        value = min;
+      }
+    } else if (bitmap) {
+      if (x < WORDS && (x << 6) + numberOfTrailingZeros(w) < min) {
+        int target = min >>> 6;
+        if (target > x) {
+          x = target;
+          w = buffer.getLong(offset + 8 * x);
+        }
+        w &= -1L << min;
+        nextWord();
+      }
+    } else if (pos < cardinality && toIntUnsigned(buffer.getShort(offset + 2 * pos)) < min) {
+      // binary search for the first value greater than or equal to min
+      int low = pos + 1;
+      int high = cardinality - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        if (toIntUnsigned(buffer.getShort(offset + 2 * middle)) < min) {
+          low = middle + 1;
+        } else {
+          high = middle - 1;
+        }
+      }
+      pos = low;
+    }
+  }
+
+  @Override
+  public void remove() {
+    throw new RuntimeException("Cannot modify.");
+  }
+}
@@ -320,7 +320,7 @@ public final class ImmutableRoaringArray implements PointableRoaringArray {
     return buffer.getShort(4 * i + getStartOfKeys());
   }
 
-  private int getOffsetContainer(int k) {
+  int getOffsetContainer(int k) {
     if ((k < 0) || (k >= this.size)) {
       throw new IllegalArgumentException(
           "out of range container index: " + k + " (report as a bug)");
@@ -403,7 +403,7 @@ public final class ImmutableRoaringArray implements PointableRoaringArray {
   }
 
   // hasrun should be initialized with hasRunCompression()
-  private boolean isRunContainer(int i, boolean hasrun) {
+  boolean isRunContainer(int i, boolean hasrun) {
     if (hasrun) { // info is in the buffer
       int j = buffer.get(startofrunbitmap + i / 8);
       int mask = 1 << (i % 8);
@@ -73,8 +73,12 @@ public class ImmutableRoaringBitmap
     implements Iterable<Integer>, Cloneable, ImmutableBitmapDataProvider {
 
   private final class ImmutableRoaringIntIterator implements PeekableIntIterator {
-    private MappeableContainerPointer cp =
-        ImmutableRoaringBitmap.this.highLowContainer.getContainerPointer();
+    private MappeableContainerPointer cp;
+
+    // reads mapped bitmaps in place, null for mutable bitmaps
+    private ImmutableContainerCursor cursor;
+
+    private ImmutableContainerShortIterator cursorIter;
 
     private int hs = 0;
 
@@ -83,6 +87,13 @@ public class ImmutableRoaringBitmap
     private boolean ok;
 
     public ImmutableRoaringIntIterator() {
+      if (highLowContainer instanceof ImmutableRoaringArray) {
+        cursor = new ImmutableContainerCursor();
+        cursor.wrap((ImmutableRoaringArray) highLowContainer);
+        cursorIter = new ImmutableContainerShortIterator();
+      } else {
+        cp = highLowContainer.getContainerPointer();
+      }
       nextContainer();
     }
 
@@ -90,8 +101,12 @@ public class ImmutableRoaringBitmap
     public PeekableIntIterator clone() {
       try {
         ImmutableRoaringIntIterator x = (ImmutableRoaringIntIterator) super.clone();
+        if (this.cursor != null) {
+          x.cursor = this.cursor.clone();
+          x.cursorIter = this.cursorIter.clone();
+        }
         if(this.iter != null) {
-          x.iter = this.iter.clone();
+          x.iter = this.iter == this.cursorIter ? x.cursorIter : this.iter.clone();
         }
         if(this.cp != null) {
           x.cp = this.cp.clone();
@@ -111,14 +126,31 @@ public class ImmutableRoaringBitmap
     public int next() {
       int x = iter.nextAsInt() | hs;
       if (!iter.hasNext()) {
-        cp.advance();
+        advanceContainer();
         nextContainer();
       }
       return x;
     }
 
 
+    private void advanceContainer() {
+      if (cursor != null) {
+        cursor.advance();
+      } else {
+        cp.advance();
+      }
+    }
+
     private void nextContainer() {
+      if (cursor != null) {
+        ok = cursor.hasContainer();
+        if (ok) {
+          cursorIter.wrap(cursor);
+          iter = cursorIter;
+          hs = BufferUtil.toIntUnsigned(cursor.key()) << 16;
+        }
+        return;
+      }
       ok = cp.hasContainer();
       if (ok) {
         iter = cp.getContainer().getShortIterator();
@@ -129,13 +161,13 @@ public class ImmutableRoaringBitmap
     @Override
     public void advanceIfNeeded(int minval) {
       while (hasNext() && ((hs >>> 16) < (minval >>> 16))) {
-        cp.advance();
+        advanceContainer();
         nextContainer();
       }
       if (ok && ((hs >>> 16) == (minval >>> 16))) {
         iter.advanceIfNeeded(lowbits(minval));
         if (!iter.hasNext()) {
-          cp.advance();
+          advanceContainer();
           nextContainer();
         }
       }
@@ -256,6 +288,11 @@ public class ImmutableRoaringBitmap
    */
   public static MutableRoaringBitmap and(final ImmutableRoaringBitmap x1,
       final ImmutableRoaringBitmap x2) {
+    final ImmutableContainerCursor cursor1 = cursorOrNull(x1);
+    final ImmutableContainerCursor cursor2 = cursorOrNull(x2);
+    if (cursor1 != null && cursor2 != null) {
+      return and(cursor1, cursor2);
+    }
     final MutableRoaringBitmap answer = new MutableRoaringBitmap();
     int pos1 = 0, pos2 = 0;
     final int length1 = x1.highLowContainer.size(), length2 = x2.highLowContainer.size();
@@ -296,15 +333,23 @@ public class ImmutableRoaringBitmap
     int answer = 0;
     int pos1 = 0, pos2 = 0;
     final int length1 = x1.highLowContainer.size(), length2 = x2.highLowContainer.size();
+    final ImmutableContainerCursor cursor1 = cursorOrNull(x1);
+    final ImmutableContainerCursor cursor2 = cursorOrNull(x2);
 
     while (pos1 < length1 && pos2 < length2) {
       final short s1 = x1.highLowContainer.getKeyAtIndex(pos1);
       final short s2 = x2.highLowContainer.getKeyAtIndex(pos2);
 
       if (s1 == s2) {
-        final MappeableContainer c1 = x1.highLowContainer.getContainerAtIndex(pos1);
-        final MappeableContainer c2 = x2.highLowContainer.getContainerAtIndex(pos2);
-        answer += c1.andCardinality(c2);
+        if (cursor1 != null && cursor2 != null) {
+          cursor1.moveTo(pos1);
+          cursor2.moveTo(pos2);
+          answer += cursor1.andCardinality(cursor2);
+        } else {
+          final MappeableContainer c1 = x1.highLowContainer.getContainerAtIndex(pos1);
+          final MappeableContainer c2 = x2.highLowContainer.getContainerAtIndex(pos2);
+          answer += c1.andCardinality(c2);
+        }
         ++pos1;
         ++pos2;
       } else if (Util.compareUnsigned(s1, s2) < 0) { // s1 < s2
@@ -398,6 +443,11 @@ public class ImmutableRoaringBitmap
    */
   public static MutableRoaringBitmap andNot(final ImmutableRoaringBitmap x1,
       final ImmutableRoaringBitmap x2) {
+    final ImmutableContainerCursor cursor1 = cursorOrNull(x1);
+    final ImmutableContainerCursor cursor2 = cursorOrNull(x2);
+    if (cursor1 != null && cursor2 != null) {
+      return andNot(cursor1, cursor2);
+    }
     final MutableRoaringBitmap answer = new MutableRoaringBitmap();
     int pos1 = 0, pos2 = 0;
     final int length1 = x1.highLowContainer.size(), length2 = x2.highLowContainer.size();
@@ -638,15 +688,22 @@ public class ImmutableRoaringBitmap
       final ImmutableRoaringBitmap x2) {
     int pos1 = 0, pos2 = 0;
     final int length1 = x1.highLowContainer.size(), length2 = x2.highLowContainer.size();
+    final ImmutableContainerCursor cursor1 = cursorOrNull(x1);
+    final ImmutableContainerCursor cursor2 = cursorOrNull(x2);
 
     while (pos1 < length1 && pos2 < length2) {
       final short s1 = x1.highLowContainer.getKeyAtIndex(pos1);
       final short s2 = x2.highLowContainer.getKeyAtIndex(pos2);
 
       if (s1 == s2) {
-        final MappeableContainer c1 = x1.highLowContainer.getContainerAtIndex(pos1);
-        final MappeableContainer c2 = x2.highLowContainer.getContainerAtIndex(pos2);
-        if (c1.intersects(c2)) {
+        if (cursor1 != null && cursor2 != null) {
+          cursor1.moveTo(pos1);
+          cursor2.moveTo(pos2);
+          if (cursor1.intersects(cursor2)) {
+            return true;
+          }
+        } else if (x1.highLowContainer.getContainerAtIndex(pos1)
+            .intersects(x2.highLowContainer.getContainerAtIndex(pos2))) {
           return true;
         }
         ++pos1;
@@ -660,6 +717,122 @@ public class ImmutableRoaringBitmap
     return false;
   }
 
+  // cursors only apply to bitmaps mapped from a ByteBuffer
+  static ImmutableContainerCursor cursorOrNull(ImmutableRoaringBitmap bitmap) {
+    if (bitmap.highLowContainer instanceof ImmutableRoaringArray) {
+      ImmutableContainerCursor cursor = new ImmutableContainerCursor();
+      cursor.wrap((ImmutableRoaringArray) bitmap.highLowContainer);
+      return cursor;
+    }
+    return null;
+  }
+
+  // the binary operations between bitmaps mapped from ByteBuffers read both sides in place
+  private static MutableRoaringBitmap and(ImmutableContainerCursor cursor1,
+      ImmutableContainerCursor cursor2) {
+    final MutableRoaringBitmap answer = new MutableRoaringBitmap();
+    final long[] words = new long[MappeableBitmapContainer.MAX_CAPACITY / 64];
+    while (cursor1.hasContainer() && cursor2.hasContainer()) {
+      final short s1 = cursor1.key();
+      final short s2 = cursor2.key();
+      if (s1 == s2) {
+        final MappeableContainer c = cursor1.and(cursor2, words);
+        if (c != null) {
+          answer.getMappeableRoaringArray().append(s1, c);
+        }
+        cursor1.advance();
+        cursor2.advance();
+      } else if (Util.compareUnsigned(s1, s2) < 0) { // s1 < s2
+        cursor1.advanceUntil(s2);
+      } else { // s1 > s2
+        cursor2.advanceUntil(s1);
+      }
+    }
+    return answer;
+  }
+
+  private static MutableRoaringBitmap andNot(ImmutableContainerCursor cursor1,
+      ImmutableContainerCursor cursor2) {
+    final MutableRoaringBitmap answer = new MutableRoaringBitmap();
+    final long[] words = new long[MappeableBitmapContainer.MAX_CAPACITY / 64];
+    while (cursor1.hasContainer() && cursor2.hasContainer()) {
+      final short s1 = cursor1.key();
+      final short s2 = cursor2.key();
+      if (s1 == s2) {
+        final MappeableContainer c = cursor1.andNot(cursor2, words);
+        if (c != null) {
+          answer.getMappeableRoaringArray().append(s1, c);
+        }
+        cursor1.advance();
+        cursor2.advance();
+      } else if (Util.compareUnsigned(s1, s2) < 0) { // s1 < s2
+        answer.getMappeableRoaringArray().append(s1, cursor1.copy());
+        cursor1.advance();
+      } else { // s1 > s2
+        cursor2.advanceUntil(s1);
+      }
+    }
+    appendCopies(answer, cursor1);
+    return answer;
+  }
+
+  private static MutableRoaringBitmap or(ImmutableContainerCursor cursor1,
+      ImmutableContainerCursor cursor2) {
+    final MutableRoaringBitmap answer = new MutableRoaringBitmap();
+    final long[] words = new long[MappeableBitmapContainer.MAX_CAPACITY / 64];
+    while (cursor1.hasContainer() && cursor2.hasContainer()) {
+      final short s1 = cursor1.key();
+      final short s2 = cursor2.key();
+      if (s1 == s2) {
+        answer.getMappeableRoaringArray().append(s1, cursor1.or(cursor2, words));
+        cursor1.advance();
+        cursor2.advance();
+      } else if (Util.compareUnsigned(s1, s2) < 0) { // s1 < s2
+        answer.getMappeableRoaringArray().append(s1, cursor1.copy());
+        cursor1.advance();
+      } else { // s1 > s2
+        answer.getMappeableRoaringArray().append(s2, cursor2.copy());
+        cursor2.advance();
+      }
+    }
+    appendCopies(answer, cursor1);
+    appendCopies(answer, cursor2);
+    return answer;
+  }
+
+  private static MutableRoaringBitmap xor(ImmutableContainerCursor cursor1,
+      ImmutableContainerCursor cursor2) {
+    final MutableRoaringBitmap answer = new MutableRoaringBitmap();
+    final long[] words = new long[MappeableBitmapContainer.MAX_CAPACITY / 64];
+    while (cursor1.hasContainer() && cursor2.hasContainer()) {
+      final short s1 = cursor1.key();
+      final short s2 = cursor2.key();
+      if (s1 == s2) {
+        final MappeableContainer c = cursor1.xor(cursor2, words);
+        if (c != null) {
+          answer.getMappeableRoaringArray().append(s1, c);
+        }
+        cursor1.advance();
+        cursor2.advance();
+      } else if (Util.compareUnsigned(s1, s2) < 0) { // s1 < s2
+        answer.getMappeableRoaringArray().append(s1, cursor1.copy());
+        cursor1.advance();
+      } else { // s1 > s2
+        answer.getMappeableRoaringArray().append(s2, cursor2.copy());
+        cursor2.advance();
+      }
+    }
+    appendCopies(answer, cursor1);
+    appendCopies(answer, cursor2);
+    return answer;
+  }
+
+  private static void appendCopies(MutableRoaringBitmap answer, ImmutableContainerCursor cursor) {
+    for (; cursor.hasContainer(); cursor.advance()) {
+      answer.getMappeableRoaringArray().append(cursor.key(), cursor.copy());
+    }
+  }
+
   // important: inputs should not be reused
   protected static MutableRoaringBitmap lazyor(final ImmutableRoaringBitmap x1,
       final ImmutableRoaringBitmap x2) {
@@ -732,6 +905,11 @@ public class ImmutableRoaringBitmap
    */
   public static MutableRoaringBitmap or(final ImmutableRoaringBitmap x1,
       final ImmutableRoaringBitmap x2) {
+    final ImmutableContainerCursor cursor1 = cursorOrNull(x1);
+    final ImmutableContainerCursor cursor2 = cursorOrNull(x2);
+    if (cursor1 != null && cursor2 != null) {
+      return or(cursor1, cursor2);
+    }
     final MutableRoaringBitmap answer = new MutableRoaringBitmap();
     MappeableContainerPointer i1 = x1.highLowContainer.getContainerPointer();
     MappeableContainerPointer i2 = x2.highLowContainer.getContainerPointer();
@@ -892,6 +1070,11 @@ public class ImmutableRoaringBitmap
    */
   public static MutableRoaringBitmap xor(final ImmutableRoaringBitmap x1,
       final ImmutableRoaringBitmap x2) {
+    final ImmutableContainerCursor cursor1 = cursorOrNull(x1);
+    final ImmutableContainerCursor cursor2 = cursorOrNull(x2);
+    if (cursor1 != null && cursor2 != null) {
+      return xor(cursor1, cursor2);
+    }
     final MutableRoaringBitmap answer = new MutableRoaringBitmap();
     MappeableContainerPointer i1 = x1.highLowContainer.getContainerPointer();
     MappeableContainerPointer i2 = x2.highLowContainer.getContainerPointer();
@@ -1193,6 +1376,14 @@ public class ImmutableRoaringBitmap
 
   @Override
   public void forEach(IntConsumer ic) {
+    if (highLowContainer instanceof ImmutableRoaringArray) {
+      ImmutableContainerCursor cursor = new ImmutableContainerCursor();
+      cursor.wrap((ImmutableRoaringArray) highLowContainer);
+      for (; cursor.hasContainer(); cursor.advance()) {
+        cursor.forEach(ic);
+      }
+      return;
+    }
     for (int i = 0; i < this.highLowContainer.size(); i++) {
       highLowContainer.getContainerAtIndex(i).forEach(highLowContainer.getKeyAtIndex(i), ic);
     }
@@ -1571,6 +1762,11 @@ public class ImmutableRoaringBitmap
   public long previousValue(int fromValue) {
     short key = highbits(fromValue);
     int containerIndex = highLowContainer.advanceUntil(key, -1);
+    if (containerIndex == highLowContainer.size()
+        || highLowContainer.getKeyAtIndex(containerIndex) != key) {
+      // starts from the last container before the key
+      --containerIndex;
+    }
     long prevSetBit = -1L;
     while (containerIndex != -1 && containerIndex < highLowContainer.size() && prevSetBit == -1L) {
       short containerKey = highLowContainer.getKeyAtIndex(containerIndex);
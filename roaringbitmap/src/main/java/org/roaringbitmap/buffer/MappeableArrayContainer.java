@@ -463,7 +463,7 @@ public final class MappeableArrayContainer extends MappeableContainer implements
         content.put(-loc - 1, x);
         ++cardinality;
       } else {
-        for (int k = loc + 1; k < cardinality; --k) {
+        for (int k = loc + 1; k < cardinality; ++k) {
           content.put(k - 1, content.get(k));
         }
         --cardinality;
@@ -1352,7 +1352,7 @@ public final class MappeableArrayContainer extends MappeableContainer implements
       final int loc = BufferUtil.unsignedBinarySearch(content, 0, cardinality, x);
       if (loc >= 0) {
         // insertion
-        for (int k = loc + 1; k < cardinality; --k) {
+        for (int k = loc + 1; k < cardinality; ++k) {
           content.put(k - 1, content.get(k));
         }
         --cardinality;
@@ -1405,6 +1405,25 @@ public final class MappeableArrayContainer extends MappeableContainer implements
     return bc;
   }
 
+  @Override
+  void andInto(long[] bits) {
+    int start = 0;
+    for (int i = 0; i < cardinality; ++i) {
+      int value = toIntUnsigned(content.get(i));
+      Util.resetBitmapRange(bits, start, value);
+      start = value + 1;
+    }
+    Util.resetBitmapRange(bits, start, MappeableBitmapContainer.MAX_CAPACITY);
+  }
+
+  @Override
+  void orInto(long[] bits) {
+    for (int i = 0; i < cardinality; ++i) {
+      int value = toIntUnsigned(content.get(i));
+      bits[value >>> 6] |= 1L << value;
+    }
+  }
+
   @Override
   public int first() {
     assertNonEmpty(cardinality == 0);
@@ -1420,8 +1439,8 @@ public final class MappeableArrayContainer extends MappeableContainer implements
   @Override
   public int nextValue(short fromValue) {
     int index = BufferUtil.advanceUntil(content, -1, cardinality, fromValue);
-    if (index == content.limit()) {
-      return fromValue == content.get(cardinality - 1) ? toIntUnsigned(fromValue) : -1;
+    if (index == cardinality) {
+      return -1;
     }
     return toIntUnsigned(content.get(index));
   }
@@ -1429,7 +1448,7 @@ public final class MappeableArrayContainer extends MappeableContainer implements
   @Override
   public int previousValue(short fromValue) {
     int index = BufferUtil.advanceUntil(content, -1, cardinality, fromValue);
-    if (content.limit() != index && content.get(index) == fromValue) {
+    if (index != cardinality && content.get(index) == fromValue) {
       return toIntUnsigned(content.get(index));
     }
     return index == 0 ? -1 : toIntUnsigned(content.get(index - 1));
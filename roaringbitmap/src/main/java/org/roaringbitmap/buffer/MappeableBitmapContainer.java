@@ -1885,6 +1885,20 @@ public final class MappeableBitmapContainer extends MappeableContainer implement
     return this;
   }
 
+  @Override
+  void andInto(long[] bits) {
+    for (int i = 0; i < bits.length; ++i) {
+      bits[i] &= bitmap.get(i);
+    }
+  }
+
+  @Override
+  void orInto(long[] bits) {
+    for (int i = 0; i < bits.length; ++i) {
+      bits[i] |= bitmap.get(i);
+    }
+  }
+
   @Override
   public int first() {
     assertNonEmpty(cardinality == 0);
@@ -825,6 +825,18 @@ public abstract class MappeableContainer implements Iterable<Short>, Cloneable,
    */
   public abstract MappeableBitmapContainer toBitmapContainer() ;
 
+  /**
+   * Clear, in a 1024-word bitmap, the bits which are not in this container.
+   * @param bits the 65536 bits to intersect with this container
+   */
+  abstract void andInto(long[] bits);
+
+  /**
+   * Set, in a 1024-word bitmap, the bits which are in this container.
+   * @param bits the 65536 bits to unite with this container
+   */
+  abstract void orInto(long[] bits);
+
   /**
    * Get the first integer held in the container
    * @return the first integer in the container
@@ -791,15 +791,15 @@ public final class MappeableRunContainer extends MappeableContainer implements C
       System.arraycopy(src.array(), 2 * srcIndex, dst.array(), 2 * dstIndex, 2 * length);
       return;
     }
-    // source and destination may overlap
-    // consider specialized code for various cases, rather than using a second buffer
-    ShortBuffer temp = ShortBuffer.allocate(2 * length);
-    for (int i = 0; i < 2 * length; ++i) {
-      temp.put(src.get(2 * srcIndex + i));
-    }
-    temp.flip();
-    for (int i = 0; i < 2 * length; ++i) {
-      dst.put(2 * dstIndex + i, temp.get());
+    // source and destination may overlap: copy backwards when moving the runs to the right
+    if (src == dst && dstIndex > srcIndex) {
+      for (int i = 2 * length - 1; i >= 0; --i) {
+        dst.put(2 * dstIndex + i, src.get(2 * srcIndex + i));
+      }
+    } else {
+      for (int i = 0; i < 2 * length; ++i) {
+        dst.put(2 * dstIndex + i, src.get(2 * srcIndex + i));
+      }
     }
   }
 
@@ -1507,7 +1507,7 @@ public final class MappeableRunContainer extends MappeableContainer implements C
       }
       // last run is one shorter
       if (getLength(eIndex) == 0) {// special case where we remove last run
-        recoverRoomsInRange(eIndex, eIndex + 1);
+        recoverRoomsInRange(eIndex - 1, eIndex);
       } else {
         incrementValue(eIndex);
         decrementLength(eIndex);
@@ -2572,6 +2572,25 @@ public final class MappeableRunContainer extends MappeableContainer implements C
     return answer;
   }
 
+  @Override
+  void andInto(long[] bits) {
+    int start = 0;
+    for (int i = 0; i < nbrruns; ++i) {
+      int runStart = toIntUnsigned(getValue(i));
+      Util.resetBitmapRange(bits, start, runStart);
+      start = runStart + toIntUnsigned(getLength(i)) + 1;
+    }
+    Util.resetBitmapRange(bits, start, MappeableBitmapContainer.MAX_CAPACITY);
+  }
+
+  @Override
+  void orInto(long[] bits) {
+    for (int i = 0; i < nbrruns; ++i) {
+      int runStart = toIntUnsigned(getValue(i));
+      Util.setBitmapRange(bits, runStart, runStart + toIntUnsigned(getLength(i)) + 1);
+    }
+  }
+
   @Override
   public int first() {
     assertNonEmpty(numberOfRuns() == 0);
@@ -0,0 +1,31 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.buffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the memory backing the containers of an {@link OffHeapRoaringBitmap}.
+ *
+ * @see DirectMemoryArena
+ */
+public interface MemoryAllocator {
+
+  /**
+   * Allocates a buffer of at least the requested size, with its position at 0 and its limit at
+   * its capacity.
+   *
+   * @param bytes the requested size in bytes
+   * @return a buffer, usually direct
+   */
+  ByteBuffer allocate(int bytes);
+
+  /**
+   * Returns a buffer obtained from {@link #allocate(int)}, which must no longer be used.
+   *
+   * @param buffer the buffer to release
+   */
+  void free(ByteBuffer buffer);
+}
@@ -0,0 +1,1175 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.buffer;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static org.roaringbitmap.buffer.BufferUtil.toIntUnsigned;
+import static org.roaringbitmap.buffer.MappeableArrayContainer.DEFAULT_MAX_SIZE;
+import static org.roaringbitmap.buffer.MappeableBitmapContainer.MAX_CAPACITY;
+
+/**
+ * Mutable bitmap whose containers live in memory obtained from a {@link MemoryAllocator},
+ * typically direct memory, rather than on the Java heap. It behaves as a
+ * {@link MutableRoaringBitmap}: the modifications write into the memory of the containers in
+ * place, and the containers which outgrow their memory or change type are rebuilt in memory of
+ * the allocator, their former memory being returned to it. Only the keys and the container
+ * headers live on the heap.
+ *
+ * The memory must be released explicitly with {@link #close()}, after which the bitmap is empty.
+ * Bitmaps computed from an off-heap bitmap by the static operations live on the heap, whereas
+ * {@link #clone()} copies it to memory of the same allocator. Deserialization reads the
+ * containers on the heap before moving them to the allocator. This class is not thread-safe.
+ *
+ * <pre>
+ * {@code
+ *      try (OffHeapRoaringBitmap bitmap = new OffHeapRoaringBitmap()) {
+ *        bitmap.add(0L, 1L << 30);
+ *        // ...
+ *      }
+ * }
+ * </pre>
+ */
+public class OffHeapRoaringBitmap extends MutableRoaringBitmap implements AutoCloseable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int WORDS = MAX_CAPACITY / 64;
+
+  private transient MemoryAllocator allocator;
+  private transient boolean ownsAllocator;
+  private transient Map<MappeableContainer, Region> regions = new IdentityHashMap<>();
+
+  /**
+   * Memory allocated for a container, along with the view the container uses.
+   */
+  private static final class Region {
+    private final ByteBuffer memory;
+    private final Buffer view;
+
+    Region(ByteBuffer memory, Buffer view) {
+      this.memory = memory;
+      this.view = view;
+    }
+  }
+
+  private enum Operation {
+    AND, ANDNOT, OR, XOR
+  }
+
+  /**
+   * Create an empty bitmap backed by its own {@link DirectMemoryArena}, which is closed along
+   * with the bitmap.
+   */
+  public OffHeapRoaringBitmap() {
+    this(new DirectMemoryArena(), true);
+  }
+
+  /**
+   * Create an empty bitmap backed by memory of the provided allocator, which may be shared with
+   * other bitmaps. Closing the bitmap returns its memory to the allocator.
+   *
+   * @param allocator source of the memory of the containers
+   */
+  public OffHeapRoaringBitmap(MemoryAllocator allocator) {
+    this(allocator, false);
+  }
+
+  private OffHeapRoaringBitmap(MemoryAllocator allocator, boolean ownsAllocator) {
+    this.allocator = allocator;
+    this.ownsAllocator = ownsAllocator;
+  }
+
+  /**
+   * @return the allocator providing the memory of the containers
+   */
+  public MemoryAllocator getAllocator() {
+    return allocator;
+  }
+
+  /**
+   * Releases the memory of all the containers, leaving the bitmap empty. The allocator is closed
+   * when the bitmap created it.
+   */
+  @Override
+  public void close() {
+    super.clear();
+    releaseAll();
+    if (ownsAllocator && allocator instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) allocator).close();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  /**
+   * Copies the containers which are not in memory of the allocator to it, and releases the
+   * memory of the containers which were removed. Modifications through the methods of this class
+   * do this on their own, this is needed after modifying the underlying
+   * {@link MutableRoaringArray} directly.
+   */
+  public void relocate() {
+    Set<MappeableContainer> live = Collections.newSetFromMap(new IdentityHashMap<>());
+    MutableRoaringArray array = getMappeableRoaringArray();
+    for (int i = 0; i < array.size; ++i) {
+      if (!owns(array.values[i])) {
+        array.values[i] = copyOf(array.values[i]);
+      }
+      live.add(array.values[i]);
+    }
+    Iterator<Map.Entry<MappeableContainer, Region>> it = regions.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<MappeableContainer, Region> entry = it.next();
+      if (!live.contains(entry.getKey())) {
+        allocator.free(entry.getValue().memory);
+        it.remove();
+      }
+    }
+  }
+
+  private void releaseAll() {
+    for (Region region : regions.values()) {
+      allocator.free(region.memory);
+    }
+    regions.clear();
+  }
+
+  // whether the container uses the memory allocated for it by this bitmap
+  private boolean owns(MappeableContainer container) {
+    Region region = regions.get(container);
+    return region != null && region.view == bufferOf(container);
+  }
+
+  private static Buffer bufferOf(MappeableContainer container) {
+    if (container instanceof MappeableBitmapContainer) {
+      return ((MappeableBitmapContainer) container).bitmap;
+    }
+    if (container instanceof MappeableRunContainer) {
+      return ((MappeableRunContainer) container).valueslength;
+    }
+    return ((MappeableArrayContainer) container).content;
+  }
+
+  private ByteBuffer allocate(int bytes) {
+    return allocator.allocate(bytes).order(ByteOrder.nativeOrder());
+  }
+
+  private void free(MappeableContainer container) {
+    Region region = regions.remove(container);
+    if (region != null) {
+      allocator.free(region.memory);
+    }
+  }
+
+  private MappeableContainer replace(MappeableContainer before, MappeableContainer after) {
+    free(before);
+    return after;
+  }
+
+  // the container, or null once released when it is empty
+  private MappeableContainer nonEmpty(MappeableContainer container) {
+    if (container.isEmpty()) {
+      free(container);
+      return null;
+    }
+    return container;
+  }
+
+  // an empty array container whose limit is its capacity
+  private MappeableArrayContainer newArray(int capacity) {
+    ByteBuffer memory = allocate(2 * Math.max(capacity, 1));
+    ShortBuffer content = memory.asShortBuffer();
+    content.limit(0);
+    MappeableArrayContainer array = new MappeableArrayContainer(content, 0);
+    content.limit(Math.min(content.capacity(), DEFAULT_MAX_SIZE));
+    regions.put(array, new Region(memory, content));
+    return array;
+  }
+
+  // an empty run container whose capacity, in shorts, holds at least the given number of runs
+  private MappeableRunContainer newRun(int capacity) {
+    ByteBuffer memory = allocate(4 * Math.max(capacity, 1));
+    ShortBuffer valueslength = memory.asShortBuffer();
+    MappeableRunContainer run = new MappeableRunContainer(valueslength, 0);
+    regions.put(run, new Region(memory, valueslength));
+    return run;
+  }
+
+  // a bitmap container whose words are left to the caller, since recycled memory is not zeroed
+  private MappeableBitmapContainer newBitmap() {
+    ByteBuffer memory = allocate(8 * WORDS);
+    LongBuffer words = memory.asLongBuffer();
+    words.limit(WORDS);
+    MappeableBitmapContainer bitmap = new MappeableBitmapContainer(words, 0);
+    regions.put(bitmap, new Region(memory, words));
+    return bitmap;
+  }
+
+  // makes room for extra values in an array container, or for extra runs in a run container
+  private void reserve(MappeableContainer container, int extra) {
+    if (container instanceof MappeableArrayContainer) {
+      MappeableArrayContainer array = (MappeableArrayContainer) container;
+      int needed = array.cardinality + extra;
+      if (needed > array.content.limit()) {
+        ByteBuffer memory =
+            allocate(2 * Math.max(needed, Math.min(2 * array.cardinality, DEFAULT_MAX_SIZE)));
+        ShortBuffer content = memory.asShortBuffer();
+        copy(array.content, content, array.cardinality);
+        content.limit(Math.min(content.capacity(), DEFAULT_MAX_SIZE));
+        free(array);
+        array.content = content;
+        regions.put(array, new Region(memory, content));
+      }
+    } else if (container instanceof MappeableRunContainer) {
+      MappeableRunContainer run = (MappeableRunContainer) container;
+      int needed = 2 * (run.nbrruns + extra);
+      if (needed > run.valueslength.capacity()) {
+        ByteBuffer memory = allocate(2 * Math.max(needed, 2 * run.valueslength.capacity()));
+        ShortBuffer valueslength = memory.asShortBuffer();
+        copy(run.valueslength, valueslength, 2 * run.nbrruns);
+        free(run);
+        run.valueslength = valueslength;
+        regions.put(run, new Region(memory, valueslength));
+      }
+    }
+  }
+
+  // the containers use absolute accesses, so their buffers may have any position
+  private static void copy(ShortBuffer source, ShortBuffer target, int length) {
+    ShortBuffer from = source.duplicate();
+    from.position(0);
+    from.limit(length);
+    ShortBuffer to = target.duplicate();
+    to.position(0);
+    to.put(from);
+  }
+
+  // copies a container, possibly on the heap, to memory of the allocator
+  private MappeableContainer copyOf(MappeableContainer container) {
+    if (container instanceof MappeableBitmapContainer) {
+      return bitmapOf(container);
+    }
+    if (container instanceof MappeableRunContainer) {
+      MappeableRunContainer run = (MappeableRunContainer) container;
+      MappeableRunContainer copy = newRun(run.nbrruns);
+      copy(run.valueslength, copy.valueslength, 2 * run.nbrruns);
+      copy.nbrruns = run.nbrruns;
+      return copy;
+    }
+    MappeableArrayContainer array = (MappeableArrayContainer) container;
+    MappeableArrayContainer copy = newArray(array.cardinality);
+    copy(array.content, copy.content, array.cardinality);
+    copy.cardinality = array.cardinality;
+    return copy;
+  }
+
+  // a new bitmap container holding the values of the container
+  private MappeableBitmapContainer bitmapOf(MappeableContainer container) {
+    MappeableBitmapContainer bitmap = newBitmap();
+    if (container instanceof MappeableBitmapContainer) {
+      LongBuffer from = ((MappeableBitmapContainer) container).bitmap.duplicate();
+      from.position(0);
+      from.limit(WORDS);
+      LongBuffer to = bitmap.bitmap.duplicate();
+      to.position(0);
+      to.put(from);
+    } else {
+      for (int i = 0; i < WORDS; ++i) {
+        bitmap.bitmap.put(i, 0L);
+      }
+      apply(bitmap.bitmap, Operation.OR, container);
+    }
+    bitmap.cardinality = container.getCardinality();
+    return bitmap;
+  }
+
+  // a new array container holding the values of a bitmap or run container
+  private MappeableArrayContainer arrayOf(MappeableContainer container) {
+    MappeableArrayContainer array = newArray(container.getCardinality());
+    ShortBuffer content = array.content;
+    int cardinality = 0;
+    if (container instanceof MappeableBitmapContainer) {
+      LongBuffer words = ((MappeableBitmapContainer) container).bitmap;
+      for (int i = 0; i < WORDS; ++i) {
+        for (long word = words.get(i); word != 0; word &= word - 1) {
+          content.put(cardinality++, (short) (64 * i + Long.numberOfTrailingZeros(word)));
+        }
+      }
+    } else {
+      MappeableRunContainer run = (MappeableRunContainer) container;
+      for (int k = 0; k < run.nbrruns; ++k) {
+        int start = toIntUnsigned(run.getValue(k));
+        int last = start + toIntUnsigned(run.getLength(k));
+        for (int value = start; value <= last; ++value) {
+          content.put(cardinality++, (short) value);
+        }
+      }
+    }
+    array.cardinality = cardinality;
+    return array;
+  }
+
+  // a new run container holding the values of an array or bitmap container made of numberOfRuns
+  private MappeableRunContainer runOf(MappeableContainer container, int numberOfRuns) {
+    MappeableRunContainer run = newRun(numberOfRuns);
+    ShortBuffer valueslength = run.valueslength;
+    int runs = 0;
+    if (container instanceof MappeableArrayContainer) {
+      MappeableArrayContainer array = (MappeableArrayContainer) container;
+      int i = 0;
+      while (i < array.cardinality) {
+        int start = toIntUnsigned(array.content.get(i));
+        int last = start;
+        while (++i < array.cardinality && toIntUnsigned(array.content.get(i)) == last + 1) {
+          ++last;
+        }
+        valueslength.put(2 * runs, (short) start);
+        valueslength.put(2 * runs + 1, (short) (last - start));
+        ++runs;
+      }
+    } else {
+      LongBuffer words = ((MappeableBitmapContainer) container).bitmap;
+      int i = 0;
+      long word = words.get(0);
+      while (true) {
+        while (word == 0L && i < WORDS - 1) {
+          word = words.get(++i);
+        }
+        if (word == 0L) {
+          break;
+        }
+        int start = 64 * i + Long.numberOfTrailingZeros(word);
+        // fill the trailing zeros, then skip the words belonging to the run
+        word |= word - 1;
+        while (word == -1L && i < WORDS - 1) {
+          word = words.get(++i);
+        }
+        int end = word == -1L ? MAX_CAPACITY : 64 * i + Long.numberOfTrailingZeros(~word);
+        valueslength.put(2 * runs, (short) start);
+        valueslength.put(2 * runs + 1, (short) (end - 1 - start));
+        ++runs;
+        if (word == -1L) {
+          break;
+        }
+        // clear the trailing ones
+        word &= word + 1;
+      }
+    }
+    run.nbrruns = runs;
+    return run;
+  }
+
+  // like MappeableRunContainer.toBitmapOrArrayContainer, releasing the run container
+  private MappeableContainer toBitmapOrArrayContainer(MappeableRunContainer run) {
+    return replace(run,
+        run.getCardinality() <= DEFAULT_MAX_SIZE ? arrayOf(run) : bitmapOf(run));
+  }
+
+  // like the conversion of the sparse bitmap containers to array containers, or null when empty
+  private MappeableContainer toArrayIfSparse(MappeableBitmapContainer bitmap) {
+    if (bitmap.cardinality == 0) {
+      free(bitmap);
+      return null;
+    }
+    if (bitmap.cardinality <= DEFAULT_MAX_SIZE) {
+      return replace(bitmap, arrayOf(bitmap));
+    }
+    return bitmap;
+  }
+
+  // like MappeableRunContainer.toEfficientContainer, or null when empty
+  private MappeableContainer toEfficientContainer(MappeableBitmapContainer bitmap) {
+    if (bitmap.cardinality == 0) {
+      free(bitmap);
+      return null;
+    }
+    int runs = bitmap.numberOfRuns();
+    int sizeAsRunContainer = MappeableRunContainer.serializedSizeInBytes(runs);
+    int sizeAsBitmapContainer = MappeableBitmapContainer.serializedSizeInBytes(0);
+    int sizeAsArrayContainer = MappeableArrayContainer.serializedSizeInBytes(bitmap.cardinality);
+    if (sizeAsRunContainer <= Math.min(sizeAsBitmapContainer, sizeAsArrayContainer)) {
+      return replace(bitmap, runOf(bitmap, runs));
+    }
+    return toArrayIfSparse(bitmap);
+  }
+
+  private static void clearBit(MappeableBitmapContainer bitmap, short value) {
+    int x = toIntUnsigned(value);
+    bitmap.bitmap.put(x >>> 6, bitmap.bitmap.get(x >>> 6) & ~(1L << x));
+    --bitmap.cardinality;
+  }
+
+  private MappeableArrayContainer singleton(short value) {
+    MappeableArrayContainer array = newArray(1);
+    array.content.put(0, value);
+    array.cardinality = 1;
+    return array;
+  }
+
+  // like MappeableContainer.rangeOfOnes
+  private MappeableContainer rangeOfOnes(int start, int end) {
+    if (end - start <= 2) {
+      MappeableArrayContainer array = newArray(end - start);
+      for (int value = start; value < end; ++value) {
+        array.content.put(array.cardinality++, (short) value);
+      }
+      return array;
+    }
+    MappeableRunContainer run = newRun(1);
+    run.valueslength.put(0, (short) start);
+    run.valueslength.put(1, (short) (end - 1 - start));
+    run.nbrruns = 1;
+    return run;
+  }
+
+  private MappeableContainer addTo(MappeableContainer container, short value) {
+    if (container instanceof MappeableArrayContainer) {
+      if (container.contains(value)) {
+        return container;
+      }
+      if (container.getCardinality() >= DEFAULT_MAX_SIZE) {
+        MappeableBitmapContainer bitmap = bitmapOf(container);
+        free(container);
+        return bitmap.add(value);
+      }
+      reserve(container, 1);
+    } else if (container instanceof MappeableRunContainer) {
+      reserve(container, 1);
+    }
+    return container.add(value);
+  }
+
+  private MappeableContainer removeFrom(MappeableContainer container, short value) {
+    if (container instanceof MappeableBitmapContainer) {
+      MappeableBitmapContainer bitmap = (MappeableBitmapContainer) container;
+      if (bitmap.cardinality == DEFAULT_MAX_SIZE + 1 && bitmap.contains(value)) {
+        clearBit(bitmap, value);
+        return replace(bitmap, arrayOf(bitmap));
+      }
+    } else if (container instanceof MappeableRunContainer) {
+      reserve(container, 1);
+    }
+    return container.remove(value);
+  }
+
+  private MappeableContainer addRange(MappeableContainer container, int begin, int end) {
+    if (!(container instanceof MappeableArrayContainer)) {
+      reserve(container, 1);
+      return container.iadd(begin, end);
+    }
+    MappeableArrayContainer array = (MappeableArrayContainer) container;
+    int indexStart =
+        BufferUtil.unsignedBinarySearch(array.content, 0, array.cardinality, (short) begin);
+    if (indexStart < 0) {
+      indexStart = -indexStart - 1;
+    }
+    int indexEnd =
+        BufferUtil.unsignedBinarySearch(array.content, 0, array.cardinality, (short) (end - 1));
+    indexEnd = indexEnd < 0 ? -indexEnd - 1 : indexEnd + 1;
+    int cardinality = indexStart + (array.cardinality - indexEnd) + end - begin;
+    if (cardinality > DEFAULT_MAX_SIZE) {
+      MappeableBitmapContainer bitmap = bitmapOf(array);
+      free(array);
+      return bitmap.iadd(begin, end);
+    }
+    reserve(array, cardinality - array.cardinality);
+    BufferUtil.arraycopy(array.content, indexEnd, array.content, indexStart + end - begin,
+        array.cardinality - indexEnd);
+    for (int value = begin; value < end; ++value) {
+      array.content.put(indexStart + value - begin, (short) value);
+    }
+    array.cardinality = cardinality;
+    return array;
+  }
+
+  private MappeableContainer removeRange(MappeableContainer container, int begin, int end) {
+    if (container instanceof MappeableBitmapContainer) {
+      MappeableBitmapContainer bitmap = (MappeableBitmapContainer) container;
+      bitmap.cardinality -= BufferUtil.cardinalityInBitmapRange(bitmap.bitmap, begin, end);
+      BufferUtil.resetBitmapRange(bitmap.bitmap, begin, end);
+      return bitmap.cardinality < DEFAULT_MAX_SIZE ? toArrayIfSparse(bitmap) : bitmap;
+    }
+    if (container instanceof MappeableRunContainer) {
+      reserve(container, 1);
+    }
+    return nonEmpty(container.iremove(begin, end));
+  }
+
+  private MappeableContainer flipRange(MappeableContainer container, int begin, int end) {
+    if (container instanceof MappeableArrayContainer) {
+      return flipRange((MappeableArrayContainer) container, begin, end);
+    }
+    MappeableBitmapContainer bitmap = container instanceof MappeableBitmapContainer
+        ? (MappeableBitmapContainer) container : bitmapOf(container);
+    bitmap.cardinality +=
+        end - begin - 2 * BufferUtil.cardinalityInBitmapRange(bitmap.bitmap, begin, end);
+    BufferUtil.flipBitmapRange(bitmap.bitmap, begin, end);
+    if (bitmap != container) {
+      free(container);
+      return toEfficientContainer(bitmap);
+    }
+    return toArrayIfSparse(bitmap);
+  }
+
+  private MappeableContainer flipRange(MappeableArrayContainer array, int begin, int end) {
+    int indexStart =
+        BufferUtil.unsignedBinarySearch(array.content, 0, array.cardinality, (short) begin);
+    if (indexStart < 0) {
+      indexStart = -indexStart - 1;
+    }
+    int indexEnd =
+        BufferUtil.unsignedBinarySearch(array.content, 0, array.cardinality, (short) (end - 1));
+    indexEnd = indexEnd < 0 ? -indexEnd - 1 : indexEnd + 1;
+    int present = indexEnd - indexStart;
+    int absent = end - begin - present;
+    int cardinality = array.cardinality + absent - present;
+    if (cardinality > DEFAULT_MAX_SIZE) {
+      MappeableBitmapContainer bitmap = bitmapOf(array);
+      free(array);
+      BufferUtil.flipBitmapRange(bitmap.bitmap, begin, end);
+      bitmap.cardinality = cardinality;
+      return bitmap;
+    }
+    // the values missing from the range, gathered before the array is rewritten
+    ByteBuffer memory = allocate(2 * Math.max(absent, 1));
+    ShortBuffer missing = memory.asShortBuffer();
+    int k = 0;
+    int next = begin;
+    for (int i = indexStart; i < indexEnd; ++i) {
+      int value = toIntUnsigned(array.content.get(i));
+      for (; next < value; ++next) {
+        missing.put(k++, (short) next);
+      }
+      next = value + 1;
+    }
+    for (; next < end; ++next) {
+      missing.put(k++, (short) next);
+    }
+    reserve(array, Math.max(0, cardinality - array.cardinality));
+    BufferUtil.arraycopy(array.content, indexEnd, array.content, indexStart + absent,
+        array.cardinality - indexEnd);
+    for (int i = 0; i < absent; ++i) {
+      array.content.put(indexStart + i, missing.get(i));
+    }
+    allocator.free(memory);
+    array.cardinality = cardinality;
+    return nonEmpty(array);
+  }
+
+  // applies the operation to the words with the values of the container; the intersections with
+  // an array container are computed from the array instead
+  private static void apply(LongBuffer words, Operation operation, MappeableContainer values) {
+    if (values instanceof MappeableBitmapContainer) {
+      LongBuffer other = ((MappeableBitmapContainer) values).bitmap;
+      for (int i = 0; i < WORDS; ++i) {
+        long word = words.get(i);
+        switch (operation) {
+          case AND:
+            word &= other.get(i);
+            break;
+          case ANDNOT:
+            word &= ~other.get(i);
+            break;
+          case OR:
+            word |= other.get(i);
+            break;
+          default:
+            word ^= other.get(i);
+        }
+        words.put(i, word);
+      }
+    } else if (values instanceof MappeableRunContainer) {
+      MappeableRunContainer run = (MappeableRunContainer) values;
+      int end = 0;
+      for (int k = 0; k < run.nbrruns; ++k) {
+        int start = toIntUnsigned(run.getValue(k));
+        if (operation == Operation.AND) {
+          BufferUtil.resetBitmapRange(words, end, start);
+        }
+        end = start + toIntUnsigned(run.getLength(k)) + 1;
+        if (operation == Operation.ANDNOT) {
+          BufferUtil.resetBitmapRange(words, start, end);
+        } else if (operation == Operation.OR) {
+          BufferUtil.setBitmapRange(words, start, end);
+        } else if (operation == Operation.XOR) {
+          BufferUtil.flipBitmapRange(words, start, end);
+        }
+      }
+      if (operation == Operation.AND) {
+        BufferUtil.resetBitmapRange(words, end, MAX_CAPACITY);
+      }
+    } else {
+      MappeableArrayContainer array = (MappeableArrayContainer) values;
+      for (int i = 0; i < array.cardinality; ++i) {
+        int value = toIntUnsigned(array.content.get(i));
+        long word = words.get(value >>> 6);
+        switch (operation) {
+          case ANDNOT:
+            word &= ~(1L << value);
+            break;
+          case OR:
+            word |= 1L << value;
+            break;
+          default:
+            word ^= 1L << value;
+        }
+        words.put(value >>> 6, word);
+      }
+    }
+  }
+
+  // the union or the symmetric difference of two array containers, in a new array container
+  private MappeableArrayContainer merge(MappeableArrayContainer a1, Operation operation,
+      MappeableArrayContainer a2) {
+    MappeableArrayContainer array = newArray(a1.cardinality + a2.cardinality);
+    ShortBuffer content = array.content;
+    int cardinality = 0;
+    int i1 = 0;
+    int i2 = 0;
+    while (i1 < a1.cardinality && i2 < a2.cardinality) {
+      short v1 = a1.content.get(i1);
+      short v2 = a2.content.get(i2);
+      int order = BufferUtil.compareUnsigned(v1, v2);
+      if (order < 0) {
+        content.put(cardinality++, v1);
+        ++i1;
+      } else if (order > 0) {
+        content.put(cardinality++, v2);
+        ++i2;
+      } else {
+        if (operation == Operation.OR) {
+          content.put(cardinality++, v1);
+        }
+        ++i1;
+        ++i2;
+      }
+    }
+    for (; i1 < a1.cardinality; ++i1) {
+      content.put(cardinality++, a1.content.get(i1));
+    }
+    for (; i2 < a2.cardinality; ++i2) {
+      content.put(cardinality++, a2.content.get(i2));
+    }
+    array.cardinality = cardinality;
+    return array;
+  }
+
+  // the result of the operation on the containers, or null when empty: the first container is
+  // modified in place whenever its type allows it, and released otherwise
+  private MappeableContainer apply(MappeableContainer c1, Operation operation,
+      MappeableContainer c2) {
+    if (c1 instanceof MappeableArrayContainer) {
+      MappeableArrayContainer array = (MappeableArrayContainer) c1;
+      if (operation == Operation.AND || operation == Operation.ANDNOT) {
+        int cardinality = 0;
+        for (int i = 0; i < array.cardinality; ++i) {
+          short value = array.content.get(i);
+          if (c2.contains(value) == (operation == Operation.AND)) {
+            array.content.put(cardinality++, value);
+          }
+        }
+        array.cardinality = cardinality;
+        return nonEmpty(array);
+      }
+      if (c2 instanceof MappeableArrayContainer
+          && array.cardinality + c2.getCardinality() <= DEFAULT_MAX_SIZE) {
+        return replace(array, nonEmpty(merge(array, operation, (MappeableArrayContainer) c2)));
+      }
+    } else if (operation == Operation.AND && c2 instanceof MappeableArrayContainer) {
+      // the intersection is made of values of the array
+      MappeableArrayContainer values = (MappeableArrayContainer) c2;
+      MappeableArrayContainer array = newArray(values.cardinality);
+      for (int i = 0; i < values.cardinality; ++i) {
+        short value = values.content.get(i);
+        if (c1.contains(value)) {
+          array.content.put(array.cardinality++, value);
+        }
+      }
+      free(c1);
+      return nonEmpty(array);
+    }
+    final MappeableBitmapContainer bitmap;
+    if (c1 instanceof MappeableBitmapContainer) {
+      bitmap = (MappeableBitmapContainer) c1;
+      apply(bitmap.bitmap, operation, c2);
+    } else if (c2 instanceof MappeableBitmapContainer
+        && (operation == Operation.OR || operation == Operation.XOR)) {
+      bitmap = bitmapOf(c2);
+      apply(bitmap.bitmap, operation, c1);
+      free(c1);
+    } else {
+      bitmap = bitmapOf(c1);
+      apply(bitmap.bitmap, operation, c2);
+      free(c1);
+    }
+    bitmap.cardinality = BufferUtil.cardinalityInBitmapRange(bitmap.bitmap, 0, MAX_CAPACITY);
+    if (c1 instanceof MappeableRunContainer || c2 instanceof MappeableRunContainer) {
+      return toEfficientContainer(bitmap);
+    }
+    if (operation == Operation.OR
+        && !(c1 instanceof MappeableArrayContainer && c2 instanceof MappeableArrayContainer)) {
+      // like the container operations, unions involving a bitmap remain bitmaps
+      return bitmap;
+    }
+    return toArrayIfSparse(bitmap);
+  }
+
+  @Override
+  public void addN(final int[] dat, final int offset, final int n) {
+    MutableRoaringArray array = getMappeableRoaringArray();
+    int index = -1;
+    short key = 0;
+    for (int j = offset; j < offset + n; ++j) {
+      final short hb = BufferUtil.highbits(dat[j]);
+      final short lb = BufferUtil.lowbits(dat[j]);
+      if (index < 0 || hb != key) {
+        key = hb;
+        index = array.getIndex(hb);
+        if (index < 0) {
+          index = -index - 1;
+          array.insertNewKeyValueAt(index, hb, singleton(lb));
+          continue;
+        }
+      }
+      array.setContainerAtIndex(index, addTo(array.getContainerAtIndex(index), lb));
+    }
+  }
+
+  @Override
+  public void add(final int x) {
+    final short hb = BufferUtil.highbits(x);
+    final int i = highLowContainer.getIndex(hb);
+    MutableRoaringArray array = getMappeableRoaringArray();
+    if (i >= 0) {
+      array.setContainerAtIndex(i, addTo(array.getContainerAtIndex(i), BufferUtil.lowbits(x)));
+    } else {
+      array.insertNewKeyValueAt(-i - 1, hb, singleton(BufferUtil.lowbits(x)));
+    }
+  }
+
+  @Override
+  public void add(final long rangeStart, final long rangeEnd) {
+    rangeSanityCheck(rangeStart, rangeEnd);
+    if (rangeStart >= rangeEnd) {
+      return; // empty range
+    }
+    final int hbStart = toIntUnsigned(BufferUtil.highbits(rangeStart));
+    final int lbStart = toIntUnsigned(BufferUtil.lowbits(rangeStart));
+    final int hbLast = toIntUnsigned(BufferUtil.highbits(rangeEnd - 1));
+    final int lbLast = toIntUnsigned(BufferUtil.lowbits(rangeEnd - 1));
+    MutableRoaringArray array = getMappeableRoaringArray();
+    for (int hb = hbStart; hb <= hbLast; ++hb) {
+      final int containerStart = (hb == hbStart) ? lbStart : 0;
+      final int containerEnd = ((hb == hbLast) ? lbLast : BufferUtil.maxLowBitAsInteger()) + 1;
+      final int i = array.getIndex((short) hb);
+      if (i >= 0) {
+        array.setContainerAtIndex(i,
+            addRange(array.getContainerAtIndex(i), containerStart, containerEnd));
+      } else {
+        array.insertNewKeyValueAt(-i - 1, (short) hb, rangeOfOnes(containerStart, containerEnd));
+      }
+    }
+  }
+
+  @Override
+  public void and(final ImmutableRoaringBitmap x2) {
+    if (x2 == this) {
+      return;
+    }
+    MutableRoaringArray array = getMappeableRoaringArray();
+    PointableRoaringArray other = x2.highLowContainer;
+    int pos1 = 0;
+    int pos2 = 0;
+    int size = 0;
+    final int length1 = array.size;
+    final int length2 = other.size();
+    while (pos1 < length1 && pos2 < length2) {
+      final short s1 = array.getKeyAtIndex(pos1);
+      final short s2 = other.getKeyAtIndex(pos2);
+      if (s1 == s2) {
+        MappeableContainer c = apply(array.getContainerAtIndex(pos1), Operation.AND,
+            other.getContainerAtIndex(pos2));
+        if (c != null) {
+          array.replaceKeyAndContainerAtIndex(size++, s1, c);
+        }
+        ++pos1;
+        ++pos2;
+      } else if (BufferUtil.compareUnsigned(s1, s2) < 0) {
+        free(array.getContainerAtIndex(pos1));
+        ++pos1;
+      } else {
+        pos2 = other.advanceUntil(s1, pos2);
+      }
+    }
+    for (; pos1 < length1; ++pos1) {
+      free(array.getContainerAtIndex(pos1));
+    }
+    array.resize(size);
+  }
+
+  @Override
+  public void andNot(final ImmutableRoaringBitmap x2) {
+    if (x2 == this) {
+      clear();
+      return;
+    }
+    MutableRoaringArray array = getMappeableRoaringArray();
+    PointableRoaringArray other = x2.highLowContainer;
+    int pos1 = 0;
+    int pos2 = 0;
+    final int length2 = other.size();
+    while (pos1 < array.size && pos2 < length2) {
+      final short s1 = array.getKeyAtIndex(pos1);
+      final short s2 = other.getKeyAtIndex(pos2);
+      if (s1 == s2) {
+        MappeableContainer c = apply(array.getContainerAtIndex(pos1), Operation.ANDNOT,
+            other.getContainerAtIndex(pos2));
+        if (c != null) {
+          array.setContainerAtIndex(pos1++, c);
+        } else {
+          array.removeAtIndex(pos1);
+        }
+        ++pos2;
+      } else if (BufferUtil.compareUnsigned(s1, s2) < 0) {
+        pos1 = array.advanceUntil(s2, pos1);
+      } else {
+        pos2 = other.advanceUntil(s1, pos2);
+      }
+    }
+  }
+
+  @Override
+  public boolean checkedAdd(final int x) {
+    final short hb = BufferUtil.highbits(x);
+    final int i = highLowContainer.getIndex(hb);
+    MutableRoaringArray array = getMappeableRoaringArray();
+    if (i >= 0) {
+      MappeableContainer c = array.getContainerAtIndex(i);
+      int oldcard = c.getCardinality();
+      c = addTo(c, BufferUtil.lowbits(x));
+      array.setContainerAtIndex(i, c);
+      return c.getCardinality() > oldcard;
+    }
+    array.insertNewKeyValueAt(-i - 1, hb, singleton(BufferUtil.lowbits(x)));
+    return true;
+  }
+
+  @Override
+  public boolean checkedRemove(final int x) {
+    final int i = highLowContainer.getIndex(BufferUtil.highbits(x));
+    if (i < 0) {
+      return false;
+    }
+    final short lb = BufferUtil.lowbits(x);
+    MutableRoaringArray array = getMappeableRoaringArray();
+    MappeableContainer c = array.getContainerAtIndex(i);
+    if (!c.contains(lb)) {
+      return false;
+    }
+    if (c instanceof MappeableBitmapContainer) {
+      // like MutableRoaringBitmap, the container remains a bitmap
+      clearBit((MappeableBitmapContainer) c, lb);
+    } else {
+      removeFrom(c, lb);
+    }
+    if (c.isEmpty()) {
+      free(c);
+      array.removeAtIndex(i);
+    }
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    releaseAll();
+  }
+
+  /**
+   * Copies the bitmap in memory of the same allocator.
+   *
+   * @return a copy of the bitmap, which must be closed on its own
+   */
+  @Override
+  public OffHeapRoaringBitmap clone() {
+    OffHeapRoaringBitmap copy = new OffHeapRoaringBitmap(allocator);
+    MutableRoaringArray array = getMappeableRoaringArray();
+    MutableRoaringArray target = copy.getMappeableRoaringArray();
+    for (int i = 0; i < array.size; ++i) {
+      target.append(array.keys[i], copy.copyOf(array.values[i]));
+    }
+    return copy;
+  }
+
+  @Override
+  public void deserialize(DataInput in) throws IOException {
+    super.deserialize(in);
+    relocate();
+  }
+
+  @Override
+  public void flip(final int x) {
+    final short hb = BufferUtil.highbits(x);
+    final int i = highLowContainer.getIndex(hb);
+    final short lb = BufferUtil.lowbits(x);
+    MutableRoaringArray array = getMappeableRoaringArray();
+    if (i >= 0) {
+      MappeableContainer c = array.getContainerAtIndex(i);
+      c = c.contains(lb) ? removeFrom(c, lb) : addTo(c, lb);
+      if (!c.isEmpty()) {
+        array.setContainerAtIndex(i, c);
+      } else {
+        free(c);
+        array.removeAtIndex(i);
+      }
+    } else {
+      array.insertNewKeyValueAt(-i - 1, hb, singleton(lb));
+    }
+  }
+
+  @Override
+  public void flip(final long rangeStart, final long rangeEnd) {
+    rangeSanityCheck(rangeStart, rangeEnd);
+    if (rangeStart >= rangeEnd) {
+      return; // empty range
+    }
+    final int hbStart = toIntUnsigned(BufferUtil.highbits(rangeStart));
+    final int lbStart = toIntUnsigned(BufferUtil.lowbits(rangeStart));
+    final int hbLast = toIntUnsigned(BufferUtil.highbits(rangeEnd - 1));
+    final int lbLast = toIntUnsigned(BufferUtil.lowbits(rangeEnd - 1));
+    MutableRoaringArray array = getMappeableRoaringArray();
+    for (int hb = hbStart; hb <= hbLast; ++hb) {
+      final int containerStart = (hb == hbStart) ? lbStart : 0;
+      final int containerEnd = ((hb == hbLast) ? lbLast : BufferUtil.maxLowBitAsInteger()) + 1;
+      final int i = array.getIndex((short) hb);
+      if (i >= 0) {
+        MappeableContainer c =
+            flipRange(array.getContainerAtIndex(i), containerStart, containerEnd);
+        if (c != null) {
+          array.setContainerAtIndex(i, c);
+        } else {
+          array.removeAtIndex(i);
+        }
+      } else {
+        array.insertNewKeyValueAt(-i - 1, (short) hb, rangeOfOnes(containerStart, containerEnd));
+      }
+    }
+  }
+
+  // the unions are computed eagerly, which leaves nothing to repair
+  @Override
+  protected void lazyor(final ImmutableRoaringBitmap x2) {
+    or(x2);
+  }
+
+  @Override
+  protected void naivelazyor(final ImmutableRoaringBitmap x2) {
+    or(x2);
+  }
+
+  @Override
+  public void or(final ImmutableRoaringBitmap x2) {
+    if (x2 == this) {
+      return;
+    }
+    MutableRoaringArray array = getMappeableRoaringArray();
+    PointableRoaringArray other = x2.highLowContainer;
+    int pos1 = 0;
+    int pos2 = 0;
+    final int length2 = other.size();
+    while (pos1 < array.size && pos2 < length2) {
+      final short s1 = array.getKeyAtIndex(pos1);
+      final short s2 = other.getKeyAtIndex(pos2);
+      if (s1 == s2) {
+        array.setContainerAtIndex(pos1, apply(array.getContainerAtIndex(pos1), Operation.OR,
+            other.getContainerAtIndex(pos2)));
+        ++pos1;
+        ++pos2;
+      } else if (BufferUtil.compareUnsigned(s1, s2) < 0) {
+        ++pos1;
+      } else {
+        array.insertNewKeyValueAt(pos1++, s2, copyOf(other.getContainerAtIndex(pos2++)));
+      }
+    }
+    for (; pos2 < length2; ++pos2) {
+      array.append(other.getKeyAtIndex(pos2), copyOf(other.getContainerAtIndex(pos2)));
+    }
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    super.readExternal(in);
+    relocate();
+  }
+
+  @Override
+  public void remove(final int x) {
+    final int i = highLowContainer.getIndex(BufferUtil.highbits(x));
+    if (i < 0) {
+      return;
+    }
+    MutableRoaringArray array = getMappeableRoaringArray();
+    MappeableContainer c = removeFrom(array.getContainerAtIndex(i), BufferUtil.lowbits(x));
+    if (!c.isEmpty()) {
+      array.setContainerAtIndex(i, c);
+    } else {
+      free(c);
+      array.removeAtIndex(i);
+    }
+  }
+
+  @Override
+  public void remove(final long rangeStart, final long rangeEnd) {
+    rangeSanityCheck(rangeStart, rangeEnd);
+    if (rangeStart >= rangeEnd) {
+      return; // empty range
+    }
+    final int hbStart = toIntUnsigned(BufferUtil.highbits(rangeStart));
+    final int lbStart = toIntUnsigned(BufferUtil.lowbits(rangeStart));
+    final int hbLast = toIntUnsigned(BufferUtil.highbits(rangeEnd - 1));
+    final int lbLast = toIntUnsigned(BufferUtil.lowbits(rangeEnd - 1));
+    MutableRoaringArray array = getMappeableRoaringArray();
+    int first = array.getIndex((short) hbStart);
+    if (first < 0) {
+      first = -first - 1;
+    }
+    // the containers left non-empty are packed from the first index
+    int size = first;
+    int i = first;
+    for (; i < array.size && toIntUnsigned(array.keys[i]) <= hbLast; ++i) {
+      final int hb = toIntUnsigned(array.keys[i]);
+      final int containerStart = (hb == hbStart) ? lbStart : 0;
+      final int containerEnd = ((hb == hbLast) ? lbLast : BufferUtil.maxLowBitAsInteger()) + 1;
+      MappeableContainer c = removeRange(array.values[i], containerStart, containerEnd);
+      if (c != null) {
+        array.replaceKeyAndContainerAtIndex(size++, array.keys[i], c);
+      }
+    }
+    array.removeIndexRange(size, i);
+  }
+
+  @Override
+  public boolean removeRunCompression() {
+    boolean answer = false;
+    MutableRoaringArray array = getMappeableRoaringArray();
+    for (int i = 0; i < array.size; i++) {
+      MappeableContainer c = array.getContainerAtIndex(i);
+      if (c instanceof MappeableRunContainer) {
+        array.setContainerAtIndex(i, toBitmapOrArrayContainer((MappeableRunContainer) c));
+        answer = true;
+      }
+    }
+    return answer;
+  }
+
+  @Override
+  protected void repairAfterLazy() {
+    // the unions are not lazy
+  }
+
+  @Override
+  public boolean runOptimize() {
+    boolean answer = false;
+    MutableRoaringArray array = getMappeableRoaringArray();
+    for (int i = 0; i < array.size; i++) {
+      MappeableContainer c = runOptimize(array.getContainerAtIndex(i));
+      if (c instanceof MappeableRunContainer) {
+        answer = true;
+      }
+      array.setContainerAtIndex(i, c);
+    }
+    return answer;
+  }
+
+  // like MappeableContainer.runOptimize
+  private MappeableContainer runOptimize(MappeableContainer container) {
+    if (container instanceof MappeableRunContainer) {
+      MappeableRunContainer run = (MappeableRunContainer) container;
+      int sizeAsRunContainer = MappeableRunContainer.serializedSizeInBytes(run.nbrruns);
+      int sizeAsBitmapContainer = MappeableBitmapContainer.serializedSizeInBytes(0);
+      int sizeAsArrayContainer =
+          MappeableArrayContainer.serializedSizeInBytes(run.getCardinality());
+      if (sizeAsRunContainer <= Math.min(sizeAsBitmapContainer, sizeAsArrayContainer)) {
+        return run;
+      }
+      return toBitmapOrArrayContainer(run);
+    }
+    int runs = container.numberOfRuns();
+    if (container.getArraySizeInBytes() > MappeableRunContainer.serializedSizeInBytes(runs)) {
+      return replace(container, runOf(container, runs));
+    }
+    return container;
+  }
+
+  /**
+   * Recover allocated but unused memory, moving the array and run containers to memory of their
+   * exact size.
+   */
+  @Override
+  public void trim() {
+    MutableRoaringArray array = getMappeableRoaringArray();
+    array.keys = Arrays.copyOf(array.keys, array.size);
+    array.values = Arrays.copyOf(array.values, array.size);
+    for (int i = 0; i < array.size; ++i) {
+      if (!(array.values[i] instanceof MappeableBitmapContainer)) {
+        array.values[i] = replace(array.values[i], copyOf(array.values[i]));
+      }
+    }
+  }
+
+  @Override
+  public void xor(final ImmutableRoaringBitmap x2) {
+    if (x2 == this) {
+      clear();
+      return;
+    }
+    MutableRoaringArray array = getMappeableRoaringArray();
+    PointableRoaringArray other = x2.highLowContainer;
+    int pos1 = 0;
+    int pos2 = 0;
+    final int length2 = other.size();
+    while (pos1 < array.size && pos2 < length2) {
+      final short s1 = array.getKeyAtIndex(pos1);
+      final short s2 = other.getKeyAtIndex(pos2);
+      if (s1 == s2) {
+        MappeableContainer c = apply(array.getContainerAtIndex(pos1), Operation.XOR,
+            other.getContainerAtIndex(pos2));
+        if (c != null) {
+          array.setContainerAtIndex(pos1++, c);
+        } else {
+          array.removeAtIndex(pos1);
+        }
+        ++pos2;
+      } else if (BufferUtil.compareUnsigned(s1, s2) < 0) {
+        ++pos1;
+      } else {
+        array.insertNewKeyValueAt(pos1++, s2, copyOf(other.getContainerAtIndex(pos2++)));
+      }
+    }
+    for (; pos2 < length2; ++pos2) {
+      array.append(other.getKeyAtIndex(pos2), copyOf(other.getContainerAtIndex(pos2)));
+    }
+  }
+
+  @Override
+  public void append(short key, MappeableContainer container) {
+    super.append(key, owns(container) ? container : copyOf(container));
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.buffer;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.roaringbitmap.InvalidRoaringFormat;
+import org.roaringbitmap.RoaringBitmapWriter;
+
+/**
+ * A range-encoded bit-sliced index over an integer column: row i holds the i-th value given to
+ * the {@link Appender}. Each predicate (lt, lte, gt, gte, eq, neq, between) is answered with at
+ * most one bitmap operation per bit of the largest value, instead of OR-ing one bitmap per
+ * distinct value.
+ *
+ * Values are compared as unsigned longs. Slice i holds the rows whose value has its i-th bit
+ * cleared, that is to say the rows whose i-th binary digit is at most 0 (base-2 range encoding).
+ *
+ * The serialized form is little endian, and made of
+ * <ul>
+ * <li>a 32-bit cookie, 12349,</li>
+ * <li>the number of slices, as a 32-bit integer,</li>
+ * <li>the number of rows, as a 64-bit integer,</li>
+ * <li>the largest value which may be stored, as a 64-bit integer,</li>
+ * <li>the slices, from the least significant bit, each as a RoaringBitmap in its standard
+ * format (https://github.com/RoaringBitmap/RoaringFormatSpec).</li>
+ * </ul>
+ * It can be memory-mapped with {@link #map(ByteBuffer)}: the slices are then
+ * {@link ImmutableRoaringBitmap} views over the ByteBuffer.
+ *
+ * <pre>
+ * {@code
+ *     RangeBitmap.Appender appender = RangeBitmap.appender(maxValue);
+ *     for (long value : column) {
+ *       appender.add(value);
+ *     }
+ *     RangeBitmap index = appender.build();
+ *     MutableRoaringBitmap rows = index.between(10, 20);
+ * }
+ * </pre>
+ */
+public final class RangeBitmap {
+
+  static final int SERIAL_COOKIE = 12349;
+
+  // cookie, number of slices, number of rows, max value
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+  private final ImmutableRoaringBitmap[] slices;
+  private final long rowCount;
+  private final long maxValue;
+
+  private RangeBitmap(ImmutableRoaringBitmap[] slices, long rowCount, long maxValue) {
+    this.slices = slices;
+    this.rowCount = rowCount;
+    this.maxValue = maxValue;
+  }
+
+  /**
+   * Creates an appender, to build a RangeBitmap one row at a time.
+   *
+   * @param maxValue the largest value (as an unsigned long) which will be appended
+   * @return a new appender
+   */
+  public static Appender appender(long maxValue) {
+    return new Appender(maxValue);
+  }
+
+  /**
+   * Maps a RangeBitmap serialized with {@link #serialize(DataOutput)}, starting at the position()
+   * of the ByteBuffer. Only meta-data is loaded to RAM, the slices are views over the ByteBuffer.
+   *
+   * The input ByteBuffer is effectively copied (with the slice operation) so you should expect the
+   * provided ByteBuffer to remain unchanged.
+   *
+   * @param b data source
+   * @return a RangeBitmap backed by the ByteBuffer
+   * @throws InvalidRoaringFormat if the cookie is unexpected
+   */
+  public static RangeBitmap map(ByteBuffer b) {
+    ByteBuffer buffer = b.slice();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt(0) != SERIAL_COOKIE) {
+      throw new InvalidRoaringFormat("I failed to find a valid cookie.");
+    }
+    int sliceCount = buffer.getInt(4);
+    long rowCount = buffer.getLong(8);
+    long maxValue = buffer.getLong(16);
+    if (sliceCount != 64 - Long.numberOfLeadingZeros(maxValue)) {
+      throw new InvalidRoaringFormat("Inconsistent number of slices " + sliceCount);
+    }
+    ImmutableRoaringBitmap[] slices = new ImmutableRoaringBitmap[sliceCount];
+    int position = HEADER_SIZE;
+    for (int i = 0; i < sliceCount; ++i) {
+      buffer.position(position);
+      slices[i] = new ImmutableRoaringBitmap(buffer);
+      position += slices[i].serializedSizeInBytes();
+    }
+    return new RangeBitmap(slices, rowCount, maxValue);
+  }
+
+  /**
+   * @return the number of rows
+   */
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return the largest value (as an unsigned long) this index may hold
+   */
+  public long getMaxValue() {
+    return maxValue;
+  }
+
+  /**
+   * Rows whose value is strictly lower than the threshold.
+   *
+   * @param threshold exclusive upper bound, as an unsigned long
+   * @return the matching rows
+   */
+  public MutableRoaringBitmap lt(long threshold) {
+    return threshold == 0 ? new MutableRoaringBitmap() : lte(threshold - 1);
+  }
+
+  /**
+   * Rows whose value is lower than or equal to the threshold.
+   *
+   * @param threshold inclusive upper bound, as an unsigned long
+   * @return the matching rows
+   */
+  public MutableRoaringBitmap lte(long threshold) {
+    // the rows are selected while threshold's trailing bits are ones
+    int first = Long.numberOfTrailingZeros(~threshold);
+    if (first >= slices.length || Long.compareUnsigned(threshold, maxValue) >= 0) {
+      return allRows();
+    }
+    // rows whose value modulo 2^(i+1) is at most threshold modulo 2^(i+1)
+    MutableRoaringBitmap result = slices[first].toMutableRoaringBitmap();
+    for (int i = first + 1; i < slices.length; ++i) {
+      if ((threshold & (1L << i)) != 0) {
+        result.or(slices[i]);
+      } else {
+        result.and(slices[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Rows whose value is strictly greater than the threshold.
+   *
+   * @param threshold exclusive lower bound, as an unsigned long
+   * @return the matching rows
+   */
+  public MutableRoaringBitmap gt(long threshold) {
+    return complement(lte(threshold));
+  }
+
+  /**
+   * Rows whose value is greater than or equal to the threshold.
+   *
+   * @param threshold inclusive lower bound, as an unsigned long
+   * @return the matching rows
+   */
+  public MutableRoaringBitmap gte(long threshold) {
+    return complement(lt(threshold));
+  }
+
+  /**
+   * Rows whose value is equal to the given value.
+   *
+   * @param value the value, as an unsigned long
+   * @return the matching rows
+   */
+  public MutableRoaringBitmap eq(long value) {
+    if (Long.compareUnsigned(value, maxValue) > 0) {
+      return new MutableRoaringBitmap();
+    }
+    MutableRoaringBitmap result = allRows();
+    for (int i = 0; i < slices.length && !result.isEmpty(); ++i) {
+      if ((value & (1L << i)) != 0) {
+        result.andNot(slices[i]);
+      } else {
+        result.and(slices[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Rows whose value is not equal to the given value.
+   *
+   * @param value the value, as an unsigned long
+   * @return the matching rows
+   */
+  public MutableRoaringBitmap neq(long value) {
+    return complement(eq(value));
+  }
+
+  /**
+   * Rows whose value lies between the two bounds.
+   *
+   * @param min inclusive lower bound, as an unsigned long
+   * @param max inclusive upper bound, as an unsigned long
+   * @return the matching rows
+   */
+  public MutableRoaringBitmap between(long min, long max) {
+    if (Long.compareUnsigned(min, max) > 0) {
+      return new MutableRoaringBitmap();
+    }
+    MutableRoaringBitmap result = lte(max);
+    if (min != 0) {
+      result.andNot(lt(min));
+    }
+    return result;
+  }
+
+  private MutableRoaringBitmap allRows() {
+    MutableRoaringBitmap all = new MutableRoaringBitmap();
+    all.add(0L, rowCount);
+    return all;
+  }
+
+  private MutableRoaringBitmap complement(MutableRoaringBitmap rows) {
+    rows.flip(0L, rowCount);
+    return rows;
+  }
+
+  /**
+   * Serialize this index. It can be read back with {@link #map(ByteBuffer)}.
+   *
+   * @param out the DataOutput stream
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void serialize(DataOutput out) throws IOException {
+    out.writeInt(Integer.reverseBytes(SERIAL_COOKIE));
+    out.writeInt(Integer.reverseBytes(slices.length));
+    out.writeLong(Long.reverseBytes(rowCount));
+    out.writeLong(Long.reverseBytes(maxValue));
+    for (ImmutableRoaringBitmap slice : slices) {
+      slice.serialize(out);
+    }
+  }
+
+  /**
+   * @return the number of bytes written by {@link #serialize(DataOutput)}
+   */
+  public long serializedSizeInBytes() {
+    long size = HEADER_SIZE;
+    for (ImmutableRoaringBitmap slice : slices) {
+      size += slice.serializedSizeInBytes();
+    }
+    return size;
+  }
+
+  /**
+   * Builds a {@link RangeBitmap}: row ids are assigned in increasing order, starting from 0.
+   */
+  public static final class Appender {
+
+    private final long maxValue;
+    private final RoaringBitmapWriter<MutableRoaringBitmap>[] writers;
+    private long rowCount;
+
+    @SuppressWarnings("unchecked")
+    private Appender(long maxValue) {
+      this.maxValue = maxValue;
+      this.writers = new RoaringBitmapWriter[64 - Long.numberOfLeadingZeros(maxValue)];
+      for (int i = 0; i < writers.length; ++i) {
+        writers[i] = RoaringBitmapWriter.bufferWriter().optimiseForRuns().get();
+      }
+    }
+
+    /**
+     * Appends the value of the next row.
+     *
+     * @param value the value, as an unsigned long no greater than the max value
+     */
+    public void add(long value) {
+      if (Long.compareUnsigned(value, maxValue) > 0) {
+        throw new IllegalArgumentException(
+            Long.toUnsignedString(value) + " is above " + Long.toUnsignedString(maxValue));
+      }
+      if (rowCount > 0xFFFFFFFFL) {
+        throw new IllegalStateException("Too many rows");
+      }
+      int row = (int) rowCount;
+      long cleared = ~value;
+      while (cleared != 0) {
+        int bit = Long.numberOfTrailingZeros(cleared);
+        if (bit >= writers.length) {
+          break;
+        }
+        writers[bit].add(row);
+        cleared &= cleared - 1;
+      }
+      ++rowCount;
+    }
+
+    /**
+     * @return the index of the rows appended so far
+     */
+    public RangeBitmap build() {
+      ImmutableRoaringBitmap[] slices = new ImmutableRoaringBitmap[writers.length];
+      for (int i = 0; i < writers.length; ++i) {
+        MutableRoaringBitmap slice = writers[i].get().clone();
+        slice.runOptimize();
+        slices[i] = slice;
+      }
+      return new RangeBitmap(slices, rowCount, maxValue);
+    }
+  }
+}
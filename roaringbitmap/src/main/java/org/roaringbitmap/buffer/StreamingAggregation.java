@@ -0,0 +1,340 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+
+package org.roaringbitmap.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.roaringbitmap.ArrayContainer;
+import org.roaringbitmap.BitmapContainer;
+import org.roaringbitmap.Container;
+import org.roaringbitmap.InvalidRoaringFormat;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.Util;
+
+import static org.roaringbitmap.buffer.BufferUtil.toIntUnsigned;
+
+/**
+ * Aggregates serialized bitmaps (see https://github.com/RoaringBitmap/RoaringFormatSpec) without
+ * deserializing them, nor wrapping them as {@link ImmutableRoaringBitmap}: the header of each
+ * input is read in place, and the containers sharing a key are merged straight from their
+ * serialized form into a scratch buffer of 1024 words, from which a single container of the
+ * result is built.
+ *
+ * <pre>
+ * {@code
+ *      byte[][] serialized = ... // fetched from storage
+ *      RoaringBitmap union = StreamingAggregation.or(serialized);
+ * }
+ * </pre>
+ */
+public final class StreamingAggregation {
+
+  /**
+   * Compute the AND aggregate of serialized bitmaps. The inputs are read, not modified.
+   *
+   * The aggregation stops as soon as one of the inputs runs out of keys.
+   *
+   * @param buffers serialized bitmaps, each starting at its position
+   * @return aggregated bitmap
+   */
+  public static RoaringBitmap and(ByteBuffer... buffers) {
+    final RoaringBitmap answer = new RoaringBitmap();
+    if (buffers.length == 0) {
+      return answer;
+    }
+    final SerializedContainers[] inputs = new SerializedContainers[buffers.length];
+    for (int i = 0; i < buffers.length; ++i) {
+      inputs[i] = new SerializedContainers(buffers[i]);
+      if (!inputs[i].hasContainer()) {
+        return answer;
+      }
+    }
+    final long[] words = new long[1024];
+    int key = inputs[0].key();
+    while (true) {
+      boolean aligned = true;
+      for (SerializedContainers input : inputs) {
+        if (!input.advanceTo(key)) {
+          return answer;
+        }
+        if (input.key() > key) {
+          key = input.key();
+          aligned = false;
+        }
+      }
+      if (aligned) {
+        Arrays.fill(words, -1L);
+        for (SerializedContainers input : inputs) {
+          input.andInto(words);
+          input.advance();
+        }
+        append(answer, key, words);
+        if (!inputs[0].hasContainer()) {
+          return answer;
+        }
+        key = inputs[0].key();
+      }
+    }
+  }
+
+  /**
+   * Compute the AND aggregate of serialized bitmaps.
+   *
+   * @param serialized serialized bitmaps
+   * @return aggregated bitmap
+   */
+  public static RoaringBitmap and(byte[]... serialized) {
+    return and(wrap(serialized));
+  }
+
+  /**
+   * Compute the OR aggregate of serialized bitmaps. The inputs are read, not modified.
+   *
+   * @param buffers serialized bitmaps, each starting at its position
+   * @return aggregated bitmap
+   */
+  public static RoaringBitmap or(ByteBuffer... buffers) {
+    return horizontal(false, buffers);
+  }
+
+  /**
+   * Compute the OR aggregate of serialized bitmaps.
+   *
+   * @param serialized serialized bitmaps
+   * @return aggregated bitmap
+   */
+  public static RoaringBitmap or(byte[]... serialized) {
+    return or(wrap(serialized));
+  }
+
+  /**
+   * Compute the XOR aggregate of serialized bitmaps. The inputs are read, not modified.
+   *
+   * @param buffers serialized bitmaps, each starting at its position
+   * @return aggregated bitmap
+   */
+  public static RoaringBitmap xor(ByteBuffer... buffers) {
+    return horizontal(true, buffers);
+  }
+
+  /**
+   * Compute the XOR aggregate of serialized bitmaps.
+   *
+   * @param serialized serialized bitmaps
+   * @return aggregated bitmap
+   */
+  public static RoaringBitmap xor(byte[]... serialized) {
+    return xor(wrap(serialized));
+  }
+
+  private static RoaringBitmap horizontal(boolean xor, ByteBuffer... buffers) {
+    final RoaringBitmap answer = new RoaringBitmap();
+    final PriorityQueue<SerializedContainers> pq = new PriorityQueue<>(Math.max(1, buffers.length),
+        (x, y) -> Integer.compare(x.key(), y.key()));
+    for (ByteBuffer buffer : buffers) {
+      SerializedContainers input = new SerializedContainers(buffer);
+      if (input.hasContainer()) {
+        pq.add(input);
+      }
+    }
+    final long[] words = new long[1024];
+    while (!pq.isEmpty()) {
+      final int key = pq.peek().key();
+      Arrays.fill(words, 0L);
+      while (!pq.isEmpty() && pq.peek().key() == key) {
+        SerializedContainers input = pq.poll();
+        if (xor) {
+          input.xorInto(words);
+        } else {
+          input.orInto(words);
+        }
+        input.advance();
+        if (input.hasContainer()) {
+          pq.add(input);
+        }
+      }
+      append(answer, key, words);
+    }
+    return answer;
+  }
+
+  private static ByteBuffer[] wrap(byte[]... serialized) {
+    ByteBuffer[] buffers = new ByteBuffer[serialized.length];
+    for (int i = 0; i < serialized.length; ++i) {
+      buffers[i] = ByteBuffer.wrap(serialized[i]);
+    }
+    return buffers;
+  }
+
+  // builds the smallest container holding the words, if they are not all empty
+  private static void append(RoaringBitmap answer, int key, long[] words) {
+    int cardinality = 0;
+    for (long word : words) {
+      cardinality += Long.bitCount(word);
+    }
+    if (cardinality == 0) {
+      return;
+    }
+    Container container;
+    if (cardinality > MappeableArrayContainer.DEFAULT_MAX_SIZE) {
+      container = new BitmapContainer(words.clone(), cardinality);
+    } else {
+      short[] content = new short[cardinality];
+      int pos = 0;
+      for (int i = 0; i < words.length; ++i) {
+        long word = words[i];
+        while (word != 0) {
+          content[pos++] = (short) ((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      container = new ArrayContainer(cardinality, content);
+    }
+    answer.append((short) key, container);
+  }
+
+  /**
+   * Cursor over the containers of a serialized bitmap, reading them in place.
+   */
+  private static final class SerializedContainers {
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final boolean hasRun;
+    private final int descriptiveHeaderStart;
+    private int index;
+    private int offset;
+
+    SerializedContainers(ByteBuffer bb) {
+      buffer = bb.slice().order(ByteOrder.LITTLE_ENDIAN);
+      final int cookie = buffer.getInt(0);
+      if ((cookie & 0xFFFF) == MutableRoaringArray.SERIAL_COOKIE) {
+        hasRun = true;
+        size = (cookie >>> 16) + 1;
+        descriptiveHeaderStart = 4 + (size + 7) / 8;
+      } else if (cookie == MutableRoaringArray.SERIAL_COOKIE_NO_RUNCONTAINER) {
+        hasRun = false;
+        size = buffer.getInt(4);
+        descriptiveHeaderStart = 8;
+      } else {
+        throw new InvalidRoaringFormat("I failed to find a valid cookie.");
+      }
+      if (size < 0 || size > (1 << 16)) {
+        throw new InvalidRoaringFormat("Size too large");
+      }
+      boolean hasOffsets = !hasRun || size >= MutableRoaringArray.NO_OFFSET_THRESHOLD;
+      offset = descriptiveHeaderStart + (hasOffsets ? 8 : 4) * size;
+    }
+
+    boolean hasContainer() {
+      return index < size;
+    }
+
+    int key() {
+      return toIntUnsigned(buffer.getShort(descriptiveHeaderStart + 4 * index));
+    }
+
+    private int cardinality() {
+      return 1 + toIntUnsigned(buffer.getShort(descriptiveHeaderStart + 4 * index + 2));
+    }
+
+    private boolean isRun() {
+      return hasRun && (buffer.get(4 + index / 8) & (1 << (index % 8))) != 0;
+    }
+
+    void advance() {
+      if (isRun()) {
+        offset += 2 + 4 * toIntUnsigned(buffer.getShort(offset));
+      } else {
+        int cardinality = cardinality();
+        offset += cardinality > MappeableArrayContainer.DEFAULT_MAX_SIZE ? 8192 : 2 * cardinality;
+      }
+      ++index;
+    }
+
+    // skips the containers whose key is smaller, returns false if none is left
+    boolean advanceTo(int key) {
+      while (hasContainer() && key() < key) {
+        advance();
+      }
+      return hasContainer();
+    }
+
+    void orInto(long[] words) {
+      if (isRun()) {
+        int nbrruns = toIntUnsigned(buffer.getShort(offset));
+        for (int i = 0; i < nbrruns; ++i) {
+          int start = toIntUnsigned(buffer.getShort(offset + 2 + 4 * i));
+          int length = toIntUnsigned(buffer.getShort(offset + 4 + 4 * i));
+          Util.setBitmapRange(words, start, start + length + 1);
+        }
+      } else {
+        int cardinality = cardinality();
+        if (cardinality > MappeableArrayContainer.DEFAULT_MAX_SIZE) {
+          for (int i = 0; i < words.length; ++i) {
+            words[i] |= buffer.getLong(offset + 8 * i);
+          }
+        } else {
+          for (int i = 0; i < cardinality; ++i) {
+            int value = toIntUnsigned(buffer.getShort(offset + 2 * i));
+            words[value >>> 6] |= 1L << value;
+          }
+        }
+      }
+    }
+
+    void andInto(long[] words) {
+      int start = 0;
+      if (isRun()) {
+        int nbrruns = toIntUnsigned(buffer.getShort(offset));
+        for (int i = 0; i < nbrruns; ++i) {
+          int runStart = toIntUnsigned(buffer.getShort(offset + 2 + 4 * i));
+          Util.resetBitmapRange(words, start, runStart);
+          start = runStart + toIntUnsigned(buffer.getShort(offset + 4 + 4 * i)) + 1;
+        }
+      } else {
+        int cardinality = cardinality();
+        if (cardinality > MappeableArrayContainer.DEFAULT_MAX_SIZE) {
+          for (int i = 0; i < words.length; ++i) {
+            words[i] &= buffer.getLong(offset + 8 * i);
+          }
+          return;
+        }
+        for (int i = 0; i < cardinality; ++i) {
+          int value = toIntUnsigned(buffer.getShort(offset + 2 * i));
+          Util.resetBitmapRange(words, start, value);
+          start = value + 1;
+        }
+      }
+      Util.resetBitmapRange(words, start, 1 << 16);
+    }
+
+    void xorInto(long[] words) {
+      if (isRun()) {
+        int nbrruns = toIntUnsigned(buffer.getShort(offset));
+        for (int i = 0; i < nbrruns; ++i) {
+          int start = toIntUnsigned(buffer.getShort(offset + 2 + 4 * i));
+          int length = toIntUnsigned(buffer.getShort(offset + 4 + 4 * i));
+          Util.flipBitmapRange(words, start, start + length + 1);
+        }
+      } else {
+        int cardinality = cardinality();
+        if (cardinality > MappeableArrayContainer.DEFAULT_MAX_SIZE) {
+          for (int i = 0; i < words.length; ++i) {
+            words[i] ^= buffer.getLong(offset + 8 * i);
+          }
+        } else {
+          for (int i = 0; i < cardinality; ++i) {
+            int value = toIntUnsigned(buffer.getShort(offset + 2 * i));
+            words[value >>> 6] ^= 1L << value;
+          }
+        }
+      }
+    }
+  }
+}
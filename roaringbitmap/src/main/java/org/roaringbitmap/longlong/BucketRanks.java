@@ -0,0 +1,162 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap.longlong;
+
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.roaringbitmap.BitmapDataProvider;
+
+/**
+ * The cumulated cardinalities of the buckets of a {@link Roaring64NavigableMap}, held in a
+ * Fenwick tree: the cardinality of a bucket is updated in O(log(n)), and so are found the
+ * cumulated cardinality before a bucket and the bucket holding the j-th value. The buckets are
+ * those of the bitmap when the tree is built: adding or removing a bucket requires a new tree.
+ * The tree is not thread-safe: the lock of the bitmap guards its updates from the queries.
+ */
+final class BucketRanks {
+
+  // the high bits of the buckets, in the order of the bitmap
+  private final int[] highs;
+  private final boolean signedLongs;
+  // tree[i] sums the cardinalities of the buckets from i + 1 - lowestOneBit(i + 1) to i
+  private final long[] tree;
+
+  private BucketRanks(int[] highs, long[] tree, boolean signedLongs) {
+    this.highs = highs;
+    this.tree = tree;
+    this.signedLongs = signedLongs;
+  }
+
+  /**
+   * Builds the tree in a time linear in the number of buckets.
+   *
+   * @param highToBitmap the buckets, sorted in the order of the bitmap
+   * @param signedLongs whether the high bits are sorted as signed integers
+   * @return the cumulated cardinalities of the buckets
+   */
+  static BucketRanks of(NavigableMap<Integer, BitmapDataProvider> highToBitmap,
+      boolean signedLongs) {
+    final int size = highToBitmap.size();
+    final int[] highs = new int[size];
+    final long[] tree = new long[size];
+    int index = 0;
+    for (Map.Entry<Integer, BitmapDataProvider> entry : highToBitmap.entrySet()) {
+      highs[index] = entry.getKey();
+      tree[index] = entry.getValue().getLongCardinality();
+      ++index;
+    }
+    for (int i = 0; i < size; ++i) {
+      final int parent = i | (i + 1);
+      if (parent < size) {
+        tree[parent] += tree[i];
+      }
+    }
+    return new BucketRanks(highs, tree, signedLongs);
+  }
+
+  /**
+   * @return the number of buckets
+   */
+  int size() {
+    return highs.length;
+  }
+
+  /**
+   * @param index the index of a bucket
+   * @return the high bits of the bucket
+   */
+  int getHigh(int index) {
+    return highs[index];
+  }
+
+  /**
+   * @param high the high bits of a bucket
+   * @return the index of the bucket if found, else (-(insertion point) - 1), like
+   *         {@link java.util.Arrays#binarySearch(int[], int)}
+   */
+  int indexOf(int high) {
+    int low = 0;
+    int highIndex = highs.length - 1;
+    while (low <= highIndex) {
+      final int middle = (low + highIndex) >>> 1;
+      final int compare = signedLongs ? Integer.compare(highs[middle], high)
+          : RoaringIntPacking.compareUnsigned(highs[middle], high);
+      if (compare < 0) {
+        low = middle + 1;
+      } else if (compare > 0) {
+        highIndex = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * @param count a number of buckets
+   * @return the sum of the cardinalities of the first buckets
+   */
+  long cumulatedCardinality(int count) {
+    long sum = 0;
+    for (int i = count - 1; i >= 0; i = (i & (i + 1)) - 1) {
+      sum += tree[i];
+    }
+    return sum;
+  }
+
+  /**
+   * @return the sum of the cardinalities of all the buckets
+   */
+  long cardinality() {
+    return cumulatedCardinality(tree.length);
+  }
+
+  /**
+   * @param index the index of a bucket
+   * @param delta the change of the cardinality of the bucket
+   */
+  void add(int index, long delta) {
+    for (int i = index; i < tree.length; i |= i + 1) {
+      tree[i] += delta;
+    }
+  }
+
+  /**
+   * Finds the bucket holding the j-th value, counting the values from 0.
+   *
+   * @param j a non-negative rank
+   * @return the index of the bucket, or the number of buckets if j is not below the cardinality
+   */
+  int bucketOf(long j) {
+    int count = 0;
+    long remaining = j;
+    for (int step = Integer.highestOneBit(tree.length); step > 0; step >>>= 1) {
+      final int next = count + step;
+      if (next <= tree.length && tree[next - 1] <= remaining) {
+        count = next;
+        remaining -= tree[next - 1];
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the cumulated cardinality of each bucket, the last one being the cardinality
+   */
+  long[] cumulatedCardinalities() {
+    final long[] cumulated = new long[tree.length];
+    for (int i = 0; i < tree.length; ++i) {
+      cumulated[i] = cumulatedCardinality(i + 1);
+    }
+    return cumulated;
+  }
+
+  /**
+   * @return the memory used by the tree
+   */
+  long sizeInBytes() {
+    return (long) highs.length * Integer.BYTES + (long) tree.length * Long.BYTES;
+  }
+}
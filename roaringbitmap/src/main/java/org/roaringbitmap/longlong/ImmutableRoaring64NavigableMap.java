@@ -0,0 +1,393 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap.longlong;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.roaringbitmap.IntConsumer;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.InvalidRoaringFormat;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+/**
+ * ImmutableRoaring64NavigableMap is the read-only counterpart of {@link Roaring64NavigableMap},
+ * backed by a ByteBuffer (typically a MappedByteBuffer) holding the output of
+ * {@link Roaring64NavigableMap#serializeMappable(DataOutput)}. Only a few header fields are loaded
+ * to RAM: the directory of high buckets is binary-searched in the ByteBuffer and each bucket is
+ * wrapped on demand as an {@link ImmutableRoaringBitmap} slice.
+ *
+ * The serialized form is little endian, and made of
+ * <ul>
+ * <li>a 32-bit cookie, whose 16 low bits are 12348 and whose 16 high bits are
+ * the format version,</li>
+ * <li>32-bit flags: the lowest bit is set if longs are ordered as signed longs,</li>
+ * <li>the number of buckets, as a 32-bit integer,</li>
+ * <li>the total size of the serialized form in bytes, as a 64-bit integer,</li>
+ * <li>the 32-bit high parts of the buckets, in ascending order,</li>
+ * <li>for each bucket, the number of values in this bucket and all the preceding ones, as 64-bit
+ * integers,</li>
+ * <li>for each bucket, the offset of its payload from the beginning of the serialized form, as
+ * 64-bit integers,</li>
+ * <li>the payloads: each bucket holds the 32 low bits of its values as a RoaringBitmap in its
+ * standard format (https://github.com/RoaringBitmap/RoaringFormatSpec).</li>
+ * </ul>
+ *
+ * A ByteBuffer can not address more than 2GB: larger sets should be split across several
+ * ImmutableRoaring64NavigableMap.
+ *
+ * <pre>
+ * {@code
+ *     FileChannel channel = ...
+ *     MappedByteBuffer mbb = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+ *     ImmutableRoaring64NavigableMap bitmap = new ImmutableRoaring64NavigableMap(mbb);
+ * }
+ * </pre>
+ */
+public class ImmutableRoaring64NavigableMap implements ImmutableLongBitmapDataProvider {
+
+  static final short SERIAL_COOKIE = 12348;
+  static final int SERIAL_VERSION = 1;
+
+  static final int FLAG_SIGNED_LONGS = 1;
+
+  // cookie, flags, number of buckets, total size
+  static final int HEADER_FIXED_SIZE = 4 + 4 + 4 + 8;
+
+  private final ByteBuffer buffer;
+  private final boolean signedLongs;
+  private final int nbBuckets;
+  private final long sizeInBytes;
+
+  /**
+   * Constructs a new ImmutableRoaring64NavigableMap starting at this ByteBuffer's position(). Only
+   * meta-data is loaded to RAM, the rest is mapped to the ByteBuffer.
+   *
+   * The input ByteBuffer is effectively copied (with the slice operation) so you should expect the
+   * provided ByteBuffer to remain unchanged.
+   *
+   * @param b data source
+   * @throws InvalidRoaringFormat if the cookie or the version is unexpected
+   */
+  public ImmutableRoaring64NavigableMap(final ByteBuffer b) {
+    buffer = b.slice();
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    final int cookie = buffer.getInt(0);
+    if ((cookie & 0xFFFF) != SERIAL_COOKIE) {
+      throw new InvalidRoaringFormat("I failed to find a valid cookie.");
+    }
+    if ((cookie >>> 16) != SERIAL_VERSION) {
+      throw new InvalidRoaringFormat("Unsupported format version " + (cookie >>> 16));
+    }
+    signedLongs = (buffer.getInt(4) & FLAG_SIGNED_LONGS) != 0;
+    nbBuckets = buffer.getInt(8);
+    sizeInBytes = buffer.getLong(12);
+    if (nbBuckets < 0 || sizeInBytes > buffer.limit()
+        || sizeInBytes < headerSizeInBytes(nbBuckets)) {
+      throw new InvalidRoaringFormat("Invalid header");
+    }
+    buffer.limit((int) sizeInBytes);
+  }
+
+  static long headerSizeInBytes(int nbBuckets) {
+    return HEADER_FIXED_SIZE + (4L + 8L + 8L) * nbBuckets;
+  }
+
+  /**
+   * @return true if longs are ordered as plain java longs, false if ordered as unsigned longs
+   */
+  public boolean isSignedLongs() {
+    return signedLongs;
+  }
+
+  /**
+   * @return the number of high buckets
+   */
+  public int getBucketCount() {
+    return nbBuckets;
+  }
+
+  /**
+   * @param index index of the bucket, in [0, getBucketCount())
+   * @return the 32 high bits shared by the values of the bucket
+   */
+  public int getHighAtIndex(int index) {
+    return buffer.getInt(HEADER_FIXED_SIZE + 4 * index);
+  }
+
+  private long getCumulatedCardinality(int index) {
+    return buffer.getLong(HEADER_FIXED_SIZE + 4 * nbBuckets + 8 * index);
+  }
+
+  private int getOffset(int index) {
+    return (int) buffer.getLong(HEADER_FIXED_SIZE + 12 * nbBuckets + 8 * index);
+  }
+
+  /**
+   * @param index index of the bucket, in [0, getBucketCount())
+   * @return the number of values in the bucket, read from the directory
+   */
+  public long getCardinalityAtIndex(int index) {
+    long cardinality = getCumulatedCardinality(index);
+    return index == 0 ? cardinality : cardinality - getCumulatedCardinality(index - 1);
+  }
+
+  /**
+   * @param index index of the bucket, in [0, getBucketCount())
+   * @return the number of bytes of the payload of the bucket
+   */
+  public int getBucketSizeInBytes(int index) {
+    int end = index + 1 < nbBuckets ? getOffset(index + 1) : (int) sizeInBytes;
+    return end - getOffset(index);
+  }
+
+  /**
+   * Wrap a bucket, without copying its content.
+   *
+   * @param index index of the bucket, in [0, getBucketCount())
+   * @return the 32 low bits of the values of the bucket
+   */
+  public ImmutableRoaringBitmap getBucketAtIndex(int index) {
+    ByteBuffer bucket = buffer.duplicate();
+    bucket.position(getOffset(index));
+    return new ImmutableRoaringBitmap(bucket);
+  }
+
+  /**
+   * Wrap the bucket associated to some high bits, without copying its content.
+   *
+   * @param high the 32 high bits
+   * @return the 32 low bits of the values of the bucket, or null if there is no such bucket
+   */
+  public ImmutableRoaringBitmap getBucket(int high) {
+    int index = findBucket(high);
+    return index < 0 ? null : getBucketAtIndex(index);
+  }
+
+  // binary search in the mapped directory of highs, like Arrays.binarySearch
+  private int findBucket(int high) {
+    int low = 0;
+    int up = nbBuckets - 1;
+    while (low <= up) {
+      int mid = (low + up) >>> 1;
+      int cmp = compare(getHighAtIndex(mid), high);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        up = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private int compare(int x, int y) {
+    if (signedLongs) {
+      return Integer.compare(x, y);
+    } else {
+      return RoaringIntPacking.compareUnsigned(x, y);
+    }
+  }
+
+  @Override
+  public boolean contains(long x) {
+    ImmutableRoaringBitmap bucket = getBucket(RoaringIntPacking.high(x));
+    return bucket != null && bucket.contains(RoaringIntPacking.low(x));
+  }
+
+  @Override
+  public long getLongCardinality() {
+    return nbBuckets == 0 ? 0L : getCumulatedCardinality(nbBuckets - 1);
+  }
+
+  @Override
+  public long rankLong(long x) {
+    int index = findBucket(RoaringIntPacking.high(x));
+    if (index >= 0) {
+      long previous = index == 0 ? 0L : getCumulatedCardinality(index - 1);
+      return previous + getBucketAtIndex(index).rankLong(RoaringIntPacking.low(x));
+    }
+    int insertionPoint = -index - 1;
+    return insertionPoint == 0 ? 0L : getCumulatedCardinality(insertionPoint - 1);
+  }
+
+  @Override
+  public long select(long j) {
+    // the first bucket whose cumulated cardinality is strictly above j
+    int low = 0;
+    int up = nbBuckets;
+    while (low < up) {
+      int mid = (low + up) >>> 1;
+      if (getCumulatedCardinality(mid) <= j) {
+        low = mid + 1;
+      } else {
+        up = mid;
+      }
+    }
+    if (j < 0 || low == nbBuckets) {
+      throw new IllegalArgumentException(
+          "select " + j + " when the cardinality is " + getLongCardinality());
+    }
+    long previous = low == 0 ? 0L : getCumulatedCardinality(low - 1);
+    int lowBits = getBucketAtIndex(low).select((int) (j - previous));
+    return RoaringIntPacking.pack(getHighAtIndex(low), lowBits);
+  }
+
+  @Override
+  public void forEach(final LongConsumer lc) {
+    for (int i = 0; i < nbBuckets; ++i) {
+      final int high = getHighAtIndex(i);
+      getBucketAtIndex(i).forEach(new IntConsumer() {
+
+        @Override
+        public void accept(int low) {
+          lc.accept(RoaringIntPacking.pack(high, low));
+        }
+      });
+    }
+  }
+
+  @Override
+  public LongIterator getLongIterator() {
+    return toIterator(false);
+  }
+
+  @Override
+  public LongIterator getReverseLongIterator() {
+    return toIterator(true);
+  }
+
+  private LongIterator toIterator(final boolean reversed) {
+    return new BucketLongIterator(reversed);
+  }
+
+  // iterates over the buckets one after the other, mapping each when reaching it
+  private final class BucketLongIterator implements LongIterator {
+
+    private final boolean reversed;
+    private int nextIndex;
+    private int currentHigh;
+    private IntIterator currentIt;
+
+    BucketLongIterator(boolean reversed) {
+      this.reversed = reversed;
+      this.nextIndex = reversed ? nbBuckets - 1 : 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (currentIt == null || !currentIt.hasNext()) {
+        if (nextIndex < 0 || nextIndex >= nbBuckets) {
+          return false;
+        }
+        currentHigh = getHighAtIndex(nextIndex);
+        ImmutableRoaringBitmap bucket = getBucketAtIndex(nextIndex);
+        currentIt = reversed ? bucket.getReverseIntIterator() : bucket.getIntIterator();
+        nextIndex += reversed ? -1 : 1;
+      }
+      return true;
+    }
+
+    @Override
+    public long next() {
+      if (hasNext()) {
+        return RoaringIntPacking.pack(currentHigh, currentIt.next());
+      } else {
+        throw new IllegalStateException("empty");
+      }
+    }
+
+    @Override
+    public LongIterator clone() {
+      BucketLongIterator clone = new BucketLongIterator(reversed);
+      clone.nextIndex = nextIndex;
+      clone.currentHigh = currentHigh;
+      clone.currentIt = currentIt == null ? null : currentIt.clone();
+      return clone;
+    }
+  }
+
+  @Override
+  public int getSizeInBytes() {
+    return (int) getLongSizeInBytes();
+  }
+
+  @Override
+  public long getLongSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return getLongCardinality() == 0L;
+  }
+
+  @Override
+  public ImmutableLongBitmapDataProvider limit(long x) {
+    Roaring64NavigableMap answer = new Roaring64NavigableMap(signedLongs);
+    LongIterator it = getLongIterator();
+    for (long i = 0; i < x && it.hasNext(); i++) {
+      answer.addLong(it.next());
+    }
+    return answer;
+  }
+
+  /**
+   * Serialize this bitmap, in the same format it was read from.
+   *
+   * The current bitmap is not modified.
+   *
+   * @param out the DataOutput stream
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Override
+  public void serialize(DataOutput out) throws IOException {
+    ByteBuffer copy = buffer.duplicate();
+    copy.position(0);
+    if (copy.hasArray()) {
+      out.write(copy.array(), copy.arrayOffset(), copy.limit());
+    } else {
+      byte[] chunk = new byte[Math.min(copy.limit(), 1 << 16)];
+      while (copy.hasRemaining()) {
+        int length = Math.min(chunk.length, copy.remaining());
+        copy.get(chunk, 0, length);
+        out.write(chunk, 0, length);
+      }
+    }
+  }
+
+  @Override
+  public long serializedSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  /**
+   * Copies this bitmap to the heap.
+   *
+   * @return a copy of this bitmap as a Roaring64NavigableMap
+   */
+  public Roaring64NavigableMap toRoaring64NavigableMap() {
+    Roaring64NavigableMap answer = new Roaring64NavigableMap(signedLongs);
+    answer.copyFrom(this);
+    return answer;
+  }
+
+  @Override
+  public long[] toArray() {
+    long cardinality = getLongCardinality();
+    if (cardinality > Integer.MAX_VALUE) {
+      throw new IllegalStateException("The cardinality does not fit in an array");
+    }
+    final long[] array = new long[(int) cardinality];
+    int pos = 0;
+    LongIterator it = getLongIterator();
+    while (it.hasNext()) {
+      array[pos++] = it.next();
+    }
+    return array;
+  }
+}
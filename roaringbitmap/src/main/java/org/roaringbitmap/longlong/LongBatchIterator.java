@@ -0,0 +1,32 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap.longlong;
+
+/**
+ * An iterator writing long values in batches, like {@link org.roaringbitmap.BatchIterator} for
+ * integers.
+ */
+public interface LongBatchIterator extends Cloneable {
+
+  /**
+   * Writes the next batch of longs onto the buffer, and returns how many were written. Aims to
+   * fill the buffer.
+   *
+   * @param buffer the target to write onto
+   * @return how many values were written during the call
+   */
+  int nextBatch(long[] buffer);
+
+  /**
+   * @return whether there are more values to get
+   */
+  boolean hasNext();
+
+  /**
+   * Creates a copy of the iterator.
+   *
+   * @return a clone of the current iterator
+   */
+  LongBatchIterator clone();
+}
@@ -0,0 +1,770 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap.longlong;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.roaringbitmap.ArrayContainer;
+import org.roaringbitmap.Container;
+import org.roaringbitmap.ContainerPointer;
+import org.roaringbitmap.InvalidRoaringFormat;
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.ShortIterator;
+import org.roaringbitmap.Util;
+import org.roaringbitmap.art.Art;
+import org.roaringbitmap.art.LeafNode;
+import org.roaringbitmap.art.LeafNodeIterator;
+
+/**
+ * Roaring64Bitmap is a bitmap over the whole range of unsigned longs. Unlike
+ * {@link Roaring64NavigableMap}, which holds one RoaringBitmap per 32 high bits, it splits each
+ * long into 48 high bits and 16 low bits: the 48 high bits are indexed by an adaptive radix tree
+ * ({@link Art}) whose leaves directly hold the 16-bit {@link Container}s of RoaringBitmap. Sparse
+ * sets hence pay neither for boxed keys nor for a whole RoaringBitmap per bucket.
+ *
+ * Longs are ordered as unsigned longs: 0 is the lowest value and -1L the highest one.
+ *
+ * <pre>
+ * {@code
+ *      Roaring64Bitmap r1 = new Roaring64Bitmap();
+ *      r1.addLong(1234567890123L);
+ *      r1.addLong(-1L);
+ * }
+ * </pre>
+ */
+// this class is not thread-safe
+public class Roaring64Bitmap implements Externalizable, LongBitmapDataProvider {
+
+  private static final int LOW_BITS = 16;
+
+  // Not final to enable initialization in Externalizable.readObject
+  private Art art;
+
+  // We guess consecutive .addLong will be on proximate longs: we remember the last leaf we
+  // added to in order to skip the tree traversal
+  private transient LeafNode latestAddedLeaf = null;
+
+  /**
+   * Create an empty bitmap.
+   */
+  public Roaring64Bitmap() {
+    art = new Art();
+  }
+
+  static long high(long x) {
+    return x >>> LOW_BITS;
+  }
+
+  static short low(long x) {
+    return (short) x;
+  }
+
+  private static int toIntUnsigned(short x) {
+    return x & 0xFFFF;
+  }
+
+  static long pack(long high, short low) {
+    return (high << LOW_BITS) | toIntUnsigned(low);
+  }
+
+  /**
+   * Add the value to the container (set the value to "true"), whether it already appears or not.
+   *
+   * Java lacks native unsigned longs but the x argument is considered to be unsigned. Within
+   * bitmaps, numbers are ordered according to {@link Long#compareUnsigned}. We order the numbers
+   * like 0, 1, ..., 9223372036854775807, -9223372036854775808, -9223372036854775807,..., -1.
+   *
+   * @param x long value
+   */
+  @Override
+  public void addLong(long x) {
+    long high = high(x);
+    LeafNode leaf = latestAddedLeaf;
+    if (leaf == null || leaf.getKey() != high) {
+      leaf = art.findLeaf(high);
+      if (leaf == null) {
+        leaf = art.insert(high, new ArrayContainer());
+      }
+      latestAddedLeaf = leaf;
+    }
+    leaf.setContainer(leaf.getContainer().add(low(x)));
+  }
+
+  /**
+   * Add the integer value to the container (set the value to "true"), whether it already appears or
+   * not.
+   *
+   * Javac lacks native unsigned integers but the x argument is considered to be unsigned. Within
+   * bitmaps, numbers are ordered according to {@link Integer#compareUnsigned}. We order the numbers
+   * like 0, 1, ..., 2147483647, -2147483648, -2147483647,..., -1.
+   *
+   * @param x integer value
+   */
+  public void addInt(int x) {
+    addLong(Util.toUnsignedLong(x));
+  }
+
+  /**
+   * Set all the specified values to true. This can be expected to be slightly faster than calling
+   * "add" repeatedly. The provided longs values don't have to be in sorted order, but it may be
+   * preferable to sort them from a performance point of view.
+   *
+   * @param dat set values
+   */
+  public void add(long... dat) {
+    for (long oneLong : dat) {
+      addLong(oneLong);
+    }
+  }
+
+  /**
+   * Add to the current bitmap all longs in [rangeStart,rangeEnd), the bounds being considered as
+   * unsigned longs.
+   *
+   * @param rangeStart inclusive beginning of range
+   * @param rangeEnd exclusive ending of range
+   */
+  public void add(final long rangeStart, final long rangeEnd) {
+    if (Long.compareUnsigned(rangeStart, rangeEnd) >= 0) {
+      return;
+    }
+    final long startHigh = high(rangeStart);
+    final long endHigh = high(rangeEnd - 1);
+    for (long high = startHigh; high <= endHigh; high++) {
+      final int containerStart = high == startHigh ? toIntUnsigned(low(rangeStart)) : 0;
+      final int containerEnd = high == endHigh ? toIntUnsigned(low(rangeEnd - 1)) + 1
+          : 1 << LOW_BITS;
+      LeafNode leaf = art.findLeaf(high);
+      if (leaf == null) {
+        art.insert(high, Container.rangeOfOnes(containerStart, containerEnd));
+      } else {
+        leaf.setContainer(leaf.getContainer().iadd(containerStart, containerEnd));
+      }
+    }
+  }
+
+  @Override
+  public void removeLong(long x) {
+    long high = high(x);
+    LeafNode leaf = art.findLeaf(high);
+    if (leaf != null) {
+      Container container = leaf.getContainer().remove(low(x));
+      if (container.isEmpty()) {
+        removeLeaf(high);
+      } else {
+        leaf.setContainer(container);
+      }
+    }
+  }
+
+  private void removeLeaf(long high) {
+    art.remove(high);
+    latestAddedLeaf = null;
+  }
+
+  /**
+   * Add the value if it is not already present, otherwise remove it.
+   *
+   * @param x long value
+   */
+  public void flip(final long x) {
+    if (contains(x)) {
+      removeLong(x);
+    } else {
+      addLong(x);
+    }
+  }
+
+  @Override
+  public boolean contains(long x) {
+    Container container = art.findByKey(high(x));
+    return container != null && container.contains(low(x));
+  }
+
+  /**
+   * Returns the number of distinct integers added to the bitmap (e.g., number of bits set).
+   *
+   * @return the cardinality
+   */
+  @Override
+  public long getLongCardinality() {
+    long cardinality = 0L;
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      cardinality += it.next().getContainer().getCardinality();
+    }
+    return cardinality;
+  }
+
+  /**
+   *
+   * @return the cardinality as an int
+   *
+   * @throws UnsupportedOperationException if the cardinality does not fit in an int
+   */
+  public int getIntCardinality() throws UnsupportedOperationException {
+    long cardinality = getLongCardinality();
+    if (cardinality > Integer.MAX_VALUE) {
+      throw new UnsupportedOperationException(
+          "Can not call .getIntCardinality as the cardinality is bigger than Integer.MAX_VALUE");
+    }
+    return (int) cardinality;
+  }
+
+  /**
+   * Return the jth value stored in this bitmap.
+   *
+   * @param j index of the value
+   *
+   * @return the value
+   * @throws IllegalArgumentException if j is out of the bounds of the bitmap cardinality
+   */
+  @Override
+  public long select(final long j) throws IllegalArgumentException {
+    long left = j;
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      LeafNode leaf = it.next();
+      int cardinality = leaf.getContainer().getCardinality();
+      if (left >= cardinality) {
+        left -= cardinality;
+      } else {
+        return pack(leaf.getKey(), leaf.getContainer().select((int) left));
+      }
+    }
+    throw new IllegalArgumentException(
+        "select " + j + " when the cardinality is " + this.getLongCardinality());
+  }
+
+  @Override
+  public long rankLong(long x) {
+    long high = high(x);
+    long rank = 0L;
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      LeafNode leaf = it.next();
+      if (leaf.getKey() < high) {
+        rank += leaf.getContainer().getCardinality();
+      } else {
+        if (leaf.getKey() == high) {
+          rank += leaf.getContainer().rank(low(x));
+        }
+        break;
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Get the first (smallest) value in this bitmap.
+   *
+   * @return the first value
+   * @throws NoSuchElementException if empty
+   */
+  public long first() {
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    if (!it.hasNext()) {
+      throw new NoSuchElementException("Empty Roaring64Bitmap");
+    }
+    LeafNode leaf = it.next();
+    return (leaf.getKey() << LOW_BITS) | leaf.getContainer().first();
+  }
+
+  /**
+   * Get the last (largest) value in this bitmap.
+   *
+   * @return the last value
+   * @throws NoSuchElementException if empty
+   */
+  public long last() {
+    LeafNodeIterator it = art.leafNodeIterator(true);
+    if (!it.hasNext()) {
+      throw new NoSuchElementException("Empty Roaring64Bitmap");
+    }
+    LeafNode leaf = it.next();
+    return (leaf.getKey() << LOW_BITS) | leaf.getContainer().last();
+  }
+
+  @Override
+  public void forEach(final LongConsumer lc) {
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      LeafNode leaf = it.next();
+      long base = leaf.getKey() << LOW_BITS;
+      ShortIterator shorts = leaf.getContainer().getShortIterator();
+      while (shorts.hasNext()) {
+        lc.accept(base | toIntUnsigned(shorts.next()));
+      }
+    }
+  }
+
+  /**
+   * For better performance, consider the Use the {@link #forEach forEach} method.
+   *
+   * @return a custom iterator over set bits, the bits are traversed in ascending sorted order
+   */
+  public Iterator<Long> iterator() {
+    final LongIterator it = getLongIterator();
+
+    return new Iterator<Long>() {
+
+      @Override
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      @Override
+      public Long next() {
+        return it.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public LongIterator getLongIterator() {
+    return toIterator(art.leafNodeIterator(false), false);
+  }
+
+  @Override
+  public LongIterator getReverseLongIterator() {
+    return toIterator(art.leafNodeIterator(true), true);
+  }
+
+  private static LongIterator toIterator(final LeafNodeIterator it, final boolean reversed) {
+    return new LeafLongIterator(it, reversed);
+  }
+
+  // iterates over the containers of the leaves one after the other
+  private static final class LeafLongIterator implements LongIterator {
+
+    private final LeafNodeIterator it;
+    private final boolean reversed;
+    private long base;
+    private ShortIterator currentIt;
+
+    LeafLongIterator(LeafNodeIterator it, boolean reversed) {
+      this.it = it;
+      this.reversed = reversed;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (currentIt == null || !currentIt.hasNext()) {
+        if (!it.hasNext()) {
+          return false;
+        }
+        LeafNode leaf = it.next();
+        base = leaf.getKey() << LOW_BITS;
+        currentIt = reversed ? leaf.getContainer().getReverseShortIterator()
+            : leaf.getContainer().getShortIterator();
+      }
+      return true;
+    }
+
+    @Override
+    public long next() {
+      if (hasNext()) {
+        return base | toIntUnsigned(currentIt.next());
+      } else {
+        throw new IllegalStateException("empty");
+      }
+    }
+
+    @Override
+    public LongIterator clone() {
+      LeafLongIterator clone = new LeafLongIterator(it.clone(), reversed);
+      clone.base = base;
+      clone.currentIt = currentIt == null ? null : currentIt.clone();
+      return clone;
+    }
+  }
+
+  @Override
+  public int getSizeInBytes() {
+    return (int) getLongSizeInBytes();
+  }
+
+  @Override
+  public long getLongSizeInBytes() {
+    long size = 8 + art.getSizeInBytes();
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      size += it.next().getContainer().getSizeInBytes();
+    }
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return art.isEmpty();
+  }
+
+  @Override
+  public ImmutableLongBitmapDataProvider limit(long x) {
+    Roaring64Bitmap answer = new Roaring64Bitmap();
+    long left = x;
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (left > 0 && it.hasNext()) {
+      LeafNode leaf = it.next();
+      Container container = leaf.getContainer();
+      if (container.getCardinality() <= left) {
+        answer.art.insert(leaf.getKey(), container.clone());
+        left -= container.getCardinality();
+      } else {
+        answer.art.insert(leaf.getKey(), container.limit((int) left));
+        left = 0;
+      }
+    }
+    return answer;
+  }
+
+  /**
+   * In-place bitwise OR (union) operation. The current bitmap is modified.
+   *
+   * @param x2 other bitmap
+   */
+  public void or(final Roaring64Bitmap x2) {
+    LeafNodeIterator it = x2.art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      LeafNode leaf2 = it.next();
+      LeafNode leaf1 = art.findLeaf(leaf2.getKey());
+      if (leaf1 == null) {
+        // Clone to prevent future modification of this modifying the input bitmap
+        art.insert(leaf2.getKey(), leaf2.getContainer().clone());
+      } else {
+        leaf1.setContainer(leaf1.getContainer().ior(leaf2.getContainer()));
+      }
+    }
+  }
+
+  /**
+   * In-place bitwise XOR (symmetric difference) operation. The current bitmap is modified.
+   *
+   * @param x2 other bitmap
+   */
+  public void xor(final Roaring64Bitmap x2) {
+    LeafNodeIterator it = x2.art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      LeafNode leaf2 = it.next();
+      LeafNode leaf1 = art.findLeaf(leaf2.getKey());
+      if (leaf1 == null) {
+        art.insert(leaf2.getKey(), leaf2.getContainer().clone());
+      } else {
+        Container result = leaf1.getContainer().ixor(leaf2.getContainer());
+        if (result.isEmpty()) {
+          removeLeaf(leaf1.getKey());
+        } else {
+          leaf1.setContainer(result);
+        }
+      }
+    }
+  }
+
+  /**
+   * In-place bitwise AND (intersection) operation. The current bitmap is modified.
+   *
+   * @param x2 other bitmap
+   */
+  public void and(final Roaring64Bitmap x2) {
+    long[] emptied = new long[4];
+    int nbEmptied = 0;
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      LeafNode leaf1 = it.next();
+      Container container2 = x2.art.findByKey(leaf1.getKey());
+      Container result =
+          container2 == null ? null : leaf1.getContainer().iand(container2);
+      if (result == null || result.isEmpty()) {
+        // the tree can not be modified as we iterate over it
+        if (nbEmptied == emptied.length) {
+          emptied = Arrays.copyOf(emptied, 2 * nbEmptied);
+        }
+        emptied[nbEmptied++] = leaf1.getKey();
+      } else {
+        leaf1.setContainer(result);
+      }
+    }
+    for (int i = 0; i < nbEmptied; ++i) {
+      removeLeaf(emptied[i]);
+    }
+  }
+
+  /**
+   * In-place bitwise ANDNOT (difference) operation. The current bitmap is modified.
+   *
+   * @param x2 other bitmap
+   */
+  public void andNot(final Roaring64Bitmap x2) {
+    LeafNodeIterator it = x2.art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      LeafNode leaf2 = it.next();
+      LeafNode leaf1 = art.findLeaf(leaf2.getKey());
+      if (leaf1 != null) {
+        Container result = leaf1.getContainer().iandNot(leaf2.getContainer());
+        if (result.isEmpty()) {
+          removeLeaf(leaf1.getKey());
+        } else {
+          leaf1.setContainer(result);
+        }
+      }
+    }
+  }
+
+  /**
+   * Use a run-length encoding where it is estimated as more space efficient
+   *
+   * @return whether a change was applied
+   */
+  public boolean runOptimize() {
+    boolean hasChanged = false;
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      LeafNode leaf = it.next();
+      Container container = leaf.getContainer();
+      Container optimized = container.runOptimize();
+      if (optimized != container) {
+        leaf.setContainer(optimized);
+        hasChanged = true;
+      }
+    }
+    return hasChanged;
+  }
+
+  @Override
+  public void trim() {
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      it.next().getContainer().trim();
+    }
+  }
+
+  /**
+   * reset to an empty bitmap; result occupies as much space a newly created bitmap.
+   */
+  public void clear() {
+    art.clear();
+    latestAddedLeaf = null;
+  }
+
+  /**
+   * Return the set values as an array, if the cardinality is smaller than 2147483648. The long
+   * values are in sorted order.
+   *
+   * @return array representing the set values.
+   */
+  @Override
+  public long[] toArray() {
+    long cardinality = this.getLongCardinality();
+    if (cardinality > Integer.MAX_VALUE) {
+      throw new IllegalStateException("The cardinality does not fit in an array");
+    }
+    final long[] array = new long[(int) cardinality];
+    int pos = 0;
+    LongIterator it = getLongIterator();
+    while (it.hasNext()) {
+      array[pos++] = it.next();
+    }
+    return array;
+  }
+
+  /**
+   * Generate a bitmap with the specified values set to true. The provided longs values don't have
+   * to be in sorted order, but it may be preferable to sort them from a performance point of view.
+   *
+   * @param dat set values
+   * @return a new bitmap
+   */
+  public static Roaring64Bitmap bitmapOf(final long... dat) {
+    final Roaring64Bitmap ans = new Roaring64Bitmap();
+    ans.add(dat);
+    return ans;
+  }
+
+  /**
+   * Serialize this bitmap.
+   *
+   * The format is the portable 64-bit Roaring format: the number of 32-bit buckets as a
+   * little-endian 64-bit integer, then for each bucket in ascending order its 32 high bits as a
+   * little-endian 32-bit integer followed by a RoaringBitmap in its standard format.
+   *
+   * Consider calling {@link #runOptimize} before serialization to improve compression.
+   *
+   * The current bitmap is not modified.
+   *
+   * @param out the DataOutput stream
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Override
+  public void serialize(DataOutput out) throws IOException {
+    out.writeLong(Long.reverseBytes(countBuckets()));
+    BucketIterator buckets = new BucketIterator();
+    while (buckets.hasNext()) {
+      RoaringBitmap bucket = buckets.next();
+      out.writeInt(Integer.reverseBytes(buckets.currentHigh));
+      bucket.serialize(out);
+    }
+  }
+
+  /**
+   * Deserialize (retrieve) this bitmap. See {@link #serialize(DataOutput)} for the format.
+   *
+   * The current bitmap is overwritten.
+   *
+   * @param in the DataInput stream
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void deserialize(DataInput in) throws IOException {
+    this.clear();
+    long nbBuckets = Long.reverseBytes(in.readLong());
+    if (nbBuckets < 0 || nbBuckets > (1L << 32)) {
+      throw new InvalidRoaringFormat("Invalid number of buckets: " + nbBuckets);
+    }
+    for (long i = 0; i < nbBuckets; i++) {
+      long high = Util.toUnsignedLong(Integer.reverseBytes(in.readInt()));
+      RoaringBitmap bucket = new RoaringBitmap();
+      bucket.deserialize(in);
+      ContainerPointer pointer = bucket.getContainerPointer();
+      while (pointer.getContainer() != null) {
+        art.insert((high << 16) | toIntUnsigned(pointer.key()), pointer.getContainer());
+        pointer.advance();
+      }
+    }
+  }
+
+  @Override
+  public long serializedSizeInBytes() {
+    // the number of buckets
+    long nbBytes = 8;
+    BucketIterator buckets = new BucketIterator();
+    while (buckets.hasNext()) {
+      // the high bits and the bucket itself
+      nbBytes += 4 + buckets.next().serializedSizeInBytes();
+    }
+    return nbBytes;
+  }
+
+  private long countBuckets() {
+    long count = 0;
+    long previousHigh = -1;
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      long high = it.next().getKey() >>> 16;
+      if (high != previousHigh) {
+        count++;
+        previousHigh = high;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Groups the containers sharing the same 32 high bits into a RoaringBitmap, without copying them.
+   */
+  private final class BucketIterator {
+    private final LeafNodeIterator it = art.leafNodeIterator(false);
+    private int currentHigh;
+
+    boolean hasNext() {
+      return it.hasNext();
+    }
+
+    RoaringBitmap next() {
+      RoaringBitmap bucket = new RoaringBitmap();
+      currentHigh = (int) (it.peekNext().getKey() >>> 16);
+      while (it.hasNext() && (int) (it.peekNext().getKey() >>> 16) == currentHigh) {
+        LeafNode leaf = it.next();
+        bucket.append((short) leaf.getKey(), leaf.getContainer());
+      }
+      return bucket;
+    }
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    serialize(out);
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    if (art == null) {
+      art = new Art();
+    }
+    deserialize(in);
+  }
+
+  /**
+   * A string describing the bitmap.
+   *
+   * @return the string
+   */
+  @Override
+  public String toString() {
+    final StringBuilder answer = new StringBuilder();
+    final LongIterator i = this.getLongIterator();
+    answer.append("{");
+    if (i.hasNext()) {
+      answer.append(RoaringIntPacking.toUnsignedString(i.next()));
+    }
+    while (i.hasNext()) {
+      answer.append(",");
+      // to avoid using too much memory, we limit the size
+      if (answer.length() > 0x80000) {
+        answer.append("...");
+        break;
+      }
+      answer.append(RoaringIntPacking.toUnsignedString(i.next()));
+    }
+    answer.append("}");
+    return answer.toString();
+  }
+
+  @Override
+  public int hashCode() {
+    int hashvalue = 0;
+    LeafNodeIterator it = art.leafNodeIterator(false);
+    while (it.hasNext()) {
+      LeafNode leaf = it.next();
+      hashvalue = 31 * hashvalue + Long.hashCode(leaf.getKey()) * 0xF0F0F0
+          + leaf.getContainer().hashCode();
+    }
+    return hashvalue;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    Roaring64Bitmap other = (Roaring64Bitmap) obj;
+    if (art.getKeySize() != other.art.getKeySize()) {
+      return false;
+    }
+    LeafNodeIterator it1 = art.leafNodeIterator(false);
+    LeafNodeIterator it2 = other.art.leafNodeIterator(false);
+    while (it1.hasNext()) {
+      LeafNode leaf1 = it1.next();
+      LeafNode leaf2 = it2.next();
+      if (leaf1.getKey() != leaf2.getKey() || !leaf1.getContainer().equals(leaf2.getContainer())) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -9,24 +9,34 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.SortedMap;
+import java.util.Spliterator;
 import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
+import org.roaringbitmap.BatchIterator;
 import org.roaringbitmap.BitmapDataProvider;
 import org.roaringbitmap.BitmapDataProviderSupplier;
 import org.roaringbitmap.IntConsumer;
 import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.InvalidRoaringFormat;
 import org.roaringbitmap.RoaringBitmap;
 import org.roaringbitmap.RoaringBitmapSupplier;
 import org.roaringbitmap.Util;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
 import org.roaringbitmap.buffer.MutableRoaringBitmap;
 
 /**
@@ -38,10 +48,19 @@ import org.roaringbitmap.buffer.MutableRoaringBitmap;
  * preceded by 1). That is, they are treated as unsigned integers (see Java 8's
  * Integer.toUnsignedLong function). Up to 4294967296 integers can be stored.
  *
+ * Unless cardinalities are not cached, {@link #rankLong(long)}, {@link #select(long)} and
+ * {@link #getLongCardinality()} rely on the cumulated cardinalities of the buckets, computed on
+ * the first call and then updated in O(log(buckets)) as single values are added or removed. A
+ * bulk operation, or a value landing in a new bucket, requires computing them again.
  *
- *
+ * Several threads may read the bitmap concurrently as long as no thread modifies it. Besides,
+ * {@link #rankLong(long)}, {@link #select(long)} and {@link #getLongCardinality()} may run while
+ * another thread modifies the bitmap: they share a read lock, which the writers take for writing,
+ * so that a query sees the cumulated cardinalities and the buckets either before or after a
+ * write. Writers still must not run concurrently with each other, nor with the other reads.
  */
-// this class is not thread-safe
+// this class is not thread-safe, except for rank, select and cardinality queries concurrent
+// with a writer
 // @Beta: this class is still in early stage. Its API may change and has not proofed itself as
 // bug-proof
 public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProvider {
@@ -60,17 +79,14 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
   // By default, we cache cardinalities
   private transient boolean doCacheCardinalities = true;
 
-  // Prevent recomputing all cardinalities when requesting consecutive ranks
-  private transient int firstHighNotValid = highestHigh() + 1;
-
-  // This boolean needs firstHighNotValid == Integer.MAX_VALUE to be allowed to be true
-  // If false, it means nearly all cumulated cardinalities are valid, except high=Integer.MAX_VALUE
-  // If true, it means all cumulated cardinalities are valid, even high=Integer.MAX_VALUE
-  private transient boolean allValid = false;
+  // The cumulated cardinalities of the buckets, built on the first rank or select and updated in
+  // place by the writers of single values. Null when a bucket has been added or removed, or when
+  // many values have changed at once. The readers never modify it once published
+  private transient volatile BucketRanks ranks = null;
 
-  // TODO: I would prefer not managing arrays myself
-  private transient long[] sortedCumulatedCardinality = new long[0];
-  private transient int[] sortedHighs = new int[0];
+  // Held for reading by the rank, select and cardinality queries and for writing by the writers,
+  // so that these queries may run while the bitmap slowly changes
+  private final transient ReadWriteLock lock = new ReentrantReadWriteLock();
 
   // We guess consecutive .addLong will be on proximate longs: we remember the bitmap attached to
   // this bucket in order
@@ -80,6 +96,12 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
   private static final boolean DEFAULT_ORDER_IS_SIGNED = false;
   private static final boolean DEFAULT_CARDINALITIES_ARE_CACHED = true;
 
+  // the number of distinct 32 low bits
+  private static final long LOWS_PER_BUCKET = 1L << 32;
+
+  // bounds the buffer of the 32 low bits in addMany
+  private static final int MAX_LOWS_PER_BATCH = 1 << 12;
+
   /**
    * By default, we consider longs are unsigned longs: normal longs: 0 is the lowest possible long.
    * Long.MAX_VALUE is followed by Long.MIN_VALUE. -1L is the highest possible value
@@ -158,11 +180,7 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
   }
 
   private void resetPerfHelpers() {
-    firstHighNotValid = RoaringIntPacking.highestHigh(signedLongs) + 1;
-    allValid = false;
-
-    sortedCumulatedCardinality = new long[0];
-    sortedHighs = new int[0];
+    ranks = null;
 
     latestAddedHigh = null;
   }
@@ -175,14 +193,8 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
 
   // Package-friendly: for the sake of unit-testing
   // @VisibleForTesting
-  int getLowestInvalidHigh() {
-    return firstHighNotValid;
-  }
-
-  // Package-friendly: for the sake of unit-testing
-  // @VisibleForTesting
-  long[] getSortedCumulatedCardinality() {
-    return sortedCumulatedCardinality;
+  BucketRanks getRanks() {
+    return ranks;
   }
 
   /**
@@ -196,26 +208,34 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    */
   @Override
   public void addLong(long x) {
-    int high = high(x);
-    int low = low(x);
+    lock.writeLock().lock();
+    try {
+      int high = high(x);
+      int low = low(x);
 
-    // Copy the reference to prevent race-condition
-    Map.Entry<Integer, BitmapDataProvider> local = latestAddedHigh;
+      // Copy the reference to prevent race-condition
+      Map.Entry<Integer, BitmapDataProvider> local = latestAddedHigh;
 
-    BitmapDataProvider bitmap;
-    if (local != null && local.getKey().intValue() == high) {
-      bitmap = local.getValue();
-    } else {
-      bitmap = highToBitmap.get(high);
-      if (bitmap == null) {
-        bitmap = newRoaringBitmap();
-        pushBitmapForHigh(high, bitmap);
+      BitmapDataProvider bitmap;
+      if (local != null && local.getKey().intValue() == high) {
+        bitmap = local.getValue();
+      } else {
+        bitmap = highToBitmap.get(high);
+        if (bitmap == null) {
+          bitmap = newRoaringBitmap();
+          pushBitmapForHigh(high, bitmap);
+        }
+        latestAddedHigh = new AbstractMap.SimpleImmutableEntry<>(high, bitmap);
       }
-      latestAddedHigh = new AbstractMap.SimpleImmutableEntry<>(high, bitmap);
-    }
-    bitmap.add(low);
 
-    invalidateAboveHigh(high);
+      if (ranks == null) {
+        bitmap.add(low);
+      } else if (checkedAdd(bitmap, low)) {
+        updateRanks(high, 1);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   /**
@@ -236,33 +256,67 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
     return supplier.newEmpty();
   }
 
-  private void invalidateAboveHigh(int high) {
-    // The cardinalities after this bucket may not be valid anymore
-    if (compare(firstHighNotValid, high) > 0) {
-      // High was valid up to now
-      firstHighNotValid = high;
+  private static boolean checkedAdd(BitmapDataProvider bitmap, int low) {
+    if (bitmap instanceof RoaringBitmap) {
+      return ((RoaringBitmap) bitmap).checkedAdd(low);
+    } else if (bitmap instanceof MutableRoaringBitmap) {
+      return ((MutableRoaringBitmap) bitmap).checkedAdd(low);
+    } else if (bitmap.contains(low)) {
+      return false;
+    } else {
+      bitmap.add(low);
+      return true;
+    }
+  }
+
+  private static boolean checkedRemove(BitmapDataProvider bitmap, int low) {
+    if (bitmap instanceof RoaringBitmap) {
+      return ((RoaringBitmap) bitmap).checkedRemove(low);
+    } else if (bitmap instanceof MutableRoaringBitmap) {
+      return ((MutableRoaringBitmap) bitmap).checkedRemove(low);
+    } else if (bitmap.contains(low)) {
+      bitmap.remove(low);
+      return true;
+    } else {
+      return false;
+    }
+  }
 
-      int indexNotValid = binarySearch(sortedHighs, firstHighNotValid);
+  // The cardinality of an existing bucket has changed by one value
+  private void updateRanks(int high, int delta) {
+    final BucketRanks local = ranks;
+    if (local != null) {
+      local.add(local.indexOf(high), delta);
+    }
+  }
 
-      final int indexAfterWhichToReset;
-      if (indexNotValid >= 0) {
-        indexAfterWhichToReset = indexNotValid;
-      } else {
-        // We have invalidate a high not already present: added a value for a brand new high
-        indexAfterWhichToReset = -indexNotValid - 1;
-      }
+  // Builds the cumulated cardinalities if needed. Concurrent readers may each build their own:
+  // the last one is kept, all being equal
+  private BucketRanks ranks() {
+    BucketRanks local = ranks;
+    if (local == null) {
+      local = BucketRanks.of(highToBitmap, signedLongs);
+      ranks = local;
+    }
+    return local;
+  }
 
-      // This way, sortedHighs remains sorted, without making a new/shorter array
-      Arrays.fill(sortedHighs, indexAfterWhichToReset, sortedHighs.length, highestHigh());
+  // Empty buckets are removed by the writers, so the readers never modify the map
+  private boolean removeIfEmpty(int high, BitmapDataProvider bitmap) {
+    if (bitmap.isEmpty()) {
+      highToBitmap.remove(high);
+      dismissRemovedBucket(high);
+      return true;
     }
-    allValid = false;
+    return false;
   }
 
-  private int compare(int x, int y) {
-    if (signedLongs) {
-      return Integer.compare(x, y);
-    } else {
-      return RoaringIntPacking.compareUnsigned(x, y);
+  private void dismissRemovedBucket(int high) {
+    ranks = null;
+
+    Map.Entry<Integer, BitmapDataProvider> local = latestAddedHigh;
+    if (local != null && local.getKey().intValue() == high) {
+      latestAddedHigh = null;
     }
   }
 
@@ -272,6 +326,9 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
 
     BitmapDataProvider previous = highToBitmap.put(high, bitmap);
     assert previous == null : "Should push only not-existing high";
+
+    // The cumulated cardinalities do not know this bucket
+    ranks = null;
   }
 
   private int low(long id) {
@@ -289,25 +346,22 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    */
   @Override
   public long getLongCardinality() {
-    if (doCacheCardinalities) {
-      if (highToBitmap.isEmpty()) {
-        return 0L;
-      }
-      int indexOk = ensureCumulatives(highestHigh());
-
-      // ensureCumulatives may have removed empty bitmaps
-      if (highToBitmap.isEmpty()) {
-        return 0L;
-      }
-
-
-      return sortedCumulatedCardinality[indexOk - 1];
-    } else {
-      long cardinality = 0L;
-      for (BitmapDataProvider bitmap : highToBitmap.values()) {
-        cardinality += bitmap.getLongCardinality();
+    lock.readLock().lock();
+    try {
+      if (doCacheCardinalities) {
+        if (highToBitmap.isEmpty()) {
+          return 0L;
+        }
+        return ranks().cardinality();
+      } else {
+        long cardinality = 0L;
+        for (BitmapDataProvider bitmap : highToBitmap.values()) {
+          cardinality += bitmap.getLongCardinality();
+        }
+        return cardinality;
       }
-      return cardinality;
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
@@ -339,56 +393,33 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    */
   @Override
   public long select(final long j) throws IllegalArgumentException {
-    if (!doCacheCardinalities) {
-      return selectNoCache(j);
-    }
-
-    // Ensure all cumulatives as we we have straightforward way to know in advance the high of the
-    // j-th value
-    int indexOk = ensureCumulatives(highestHigh());
-
-    if (highToBitmap.isEmpty()) {
-      return throwSelectInvalidIndex(j);
-    }
-
-    // Use normal binarySearch as cardinality does not depends on considering longs signed or
-    // unsigned
-    // We need sortedCumulatedCardinality not to contain duplicated, else binarySearch may return
-    // any of the duplicates: we need to ensure it holds no high associated to an empty bitmap
-    int position = Arrays.binarySearch(sortedCumulatedCardinality, 0, indexOk, j);
+    lock.readLock().lock();
+    try {
+      if (!doCacheCardinalities) {
+        return selectNoCache(j);
+      }
 
-    if (position >= 0) {
-      if (position == indexOk - 1) {
-        // .select has been called on this.getCardinality
+      if (j < 0) {
         return throwSelectInvalidIndex(j);
       }
 
-      // There is a bucket leading to this cardinality: the j-th element is the first element of
-      // next bucket
-      int high = sortedHighs[position + 1];
-      BitmapDataProvider nextBitmap = highToBitmap.get(high);
-      return RoaringIntPacking.pack(high, nextBitmap.select(0));
-    } else {
-      // There is no bucket with this cardinality
-      int insertionPoint = -position - 1;
-
-      final long previousBucketCardinality;
-      if (insertionPoint == 0) {
-        previousBucketCardinality = 0L;
-      } else if (insertionPoint >= indexOk) {
+      // Empty buckets are skipped, as they do not increase the cumulated cardinality
+      BucketRanks local = ranks();
+      int index = local.bucketOf(j);
+      if (index == local.size()) {
         return throwSelectInvalidIndex(j);
-      } else {
-        previousBucketCardinality = sortedCumulatedCardinality[insertionPoint - 1];
       }
 
       // We get a 'select' query for a single bitmap: should fit in an int
-      final int givenBitmapSelect = (int) (j - previousBucketCardinality);
+      final int givenBitmapSelect = (int) (j - local.cumulatedCardinality(index));
 
-      int high = sortedHighs[insertionPoint];
+      int high = local.getHigh(index);
       BitmapDataProvider lowBitmap = highToBitmap.get(high);
       int low = lowBitmap.select(givenBitmapSelect);
 
       return RoaringIntPacking.pack(high, low);
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
@@ -461,42 +492,29 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
 
   @Override
   public long rankLong(long id) {
-    int high = RoaringIntPacking.high(id);
-    int low = RoaringIntPacking.low(id);
-
-    if (!doCacheCardinalities) {
-      return rankLongNoCache(high, low);
-    }
-
-    int indexOk = ensureCumulatives(high);
+    lock.readLock().lock();
+    try {
+      int high = RoaringIntPacking.high(id);
+      int low = RoaringIntPacking.low(id);
 
-    int highPosition = binarySearch(sortedHighs, 0, indexOk, high);
-
-    if (highPosition >= 0) {
-      // There is a bucket holding this item
-
-      final long previousBucketCardinality;
-      if (highPosition == 0) {
-        previousBucketCardinality = 0;
-      } else {
-        previousBucketCardinality = sortedCumulatedCardinality[highPosition - 1];
+      if (!doCacheCardinalities) {
+        return rankLongNoCache(high, low);
       }
 
-      BitmapDataProvider lowBitmap = highToBitmap.get(sortedHighs[highPosition]);
-
-      // Rank is previous cardinality plus rank in current bitmap
-      return previousBucketCardinality + lowBitmap.rankLong(low);
-    } else {
-      // There is no bucket holding this item: insertionPoint is previous bitmap
-      int insertionPoint = -highPosition - 1;
+      BucketRanks local = ranks();
+      int highPosition = local.indexOf(high);
 
-      if (insertionPoint == 0) {
-        // this key is before all inserted keys
-        return 0;
+      if (highPosition >= 0) {
+        // There is a bucket holding this item: rank is previous cardinality plus rank in this
+        // bitmap
+        BitmapDataProvider lowBitmap = highToBitmap.get(high);
+        return local.cumulatedCardinality(highPosition) + lowBitmap.rankLong(low);
       } else {
-        // The rank is the cardinality of this previous bitmap
-        return sortedCumulatedCardinality[insertionPoint - 1];
+        // There is no bucket holding this item: the rank is the cardinality of the previous buckets
+        return local.cumulatedCardinality(-highPosition - 1);
       }
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
@@ -532,181 +550,20 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * 
    * @param high for which high bucket should we compute the cardinality
    * @return the highest validatedIndex
+   * @deprecated the cumulated cardinalities of all the buckets are now computed at once, and
+   *             updated as single values are added or removed
    */
+  @Deprecated
   protected int ensureCumulatives(int high) {
-    if (allValid) {
-      // the whole array is valid (up-to its actual length, not its capacity)
-      return highToBitmap.size();
-    } else if (compare(high, firstHighNotValid) < 0) {
-      // The high is strictly below the first not valid: it is valid
-
-      // sortedHighs may have only a subset of valid values on the right. However, these invalid
-      // values have been set to maxValue, and we are here as high < firstHighNotValid ==> high <
-      // maxHigh()
-      int position = binarySearch(sortedHighs, high);
-
-      if (position >= 0) {
-        // This high has a bitmap: +1 as this index will be used as right (excluded) bound in a
-        // binary-search
-        return position + 1;
-      } else {
-        // This high has no bitmap: it could be between 2 highs with bitmaps
-        int insertionPosition = -position - 1;
-        return insertionPosition;
-      }
-    } else {
-
-      // For each deprecated buckets
-      SortedMap<Integer, BitmapDataProvider> tailMap =
-          highToBitmap.tailMap(firstHighNotValid, true);
-
-      // TODO .size on tailMap make an iterator: arg
-      int indexOk = highToBitmap.size() - tailMap.size();
-
-      // TODO: It should be possible to compute indexOk based on sortedHighs array
-      // assert indexOk == binarySearch(sortedHighs, firstHighNotValid);
-
-      Iterator<Entry<Integer, BitmapDataProvider>> it = tailMap.entrySet().iterator();
-      while (it.hasNext()) {
-        Entry<Integer, BitmapDataProvider> e = it.next();
-        int currentHigh = e.getKey();
-
-        if (compare(currentHigh, high) > 0) {
-          // No need to compute more than needed
-          break;
-        } else if (e.getValue().isEmpty()) {
-          // highToBitmap can not be modified as we iterate over it
-          if (latestAddedHigh != null && latestAddedHigh.getKey().intValue() == currentHigh) {
-            // Dismiss the cached bitmap as it is removed from the NavigableMap
-            latestAddedHigh = null;
-          }
-          it.remove();
-        } else {
-          ensureOne(e, currentHigh, indexOk);
-
-          // We have added one valid cardinality
-          indexOk++;
-        }
-
-      }
-
-      if (highToBitmap.isEmpty() || indexOk == highToBitmap.size()) {
-        // We have compute all cardinalities
-        allValid = true;
-      }
-
-      return indexOk;
-    }
-  }
-
-  private int binarySearch(int[] array, int key) {
-    if (signedLongs) {
-      return Arrays.binarySearch(array, key);
-    } else {
-      return unsignedBinarySearch(array, 0, array.length, key,
-          RoaringIntPacking.unsignedComparator());
-    }
-  }
-
-  private int binarySearch(int[] array, int from, int to, int key) {
-    if (signedLongs) {
-      return Arrays.binarySearch(array, from, to, key);
-    } else {
-      return unsignedBinarySearch(array, from, to, key, RoaringIntPacking.unsignedComparator());
-    }
-  }
-
-  // From Arrays.binarySearch (Comparator). Check with org.roaringbitmap.Util.unsignedBinarySearch
-  private static int unsignedBinarySearch(int[] a, int fromIndex, int toIndex, int key,
-      Comparator<? super Integer> c) {
-    int low = fromIndex;
-    int high = toIndex - 1;
-
-    while (low <= high) {
-      int mid = (low + high) >>> 1;
-      int midVal = a[mid];
-      int cmp = c.compare(midVal, key);
-      if (cmp < 0) {
-        low = mid + 1;
-      } else if (cmp > 0) {
-        high = mid - 1;
-      } else {
-        return mid; // key found
-      }
-    }
-    return -(low + 1); // key not found.
-  }
-
-  private void ensureOne(Map.Entry<Integer, BitmapDataProvider> e, int currentHigh, int indexOk) {
-    // sortedHighs are valid only up to some index
-    assert indexOk <= sortedHighs.length : indexOk + " is bigger than " + sortedHighs.length;
-
-    final int index;
-    if (indexOk == 0) {
-      if (sortedHighs.length == 0) {
-        index = -1;
-        // } else if (sortedHighs[0] == currentHigh) {
-        // index = 0;
-      } else {
-        index = -1;
-      }
-    } else if (indexOk < sortedHighs.length) {
-      index = -indexOk - 1;
-    } else {
-      index = -sortedHighs.length - 1;
-    }
-    assert index == binarySearch(sortedHighs, 0, indexOk, currentHigh) : "Computed " + index
-        + " differs from dummy binary-search index: "
-        + binarySearch(sortedHighs, 0, indexOk, currentHigh);
-
-    if (index >= 0) {
-      // This would mean calling .ensureOne is useless: should never got here at the first time
-      throw new IllegalStateException("Unexpectedly found " + currentHigh + " in "
-          + Arrays.toString(sortedHighs) + " strictly before index" + indexOk);
-    } else {
-      int insertionPosition = -index - 1;
-
-      // This is a new key
-      if (insertionPosition >= sortedHighs.length) {
-        int previousSize = sortedHighs.length;
-
-        // TODO softer growing factor
-        int newSize = Math.min(Integer.MAX_VALUE, sortedHighs.length * 2 + 1);
-
-        // Insertion at the end
-        sortedHighs = Arrays.copyOf(sortedHighs, newSize);
-        sortedCumulatedCardinality = Arrays.copyOf(sortedCumulatedCardinality, newSize);
-
-        // Not actually needed. But simplify the reading of array content
-        Arrays.fill(sortedHighs, previousSize, sortedHighs.length, highestHigh());
-        Arrays.fill(sortedCumulatedCardinality, previousSize, sortedHighs.length, Long.MAX_VALUE);
-      }
-      sortedHighs[insertionPosition] = currentHigh;
-
-      final long previousCardinality;
-      if (insertionPosition >= 1) {
-        previousCardinality = sortedCumulatedCardinality[insertionPosition - 1];
-      } else {
-        previousCardinality = 0;
-      }
-
-      sortedCumulatedCardinality[insertionPosition] =
-          previousCardinality + e.getValue().getLongCardinality();
-
-      if (currentHigh == highestHigh()) {
-        // We are already on the highest high. Do not set allValid as it is set anyway out of the
-        // loop
-        firstHighNotValid = currentHigh;
-      } else {
-        // The first not valid is the next high
-        // TODO: The entry comes from a NavigableMap: it may be quite cheap to know the next high
-        firstHighNotValid = currentHigh + 1;
-      }
+    lock.readLock().lock();
+    try {
+      int position = ranks().indexOf(high);
+      return position >= 0 ? position + 1 : -position - 1;
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
-
-
   private int highestHigh() {
     return RoaringIntPacking.highestHigh(signedLongs);
   }
@@ -717,53 +574,51 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * @param x2 other bitmap
    */
   public void or(final Roaring64NavigableMap x2) {
-    boolean firstBucket = true;
-
-    for (Entry<Integer, BitmapDataProvider> e2 : x2.highToBitmap.entrySet()) {
-      // Keep object to prevent auto-boxing
-      Integer high = e2.getKey();
-
-      BitmapDataProvider lowBitmap1 = this.highToBitmap.get(high);
-
-      BitmapDataProvider lowBitmap2 = e2.getValue();
-
-      // TODO Reviewers: is it a good idea to rely on BitmapDataProvider except in methods
-      // expecting an actual MutableRoaringBitmap?
-      // TODO This code may lead to closing a buffer Bitmap in current Navigable even if current is
-      // not on buffer
-      if ((lowBitmap1 == null || lowBitmap1 instanceof RoaringBitmap)
-          && lowBitmap2 instanceof RoaringBitmap) {
-        if (lowBitmap1 == null) {
-          // Clone to prevent future modification of this modifying the input Bitmap
-          RoaringBitmap lowBitmap2Clone = ((RoaringBitmap) lowBitmap2).clone();
-
-          pushBitmapForHigh(high, lowBitmap2Clone);
-        } else {
-          ((RoaringBitmap) lowBitmap1).or((RoaringBitmap) lowBitmap2);
-        }
-      } else if ((lowBitmap1 == null || lowBitmap1 instanceof MutableRoaringBitmap)
-          && lowBitmap2 instanceof MutableRoaringBitmap) {
-        if (lowBitmap1 == null) {
-          // Clone to prevent future modification of this modifying the input Bitmap
-          BitmapDataProvider lowBitmap2Clone = ((MutableRoaringBitmap) lowBitmap2).clone();
+    lock.writeLock().lock();
+    try {
+      // Many cardinalities may change
+      ranks = null;
+
+      for (Entry<Integer, BitmapDataProvider> e2 : x2.highToBitmap.entrySet()) {
+        // Keep object to prevent auto-boxing
+        Integer high = e2.getKey();
+
+        BitmapDataProvider lowBitmap1 = this.highToBitmap.get(high);
+
+        BitmapDataProvider lowBitmap2 = e2.getValue();
+
+        // TODO Reviewers: is it a good idea to rely on BitmapDataProvider except in methods
+        // expecting an actual MutableRoaringBitmap?
+        // TODO This code may lead to closing a buffer Bitmap in current Navigable even if current
+        // is not on buffer
+        if ((lowBitmap1 == null || lowBitmap1 instanceof RoaringBitmap)
+            && lowBitmap2 instanceof RoaringBitmap) {
+          if (lowBitmap1 == null) {
+            // Clone to prevent future modification of this modifying the input Bitmap
+            RoaringBitmap lowBitmap2Clone = ((RoaringBitmap) lowBitmap2).clone();
+
+            pushBitmapForHigh(high, lowBitmap2Clone);
+          } else {
+            ((RoaringBitmap) lowBitmap1).or((RoaringBitmap) lowBitmap2);
+          }
+        } else if ((lowBitmap1 == null || lowBitmap1 instanceof MutableRoaringBitmap)
+            && lowBitmap2 instanceof MutableRoaringBitmap) {
+          if (lowBitmap1 == null) {
+            // Clone to prevent future modification of this modifying the input Bitmap
+            BitmapDataProvider lowBitmap2Clone = ((MutableRoaringBitmap) lowBitmap2).clone();
 
 
-          pushBitmapForHigh(high, lowBitmap2Clone);
+            pushBitmapForHigh(high, lowBitmap2Clone);
+          } else {
+            ((MutableRoaringBitmap) lowBitmap1).or((MutableRoaringBitmap) lowBitmap2);
+          }
         } else {
-          ((MutableRoaringBitmap) lowBitmap1).or((MutableRoaringBitmap) lowBitmap2);
+          throw new UnsupportedOperationException(
+              ".or is not between " + this.getClass() + " and " + lowBitmap2.getClass());
         }
-      } else {
-        throw new UnsupportedOperationException(
-            ".or is not between " + this.getClass() + " and " + lowBitmap2.getClass());
-      }
-
-      if (firstBucket) {
-        firstBucket = false;
-
-        // Invalidate the lowest high as lowest not valid
-        firstHighNotValid = Math.min(firstHighNotValid, high);
-        allValid = false;
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -773,52 +628,52 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * @param x2 other bitmap
    */
   public void xor(final Roaring64NavigableMap x2) {
-    boolean firstBucket = true;
-
-    for (Entry<Integer, BitmapDataProvider> e2 : x2.highToBitmap.entrySet()) {
-      // Keep object to prevent auto-boxing
-      Integer high = e2.getKey();
-
-      BitmapDataProvider lowBitmap1 = this.highToBitmap.get(high);
-
-      BitmapDataProvider lowBitmap2 = e2.getValue();
-
-      // TODO Reviewers: is it a good idea to rely on BitmapDataProvider except in methods
-      // expecting an actual MutableRoaringBitmap?
-      // TODO This code may lead to closing a buffer Bitmap in current Navigable even if current is
-      // not on buffer
-      if ((lowBitmap1 == null || lowBitmap1 instanceof RoaringBitmap)
-          && lowBitmap2 instanceof RoaringBitmap) {
-        if (lowBitmap1 == null) {
-          // Clone to prevent future modification of this modifying the input Bitmap
-          RoaringBitmap lowBitmap2Clone = ((RoaringBitmap) lowBitmap2).clone();
-
-          pushBitmapForHigh(high, lowBitmap2Clone);
-        } else {
-          ((RoaringBitmap) lowBitmap1).xor((RoaringBitmap) lowBitmap2);
-        }
-      } else if ((lowBitmap1 == null || lowBitmap1 instanceof MutableRoaringBitmap)
-          && lowBitmap2 instanceof MutableRoaringBitmap) {
-        if (lowBitmap1 == null) {
-          // Clone to prevent future modification of this modifying the input Bitmap
-          BitmapDataProvider lowBitmap2Clone = ((MutableRoaringBitmap) lowBitmap2).clone();
+    lock.writeLock().lock();
+    try {
+      // Many cardinalities may change
+      ranks = null;
+
+      for (Entry<Integer, BitmapDataProvider> e2 : x2.highToBitmap.entrySet()) {
+        // Keep object to prevent auto-boxing
+        Integer high = e2.getKey();
+
+        BitmapDataProvider lowBitmap1 = this.highToBitmap.get(high);
+
+        BitmapDataProvider lowBitmap2 = e2.getValue();
+
+        // TODO Reviewers: is it a good idea to rely on BitmapDataProvider except in methods
+        // expecting an actual MutableRoaringBitmap?
+        // TODO This code may lead to closing a buffer Bitmap in current Navigable even if current
+        // is not on buffer
+        if ((lowBitmap1 == null || lowBitmap1 instanceof RoaringBitmap)
+            && lowBitmap2 instanceof RoaringBitmap) {
+          if (lowBitmap1 == null) {
+            // Clone to prevent future modification of this modifying the input Bitmap
+            RoaringBitmap lowBitmap2Clone = ((RoaringBitmap) lowBitmap2).clone();
+
+            pushBitmapForHigh(high, lowBitmap2Clone);
+          } else {
+            ((RoaringBitmap) lowBitmap1).xor((RoaringBitmap) lowBitmap2);
+            removeIfEmpty(high, lowBitmap1);
+          }
+        } else if ((lowBitmap1 == null || lowBitmap1 instanceof MutableRoaringBitmap)
+            && lowBitmap2 instanceof MutableRoaringBitmap) {
+          if (lowBitmap1 == null) {
+            // Clone to prevent future modification of this modifying the input Bitmap
+            BitmapDataProvider lowBitmap2Clone = ((MutableRoaringBitmap) lowBitmap2).clone();
 
-          pushBitmapForHigh(high, lowBitmap2Clone);
+            pushBitmapForHigh(high, lowBitmap2Clone);
+          } else {
+            ((MutableRoaringBitmap) lowBitmap1).xor((MutableRoaringBitmap) lowBitmap2);
+            removeIfEmpty(high, lowBitmap1);
+          }
         } else {
-          ((MutableRoaringBitmap) lowBitmap1).xor((MutableRoaringBitmap) lowBitmap2);
+          throw new UnsupportedOperationException(
+              ".or is not between " + this.getClass() + " and " + lowBitmap2.getClass());
         }
-      } else {
-        throw new UnsupportedOperationException(
-            ".or is not between " + this.getClass() + " and " + lowBitmap2.getClass());
-      }
-
-      if (firstBucket) {
-        firstBucket = false;
-
-        // Invalidate the lowest high as lowest not valid
-        firstHighNotValid = Math.min(firstHighNotValid, high);
-        allValid = false;
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -828,41 +683,46 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * @param x2 other bitmap
    */
   public void and(final Roaring64NavigableMap x2) {
-    boolean firstBucket = true;
+    lock.writeLock().lock();
+    try {
+      // Many cardinalities may change
+      ranks = null;
 
-    Iterator<Entry<Integer, BitmapDataProvider>> thisIterator = highToBitmap.entrySet().iterator();
-    while (thisIterator.hasNext()) {
-      Entry<Integer, BitmapDataProvider> e1 = thisIterator.next();
+      Iterator<Entry<Integer, BitmapDataProvider>> thisIterator =
+          highToBitmap.entrySet().iterator();
+      while (thisIterator.hasNext()) {
+        Entry<Integer, BitmapDataProvider> e1 = thisIterator.next();
 
-      // Keep object to prevent auto-boxing
-      Integer high = e1.getKey();
+        // Keep object to prevent auto-boxing
+        Integer high = e1.getKey();
 
-      BitmapDataProvider lowBitmap2 = x2.highToBitmap.get(high);
-
-      if (lowBitmap2 == null) {
-        // None of given high values are present in x2
-        thisIterator.remove();
-      } else {
-        BitmapDataProvider lowBitmap1 = e1.getValue();
+        BitmapDataProvider lowBitmap2 = x2.highToBitmap.get(high);
 
-        if (lowBitmap2 instanceof RoaringBitmap && lowBitmap1 instanceof RoaringBitmap) {
-          ((RoaringBitmap) lowBitmap1).and((RoaringBitmap) lowBitmap2);
-        } else if (lowBitmap2 instanceof MutableRoaringBitmap
-            && lowBitmap1 instanceof MutableRoaringBitmap) {
-          ((MutableRoaringBitmap) lowBitmap1).and((MutableRoaringBitmap) lowBitmap2);
+        if (lowBitmap2 == null) {
+          // None of given high values are present in x2
+          thisIterator.remove();
+          dismissRemovedBucket(high);
         } else {
-          throw new UnsupportedOperationException(
-              ".and is not between " + this.getClass() + " and " + lowBitmap1.getClass());
-        }
-      }
+          BitmapDataProvider lowBitmap1 = e1.getValue();
 
-      if (firstBucket) {
-        firstBucket = false;
+          if (lowBitmap2 instanceof RoaringBitmap && lowBitmap1 instanceof RoaringBitmap) {
+            ((RoaringBitmap) lowBitmap1).and((RoaringBitmap) lowBitmap2);
+          } else if (lowBitmap2 instanceof MutableRoaringBitmap
+              && lowBitmap1 instanceof MutableRoaringBitmap) {
+            ((MutableRoaringBitmap) lowBitmap1).and((MutableRoaringBitmap) lowBitmap2);
+          } else {
+            throw new UnsupportedOperationException(
+                ".and is not between " + this.getClass() + " and " + lowBitmap1.getClass());
+          }
 
-        // Invalidate the lowest high as lowest not valid
-        firstHighNotValid = Math.min(firstHighNotValid, high);
-        allValid = false;
+          if (lowBitmap1.isEmpty()) {
+            thisIterator.remove();
+            dismissRemovedBucket(high);
+          }
+        }
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -873,38 +733,42 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * @param x2 other bitmap
    */
   public void andNot(final Roaring64NavigableMap x2) {
-    boolean firstBucket = true;
+    lock.writeLock().lock();
+    try {
+      // Many cardinalities may change
+      ranks = null;
 
-    Iterator<Entry<Integer, BitmapDataProvider>> thisIterator = highToBitmap.entrySet().iterator();
-    while (thisIterator.hasNext()) {
-      Entry<Integer, BitmapDataProvider> e1 = thisIterator.next();
+      Iterator<Entry<Integer, BitmapDataProvider>> thisIterator =
+          highToBitmap.entrySet().iterator();
+      while (thisIterator.hasNext()) {
+        Entry<Integer, BitmapDataProvider> e1 = thisIterator.next();
 
-      // Keep object to prevent auto-boxing
-      Integer high = e1.getKey();
+        // Keep object to prevent auto-boxing
+        Integer high = e1.getKey();
 
-      BitmapDataProvider lowBitmap2 = x2.highToBitmap.get(high);
+        BitmapDataProvider lowBitmap2 = x2.highToBitmap.get(high);
 
-      if (lowBitmap2 != null) {
-        BitmapDataProvider lowBitmap1 = e1.getValue();
+        if (lowBitmap2 != null) {
+          BitmapDataProvider lowBitmap1 = e1.getValue();
 
-        if (lowBitmap2 instanceof RoaringBitmap && lowBitmap1 instanceof RoaringBitmap) {
-          ((RoaringBitmap) lowBitmap1).andNot((RoaringBitmap) lowBitmap2);
-        } else if (lowBitmap2 instanceof MutableRoaringBitmap
-            && lowBitmap1 instanceof MutableRoaringBitmap) {
-          ((MutableRoaringBitmap) lowBitmap1).andNot((MutableRoaringBitmap) lowBitmap2);
-        } else {
-          throw new UnsupportedOperationException(
-              ".and is not between " + this.getClass() + " and " + lowBitmap1.getClass());
-        }
-      }
-
-      if (firstBucket) {
-        firstBucket = false;
+          if (lowBitmap2 instanceof RoaringBitmap && lowBitmap1 instanceof RoaringBitmap) {
+            ((RoaringBitmap) lowBitmap1).andNot((RoaringBitmap) lowBitmap2);
+          } else if (lowBitmap2 instanceof MutableRoaringBitmap
+              && lowBitmap1 instanceof MutableRoaringBitmap) {
+            ((MutableRoaringBitmap) lowBitmap1).andNot((MutableRoaringBitmap) lowBitmap2);
+          } else {
+            throw new UnsupportedOperationException(
+                ".and is not between " + this.getClass() + " and " + lowBitmap1.getClass());
+          }
 
-        // Invalidate the lowest high as lowest not valid
-        firstHighNotValid = Math.min(firstHighNotValid, high);
-        allValid = false;
+          if (lowBitmap1.isEmpty()) {
+            thisIterator.remove();
+            dismissRemovedBucket(high);
+          }
+        }
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -1040,6 +904,222 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
     };
   }
 
+  /**
+   * Gets a batch iterator over the values, filling the buffers from the batch iterators of the
+   * buckets.
+   *
+   * @return a batch iterator, traversing the values in ascending sorted order
+   */
+  public LongBatchIterator getLongBatchIterator() {
+    return new BucketBatchIterator();
+  }
+
+  // moves from bucket to bucket with higherEntry, which makes it cloneable
+  private final class BucketBatchIterator implements LongBatchIterator {
+
+    private static final int SCRATCH_SIZE = 256;
+
+    private int high;
+    private BatchIterator bucket;
+    private boolean started;
+    private int[] scratch = new int[SCRATCH_SIZE];
+    private int scratchPosition;
+    private int scratchSize;
+
+    // the next values are buffered in scratch, and the iterator has not hit the last bucket
+    private boolean fill() {
+      while (scratchPosition == scratchSize) {
+        if (bucket != null && bucket.hasNext()) {
+          scratchSize = bucket.nextBatch(scratch);
+          scratchPosition = 0;
+          continue;
+        }
+        final Entry<Integer, BitmapDataProvider> next =
+            started ? highToBitmap.higherEntry(high) : highToBitmap.firstEntry();
+        if (next == null) {
+          bucket = null;
+          return false;
+        }
+        started = true;
+        high = next.getKey();
+        bucket = next.getValue().getBatchIterator();
+      }
+      return true;
+    }
+
+    @Override
+    public int nextBatch(long[] buffer) {
+      int count = 0;
+      while (count < buffer.length && fill()) {
+        final int n = Math.min(buffer.length - count, scratchSize - scratchPosition);
+        for (int i = 0; i < n; i++) {
+          buffer[count++] = RoaringIntPacking.pack(high, scratch[scratchPosition++]);
+        }
+      }
+      return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return fill();
+    }
+
+    @Override
+    public LongBatchIterator clone() {
+      final BucketBatchIterator clone = new BucketBatchIterator();
+      clone.high = high;
+      clone.bucket = bucket == null ? null : bucket.clone();
+      clone.started = started;
+      clone.scratch = scratch.clone();
+      clone.scratchPosition = scratchPosition;
+      clone.scratchSize = scratchSize;
+      return clone;
+    }
+  }
+
+  /**
+   * Creates a spliterator over the values which splits on the boundaries of the buckets, each
+   * split taking about half of the remaining values. A bitmap whose values share their 32 high
+   * bits is therefore not split.
+   *
+   * The bitmap must not be modified while the spliterator is in use.
+   *
+   * @return a spliterator, traversing the values in ascending sorted order
+   */
+  public Spliterator.OfLong spliterator() {
+    final int nbBuckets = highToBitmap.size();
+    final int[] highs = new int[nbBuckets];
+    final BitmapDataProvider[] buckets = new BitmapDataProvider[nbBuckets];
+    final long[] cumulatedCardinalities = new long[nbBuckets];
+    long cardinality = 0;
+    int index = 0;
+    for (Entry<Integer, BitmapDataProvider> entry : highToBitmap.entrySet()) {
+      highs[index] = entry.getKey();
+      buckets[index] = entry.getValue();
+      cardinality += entry.getValue().getLongCardinality();
+      cumulatedCardinalities[index] = cardinality;
+      index++;
+    }
+    return new BucketSpliterator(highs, buckets, cumulatedCardinalities,
+        signedLongs ? null : (Comparator<Long>) Long::compareUnsigned, 0, nbBuckets);
+  }
+
+  /**
+   * Creates a stream of the values, which can be consumed in parallel with
+   * {@link LongStream#parallel()}.
+   *
+   * The bitmap must not be modified while the stream is in use.
+   *
+   * @return a stream of the values, in ascending sorted order
+   */
+  public LongStream stream() {
+    return StreamSupport.longStream(spliterator(), false);
+  }
+
+  private static final class BucketSpliterator implements Spliterator.OfLong {
+
+    // shared by all the splits
+    private final int[] highs;
+    private final BitmapDataProvider[] buckets;
+    private final long[] cumulatedCardinalities;
+    private final Comparator<? super Long> comparator;
+
+    private int index;
+    private final int fence;
+    // the iterator of buckets[index], once tryAdvance started to consume it
+    private IntIterator current;
+    private long consumed;
+
+    BucketSpliterator(int[] highs, BitmapDataProvider[] buckets, long[] cumulatedCardinalities,
+        Comparator<? super Long> comparator, int index, int fence) {
+      this.highs = highs;
+      this.buckets = buckets;
+      this.cumulatedCardinalities = cumulatedCardinalities;
+      this.comparator = comparator;
+      this.index = index;
+      this.fence = fence;
+    }
+
+    private long cumulatedCardinality(int bucketIndex) {
+      return bucketIndex < 0 ? 0L : cumulatedCardinalities[bucketIndex];
+    }
+
+    @Override
+    public boolean tryAdvance(java.util.function.LongConsumer action) {
+      while (index < fence) {
+        if (current == null) {
+          current = buckets[index].getIntIterator();
+          consumed = 0;
+        }
+        if (current.hasNext()) {
+          action.accept(RoaringIntPacking.pack(highs[index], current.next()));
+          consumed++;
+          return true;
+        }
+        current = null;
+        consumed = 0;
+        index++;
+      }
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(java.util.function.LongConsumer action) {
+      if (current != null) {
+        while (current.hasNext()) {
+          action.accept(RoaringIntPacking.pack(highs[index], current.next()));
+        }
+        current = null;
+        consumed = 0;
+        index++;
+      }
+      for (; index < fence; index++) {
+        final int high = highs[index];
+        buckets[index].forEach((IntConsumer) low -> action.accept(RoaringIntPacking.pack(high,
+            low)));
+      }
+    }
+
+    @Override
+    public Spliterator.OfLong trySplit() {
+      if (current != null || fence - index < 2) {
+        return null;
+      }
+      final long half = (cumulatedCardinality(index - 1) + cumulatedCardinality(fence - 1)) / 2;
+      // the bucket crossing the half goes to the split it unbalances the least
+      int mid = Arrays.binarySearch(cumulatedCardinalities, index, fence - 1, half);
+      if (mid >= 0) {
+        mid++;
+      } else {
+        mid = -mid - 1;
+        if (cumulatedCardinality(mid) - half < half - cumulatedCardinality(mid - 1)) {
+          mid++;
+        }
+      }
+      mid = Math.max(index + 1, Math.min(mid, fence - 1));
+      final BucketSpliterator prefix = new BucketSpliterator(highs, buckets,
+          cumulatedCardinalities, comparator, index, mid);
+      index = mid;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return cumulatedCardinality(fence - 1) - cumulatedCardinality(index - 1) - consumed;
+    }
+
+    @Override
+    public int characteristics() {
+      return Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED
+          | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
+    }
+
+    @Override
+    public Comparator<? super Long> getComparator() {
+      return comparator;
+    }
+  }
+
   @Override
   public boolean contains(long x) {
     int high = RoaringIntPacking.high(x);
@@ -1073,8 +1153,10 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
     size += 16 * highToBitmap.size();
 
     // The cache impacts the size in heap
-    size += 8 * sortedCumulatedCardinality.length;
-    size += 4 * sortedHighs.length;
+    BucketRanks local = ranks;
+    if (local != null) {
+      size += local.sizeInBytes();
+    }
     
     return size;
   }
@@ -1095,15 +1177,20 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * @return whether a change was applied
    */
   public boolean runOptimize() {
-    boolean hasChanged = false;
-    for (BitmapDataProvider lowBitmap : highToBitmap.values()) {
-      if (lowBitmap instanceof RoaringBitmap) {
-        hasChanged |= ((RoaringBitmap) lowBitmap).runOptimize();
-      } else if (lowBitmap instanceof MutableRoaringBitmap) {
-        hasChanged |= ((MutableRoaringBitmap) lowBitmap).runOptimize();
+    lock.writeLock().lock();
+    try {
+      boolean hasChanged = false;
+      for (BitmapDataProvider lowBitmap : highToBitmap.values()) {
+        if (lowBitmap instanceof RoaringBitmap) {
+          hasChanged |= ((RoaringBitmap) lowBitmap).runOptimize();
+        } else if (lowBitmap instanceof MutableRoaringBitmap) {
+          hasChanged |= ((MutableRoaringBitmap) lowBitmap).runOptimize();
+        }
       }
+      return hasChanged;
+    } finally {
+      lock.writeLock().unlock();
     }
-    return hasChanged;
   }
 
 
@@ -1111,7 +1198,9 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * Serialize this bitmap.
    *
    * Unlike RoaringBitmap, there is no specification for now: it may change from onve java version
-   * to another, and from one RoaringBitmap version to another.
+   * to another, and from one RoaringBitmap version to another. Prefer
+   * {@link #serializeMappable(DataOutput)}, whose format is specified and versioned, to exchange
+   * bitmaps.
    *
    * Consider calling {@link #runOptimize} before serialization to improve compression.
    *
@@ -1146,28 +1235,33 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public void deserialize(DataInput in) throws IOException {
-    this.clear();
+    lock.writeLock().lock();
+    try {
+      this.clear();
 
-    signedLongs = in.readBoolean();
+      signedLongs = in.readBoolean();
 
-    int nbHighs = in.readInt();
+      int nbHighs = in.readInt();
 
-    // Other NavigableMap may accept a target capacity
-    if (signedLongs) {
-      highToBitmap = new TreeMap<>();
-    } else {
-      highToBitmap = new TreeMap<>(RoaringIntPacking.unsignedComparator());
-    }
+      // Other NavigableMap may accept a target capacity
+      if (signedLongs) {
+        highToBitmap = new TreeMap<>();
+      } else {
+        highToBitmap = new TreeMap<>(RoaringIntPacking.unsignedComparator());
+      }
 
-    for (int i = 0; i < nbHighs; i++) {
-      int high = in.readInt();
-      RoaringBitmap provider = new RoaringBitmap();
-      provider.deserialize(in);
+      for (int i = 0; i < nbHighs; i++) {
+        int high = in.readInt();
+        RoaringBitmap provider = new RoaringBitmap();
+        provider.deserialize(in);
 
-      highToBitmap.put(high, provider);
-    }
+        highToBitmap.put(high, provider);
+      }
 
-    resetPerfHelpers();
+      resetPerfHelpers();
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
 
@@ -1192,12 +1286,210 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
     return nbBytes;
   }
 
+  /**
+   * Serialize this bitmap in a format which can be memory-mapped with
+   * {@link ImmutableRoaring64NavigableMap}: a directory of the high buckets, with their cumulated
+   * cardinalities and offsets, is followed by each bucket as a RoaringBitmap in its standard
+   * format. See {@link ImmutableRoaring64NavigableMap} for the specification.
+   *
+   * Consider calling {@link #runOptimize} before serialization to improve compression.
+   *
+   * The current bitmap is not modified.
+   *
+   * @param out the DataOutput stream
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void serializeMappable(DataOutput out) throws IOException {
+    int nbBuckets = 0;
+    for (BitmapDataProvider bitmap : highToBitmap.values()) {
+      if (!bitmap.isEmpty()) {
+        nbBuckets++;
+      }
+    }
+
+    final int[] highs = new int[nbBuckets];
+    final int[] sizes = new int[nbBuckets];
+    final BitmapDataProvider[] buckets = new BitmapDataProvider[nbBuckets];
+    int index = 0;
+    long totalSize = ImmutableRoaring64NavigableMap.headerSizeInBytes(nbBuckets);
+    for (Entry<Integer, BitmapDataProvider> entry : highToBitmap.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        highs[index] = entry.getKey();
+        buckets[index] = entry.getValue();
+        sizes[index] = entry.getValue().serializedSizeInBytes();
+        totalSize += sizes[index];
+        index++;
+      }
+    }
+
+    int flags = signedLongs ? ImmutableRoaring64NavigableMap.FLAG_SIGNED_LONGS : 0;
+    // little endian, like RoaringBitmap
+    out.writeInt(Integer.reverseBytes(ImmutableRoaring64NavigableMap.SERIAL_COOKIE
+        | (ImmutableRoaring64NavigableMap.SERIAL_VERSION << 16)));
+    out.writeInt(Integer.reverseBytes(flags));
+    out.writeInt(Integer.reverseBytes(nbBuckets));
+    out.writeLong(Long.reverseBytes(totalSize));
+    for (int high : highs) {
+      out.writeInt(Integer.reverseBytes(high));
+    }
+    long cumulatedCardinality = 0L;
+    for (BitmapDataProvider bucket : buckets) {
+      cumulatedCardinality += bucket.getLongCardinality();
+      out.writeLong(Long.reverseBytes(cumulatedCardinality));
+    }
+    long offset = ImmutableRoaring64NavigableMap.headerSizeInBytes(nbBuckets);
+    for (int size : sizes) {
+      out.writeLong(Long.reverseBytes(offset));
+      offset += size;
+    }
+    for (BitmapDataProvider bucket : buckets) {
+      bucket.serialize(out);
+    }
+  }
+
+  /**
+   * Deserialize (retrieve) this bitmap from the format of {@link #serializeMappable(DataOutput)},
+   * reading the buckets in turn.
+   *
+   * The current bitmap is overwritten.
+   *
+   * @param in the DataInput stream
+   * @throws IOException Signals that an I/O exception has occurred.
+   * @throws InvalidRoaringFormat if the header is invalid
+   */
+  public void deserializeMappable(DataInput in) throws IOException {
+    lock.writeLock().lock();
+    try {
+      this.clear();
+
+      final int cookie = Integer.reverseBytes(in.readInt());
+      if ((cookie & 0xFFFF) != ImmutableRoaring64NavigableMap.SERIAL_COOKIE) {
+        throw new InvalidRoaringFormat("I failed to find a valid cookie.");
+      }
+      if ((cookie >>> 16) != ImmutableRoaring64NavigableMap.SERIAL_VERSION) {
+        throw new InvalidRoaringFormat("Unsupported format version " + (cookie >>> 16));
+      }
+      final int flags = Integer.reverseBytes(in.readInt());
+      final int nbBuckets = Integer.reverseBytes(in.readInt());
+      final long sizeInBytes = Long.reverseBytes(in.readLong());
+      final long headerSize = ImmutableRoaring64NavigableMap.headerSizeInBytes(nbBuckets);
+      if (nbBuckets < 0 || sizeInBytes < headerSize) {
+        throw new InvalidRoaringFormat("Invalid header");
+      }
+      final int[] highs = new int[nbBuckets];
+      for (int i = 0; i < nbBuckets; i++) {
+        highs[i] = Integer.reverseBytes(in.readInt());
+      }
+      // the cumulated cardinalities are only needed for random access
+      for (int i = 0; i < nbBuckets; i++) {
+        in.readLong();
+      }
+      final long[] offsets = new long[nbBuckets];
+      for (int i = 0; i < nbBuckets; i++) {
+        offsets[i] = Long.reverseBytes(in.readLong());
+      }
+
+      signedLongs = (flags & ImmutableRoaring64NavigableMap.FLAG_SIGNED_LONGS) != 0;
+      if (signedLongs) {
+        highToBitmap = new TreeMap<>();
+      } else {
+        highToBitmap = new TreeMap<>(RoaringIntPacking.unsignedComparator());
+      }
+
+      long position = headerSize;
+      for (int i = 0; i < nbBuckets; i++) {
+        if (offsets[i] < position || offsets[i] >= sizeInBytes) {
+          throw new InvalidRoaringFormat("Invalid offset for bucket " + i);
+        }
+        skipFully(in, offsets[i] - position);
+        RoaringBitmap provider = new RoaringBitmap();
+        provider.deserialize(in);
+        highToBitmap.put(highs[i], provider);
+        position = offsets[i] + provider.serializedSizeInBytes();
+      }
+      skipFully(in, sizeInBytes - position);
+
+      resetPerfHelpers();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Deserialize (retrieve) this bitmap from the format of {@link #serializeMappable(DataOutput)},
+   * starting at the position of the buffer, which is not modified. Unlike
+   * {@link ImmutableRoaring64NavigableMap}, the buckets are copied to the heap.
+   *
+   * The current bitmap is overwritten.
+   *
+   * @param buffer the serialized bitmap
+   * @throws InvalidRoaringFormat if the header is invalid
+   */
+  public void deserializeMappable(ByteBuffer buffer) {
+    copyFrom(new ImmutableRoaring64NavigableMap(buffer));
+  }
+
+  void copyFrom(ImmutableRoaring64NavigableMap bitmap) {
+    lock.writeLock().lock();
+    try {
+      this.clear();
+
+      signedLongs = bitmap.isSignedLongs();
+      if (signedLongs) {
+        highToBitmap = new TreeMap<>();
+      } else {
+        highToBitmap = new TreeMap<>(RoaringIntPacking.unsignedComparator());
+      }
+      for (int i = 0; i < bitmap.getBucketCount(); i++) {
+        highToBitmap.put(bitmap.getHighAtIndex(i), bitmap.getBucketAtIndex(i).toRoaringBitmap());
+      }
+
+      resetPerfHelpers();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static void skipFully(DataInput in, long n) throws IOException {
+    for (long remaining = n; remaining > 0; ) {
+      int skipped = in.skipBytes((int) Math.min(remaining, Integer.MAX_VALUE));
+      if (skipped <= 0) {
+        // skipBytes may give up before the end of the stream
+        in.readByte();
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
+  }
+
+  /**
+   * Report the number of bytes required by {@link #serializeMappable(DataOutput)}.
+   *
+   * @return the size in bytes
+   */
+  public long mappableSerializedSizeInBytes() {
+    int nbBuckets = 0;
+    long payloadSize = 0L;
+    for (BitmapDataProvider bitmap : highToBitmap.values()) {
+      if (!bitmap.isEmpty()) {
+        nbBuckets++;
+        payloadSize += bitmap.serializedSizeInBytes();
+      }
+    }
+    return ImmutableRoaring64NavigableMap.headerSizeInBytes(nbBuckets) + payloadSize;
+  }
+
   /**
    * reset to an empty bitmap; result occupies as much space a newly created bitmap.
    */
   public void clear() {
-    this.highToBitmap.clear();
-    resetPerfHelpers();
+    lock.writeLock().lock();
+    try {
+      this.highToBitmap.clear();
+      resetPerfHelpers();
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   /**
@@ -1245,8 +1537,80 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * @param dat set values
    */
   public void add(long... dat) {
-    for (long oneLong : dat) {
-      addLong(oneLong);
+    addMany(dat, 0, dat.length);
+  }
+
+  /**
+   * Set the specified values to true, within given boundaries. The consecutive values sharing
+   * their 32 high bits are added to their bucket at once: sorted values are faster to add, as
+   * each bucket is then looked up once.
+   *
+   * @param dat set values
+   * @param offset from which index the values should be set to true
+   * @param n how many values should be set to true
+   */
+  public void addMany(final long[] dat, final int offset, final int n) {
+    lock.writeLock().lock();
+    try {
+      if (offset < 0 || n < 0 || offset > dat.length - n) {
+        throw new IllegalArgumentException(
+            "Invalid range [" + offset + ", " + offset + " + " + n + ") of " + dat.length);
+      }
+      final int[] lows = new int[Math.min(n, MAX_LOWS_PER_BATCH)];
+      final int end = offset + n;
+      int i = offset;
+      while (i < end) {
+        final int high = high(dat[i]);
+        int count = 0;
+        while (i < end && count < lows.length && high(dat[i]) == high) {
+          lows[count++] = low(dat[i++]);
+        }
+
+        BitmapDataProvider bitmap = highToBitmap.get(high);
+        if (bitmap == null) {
+          bitmap = newRoaringBitmap();
+          pushBitmapForHigh(high, bitmap);
+        }
+        if (bitmap instanceof RoaringBitmap) {
+          ((RoaringBitmap) bitmap).addN(lows, 0, count);
+        } else if (bitmap instanceof MutableRoaringBitmap) {
+          ((MutableRoaringBitmap) bitmap).addN(lows, 0, count);
+        } else {
+          for (int k = 0; k < count; k++) {
+            bitmap.add(lows[k]);
+          }
+        }
+      }
+      // Many cardinalities may change
+      ranks = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add the values of a bucket, as written by {@link Roaring64NavigableMapWriter}.
+   *
+   * @param high the 32 high bits of the values
+   * @param lows the 32 low bits of the values
+   */
+  void addBucket(int high, RoaringBitmap lows) {
+    lock.writeLock().lock();
+    try {
+      if (lows.isEmpty()) {
+        return;
+      }
+      BitmapDataProvider bitmap = highToBitmap.get(high);
+      if (bitmap == null) {
+        pushBitmapForHigh(high, lows);
+      } else if (bitmap instanceof RoaringBitmap) {
+        ((RoaringBitmap) bitmap).or(lows);
+      } else {
+        lows.forEach((IntConsumer) bitmap::add);
+      }
+      ranks = null;
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -1257,53 +1621,334 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * @param rangeEnd exclusive ending of range
    */
   public void add(final long rangeStart, final long rangeEnd) {
-    int startHigh = high(rangeStart);
-    int startLow = low(rangeStart);
+    lock.writeLock().lock();
+    try {
+      if (compareLongs(rangeStart, rangeEnd) >= 0) {
+        return;
+      }
 
-    int endHigh = high(rangeEnd);
-    int endLow = low(rangeEnd);
+      int startHigh = high(rangeStart);
+      int startLow = low(rangeStart);
 
-    for (int high = startHigh; high <= endHigh; high++) {
-      final int currentStartLow;
-      if (startHigh == high) {
-        // The whole range starts in this bucket
-        currentStartLow = startLow;
-      } else {
-        // Add the bucket from the beginning
-        currentStartLow = 0;
-      }
+      int endHigh = high(rangeEnd);
+      int endLow = low(rangeEnd);
+
+      // Stops on endHigh, as incrementing the highest high would overflow
+      for (int high = startHigh;; high++) {
+        final int currentStartLow;
+        if (startHigh == high) {
+          // The whole range starts in this bucket
+          currentStartLow = startLow;
+        } else {
+          // Add the bucket from the beginning
+          currentStartLow = 0;
+        }
 
-      long startLowAsLong = Util.toUnsignedLong(currentStartLow);
+        long startLowAsLong = Util.toUnsignedLong(currentStartLow);
 
-      final long endLowAsLong;
-      if (endHigh == high) {
-        // The whole range ends in this bucket
-        endLowAsLong = Util.toUnsignedLong(endLow);
-      } else {
-        // Add the bucket until the end: we have a +1 as, in RoaringBitmap.add(long,long), the end
-        // is excluded
-        endLowAsLong = Util.toUnsignedLong(-1) + 1;
+        final long endLowAsLong;
+        if (endHigh == high) {
+          // The whole range ends in this bucket
+          endLowAsLong = Util.toUnsignedLong(endLow);
+        } else {
+          // Add the bucket until the end: we have a +1 as, in RoaringBitmap.add(long,long), the end
+          // is excluded
+          endLowAsLong = Util.toUnsignedLong(-1) + 1;
+        }
+
+        if (endLowAsLong > startLowAsLong) {
+          // Initialize the bitmap only if there is access data to write
+          BitmapDataProvider bitmap = highToBitmap.get(high);
+          if (bitmap == null) {
+            bitmap = new MutableRoaringBitmap();
+            pushBitmapForHigh(high, bitmap);
+          }
+
+          if (bitmap instanceof RoaringBitmap) {
+            ((RoaringBitmap) bitmap).add(startLowAsLong, endLowAsLong);
+          } else if (bitmap instanceof MutableRoaringBitmap) {
+            ((MutableRoaringBitmap) bitmap).add(startLowAsLong, endLowAsLong);
+          } else {
+            throw new UnsupportedOperationException("TODO. Not for " + bitmap.getClass());
+          }
+        }
+
+        if (high == endHigh) {
+          break;
+        }
       }
 
-      if (endLowAsLong > startLowAsLong) {
-        // Initialize the bitmap only if there is access data to write
-        BitmapDataProvider bitmap = highToBitmap.get(high);
-        if (bitmap == null) {
-          bitmap = new MutableRoaringBitmap();
-          pushBitmapForHigh(high, bitmap);
+      ranks = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove from the current bitmap all longs in [rangeStart,rangeEnd).
+   *
+   * @param rangeStart inclusive beginning of range
+   * @param rangeEnd exclusive ending of range
+   */
+  public void remove(final long rangeStart, final long rangeEnd) {
+    lock.writeLock().lock();
+    try {
+      Iterator<Entry<Integer, BitmapDataProvider>> it =
+          bucketsInRange(rangeStart, rangeEnd).entrySet().iterator();
+      while (it.hasNext()) {
+        Entry<Integer, BitmapDataProvider> e = it.next();
+        final int high = e.getKey();
+        final long lowStart = lowStart(high, rangeStart);
+        final long lowEnd = lowEnd(high, rangeEnd);
+        if (lowEnd <= lowStart) {
+          continue;
         }
 
+        BitmapDataProvider bitmap = e.getValue();
         if (bitmap instanceof RoaringBitmap) {
-          ((RoaringBitmap) bitmap).add(startLowAsLong, endLowAsLong);
+          ((RoaringBitmap) bitmap).remove(lowStart, lowEnd);
         } else if (bitmap instanceof MutableRoaringBitmap) {
-          ((MutableRoaringBitmap) bitmap).add(startLowAsLong, endLowAsLong);
+          ((MutableRoaringBitmap) bitmap).remove(lowStart, lowEnd);
         } else {
           throw new UnsupportedOperationException("TODO. Not for " + bitmap.getClass());
         }
+
+        if (bitmap.isEmpty()) {
+          it.remove();
+          dismissRemovedBucket(high);
+        }
       }
+
+      ranks = null;
+    } finally {
+      lock.writeLock().unlock();
     }
+  }
 
-    invalidateAboveHigh(startHigh);
+  /**
+   * Checks if the bitmap contains all the longs in [rangeStart,rangeEnd).
+   *
+   * @param rangeStart inclusive beginning of range
+   * @param rangeEnd exclusive ending of range
+   * @return true if the range is empty, or if all its longs are in the bitmap
+   */
+  public boolean contains(final long rangeStart, final long rangeEnd) {
+    if (compareLongs(rangeStart, rangeEnd) >= 0) {
+      return true;
+    }
+    final int endHigh = high(rangeEnd);
+    for (int high = high(rangeStart);; high++) {
+      final long lowStart = lowStart(high, rangeStart);
+      final long lowEnd = lowEnd(high, rangeEnd);
+      if (lowEnd > lowStart) {
+        final BitmapDataProvider bitmap = highToBitmap.get(high);
+        if (bitmap == null || bitmap.rangeCardinality(lowStart, lowEnd) != lowEnd - lowStart) {
+          return false;
+        }
+      }
+      if (high == endHigh) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Computes the number of longs of the bitmap in [rangeStart,rangeEnd), without iterating over
+   * the buckets fully included in the range.
+   *
+   * @param rangeStart inclusive beginning of range
+   * @param rangeEnd exclusive ending of range
+   * @return the number of longs in the range
+   */
+  public long rangeCardinality(final long rangeStart, final long rangeEnd) {
+    long cardinality = 0;
+    for (Entry<Integer, BitmapDataProvider> e : bucketsInRange(rangeStart, rangeEnd).entrySet()) {
+      final int high = e.getKey();
+      final long lowStart = lowStart(high, rangeStart);
+      final long lowEnd = lowEnd(high, rangeEnd);
+      if (lowStart == 0 && lowEnd == LOWS_PER_BUCKET) {
+        cardinality += e.getValue().getLongCardinality();
+      } else if (lowEnd > lowStart) {
+        cardinality += e.getValue().rangeCardinality(lowStart, lowEnd);
+      }
+    }
+    return cardinality;
+  }
+
+  // The buckets which may hold longs in [rangeStart,rangeEnd)
+  private NavigableMap<Integer, BitmapDataProvider> bucketsInRange(long rangeStart,
+      long rangeEnd) {
+    if (compareLongs(rangeStart, rangeEnd) >= 0) {
+      return Collections.emptyNavigableMap();
+    }
+    return highToBitmap.subMap(high(rangeStart), true, high(rangeEnd), true);
+  }
+
+  // The inclusive beginning of the low bits of a range in the bucket of some high bits
+  private static long lowStart(int high, long rangeStart) {
+    return high == RoaringIntPacking.high(rangeStart)
+        ? Util.toUnsignedLong(RoaringIntPacking.low(rangeStart)) : 0L;
+  }
+
+  // The exclusive ending of the low bits of a range in the bucket of some high bits
+  private static long lowEnd(int high, long rangeEnd) {
+    return high == RoaringIntPacking.high(rangeEnd)
+        ? Util.toUnsignedLong(RoaringIntPacking.low(rangeEnd)) : LOWS_PER_BUCKET;
+  }
+
+  private int compareLongs(long x, long y) {
+    if (signedLongs) {
+      return Long.compare(x, y);
+    } else {
+      return Long.compareUnsigned(x, y);
+    }
+  }
+
+  /**
+   * Checks whether the two bitmaps intersect, without computing their intersection.
+   *
+   * @param x2 other bitmap
+   * @return true if they intersect
+   */
+  public boolean intersects(final Roaring64NavigableMap x2) {
+    final boolean smaller = highToBitmap.size() <= x2.highToBitmap.size();
+    final Roaring64NavigableMap small = smaller ? this : x2;
+    final Roaring64NavigableMap large = smaller ? x2 : this;
+    for (Entry<Integer, BitmapDataProvider> e : small.highToBitmap.entrySet()) {
+      final BitmapDataProvider lowBitmap2 = large.highToBitmap.get(e.getKey());
+      if (lowBitmap2 == null) {
+        continue;
+      }
+      final BitmapDataProvider lowBitmap1 = e.getValue();
+      final boolean intersects;
+      if (lowBitmap1 instanceof ImmutableRoaringBitmap
+          && lowBitmap2 instanceof ImmutableRoaringBitmap) {
+        intersects = ImmutableRoaringBitmap.intersects((ImmutableRoaringBitmap) lowBitmap1,
+            (ImmutableRoaringBitmap) lowBitmap2);
+      } else {
+        intersects = RoaringBitmap.intersects(toRoaringBitmap(lowBitmap1),
+            toRoaringBitmap(lowBitmap2));
+      }
+      if (intersects) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Cardinality of the bitwise AND (intersection) operation. The provided bitmaps are *not*
+   * modified. This operation is thread-safe as long as the provided bitmaps remain unchanged.
+   *
+   * @param x1 first bitmap
+   * @param x2 other bitmap
+   * @return as if you did and(x1, x2).getLongCardinality()
+   */
+  public static long andCardinality(final Roaring64NavigableMap x1,
+      final Roaring64NavigableMap x2) {
+    final boolean smaller = x1.highToBitmap.size() <= x2.highToBitmap.size();
+    final Roaring64NavigableMap small = smaller ? x1 : x2;
+    final Roaring64NavigableMap large = smaller ? x2 : x1;
+    long cardinality = 0;
+    for (Entry<Integer, BitmapDataProvider> e : small.highToBitmap.entrySet()) {
+      final BitmapDataProvider lowBitmap2 = large.highToBitmap.get(e.getKey());
+      if (lowBitmap2 == null) {
+        continue;
+      }
+      final BitmapDataProvider lowBitmap1 = e.getValue();
+      if (lowBitmap1 instanceof ImmutableRoaringBitmap
+          && lowBitmap2 instanceof ImmutableRoaringBitmap) {
+        cardinality += ImmutableRoaringBitmap.andCardinality((ImmutableRoaringBitmap) lowBitmap1,
+            (ImmutableRoaringBitmap) lowBitmap2);
+      } else {
+        cardinality += RoaringBitmap.andCardinality(toRoaringBitmap(lowBitmap1),
+            toRoaringBitmap(lowBitmap2));
+      }
+    }
+    return cardinality;
+  }
+
+  // Buckets of different types are compared as RoaringBitmap
+  private static RoaringBitmap toRoaringBitmap(BitmapDataProvider bitmap) {
+    if (bitmap instanceof RoaringBitmap) {
+      return (RoaringBitmap) bitmap;
+    } else if (bitmap instanceof ImmutableRoaringBitmap) {
+      return ((ImmutableRoaringBitmap) bitmap).toRoaringBitmap();
+    } else {
+      throw new UnsupportedOperationException("TODO. Not for " + bitmap.getClass());
+    }
+  }
+
+  /**
+   * Get the first (smallest) long in this bitmap, in the order of the bitmap.
+   *
+   * @return the first long
+   * @throws NoSuchElementException if empty
+   */
+  public long first() {
+    return nextValueIn(highToBitmap.entrySet(), true);
+  }
+
+  /**
+   * Get the last (largest) long in this bitmap, in the order of the bitmap.
+   *
+   * @return the last long
+   * @throws NoSuchElementException if empty
+   */
+  public long last() {
+    return nextValueIn(highToBitmap.descendingMap().entrySet(), false);
+  }
+
+  /**
+   * Returns the first long equal to or larger than the provided value, in the order of the
+   * bitmap. The buckets before the bucket of the value are skipped, unlike with an iterator.
+   *
+   * @param fromValue the lower bound (inclusive)
+   * @return the smallest long larger than or equal to the specified value
+   * @throws NoSuchElementException if there is no such long
+   */
+  public long nextValue(final long fromValue) {
+    final int high = high(fromValue);
+    final BitmapDataProvider bitmap = highToBitmap.get(high);
+    if (bitmap != null) {
+      final long next = bitmap.nextValue(low(fromValue));
+      if (next != -1) {
+        return RoaringIntPacking.pack(high, (int) next);
+      }
+    }
+    return nextValueIn(highToBitmap.tailMap(high, false).entrySet(), true);
+  }
+
+  /**
+   * Returns the first long less than or equal to the provided value, in the order of the bitmap.
+   * The buckets after the bucket of the value are skipped, unlike with an iterator.
+   *
+   * @param fromValue the upper bound (inclusive)
+   * @return the largest long less than or equal to the specified value
+   * @throws NoSuchElementException if there is no such long
+   */
+  public long previousValue(final long fromValue) {
+    final int high = high(fromValue);
+    final BitmapDataProvider bitmap = highToBitmap.get(high);
+    if (bitmap != null) {
+      final long previous = bitmap.previousValue(low(fromValue));
+      if (previous != -1) {
+        return RoaringIntPacking.pack(high, (int) previous);
+      }
+    }
+    return nextValueIn(highToBitmap.headMap(high, false).descendingMap().entrySet(), false);
+  }
+
+  // The first or last long of the first non-empty bucket
+  private static long nextValueIn(Iterable<Entry<Integer, BitmapDataProvider>> buckets,
+      boolean ascending) {
+    for (Entry<Integer, BitmapDataProvider> e : buckets) {
+      final BitmapDataProvider bitmap = e.getValue();
+      if (!bitmap.isEmpty()) {
+        return RoaringIntPacking.pack(e.getKey(), ascending ? bitmap.first() : bitmap.last());
+      }
+    }
+    throw new NoSuchElementException("Empty Roaring64NavigableMap");
   }
 
   @Override
@@ -1313,24 +1958,32 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
 
   @Override
   public void removeLong(long x) {
-    int high = high(x);
+    lock.writeLock().lock();
+    try {
+      int high = high(x);
 
-    BitmapDataProvider bitmap = highToBitmap.get(high);
+      BitmapDataProvider bitmap = highToBitmap.get(high);
 
-    if (bitmap != null) {
-      int low = low(x);
-      bitmap.remove(low);
+      if (bitmap != null && checkedRemove(bitmap, low(x))) {
+        if (!removeIfEmpty(high, bitmap)) {
+          updateRanks(high, -1);
+        }
+      }
 
-      // Invalidate only if actually modified
-      invalidateAboveHigh(high);
+    } finally {
+      lock.writeLock().unlock();
     }
-
   }
 
   @Override
   public void trim() {
-    for (BitmapDataProvider bitmap : highToBitmap.values()) {
-      bitmap.trim();
+    lock.writeLock().lock();
+    try {
+      for (BitmapDataProvider bitmap : highToBitmap.values()) {
+        bitmap.trim();
+      }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -1362,30 +2015,38 @@ public class Roaring64NavigableMap implements Externalizable, LongBitmapDataProv
    * @param x long value
    */
   public void flip(final long x) {
-    int high = RoaringIntPacking.high(x);
-    BitmapDataProvider lowBitmap = highToBitmap.get(high);
-    if (lowBitmap == null) {
-      // The value is not added: add it without any flip specific code
-      addLong(x);
-    } else {
-      int low = RoaringIntPacking.low(x);
-
-      // .flip is not in BitmapDataProvider contract
-      // TODO Is it relevant to calling .flip with a cast?
-      if (lowBitmap instanceof RoaringBitmap) {
-        ((RoaringBitmap) lowBitmap).flip(low);
-      } else if (lowBitmap instanceof MutableRoaringBitmap) {
-        ((MutableRoaringBitmap) lowBitmap).flip(low);
+    lock.writeLock().lock();
+    try {
+      int high = RoaringIntPacking.high(x);
+      BitmapDataProvider lowBitmap = highToBitmap.get(high);
+      if (lowBitmap == null) {
+        // The value is not added: add it without any flip specific code
+        addLong(x);
       } else {
-        // Fallback to a manual flip
-        if (lowBitmap.contains(low)) {
-          lowBitmap.remove(low);
+        int low = RoaringIntPacking.low(x);
+        boolean removed = lowBitmap.contains(low);
+
+        // .flip is not in BitmapDataProvider contract
+        // TODO Is it relevant to calling .flip with a cast?
+        if (lowBitmap instanceof RoaringBitmap) {
+          ((RoaringBitmap) lowBitmap).flip(low);
+        } else if (lowBitmap instanceof MutableRoaringBitmap) {
+          ((MutableRoaringBitmap) lowBitmap).flip(low);
         } else {
-          lowBitmap.add(low);
+          // Fallback to a manual flip
+          if (lowBitmap.contains(low)) {
+            lowBitmap.remove(low);
+          } else {
+            lowBitmap.add(low);
+          }
+        }
+
+        if (!removeIfEmpty(high, lowBitmap)) {
+          updateRanks(high, removed ? -1 : 1);
         }
       }
+    } finally {
+      lock.writeLock().unlock();
     }
-
-    invalidateAboveHigh(high);
   }
 }
@@ -0,0 +1,169 @@
+/*
+ * (c) the authors Licensed under the Apache License, Version 2.0.
+ */
+package org.roaringbitmap.longlong;
+
+import java.util.function.Supplier;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.roaringbitmap.RoaringBitmapWriter;
+
+/**
+ * Builds a {@link Roaring64NavigableMap}, like {@link RoaringBitmapWriter} for 32-bit integers.
+ * The values sharing their 32 high bits are buffered into a {@link RoaringBitmapWriter}, and the
+ * resulting bucket is added to the bitmap when the high bits change: the bitmap is only looked
+ * up once per bucket when the values come in the order of the bitmap.
+ *
+ * <pre>
+ * {@code
+ *     Roaring64NavigableMapWriter writer = new Roaring64NavigableMapWriter();
+ *     for (long id : sortedIds) {
+ *       writer.add(id);
+ *     }
+ *     Roaring64NavigableMap bitmap = writer.get();
+ * }
+ * </pre>
+ *
+ * Values out of order are still added, at the cost of merging the buckets written several times.
+ */
+public class Roaring64NavigableMapWriter implements LongConsumer, Supplier<Roaring64NavigableMap> {
+
+  private final boolean signedLongs;
+  private final RoaringBitmapWriter<RoaringBitmap> bucketWriter;
+
+  private Roaring64NavigableMap underlying;
+  // the high bits of the values buffered in bucketWriter, if any
+  private int currentHigh;
+  private boolean pending;
+
+  /**
+   * Creates a writer of a bitmap of unsigned longs.
+   */
+  public Roaring64NavigableMapWriter() {
+    this(false);
+  }
+
+  /**
+   * @param signedLongs true if longs has to be ordered as plain java longs. False to handle them as
+   *        unsigned 64bits long (as RoaringBitmap with unsigned integers)
+   */
+  public Roaring64NavigableMapWriter(boolean signedLongs) {
+    this(signedLongs, RoaringBitmapWriter.writer());
+  }
+
+  /**
+   * @param signedLongs true if longs has to be ordered as plain java longs. False to handle them as
+   *        unsigned 64bits long (as RoaringBitmap with unsigned integers)
+   * @param bucketWriters provides the writer of the 32 low bits of the values, typically a
+   *        {@link RoaringBitmapWriter.Wizard} tuned for the expected density of the buckets
+   */
+  public Roaring64NavigableMapWriter(boolean signedLongs,
+      Supplier<? extends RoaringBitmapWriter<RoaringBitmap>> bucketWriters) {
+    this.signedLongs = signedLongs;
+    this.bucketWriter = bucketWriters.get();
+    this.underlying = new Roaring64NavigableMap(signedLongs);
+  }
+
+  /**
+   * Gets the bitmap being written to, which lacks the buffered values until {@link #flush()}.
+   *
+   * @return the bitmap
+   */
+  public Roaring64NavigableMap getUnderlying() {
+    return underlying;
+  }
+
+  /**
+   * Buffers a value to be added to the bitmap.
+   *
+   * @param value the value
+   */
+  public void add(long value) {
+    switchTo(RoaringIntPacking.high(value));
+    bucketWriter.add(RoaringIntPacking.low(value));
+  }
+
+  @Override
+  public void accept(long value) {
+    add(value);
+  }
+
+  /**
+   * Adds many values to the bitmap.
+   *
+   * @param values the values to add
+   */
+  public void addMany(long... values) {
+    for (long value : values) {
+      add(value);
+    }
+  }
+
+  /**
+   * Add a range to the bitmap.
+   *
+   * @param min the inclusive min value
+   * @param max the exclusive max value
+   */
+  public void add(long min, long max) {
+    long start = min;
+    while (compareLongs(start, max) < 0) {
+      // the start of the next bucket, which wraps around after the last one
+      final long nextBucket = (start | 0xFFFFFFFFL) + 1;
+      final boolean lastBucket =
+          compareLongs(nextBucket, start) < 0 || compareLongs(nextBucket, max) >= 0;
+      final long end = lastBucket ? max : nextBucket;
+      switchTo(RoaringIntPacking.high(start));
+      bucketWriter.add(Integer.toUnsignedLong(RoaringIntPacking.low(start)),
+          Integer.toUnsignedLong(RoaringIntPacking.low(end - 1)) + 1);
+      start = end;
+    }
+  }
+
+  /**
+   * Flushes all pending changes to the bitmap.
+   */
+  public void flush() {
+    if (pending) {
+      underlying.addBucket(currentHigh, bucketWriter.get());
+      bucketWriter.reset();
+      pending = false;
+    }
+  }
+
+  /**
+   * Flushes any pending changes to the bitmap and returns the bitmap.
+   *
+   * @return the underlying bitmap
+   */
+  @Override
+  public Roaring64NavigableMap get() {
+    flush();
+    return underlying;
+  }
+
+  /**
+   * Resets the writer so it can be reused, releasing the reference to the underlying bitmap.
+   */
+  public void reset() {
+    bucketWriter.reset();
+    pending = false;
+    underlying = new Roaring64NavigableMap(signedLongs);
+  }
+
+  private int compareLongs(long x, long y) {
+    if (signedLongs) {
+      return Long.compare(x, y);
+    } else {
+      return Long.compareUnsigned(x, y);
+    }
+  }
+
+  private void switchTo(int high) {
+    if (!pending || high != currentHigh) {
+      flush();
+      currentHigh = high;
+      pending = true;
+    }
+  }
+}
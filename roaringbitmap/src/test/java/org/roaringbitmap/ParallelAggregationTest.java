@@ -5,6 +5,12 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.stream.IntStream;
 
@@ -16,16 +22,20 @@ public class ParallelAggregationTest {
 
   private static ForkJoinPool NO_PARALLELISM_AVAILABLE;
 
+  private static ExecutorService EXECUTOR;
+
   @BeforeClass
   public static void init() {
     POOL = new ForkJoinPool(4);
     NO_PARALLELISM_AVAILABLE = new ForkJoinPool(1);
+    EXECUTOR = Executors.newFixedThreadPool(3);
   }
 
   @AfterClass
   public static void teardown() {
     POOL.shutdownNow();
     NO_PARALLELISM_AVAILABLE.shutdownNow();
+    EXECUTOR.shutdownNow();
   }
 
   @Test
@@ -192,5 +202,101 @@ public class ParallelAggregationTest {
     Assert.assertEquals(FastAggregation.xor(one, two, three), ParallelAggregation.xor(one, two, three));
   }
 
+  @Test
+  public void orOnSuppliedPool() {
+    RoaringBitmap[] input = IntStream.range(0, 600)
+            .mapToObj(i -> testCase().withBitmapAt(0).withArrayAt(i % 7).withRunAt(i % 13).build())
+            .toArray(RoaringBitmap[]::new);
+    for (int grainSize : new int[] {1, 2, 5, 100}) {
+      Assert.assertEquals(FastAggregation.or(input), ParallelAggregation.or(POOL, grainSize, input));
+      Assert.assertEquals(FastAggregation.or(input),
+              ParallelAggregation.or(NO_PARALLELISM_AVAILABLE, grainSize, input));
+    }
+  }
+
+  @Test
+  public void orOnSuppliedExecutor() {
+    RoaringBitmap[] input = IntStream.range(0, 600)
+            .mapToObj(i -> testCase().withBitmapAt(0).withArrayAt(i % 7).withRunAt(i % 13).build())
+            .toArray(RoaringBitmap[]::new);
+    for (int grainSize : new int[] {1, 2, 5, 100}) {
+      Assert.assertEquals(FastAggregation.or(input),
+              ParallelAggregation.or(EXECUTOR, grainSize, input));
+    }
+  }
+
+  @Test
+  public void xorOnSuppliedPoolAndExecutor() {
+    RoaringBitmap one = testCase().withRunAt(0).withBitmapAt(1).withArrayAt(2).build();
+    RoaringBitmap two = testCase().withBitmapAt(0).withArrayAt(2).withRunAt(5).build();
+    RoaringBitmap three = testCase().withArrayAt(0).withBitmapAt(1).withArrayAt(4).build();
+    for (int grainSize : new int[] {1, 2, 10}) {
+      Assert.assertEquals(FastAggregation.xor(one, two, three),
+              ParallelAggregation.xor(POOL, grainSize, one, two, three));
+      Assert.assertEquals(FastAggregation.xor(one, two, three),
+              ParallelAggregation.xor(EXECUTOR, grainSize, one, two, three));
+    }
+    // identical inputs cancel out, leaving no empty containers behind
+    Assert.assertTrue(ParallelAggregation.xor(EXECUTOR, 1, one, one).isEmpty());
+  }
+
+  @Test
+  public void andOnKeyIntersection() {
+    RoaringBitmap one = testCase().withRunAt(0).withBitmapAt(1).withArrayAt(2).withBitmapAt(7)
+            .build();
+    RoaringBitmap two = testCase().withBitmapAt(0).withBitmapAt(1).withRunAt(2).withArrayAt(5)
+            .withBitmapAt(7).build();
+    RoaringBitmap three = testCase().withArrayAt(0).withBitmapAt(1).withBitmapAt(2)
+            .withRunAt(7).build();
+    RoaringBitmap expected = FastAggregation.and(one, two, three);
+    Assert.assertEquals(expected, ParallelAggregation.and(one, two, three));
+    for (int grainSize : new int[] {1, 2, 10}) {
+      Assert.assertEquals(expected, ParallelAggregation.and(POOL, grainSize, one, two, three));
+      Assert.assertEquals(expected, ParallelAggregation.and(EXECUTOR, grainSize, three, two, one));
+    }
+    Assert.assertEquals(one, ParallelAggregation.and(one));
+    Assert.assertTrue(ParallelAggregation.and().isEmpty());
+    Assert.assertTrue(ParallelAggregation.and(one, testCase().withArrayAt(9).build()).isEmpty());
+  }
 
-}
\ No newline at end of file
+  @Test
+  public void andNotOfManyBitmaps() {
+    RoaringBitmap one = testCase().withRunAt(0).withBitmapAt(1).withArrayAt(2).withBitmapAt(7)
+            .build();
+    RoaringBitmap two = testCase().withBitmapAt(0).withRunAt(2).withArrayAt(5).build();
+    RoaringBitmap three = testCase().withArrayAt(1).withBitmapAt(7).build();
+    RoaringBitmap expected = RoaringBitmap.andNot(RoaringBitmap.andNot(one, two), three);
+    Assert.assertEquals(expected, ParallelAggregation.andNot(one, two, three));
+    for (int grainSize : new int[] {1, 2, 10}) {
+      Assert.assertEquals(expected, ParallelAggregation.andNot(POOL, grainSize, one, two, three));
+      Assert.assertEquals(expected,
+              ParallelAggregation.andNot(EXECUTOR, grainSize, one, three, two));
+    }
+    Assert.assertEquals(one, ParallelAggregation.andNot(one));
+    // identical inputs cancel out, leaving no empty containers behind
+    Assert.assertTrue(ParallelAggregation.andNot(EXECUTOR, 1, one, two, one).isEmpty());
+  }
+
+  @Test
+  public void groupByKeyInUnsignedOrder() {
+    RoaringBitmap one = RoaringBitmap.bitmapOf(-1, 1, 1 << 16);
+    RoaringBitmap two = RoaringBitmap.bitmapOf(-2, 2);
+    RoaringBitmap three = RoaringBitmap.bitmapOf(3 << 16);
+    SortedMap<Short, List<Container>> grouped = ParallelAggregation.groupByKey(one, two, three);
+    Assert.assertEquals(Arrays.asList((short) 0, (short) 1, (short) 3, (short) -1),
+            new ArrayList<>(grouped.keySet()));
+    Assert.assertEquals(Arrays.asList(one.highLowContainer.getContainerAtIndex(0),
+            two.highLowContainer.getContainerAtIndex(0)), grouped.get((short) 0));
+    Assert.assertEquals(Arrays.asList(one.highLowContainer.getContainerAtIndex(2),
+            two.highLowContainer.getContainerAtIndex(1)), grouped.get((short) -1));
+    Assert.assertEquals(FastAggregation.or(one, two, three),
+            ParallelAggregation.or(one, two, three));
+    Assert.assertEquals(FastAggregation.xor(one, two, three),
+            ParallelAggregation.xor(one, two, three));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidGrainSize() {
+    ParallelAggregation.or(POOL, 0, testCase().withArrayAt(0).build());
+  }
+}
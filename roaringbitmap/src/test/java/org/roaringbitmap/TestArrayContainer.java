@@ -490,6 +490,13 @@ public class TestArrayContainer {
         assertEquals(-1, container.nextValue((short)31));
     }
 
+    @Test
+    public void testNextValueAfterEndWithSpareCapacity() {
+        Container container = new ArrayContainer(16).add((short) 10).add((short) 20);
+        assertEquals(-1, container.nextValue((short)21));
+        assertEquals(20, container.previousValue((short)21));
+    }
+
     @Test
     public void testNextValue2() {
         Container container = new ArrayContainer().iadd(64, 129);
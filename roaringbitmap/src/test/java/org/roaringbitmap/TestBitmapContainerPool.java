@@ -0,0 +1,105 @@
+package org.roaringbitmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.roaringbitmap.SeededTestData.randomBitmap;
+
+public class TestBitmapContainerPool {
+
+  @Test
+  public void testReleaseRecyclesBitmaps() {
+    RoaringBitmap bitmap = RoaringBitmap.bitmapOf();
+    bitmap.add(0L, 10000L);
+    bitmap.add(1L << 16, (1L << 16) + 10000);
+    bitmap.removeRunCompression();
+    long[] first = ((BitmapContainer) bitmap.highLowContainer.getContainerAtIndex(0)).bitmap;
+    try (BitmapContainerPool pool = new BitmapContainerPool(1).activate()) {
+      assertSame(pool, BitmapContainerPool.active());
+      bitmap.release();
+      assertTrue(bitmap.isEmpty());
+      assertEquals(1, pool.size());
+      BitmapContainer container = new BitmapContainer();
+      assertSame(first, container.bitmap);
+      assertEquals(0, container.getCardinality());
+      for (long word : container.bitmap) {
+        assertEquals(0L, word);
+      }
+      assertEquals(0, pool.size());
+    }
+    assertNull(BitmapContainerPool.active());
+  }
+
+  @Test
+  public void testOperationsWithPool() {
+    Random random = new Random(1234);
+    List<RoaringBitmap> inputs = new ArrayList<>();
+    for (int i = 0; i < 20; ++i) {
+      inputs.add(randomBitmap(30));
+    }
+    List<RoaringBitmap> expected = new ArrayList<>();
+    List<RoaringBitmap> actual = new ArrayList<>();
+    long[] seeds = new long[50];
+    for (int i = 0; i < seeds.length; ++i) {
+      seeds[i] = random.nextLong();
+    }
+    for (long seed : seeds) {
+      expected.add(query(inputs, new Random(seed)));
+    }
+    try (BitmapContainerPool pool = new BitmapContainerPool(16).activate()) {
+      for (long seed : seeds) {
+        actual.add(query(inputs, new Random(seed)));
+      }
+      assertTrue(pool.size() > 0);
+    }
+    assertEquals(expected, actual);
+  }
+
+  // combines some inputs through intermediates which are released
+  private static RoaringBitmap query(List<RoaringBitmap> inputs, Random random) {
+    RoaringBitmap union = FastAggregation.horizontal_or(
+        inputs.get(random.nextInt(inputs.size())), inputs.get(random.nextInt(inputs.size())),
+        inputs.get(random.nextInt(inputs.size())));
+    RoaringBitmap other = inputs.get(random.nextInt(inputs.size()));
+    RoaringBitmap result;
+    switch (random.nextInt(4)) {
+      case 0:
+        result = RoaringBitmap.andNot(union, other);
+        break;
+      case 1:
+        result = RoaringBitmap.xor(union, other);
+        break;
+      case 2:
+        result = RoaringBitmap.and(union, other);
+        break;
+      default:
+        result = union.clone();
+        result.andNot(other);
+        result.xor(inputs.get(random.nextInt(inputs.size())));
+    }
+    union.release();
+    return result;
+  }
+
+  @Test
+  public void testNestedPools() {
+    try (BitmapContainerPool outer = new BitmapContainerPool(4).activate()) {
+      try (BitmapContainerPool inner = new BitmapContainerPool(4).activate()) {
+        assertSame(inner, BitmapContainerPool.active());
+      }
+      assertSame(outer, BitmapContainerPool.active());
+    }
+    assertNull(BitmapContainerPool.active());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testActivateTwice() {
+    try (BitmapContainerPool pool = new BitmapContainerPool(4).activate()) {
+      pool.activate();
+    }
+  }
+}
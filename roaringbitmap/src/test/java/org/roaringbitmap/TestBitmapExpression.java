@@ -0,0 +1,104 @@
+package org.roaringbitmap;
+
+import org.junit.Test;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.roaringbitmap.SeededTestData.randomBitmap;
+
+public class TestBitmapExpression {
+
+  @Test
+  public void testFilter() {
+    RoaringBitmap a = RoaringBitmap.bitmapOf(1, 2, 3, 4, 1 << 20, 3 << 20);
+    RoaringBitmap b = RoaringBitmap.bitmapOf(2, 3, 4, 5, 3 << 20);
+    RoaringBitmap c = RoaringBitmap.bitmapOf(3, 3 << 20);
+    RoaringBitmap d = RoaringBitmap.bitmapOf(100, 2 << 20);
+    BitmapExpression filter = BitmapExpression.or(
+        BitmapExpression.andNot(
+            BitmapExpression.and(BitmapExpression.of(a), BitmapExpression.of(b)),
+            BitmapExpression.of(c)),
+        BitmapExpression.of(d));
+    assertEquals(RoaringBitmap.bitmapOf(2, 4, 100, 2 << 20), filter.evaluate());
+    assertEquals(4, filter.cardinality());
+  }
+
+  @Test
+  public void testRandomExpressions() {
+    Random random = new Random(2718);
+    List<RoaringBitmap> bitmaps = new ArrayList<>();
+    for (int i = 0; i < 12; ++i) {
+      bitmaps.add(randomBitmap(40));
+    }
+    bitmaps.add(new RoaringBitmap());
+    for (int i = 0; i < 300; ++i) {
+      RoaringBitmap[] expected = new RoaringBitmap[1];
+      BitmapExpression expression = randomExpression(random, bitmaps, 4, expected);
+      RoaringBitmap actual = expression.evaluate();
+      assertEquals(expected[0], actual);
+      assertEquals(expected[0].getLongCardinality(), expression.cardinality());
+      // evaluations are independent
+      assertEquals(actual, expression.evaluate());
+    }
+  }
+
+  // builds an expression, and its value with the methods of RoaringBitmap
+  private static BitmapExpression randomExpression(Random random, List<RoaringBitmap> bitmaps,
+      int depth, RoaringBitmap[] value) {
+    if (depth == 0 || random.nextInt(4) == 0) {
+      RoaringBitmap bitmap = bitmaps.get(random.nextInt(bitmaps.size()));
+      value[0] = bitmap.clone();
+      if (random.nextBoolean()) {
+        return BitmapExpression.of(bitmap);
+      }
+      ImmutableRoaringBitmap immutable = bitmap.toMutableRoaringBitmap();
+      return BitmapExpression.of(immutable);
+    }
+    int type = random.nextInt(3);
+    int count = type == 2 ? 2 : 1 + random.nextInt(4);
+    BitmapExpression[] operands = new BitmapExpression[count];
+    RoaringBitmap[] operandValue = new RoaringBitmap[1];
+    operands[0] = randomExpression(random, bitmaps, depth - 1, operandValue);
+    RoaringBitmap answer = operandValue[0];
+    for (int i = 1; i < count; ++i) {
+      operands[i] = randomExpression(random, bitmaps, depth - 1, operandValue);
+      switch (type) {
+        case 0:
+          answer = RoaringBitmap.and(answer, operandValue[0]);
+          break;
+        case 1:
+          answer = RoaringBitmap.or(answer, operandValue[0]);
+          break;
+        default:
+          answer = RoaringBitmap.andNot(answer, operandValue[0]);
+      }
+    }
+    value[0] = answer;
+    switch (type) {
+      case 0:
+        return BitmapExpression.and(operands);
+      case 1:
+        return BitmapExpression.or(operands);
+      default:
+        return BitmapExpression.andNot(operands[0], operands[1]);
+    }
+  }
+
+  @Test
+  public void testSharedSubexpression() {
+    RoaringBitmap a = randomBitmap(20);
+    RoaringBitmap b = randomBitmap(20);
+    BitmapExpression union = BitmapExpression.or(BitmapExpression.of(a), BitmapExpression.of(b));
+    BitmapExpression twice = BitmapExpression.and(union, union, BitmapExpression.of(a));
+    assertEquals(a, twice.evaluate());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoOperand() {
+    BitmapExpression.and();
+  }
+}
@@ -0,0 +1,135 @@
+package org.roaringbitmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.roaringbitmap.SeededTestData.randomBitmap;
+
+public class TestConcurrentRoaringBitmap {
+
+  @Test
+  public void testUpdatesMatchRoaringBitmap() {
+    Random random = new Random(99);
+    RoaringBitmap expected = randomBitmap(10);
+    ConcurrentRoaringBitmap bitmap = new ConcurrentRoaringBitmap(expected);
+    for (int i = 0; i < 2000; ++i) {
+      int x = random.nextInt(10 << 16) - (1 << 16);
+      switch (random.nextInt(8)) {
+        case 0:
+          assertEquals(expected.checkedAdd(x), bitmap.checkedAdd(x));
+          break;
+        case 1:
+          assertEquals(expected.checkedRemove(x), bitmap.checkedRemove(x));
+          break;
+        case 2: {
+          long start = x & 0xFFFFFFFFL;
+          long end = Math.min(1L << 32, start + random.nextInt(100000));
+          expected.add(start, end);
+          bitmap.add(start, end);
+          break;
+        }
+        case 3: {
+          long start = x & 0xFFFFFFFFL;
+          long end = Math.min(1L << 32, start + random.nextInt(100000));
+          expected.remove(start, end);
+          bitmap.remove(start, end);
+          break;
+        }
+        case 4: {
+          RoaringBitmap other = randomBitmap(5);
+          expected.or(other);
+          bitmap.or(other);
+          break;
+        }
+        case 5: {
+          RoaringBitmap other = randomBitmap(5);
+          expected.andNot(other);
+          bitmap.andNot(other);
+          break;
+        }
+        case 6:
+          expected.add(x, x + 7, x - 3);
+          bitmap.add(x, x + 7, x - 3);
+          break;
+        default:
+          assertEquals(expected.contains(x), bitmap.contains(x));
+      }
+      assertEquals(expected.getLongCardinality(), bitmap.getLongCardinality());
+    }
+    assertEquals(expected, bitmap.toRoaringBitmap());
+    assertEquals(expected.rank(1 << 20), bitmap.rank(1 << 20));
+    bitmap.clear();
+    assertTrue(bitmap.isEmpty());
+  }
+
+  @Test
+  public void testSnapshotsAreNotModified() {
+    ConcurrentRoaringBitmap bitmap = new ConcurrentRoaringBitmap();
+    bitmap.add(1, 2, 3, 1 << 16);
+    ImmutableBitmapDataProvider snapshot = bitmap.snapshot();
+    RoaringBitmap before = RoaringBitmap.bitmapOf(snapshot.toArray());
+    bitmap.add(4);
+    bitmap.remove(1 << 16);
+    bitmap.remove(1);
+    bitmap.add(0L, 100000L);
+    bitmap.andNot(RoaringBitmap.bitmapOf(2, 3));
+    assertArrayEquals(before.toArray(), snapshot.toArray());
+    assertFalse(bitmap.contains(2));
+    assertTrue(bitmap.contains(99999));
+  }
+
+  @Test
+  public void testOperandsAreNotShared() {
+    ConcurrentRoaringBitmap bitmap = new ConcurrentRoaringBitmap();
+    RoaringBitmap other = RoaringBitmap.bitmapOf(1, 2, 3, 1 << 16);
+    bitmap.or(other);
+    other.add(4);
+    other.add((1 << 16) + 1);
+    assertEquals(RoaringBitmap.bitmapOf(1, 2, 3, 1 << 16), bitmap.toRoaringBitmap());
+  }
+
+  @Test
+  public void testReadersSeeConsistentSnapshots() throws InterruptedException {
+    final int count = 200000;
+    ConcurrentRoaringBitmap bitmap = new ConcurrentRoaringBitmap();
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<String> failure = new AtomicReference<>();
+    List<Thread> readers = new ArrayList<>();
+    for (int t = 0; t < 4; ++t) {
+      Thread reader = new Thread(() -> {
+        while (!done.get() && failure.get() == null) {
+          // the writer adds the values in order, so a snapshot is a prefix
+          ImmutableBitmapDataProvider snapshot = bitmap.snapshot();
+          int cardinality = snapshot.getCardinality();
+          PeekableIntIterator it = snapshot.getIntIterator();
+          for (int expected = 0; expected < cardinality; ++expected) {
+            if (!it.hasNext() || it.next() != expected) {
+              failure.set("missing " + expected + " in a snapshot of " + cardinality);
+              return;
+            }
+          }
+          if (it.hasNext()) {
+            failure.set("extra values in a snapshot of " + cardinality);
+          }
+        }
+      });
+      reader.start();
+      readers.add(reader);
+    }
+    for (int i = 0; i < count; ++i) {
+      bitmap.add(i);
+    }
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertNull(failure.get());
+    assertEquals(count, bitmap.getCardinality());
+  }
+}
@@ -167,4 +167,74 @@ public class TestFastAggregation {
         assertTrue(ebResult.contains(3));
     }
 
+    @Test
+    public void testAndCardinality() {
+        for (int n = 0; n < 8; ++n) {
+            RoaringBitmap[] bitmaps = new RoaringBitmap[n];
+            for (int i = 0; i < n; ++i) {
+                bitmaps[i] = SeededTestData.randomBitmap(50);
+            }
+            assertEquals(FastAggregation.naive_and(bitmaps).getCardinality(),
+                    FastAggregation.andCardinality(bitmaps));
+        }
+    }
+
+    @Test
+    public void testAndCardinalityOfDenseRuns() {
+        RoaringBitmap rb1 = new RoaringBitmap();
+        rb1.add(0L, 1L << 20);
+        RoaringBitmap rb2 = RoaringBitmap.bitmapOf(5, 1 << 16, 3 << 16, (1 << 20) + 1);
+        RoaringBitmap rb3 = new RoaringBitmap();
+        rb3.add(1L << 15, 5L << 16);
+        rb3.runOptimize();
+        assertEquals(2, FastAggregation.andCardinality(rb1, rb2, rb3));
+        assertEquals(0, FastAggregation.andCardinality(rb1, rb2, new RoaringBitmap()));
+    }
+
+    @Test
+    public void testOrCardinality() {
+        for (int n = 0; n < 8; ++n) {
+            RoaringBitmap[] bitmaps = new RoaringBitmap[n];
+            for (int i = 0; i < n; ++i) {
+                bitmaps[i] = SeededTestData.randomBitmap(50);
+            }
+            assertEquals(FastAggregation.naive_or(bitmaps).getCardinality(),
+                    FastAggregation.orCardinality(bitmaps));
+        }
+    }
+
+    @Test
+    public void testWorkShyAnd() {
+        long[] buffer = new long[1024];
+        for (int n = 0; n < 12; ++n) {
+            RoaringBitmap[] bitmaps = new RoaringBitmap[n];
+            for (int i = 0; i < n; ++i) {
+                bitmaps[i] = SeededTestData.randomBitmap(20);
+            }
+            RoaringBitmap expected = FastAggregation.naive_and(bitmaps);
+            assertEquals(expected, FastAggregation.workShyAnd(buffer, bitmaps));
+            assertEquals(expected, FastAggregation.and(bitmaps));
+            assertEquals(expected, FastAggregation.and(Arrays.asList(bitmaps).iterator()));
+        }
+    }
+
+    @Test
+    public void testWorkShyAndOfDenseRuns() {
+        RoaringBitmap rb1 = new RoaringBitmap();
+        rb1.add(0L, 1L << 20);
+        RoaringBitmap rb2 = new RoaringBitmap();
+        rb2.add(1L << 15, 5L << 16);
+        rb2.runOptimize();
+        RoaringBitmap rb3 = RoaringBitmap.bitmapOf(5, 1 << 16, 3 << 16, (1 << 20) + 1);
+        rb3.add(4L << 16, 5L << 16);
+        RoaringBitmap expected = RoaringBitmap.bitmapOf(1 << 16, 3 << 16);
+        expected.add(4L << 16, 5L << 16);
+        assertEquals(expected, FastAggregation.workShyAnd(new long[1024], rb1, rb2, rb3));
+        assertTrue(FastAggregation.and(rb1, rb2, new RoaringBitmap()).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWorkShyAndRequiresFullBuffer() {
+        FastAggregation.workShyAnd(new long[16], RoaringBitmap.bitmapOf(1));
+    }
 }
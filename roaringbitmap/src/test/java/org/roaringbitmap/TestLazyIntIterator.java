@@ -0,0 +1,152 @@
+package org.roaringbitmap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.roaringbitmap.SeededTestData.randomBitmap;
+
+public class TestLazyIntIterator {
+
+  private static RoaringBitmap drain(PeekableIntIterator iterator) {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    while (iterator.hasNext()) {
+      int peeked = iterator.peekNext();
+      assertEquals(peeked, iterator.next());
+      bitmap.add(peeked);
+    }
+    return bitmap;
+  }
+
+  @Test
+  public void testRandomViews() {
+    for (int i = 0; i < 20; ++i) {
+      RoaringBitmap a = randomBitmap(20);
+      RoaringBitmap b = randomBitmap(20);
+      RoaringBitmap c = randomBitmap(20);
+      assertEquals(FastAggregation.and(a, b, c), drain(LazyIntIterator.and(
+          a.getIntIterator(), b.getIntIterator(), c.getIntIterator())));
+      assertEquals(FastAggregation.or(a, b, c), drain(LazyIntIterator.or(
+          a.getIntIterator(), b.getIntIterator(), c.getIntIterator())));
+      assertEquals(RoaringBitmap.andNot(a, b),
+          drain(LazyIntIterator.andNot(a.getIntIterator(), b.getIntIterator())));
+      assertEquals(a, drain(LazyIntIterator.and(a.getIntIterator())));
+    }
+  }
+
+  @Test
+  public void testNestedViews() {
+    RoaringBitmap a = randomBitmap(10);
+    RoaringBitmap b = randomBitmap(10);
+    RoaringBitmap c = randomBitmap(10);
+    RoaringBitmap expected = RoaringBitmap.or(RoaringBitmap.andNot(a, b), RoaringBitmap.and(b, c));
+    assertEquals(expected, drain(LazyIntIterator.or(
+        LazyIntIterator.andNot(a.getIntIterator(), b.getIntIterator()),
+        LazyIntIterator.and(b.getIntIterator(), c.getIntIterator()))));
+  }
+
+  @Test
+  public void testUnsignedOrder() {
+    RoaringBitmap a = RoaringBitmap.bitmapOf(1, 5, -10, -1);
+    RoaringBitmap b = RoaringBitmap.bitmapOf(5, 7, -10);
+    assertEquals(RoaringBitmap.bitmapOf(5, -10),
+        drain(LazyIntIterator.and(a.getIntIterator(), b.getIntIterator())));
+    PeekableIntIterator union = LazyIntIterator.or(a.getIntIterator(), b.getIntIterator());
+    int[] expected = {1, 5, 7, -10, -1};
+    for (int value : expected) {
+      assertEquals(value, union.next());
+    }
+    assertFalse(union.hasNext());
+  }
+
+  @Test
+  public void testPaging() {
+    Random random = new Random(31);
+    RoaringBitmap a = randomBitmap(30);
+    RoaringBitmap b = randomBitmap(30);
+    int[] expected = RoaringBitmap.and(a, b).toArray();
+    if (expected.length == 0) {
+      return;
+    }
+    for (int i = 0; i < 50; ++i) {
+      int start = random.nextInt(expected.length);
+      LazyIntIterator it = LazyIntIterator.and(a.getIntIterator(), b.getIntIterator());
+      it.advanceIfNeeded(expected[start]);
+      for (int k = start; k < Math.min(expected.length, start + 10); ++k) {
+        assertEquals(expected[k], it.next());
+      }
+      LazyIntIterator difference = LazyIntIterator.andNot(a.getIntIterator(), b.getIntIterator());
+      difference.advanceIfNeeded(expected[start]);
+      if (difference.hasNext()) {
+        assertTrue(Integer.compareUnsigned(difference.peekNext(), expected[start]) > 0);
+        assertFalse(b.contains(difference.peekNext()));
+      }
+    }
+  }
+
+  @Test
+  public void testBatchIteratorAndClone() {
+    RoaringBitmap a = randomBitmap(20);
+    RoaringBitmap b = randomBitmap(20);
+    RoaringBitmap expected = RoaringBitmap.or(a, b);
+    LazyIntIterator union = LazyIntIterator.or(a.getIntIterator(), b.getIntIterator());
+    LazyIntIterator copy = union.clone();
+    BatchIterator batches = union.batchIterator();
+    int[] buffer = new int[100];
+    RoaringBitmap actual = new RoaringBitmap();
+    while (batches.hasNext()) {
+      int count = batches.nextBatch(buffer);
+      actual.add(Arrays.copyOf(buffer, count));
+    }
+    assertEquals(expected, actual);
+    assertEquals(expected, drain(copy));
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testExhaustedUnion() {
+    LazyIntIterator union = LazyIntIterator.or(RoaringBitmap.bitmapOf(1).getIntIterator(),
+        new RoaringBitmap().getIntIterator());
+    assertEquals(1, union.next());
+    assertFalse(union.hasNext());
+    union.next();
+  }
+
+  @Test
+  public void testExhaustedIntersection() {
+    LazyIntIterator intersection = LazyIntIterator.and(
+        RoaringBitmap.bitmapOf(1, 2, 3).getIntIterator(),
+        RoaringBitmap.bitmapOf(1).getIntIterator());
+    assertEquals(1, intersection.next());
+    assertFalse(intersection.hasNext());
+    try {
+      intersection.peekNext();
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+    try {
+      intersection.next();
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+  }
+
+  @Test
+  public void testExhaustedDifference() {
+    LazyIntIterator difference = LazyIntIterator.andNot(
+        RoaringBitmap.bitmapOf(1).getIntIterator(), RoaringBitmap.bitmapOf(1).getIntIterator());
+    assertFalse(difference.hasNext());
+    try {
+      difference.peekNext();
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+    try {
+      difference.next();
+      fail();
+    } catch (NoSuchElementException expected) {
+    }
+  }
+}
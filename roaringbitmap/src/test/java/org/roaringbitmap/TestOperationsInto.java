@@ -0,0 +1,88 @@
+package org.roaringbitmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.roaringbitmap.SeededTestData.randomBitmap;
+
+public class TestOperationsInto {
+
+  @Test
+  public void testRandomOperationsIntoReusedDestination() {
+    Random random = new Random(4321);
+    List<RoaringBitmap> inputs = new ArrayList<>();
+    for (int i = 0; i < 20; ++i) {
+      inputs.add(randomBitmap(30));
+    }
+    inputs.add(new RoaringBitmap());
+    RoaringBitmap answer = new RoaringBitmap();
+    for (int i = 0; i < 400; ++i) {
+      RoaringBitmap x1 = inputs.get(random.nextInt(inputs.size()));
+      RoaringBitmap x2 = inputs.get(random.nextInt(inputs.size()));
+      if (x1 == x2) {
+        x2 = x2.clone();
+      }
+      RoaringBitmap copy1 = x1.clone();
+      RoaringBitmap copy2 = x2.clone();
+      switch (random.nextInt(4)) {
+        case 0:
+          assertSame(answer, RoaringBitmap.andInto(x1, x2, answer));
+          assertEquals(RoaringBitmap.and(x1, x2), answer);
+          break;
+        case 1:
+          assertSame(answer, RoaringBitmap.andNotInto(x1, x2, answer));
+          assertEquals(RoaringBitmap.andNot(x1, x2), answer);
+          break;
+        case 2:
+          assertSame(answer, RoaringBitmap.orInto(x1, x2, answer));
+          assertEquals(RoaringBitmap.or(x1, x2), answer);
+          break;
+        default:
+          assertSame(answer, RoaringBitmap.xorInto(x1, x2, answer));
+          assertEquals(RoaringBitmap.xor(x1, x2), answer);
+      }
+      assertEquals(copy1, x1);
+      assertEquals(copy2, x2);
+      for (int k = answer.highLowContainer.size(); k < answer.highLowContainer.values.length;
+          ++k) {
+        assertNull(answer.highLowContainer.values[k]);
+      }
+    }
+  }
+
+  @Test
+  public void testContainersAreRecycled() {
+    RoaringBitmap x1 = new RoaringBitmap();
+    RoaringBitmap x2 = new RoaringBitmap();
+    for (int key = 0; key < 4; ++key) {
+      for (int i = 0; i < 10000; i += 2) {
+        x1.add((key << 16) + i);
+      }
+      for (int i = 0; i < 10000; i += 3) {
+        x2.add((key << 16) + i);
+      }
+    }
+    RoaringBitmap answer = RoaringBitmap.andInto(x1, x2, new RoaringBitmap());
+    Container[] containers = new Container[answer.highLowContainer.size()];
+    for (int k = 0; k < containers.length; ++k) {
+      containers[k] = answer.highLowContainer.getContainerAtIndex(k);
+    }
+    x2.add(5000L, 9000L);
+    x2.removeRunCompression();
+    RoaringBitmap.andInto(x1, x2, answer);
+    assertEquals(RoaringBitmap.and(x1, x2), answer);
+    for (int k = 0; k < containers.length; ++k) {
+      assertSame(containers[k], answer.highLowContainer.getContainerAtIndex(k));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDestinationMustDifferFromOperands() {
+    RoaringBitmap x1 = RoaringBitmap.bitmapOf(1, 2, 3);
+    RoaringBitmap.orInto(x1, RoaringBitmap.bitmapOf(4), x1);
+  }
+}
@@ -1476,6 +1476,19 @@ public class TestRunContainer {
     assertEquals(1149, rc.getCardinality());
   }
 
+  @Test
+  public void iremove21() {
+    Container rc = new RunContainer();
+    rc.iadd(0, 10);
+    rc.add((short) 20);
+    rc.add((short) 30);
+    rc.iadd(40, 50);
+    rc.iremove(5, 21); // end at a run of a single value
+    assertEquals(16, rc.getCardinality());
+    assertFalse(rc.contains((short) 20));
+    assertTrue(rc.contains((short) 30));
+  }
+
   @Test
   public void iremove3() {
     Container rc = new RunContainer();
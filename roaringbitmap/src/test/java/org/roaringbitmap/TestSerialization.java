@@ -1,11 +1,14 @@
 package org.roaringbitmap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.Random;
@@ -441,7 +444,131 @@ public class TestSerialization {
     bitmap_a.serialize(dos);
   }
 
+  @Test
+  public void testByteBufferRoundTrip() throws IOException {
+    RoaringBitmap manyRuns = new RoaringBitmap();
+    for (int k = 0; k < 10; ++k) {
+      manyRuns.add((long) k << 16, ((long) k << 16) + 100);
+    }
+    manyRuns.add(20L << 16, 21L << 16);
+    manyRuns.runOptimize();
+    RoaringBitmap[] bitmaps = {new RoaringBitmap(), bitmap_a, manyRuns,
+        SeededTestData.randomBitmap(10), SeededTestData.randomBitmap(100)};
+    for (RoaringBitmap bitmap : bitmaps) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      bitmap.serialize(new DataOutputStream(bos));
+      byte[] expected = bos.toByteArray();
+      assertEquals(bitmap.serializedSizeInBytes(), expected.length);
+      for (ByteOrder order : new ByteOrder[] {ByteOrder.LITTLE_ENDIAN,
+          ByteOrder.BIG_ENDIAN}) {
+        for (boolean direct : new boolean[] {false, true}) {
+          ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(expected.length + 5)
+              : ByteBuffer.allocate(expected.length + 5);
+          buffer.order(order);
+          buffer.position(3);
+          bitmap.serialize(buffer);
+          assertEquals(3 + expected.length, buffer.position());
+          byte[] written = new byte[expected.length];
+          buffer.position(3);
+          buffer.get(written);
+          assertArrayEquals(expected, written);
+
+          buffer.position(3);
+          RoaringBitmap copy = RoaringBitmap.bitmapOf(1, 2, 3);
+          copy.deserialize(buffer);
+          assertEquals(3 + expected.length, buffer.position());
+          assertEquals(order, buffer.order());
+          assertEquals(bitmap, copy);
+        }
+      }
+    }
+  }
 
+  @Test(expected = IOException.class)
+  public void testByteBufferInvalidCookie() throws IOException {
+    new RoaringBitmap().deserialize(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+  }
 
-}
+  @Test
+  public void testDeserializeRecyclingContainers() throws IOException {
+    RoaringBitmap runs = new RoaringBitmap();
+    for (int k = 0; k < 10; ++k) {
+      runs.add((long) k << 16, ((long) k << 16) + 100);
+    }
+    runs.runOptimize();
+    RoaringBitmap[] bitmaps = {bitmap_a, SeededTestData.randomBitmap(20), runs,
+        SeededTestData.randomBitmap(50), new RoaringBitmap(), SeededTestData.randomBitmap(5)};
+    byte[] buffer = new byte[24];
+    RoaringBitmap target = new RoaringBitmap();
+    for (RoaringBitmap bitmap : bitmaps) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      bitmap.serialize(new DataOutputStream(bos));
+      target.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())),
+          buffer);
+      assertEquals(bitmap, target);
+      assertEquals(bitmap.getCardinality(), target.getCardinality());
+    }
+  }
+
+  @Test
+  public void testDeserializeReusesContainersInPlace() throws IOException {
+    RoaringBitmap bitmap = new RoaringBitmap();
+    bitmap.add(0L, 10000L); // bitmap container
+    bitmap.add(1 << 16); // array container
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bitmap.serialize(new DataOutputStream(bos));
+    RoaringBitmap target = bitmap.clone();
+    Container bitmapContainer = target.highLowContainer.getContainerAtIndex(0);
+    Container arrayContainer = target.highLowContainer.getContainerAtIndex(1);
+
+    RoaringBitmap other = new RoaringBitmap();
+    other.add(5L, 9000L);
+    other.add((1 << 16) + 3);
+    bos.reset();
+    other.serialize(new DataOutputStream(bos));
+    target.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())),
+        new byte[1024]);
+    assertEquals(other, target);
+    assertSame(bitmapContainer, target.highLowContainer.getContainerAtIndex(0));
+    assertSame(arrayContainer, target.highLowContainer.getContainerAtIndex(1));
+  }
 
+  @Test
+  public void testDeserializeManyContainersThroughASmallBuffer() throws IOException {
+    // more containers than run markers or header entries fit in the buffer, runs among them
+    RoaringBitmap bitmap = new RoaringBitmap();
+    for (int k = 0; k < 200; ++k) {
+      if (k % 3 == 0) {
+        bitmap.add((long) k << 16, ((long) k << 16) + 1000 + k);
+      } else if (k % 3 == 1) {
+        bitmap.add((long) k << 16, ((long) k << 16) + 5000);
+        bitmap.remove((k << 16) + 10);
+      } else {
+        bitmap.add((k << 16) + 7);
+      }
+    }
+    bitmap.runOptimize();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bitmap.serialize(new DataOutputStream(bos));
+    RoaringBitmap target = new RoaringBitmap();
+    target.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())),
+        new byte[8]);
+    assertEquals(bitmap, target);
+    Container run = target.highLowContainer.getContainerAtIndex(0);
+    assertTrue(run instanceof RunContainer);
+
+    // shorter runs are read into the same containers
+    RoaringBitmap other = new RoaringBitmap();
+    for (int k = 0; k < 200; k += 3) {
+      other.add((long) k << 16, ((long) k << 16) + 10);
+    }
+    other.runOptimize();
+    bos.reset();
+    other.serialize(new DataOutputStream(bos));
+    target.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())),
+        new byte[8]);
+    assertEquals(other, target);
+    assertSame(run, target.highLowContainer.getContainerAtIndex(0));
+  }
+
+}
@@ -0,0 +1,169 @@
+package org.roaringbitmap.bsi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.LongPredicate;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+public class TestRoaringBitmapSliceIndex {
+
+  private static final int ROWS = 20000;
+
+  private static long[] randomValues(long seed, int bound) {
+    Random random = new Random(seed);
+    long[] values = new long[ROWS];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = random.nextInt(bound);
+    }
+    return values;
+  }
+
+  private static RoaringBitmap foundSet() {
+    RoaringBitmap foundSet = new RoaringBitmap();
+    for (int i = 0; i < ROWS + 100; i += 3) {
+      foundSet.add(i);
+    }
+    return foundSet;
+  }
+
+  private static RoaringBitmap expected(long[] values, RoaringBitmap foundSet,
+      LongPredicate predicate) {
+    RoaringBitmap rows = new RoaringBitmap();
+    for (int i = 0; i < values.length; ++i) {
+      if ((foundSet == null || foundSet.contains(i)) && predicate.test(values[i])) {
+        rows.add(i);
+      }
+    }
+    return rows;
+  }
+
+  @Test
+  public void testSetAndGetValues() {
+    long[] values = randomValues(1, 1 << 20);
+    RoaringBitmapSliceIndex bsi = new RoaringBitmapSliceIndex();
+    for (int i = 0; i < values.length; ++i) {
+      bsi.setValue(i, values[i]);
+    }
+    RoaringBitmapSliceIndex bulk = RoaringBitmapSliceIndex.fromValues(values);
+    Assert.assertEquals(bulk.bitCount(), bsi.bitCount());
+    for (int i = 0; i < values.length; ++i) {
+      Assert.assertEquals(values[i], bsi.getValue(i));
+      Assert.assertEquals(values[i], bulk.getValue(i));
+    }
+    bsi.setValue(7, 3);
+    Assert.assertEquals(3, bsi.getValue(7));
+    bsi.removeValue(7);
+    Assert.assertFalse(bsi.valueExists(7));
+    bsi.setValue(ROWS + 5, Long.MAX_VALUE);
+    Assert.assertEquals(63, bsi.bitCount());
+    Assert.assertEquals(Long.MAX_VALUE, bsi.getValue(ROWS + 5));
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testMissingValue() {
+    RoaringBitmapSliceIndex.fromValues(new long[] {1, 2}).getValue(2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeValue() {
+    new RoaringBitmapSliceIndex().setValue(1, -1);
+  }
+
+  @Test
+  public void testAggregations() {
+    long[] values = randomValues(2, 100000);
+    RoaringBitmapSliceIndex bsi = RoaringBitmapSliceIndex.fromValues(values);
+    RoaringBitmap foundSet = foundSet();
+    long sum = 0;
+    long count = 0;
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    long total = 0;
+    for (int i = 0; i < values.length; ++i) {
+      total += values[i];
+      if (foundSet.contains(i)) {
+        sum += values[i];
+        ++count;
+        min = Math.min(min, values[i]);
+        max = Math.max(max, values[i]);
+      }
+    }
+    Assert.assertEquals(sum, bsi.sum(foundSet));
+    Assert.assertEquals(total, bsi.sum(null));
+    Assert.assertEquals(count, bsi.count(foundSet));
+    Assert.assertEquals(min, bsi.min(foundSet));
+    Assert.assertEquals(max, bsi.max(foundSet));
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testMinOfEmptyFoundSet() {
+    RoaringBitmapSliceIndex.fromValues(new long[] {1, 2}).min(RoaringBitmap.bitmapOf(5));
+  }
+
+  @Test
+  public void testTopK() {
+    long[] values = randomValues(3, 1000);
+    RoaringBitmapSliceIndex bsi = RoaringBitmapSliceIndex.fromValues(values);
+    RoaringBitmap foundSet = foundSet();
+    for (int k : new int[] {0, 1, 10, 100, 1000, ROWS}) {
+      RoaringBitmap top = bsi.topK(k, foundSet);
+      Assert.assertEquals(Math.min(k, bsi.count(foundSet)), top.getLongCardinality());
+      Assert.assertTrue(top.isEmpty() || RoaringBitmap.andNot(top, foundSet).isEmpty());
+      if (!top.isEmpty()) {
+        long threshold = bsi.min(top);
+        // nothing outside the result is strictly above its smallest value
+        RoaringBitmap rest = RoaringBitmap.andNot(foundSet, top);
+        Assert.assertTrue(bsi.compare(Operation.GT, threshold, rest).isEmpty());
+      }
+    }
+  }
+
+  @Test
+  public void testCompare() {
+    long[] values = randomValues(4, 5000);
+    RoaringBitmapSliceIndex bsi = RoaringBitmapSliceIndex.fromValues(values);
+    for (RoaringBitmap foundSet : new RoaringBitmap[] {null, foundSet()}) {
+      for (long v : new long[] {-1, 0, 1, 2048, 2500, 4095, 4096, 4999, 5000, 8192, 1L << 40}) {
+        Assert.assertEquals(expected(values, foundSet, x -> x == v),
+            bsi.compare(Operation.EQ, v, foundSet));
+        Assert.assertEquals(expected(values, foundSet, x -> x != v),
+            bsi.compare(Operation.NEQ, v, foundSet));
+        Assert.assertEquals(expected(values, foundSet, x -> x < v),
+            bsi.compare(Operation.LT, v, foundSet));
+        Assert.assertEquals(expected(values, foundSet, x -> x <= v),
+            bsi.compare(Operation.LE, v, foundSet));
+        Assert.assertEquals(expected(values, foundSet, x -> x > v),
+            bsi.compare(Operation.GT, v, foundSet));
+        Assert.assertEquals(expected(values, foundSet, x -> x >= v),
+            bsi.compare(Operation.GE, v, foundSet));
+        Assert.assertEquals(expected(values, foundSet, x -> x >= v && x <= v + 300),
+            bsi.compare(Operation.RANGE, v, v + 300, foundSet));
+      }
+    }
+  }
+
+  @Test
+  public void testSerialization() throws IOException {
+    RoaringBitmapSliceIndex bsi = RoaringBitmapSliceIndex.fromValues(randomValues(5, 70000));
+    bsi.runOptimize();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bsi.serialize(new DataOutputStream(bos));
+    Assert.assertEquals(bsi.serializedSizeInBytes(), bos.size());
+    RoaringBitmapSliceIndex copy = new RoaringBitmapSliceIndex();
+    copy.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    Assert.assertEquals(bsi.getExistenceBitmap(), copy.getExistenceBitmap());
+    Assert.assertEquals(bsi.bitCount(), copy.bitCount());
+    Assert.assertEquals(bsi.sum(null), copy.sum(null));
+    for (int i = 0; i < ROWS; i += 17) {
+      Assert.assertEquals(bsi.getValue(i), copy.getValue(i));
+    }
+  }
+}
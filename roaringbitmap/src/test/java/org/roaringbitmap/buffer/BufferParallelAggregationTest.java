@@ -4,7 +4,15 @@ import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
-
+import org.roaringbitmap.RoaringBitmap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.stream.IntStream;
 
@@ -15,16 +23,20 @@ public class BufferParallelAggregationTest {
 
   private static ForkJoinPool NO_PARALLELISM_AVAILABLE;
 
+  private static ExecutorService EXECUTOR;
+
   @BeforeClass
   public static void init() {
     POOL = new ForkJoinPool(4);
     NO_PARALLELISM_AVAILABLE = new ForkJoinPool(1);
+    EXECUTOR = Executors.newFixedThreadPool(3);
   }
 
   @AfterClass
   public static void teardown() {
     POOL.shutdownNow();
     NO_PARALLELISM_AVAILABLE.shutdownNow();
+    EXECUTOR.shutdownNow();
   }
 
   @Test
@@ -197,7 +209,102 @@ public class BufferParallelAggregationTest {
             .toMutableRoaringBitmap();
     Assert.assertEquals(BufferFastAggregation.xor(one, two, three), BufferParallelAggregation.xor(one, two, three));
   }
-}
 
+  @Test
+  public void orOnSuppliedPoolAndExecutor() {
+    ImmutableRoaringBitmap[] input = IntStream.range(0, 600)
+            .mapToObj(i -> testCase().withBitmapAt(0).withArrayAt(i % 7).withRunAt(i % 13).build()
+                    .toMutableRoaringBitmap())
+            .toArray(ImmutableRoaringBitmap[]::new);
+    for (int grainSize : new int[] {1, 2, 5, 100}) {
+      Assert.assertEquals(BufferFastAggregation.or(input),
+              BufferParallelAggregation.or(POOL, grainSize, input));
+      Assert.assertEquals(BufferFastAggregation.or(input),
+              BufferParallelAggregation.or(EXECUTOR, grainSize, input));
+    }
+  }
+
+  @Test
+  public void xorOnSuppliedPoolAndExecutor() {
+    ImmutableRoaringBitmap one = testCase().withRunAt(0).withBitmapAt(1).withArrayAt(2).build()
+            .toMutableRoaringBitmap();
+    ImmutableRoaringBitmap two = testCase().withBitmapAt(0).withArrayAt(2).withRunAt(5).build()
+            .toMutableRoaringBitmap();
+    for (int grainSize : new int[] {1, 2, 10}) {
+      Assert.assertEquals(BufferFastAggregation.xor(one, two),
+              BufferParallelAggregation.xor(POOL, grainSize, one, two));
+      Assert.assertEquals(BufferFastAggregation.xor(one, two),
+              BufferParallelAggregation.xor(EXECUTOR, grainSize, one, two));
+    }
+    Assert.assertTrue(BufferParallelAggregation.xor(EXECUTOR, 1, one, one).isEmpty());
+  }
+
+  private static ImmutableRoaringBitmap mapped(RoaringBitmap bitmap) {
+    ByteBuffer buffer = ByteBuffer.allocate(bitmap.serializedSizeInBytes());
+    bitmap.serialize(buffer);
+    buffer.flip();
+    return new ImmutableRoaringBitmap(buffer);
+  }
 
+  @Test
+  public void groupByKeyInUnsignedOrder() {
+    MutableRoaringBitmap one = MutableRoaringBitmap.bitmapOf(-1, 1, 1 << 16);
+    MutableRoaringBitmap two = MutableRoaringBitmap.bitmapOf(-2, 2);
+    MutableRoaringBitmap three = MutableRoaringBitmap.bitmapOf(3 << 16);
+    SortedMap<Short, List<MappeableContainer>> grouped =
+            BufferParallelAggregation.groupByKey(one, two, three);
+    Assert.assertEquals(Arrays.asList((short) 0, (short) 1, (short) 3, (short) -1),
+            new ArrayList<>(grouped.keySet()));
+    Assert.assertEquals(Arrays.asList(one.highLowContainer.getContainerAtIndex(0),
+            two.highLowContainer.getContainerAtIndex(0)), grouped.get((short) 0));
+    Assert.assertEquals(Arrays.asList(one.highLowContainer.getContainerAtIndex(2),
+            two.highLowContainer.getContainerAtIndex(1)), grouped.get((short) -1));
+    Assert.assertEquals(BufferFastAggregation.or(one, two, three),
+            BufferParallelAggregation.or(one, two, three));
+    Assert.assertEquals(BufferFastAggregation.xor(one, two, three),
+            BufferParallelAggregation.xor(one, two, three));
+  }
 
+  @Test
+  public void groupBySharedAndDistinctKeys() {
+    ImmutableRoaringBitmap[] bitmaps = new ImmutableRoaringBitmap[5];
+    for (int i = 0; i < bitmaps.length; ++i) {
+      bitmaps[i] = testCase().withBitmapAt(i).withArrayAt(5).withRunAt(-1 - i).build()
+              .toMutableRoaringBitmap();
+    }
+    SortedMap<Short, List<MappeableContainer>> grouped =
+            BufferParallelAggregation.groupByKey(bitmaps);
+    Assert.assertEquals(5, grouped.get((short) 5).size());
+    Assert.assertEquals(1, grouped.get((short) 0).size());
+    Assert.assertEquals(BufferFastAggregation.or(bitmaps),
+            BufferParallelAggregation.or(POOL, 1, bitmaps));
+    Assert.assertEquals(BufferFastAggregation.xor(bitmaps),
+            BufferParallelAggregation.xor(POOL, 1, bitmaps));
+  }
+
+  @Test
+  public void andAndAndNotOfMappedBitmaps() {
+    ImmutableRoaringBitmap one = mapped(testCase().withRunAt(0).withBitmapAt(1).withArrayAt(2)
+            .withBitmapAt(7).build());
+    ImmutableRoaringBitmap two = mapped(testCase().withBitmapAt(0).withBitmapAt(1).withRunAt(2)
+            .withArrayAt(5).build());
+    ImmutableRoaringBitmap three = mapped(testCase().withArrayAt(0).withBitmapAt(1)
+            .withBitmapAt(7).build());
+    MutableRoaringBitmap intersection = BufferFastAggregation.and(one, two, three);
+    MutableRoaringBitmap difference =
+            ImmutableRoaringBitmap.andNot(ImmutableRoaringBitmap.andNot(one, two), three);
+    Assert.assertEquals(intersection, BufferParallelAggregation.and(one, two, three));
+    Assert.assertEquals(difference, BufferParallelAggregation.andNot(one, two, three));
+    for (int grainSize : new int[] {1, 2, 10}) {
+      Assert.assertEquals(intersection,
+              BufferParallelAggregation.and(POOL, grainSize, one, two, three));
+      Assert.assertEquals(intersection,
+              BufferParallelAggregation.and(EXECUTOR, grainSize, three, two, one));
+      Assert.assertEquals(difference,
+              BufferParallelAggregation.andNot(POOL, grainSize, one, two, three));
+      Assert.assertEquals(difference,
+              BufferParallelAggregation.andNot(EXECUTOR, grainSize, one, three, two));
+    }
+    Assert.assertTrue(BufferParallelAggregation.andNot(EXECUTOR, 1, one, one).isEmpty());
+  }
+}
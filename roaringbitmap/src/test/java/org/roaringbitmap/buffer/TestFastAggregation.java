@@ -9,6 +9,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
+import org.roaringbitmap.SeededTestData;
+
 public class TestFastAggregation {
 
   private static ImmutableRoaringBitmap toMapped(MutableRoaringBitmap r) {
@@ -151,4 +153,28 @@ public class TestFastAggregation {
     Assert.assertEquals(data3, BufferFastAggregation.priorityqueue_xor(data1, data2));
     BufferFastAggregation.priorityqueue_xor(data1);
   }
+
+  @Test
+  public void testAndCardinality() {
+    for (int n = 0; n < 8; ++n) {
+      ImmutableRoaringBitmap[] bitmaps = new ImmutableRoaringBitmap[n];
+      for (int i = 0; i < n; ++i) {
+        bitmaps[i] = toMapped(SeededTestData.randomBitmap(50).toMutableRoaringBitmap());
+      }
+      Assert.assertEquals(BufferFastAggregation.naive_and(bitmaps).getCardinality(),
+          BufferFastAggregation.andCardinality(bitmaps));
+    }
+  }
+
+  @Test
+  public void testOrCardinality() {
+    for (int n = 0; n < 8; ++n) {
+      ImmutableRoaringBitmap[] bitmaps = new ImmutableRoaringBitmap[n];
+      for (int i = 0; i < n; ++i) {
+        bitmaps[i] = toMapped(SeededTestData.randomBitmap(50).toMutableRoaringBitmap());
+      }
+      Assert.assertEquals(BufferFastAggregation.naive_or(bitmaps).getCardinality(),
+          BufferFastAggregation.orCardinality(bitmaps));
+    }
+  }
 }
@@ -0,0 +1,212 @@
+package org.roaringbitmap.buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.PeekableShortIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import static org.roaringbitmap.SeededTestData.randomBitmap;
+
+public class TestImmutableContainerCursor {
+
+  private static ImmutableRoaringBitmap map(RoaringBitmap bitmap) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bitmap.serialize(new DataOutputStream(bos));
+    return new ImmutableRoaringBitmap(ByteBuffer.wrap(bos.toByteArray()));
+  }
+
+  private static List<ImmutableRoaringBitmap> inputs() throws IOException {
+    List<ImmutableRoaringBitmap> inputs = new ArrayList<>();
+    for (int i = 0; i < 10; ++i) {
+      RoaringBitmap bitmap = randomBitmap(i < 5 ? 3 : 40);
+      if (i % 3 == 0) {
+        bitmap.removeRunCompression();
+      } else {
+        bitmap.runOptimize();
+      }
+      inputs.add(map(bitmap));
+    }
+    RoaringBitmap runs = new RoaringBitmap();
+    runs.add(10L, 200000L);
+    runs.runOptimize();
+    inputs.add(map(runs));
+    inputs.add(map(new RoaringBitmap()));
+    return inputs;
+  }
+
+  @Test
+  public void testCursorMatchesContainers() throws IOException {
+    for (ImmutableRoaringBitmap bitmap : inputs()) {
+      ImmutableContainerCursor cursor = new ImmutableContainerCursor(bitmap);
+      MappeableContainerPointer pointer = bitmap.getContainerPointer();
+      for (; cursor.hasContainer(); cursor.advance(), pointer.advance()) {
+        MappeableContainer container = pointer.getContainer();
+        Assert.assertEquals(pointer.key(), cursor.key());
+        Assert.assertEquals(container.getCardinality(), cursor.getCardinality());
+        Assert.assertEquals(pointer.isRunContainer(), cursor.isRunContainer());
+        Assert.assertEquals(pointer.isBitmapContainer(), cursor.isBitmapContainer());
+        Assert.assertEquals(container, cursor.getContainer());
+        long[] expectedWords = new long[1024];
+        long[] words = new long[1024];
+        container.orInto(expectedWords);
+        cursor.orInto(words);
+        Assert.assertArrayEquals(expectedWords, words);
+        Arrays.fill(expectedWords, 0xAAAAAAAAAAAAAAAAL);
+        Arrays.fill(words, 0xAAAAAAAAAAAAAAAAL);
+        container.andInto(expectedWords);
+        cursor.andInto(words);
+        Assert.assertArrayEquals(expectedWords, words);
+        for (int x = 0; x < 1 << 16; x += 37) {
+          Assert.assertEquals(container.contains((short) x), cursor.contains((short) x));
+        }
+        PeekableShortIterator expected = container.getShortIterator();
+        PeekableShortIterator actual = cursor.getShortIterator();
+        while (expected.hasNext()) {
+          Assert.assertTrue(actual.hasNext());
+          Assert.assertEquals(expected.peekNext(), actual.peekNext());
+          Assert.assertEquals(expected.next(), actual.next());
+        }
+        Assert.assertFalse(actual.hasNext());
+      }
+      Assert.assertFalse(pointer.hasContainer());
+    }
+  }
+
+  @Test
+  public void testAdvanceUntilAndMoveTo() throws IOException {
+    ImmutableRoaringBitmap bitmap = map(randomBitmap(60));
+    ImmutableContainerCursor cursor = new ImmutableContainerCursor(bitmap);
+    for (int i = bitmap.highLowContainer.size() - 1; i >= 0; --i) {
+      cursor.moveTo(i);
+      Assert.assertEquals(bitmap.highLowContainer.getKeyAtIndex(i), cursor.key());
+      Assert.assertEquals(bitmap.highLowContainer.getCardinality(i), cursor.getCardinality());
+    }
+    for (int key = 0; key < 1 << 16; key += 97) {
+      cursor.moveTo(0);
+      int expected = bitmap.highLowContainer.advanceUntil((short) key, -1);
+      Assert.assertEquals(expected < bitmap.highLowContainer.size(),
+          cursor.advanceUntil((short) key));
+      Assert.assertEquals(expected, cursor.getIndex());
+    }
+  }
+
+  @Test
+  public void testBinaryOperations() throws IOException {
+    List<ImmutableRoaringBitmap> inputs = inputs();
+    for (ImmutableRoaringBitmap x1 : inputs) {
+      for (ImmutableRoaringBitmap x2 : inputs) {
+        MutableRoaringBitmap m1 = x1.toMutableRoaringBitmap();
+        MutableRoaringBitmap m2 = x2.toMutableRoaringBitmap();
+        Assert.assertEquals(ImmutableRoaringBitmap.andCardinality(m1, m2),
+            ImmutableRoaringBitmap.andCardinality(x1, x2));
+        Assert.assertEquals(ImmutableRoaringBitmap.intersects(m1, m2),
+            ImmutableRoaringBitmap.intersects(x1, x2));
+        assertSameValues(ImmutableRoaringBitmap.and(m1, m2), ImmutableRoaringBitmap.and(x1, x2));
+        assertSameValues(ImmutableRoaringBitmap.or(m1, m2), ImmutableRoaringBitmap.or(x1, x2));
+        assertSameValues(ImmutableRoaringBitmap.andNot(m1, m2),
+            ImmutableRoaringBitmap.andNot(x1, x2));
+        assertSameValues(ImmutableRoaringBitmap.xor(m1, m2), ImmutableRoaringBitmap.xor(x1, x2));
+      }
+    }
+    ImmutableRoaringBitmap[] bitmaps = inputs.subList(5, 11).toArray(new ImmutableRoaringBitmap[0]);
+    MutableRoaringBitmap[] mutable = new MutableRoaringBitmap[bitmaps.length];
+    for (int i = 0; i < bitmaps.length; ++i) {
+      mutable[i] = bitmaps[i].toMutableRoaringBitmap();
+    }
+    Assert.assertEquals(BufferFastAggregation.andCardinality(mutable),
+        BufferFastAggregation.andCardinality(bitmaps));
+    Assert.assertEquals(BufferFastAggregation.orCardinality(mutable),
+        BufferFastAggregation.orCardinality(bitmaps));
+  }
+
+  private static void assertSameValues(MutableRoaringBitmap expected,
+      MutableRoaringBitmap actual) {
+    Assert.assertArrayEquals(expected.toArray(), actual.toArray());
+    Assert.assertEquals(expected.getCardinality(), actual.getCardinality());
+    // the containers are no larger than those of the container kernels
+    Assert.assertTrue(actual.serializedSizeInBytes() <= expected.serializedSizeInBytes());
+  }
+
+  @Test
+  public void testBinaryOperationsCopyTheMappedContainers() throws IOException {
+    RoaringBitmap runs = new RoaringBitmap();
+    runs.add(0L, 100000L);
+    runs.runOptimize();
+    ImmutableRoaringBitmap x1 = map(runs);
+    ImmutableRoaringBitmap x2 = map(RoaringBitmap.bitmapOf(1 << 20, 3 << 20));
+    MutableRoaringBitmap union = ImmutableRoaringBitmap.or(x1, x2);
+    MutableRoaringBitmap difference = ImmutableRoaringBitmap.andNot(x1, x2);
+    union.add(100001);
+    union.remove(5);
+    difference.remove(0L, 50000L);
+
+    Assert.assertEquals(100000, x1.getCardinality());
+    Assert.assertEquals(2, x2.getCardinality());
+    Assert.assertEquals(100002, union.getCardinality());
+    Assert.assertEquals(50000, difference.getCardinality());
+    Assert.assertTrue(union.contains(3 << 20));
+    Assert.assertTrue(ImmutableRoaringBitmap.or(x1, x1).hasRunCompression());
+  }
+
+  @Test
+  public void testForEachOnARunEndingAtTheLargestSignedInteger() throws IOException {
+    RoaringBitmap runs = new RoaringBitmap();
+    runs.add(0x7FFF0000L + 65530, 0x80000000L);
+    runs.runOptimize();
+    ImmutableRoaringBitmap bitmap = map(runs);
+    MutableRoaringBitmap visited = new MutableRoaringBitmap();
+    bitmap.forEach((int x) -> visited.add(x));
+    Assert.assertArrayEquals(runs.toArray(), visited.toArray());
+  }
+
+  @Test
+  public void testIterators() throws IOException {
+    for (ImmutableRoaringBitmap bitmap : inputs()) {
+      MutableRoaringBitmap mutable = bitmap.toMutableRoaringBitmap();
+      Assert.assertArrayEquals(mutable.toArray(), bitmap.toArray());
+      MutableRoaringBitmap visited = new MutableRoaringBitmap();
+      bitmap.forEach((int x) -> visited.add(x));
+      Assert.assertEquals(mutable, visited);
+      BufferIntIteratorFlyweight flyweight = new BufferIntIteratorFlyweight(bitmap);
+      PeekableIntIterator expected = mutable.getIntIterator();
+      PeekableIntIterator actual = bitmap.getIntIterator();
+      for (int step = 0; expected.hasNext(); ++step) {
+        Assert.assertTrue(actual.hasNext());
+        Assert.assertTrue(flyweight.hasNext());
+        if (step % 50 == 49) {
+          int target = expected.peekNext() + 5000;
+          expected.advanceIfNeeded(target);
+          actual.advanceIfNeeded(target);
+          flyweight.advanceIfNeeded(target);
+          Assert.assertEquals(expected.hasNext(), actual.hasNext());
+          Assert.assertEquals(expected.hasNext(), flyweight.hasNext());
+          if (!expected.hasNext()) {
+            break;
+          }
+        }
+        if (step % 77 == 0) {
+          PeekableIntIterator copy = actual.clone();
+          Assert.assertEquals(expected.peekNext(), copy.next());
+        }
+        Assert.assertEquals(expected.peekNext(), actual.peekNext());
+        Assert.assertEquals(expected.peekNext(), flyweight.next());
+        Assert.assertEquals(expected.next(), actual.next());
+      }
+      Assert.assertFalse(actual.hasNext());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMutableBitmapIsRejected() {
+    new ImmutableContainerCursor(MutableRoaringBitmap.bitmapOf(1, 2, 3));
+  }
+}
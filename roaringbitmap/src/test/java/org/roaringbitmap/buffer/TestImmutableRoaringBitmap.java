@@ -1497,13 +1497,23 @@ public class TestImmutableRoaringBitmap {
     int i = bitmap.getCardinality();
     while (b1 != -1 && b2 != -1) {
       assertEquals(b1, b2);
-      b1 = bitmap.previousValue((int)(b1 - 1));
+      // below 0 comes the largest unsigned value, unlike in a BitSet
+      b1 = b1 == 0 ? -1 : bitmap.previousValue((int)(b1 - 1));
       b2 = bitset.previousSetBit(b2 - 1);
       assertEquals("mismatch at " + i, b1, b2);
       --i;
     }
   }
 
+  @Test
+  public void testPreviousValueOutsideContainers() {
+    MutableRoaringBitmap bitmap = MutableRoaringBitmap.bitmapOf(10, 3 << 16, (3 << 16) + 5);
+    assertEquals(10, bitmap.previousValue((2 << 16) + 7));
+    assertEquals((3 << 16) + 5, bitmap.previousValue(5 << 16));
+    assertEquals(-1, bitmap.previousValue(9));
+    assertEquals(-1, new MutableRoaringBitmap().previousValue(9));
+  }
+
   @Test
   public void testRangeCardinalityAtBoundary() {
     // See https://github.com/RoaringBitmap/RoaringBitmap/issues/285
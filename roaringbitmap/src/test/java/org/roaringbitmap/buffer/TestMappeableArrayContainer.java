@@ -433,6 +433,14 @@ public class TestMappeableArrayContainer {
     assertEquals(-1, container.nextValue((short)31));
   }
 
+  @Test
+  public void testNextValueAfterEndWithSpareCapacity() {
+    MappeableContainer container =
+        new MappeableArrayContainer(16).add((short) 10).add((short) 20);
+    assertEquals(-1, container.nextValue((short)21));
+    assertEquals(20, container.previousValue((short)21));
+  }
+
   @Test
   public void testNextValue2() {
     MappeableContainer container = new MappeableArrayContainer().iadd(64, 129);
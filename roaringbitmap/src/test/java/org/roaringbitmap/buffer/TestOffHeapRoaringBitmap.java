@@ -0,0 +1,260 @@
+package org.roaringbitmap.buffer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+import static org.roaringbitmap.SeededTestData.randomBitmap;
+
+public class TestOffHeapRoaringBitmap {
+
+  // every container of the bitmap is backed by direct memory
+  private static void assertOffHeap(OffHeapRoaringBitmap bitmap) {
+    MutableRoaringArray array = bitmap.getMappeableRoaringArray();
+    for (int i = 0; i < array.size; ++i) {
+      MappeableContainer container = array.values[i];
+      if (container instanceof MappeableBitmapContainer) {
+        Assert.assertTrue(((MappeableBitmapContainer) container).bitmap.isDirect());
+      } else if (container instanceof MappeableRunContainer) {
+        Assert.assertTrue(((MappeableRunContainer) container).valueslength.isDirect());
+      } else {
+        Assert.assertTrue(((MappeableArrayContainer) container).content.isDirect());
+      }
+    }
+  }
+
+  @Test
+  public void testRandomOperations() {
+    Random random = new Random(42);
+    try (DirectMemoryArena arena = new DirectMemoryArena()) {
+      OffHeapRoaringBitmap offHeap = new OffHeapRoaringBitmap(arena);
+      MutableRoaringBitmap onHeap = new MutableRoaringBitmap();
+      for (int step = 0; step < 3000; ++step) {
+        int x = random.nextInt(1 << 20);
+        switch (random.nextInt(13)) {
+          case 0:
+            long end = x + random.nextInt(100000);
+            offHeap.add((long) x, end);
+            onHeap.add((long) x, end);
+            break;
+          case 1:
+            long last = x + random.nextInt(100000);
+            offHeap.remove((long) x, last);
+            onHeap.remove((long) x, last);
+            break;
+          case 2:
+            offHeap.flip(x);
+            onHeap.flip(x);
+            break;
+          case 3:
+            Assert.assertEquals(onHeap.checkedRemove(x), offHeap.checkedRemove(x));
+            break;
+          case 4:
+            MutableRoaringBitmap other = randomBitmap(20).toMutableRoaringBitmap();
+            if (random.nextBoolean()) {
+              offHeap.or(other);
+              onHeap.or(other);
+            } else {
+              offHeap.xor(other);
+              onHeap.xor(other);
+            }
+            break;
+          case 5:
+            MutableRoaringBitmap mask = randomBitmap(20).toMutableRoaringBitmap();
+            mask.add(0L, 1L << 19);
+            if (random.nextBoolean()) {
+              offHeap.and(mask);
+              onHeap.and(mask);
+            } else {
+              offHeap.andNot(mask);
+              onHeap.andNot(mask);
+            }
+            break;
+          case 6:
+            offHeap.runOptimize();
+            onHeap.runOptimize();
+            break;
+          case 7:
+            long stop = x + random.nextInt(100000);
+            offHeap.flip((long) x, stop);
+            onHeap.flip((long) x, stop);
+            break;
+          case 8:
+            offHeap.trim();
+            try (OffHeapRoaringBitmap copy = offHeap.clone()) {
+              assertOffHeap(copy);
+              Assert.assertEquals(onHeap, copy);
+            }
+            break;
+          case 9:
+            int[] values = new int[500];
+            for (int i = 0; i < values.length; ++i) {
+              values[i] = x + random.nextInt(1 << 17);
+            }
+            offHeap.add(values);
+            onHeap.add(values);
+            break;
+          default:
+            for (int i = 0; i < 100; ++i) {
+              offHeap.add(x + i * 3);
+              onHeap.add(x + i * 3);
+            }
+        }
+        assertOffHeap(offHeap);
+        Assert.assertEquals(onHeap, offHeap);
+      }
+      Assert.assertTrue(arena.getAllocatedBytes() > 0);
+      offHeap.close();
+      Assert.assertTrue(offHeap.isEmpty());
+      Assert.assertEquals(0, arena.getAllocatedBytes());
+    }
+  }
+
+  @Test
+  public void testMemoryIsReleased() {
+    try (DirectMemoryArena arena = new DirectMemoryArena()) {
+      OffHeapRoaringBitmap bitmap = new OffHeapRoaringBitmap(arena);
+      for (int i = 0; i < 10; ++i) {
+        bitmap.add(i << 16);
+      }
+      long sparse = arena.getAllocatedBytes();
+      bitmap.add(0L, 10L << 16);
+      bitmap.runOptimize();
+      bitmap.remove(0L, 10L << 16);
+      Assert.assertTrue(bitmap.isEmpty());
+      Assert.assertEquals(0, arena.getAllocatedBytes());
+      for (int i = 0; i < 10; ++i) {
+        bitmap.add(i << 16);
+      }
+      Assert.assertEquals(sparse, arena.getAllocatedBytes());
+      OffHeapRoaringBitmap copy = bitmap.clone();
+      Assert.assertEquals(bitmap, copy);
+      Assert.assertEquals(2 * sparse, arena.getAllocatedBytes());
+      copy.close();
+      bitmap.clear();
+      Assert.assertEquals(0, arena.getAllocatedBytes());
+    }
+  }
+
+  @Test
+  public void testContainersAreModifiedInPlace() {
+    try (OffHeapRoaringBitmap bitmap = new OffHeapRoaringBitmap()) {
+      bitmap.add(0L, 10000L);
+      bitmap.removeRunCompression();
+      bitmap.add(1 << 16);
+      bitmap.add((1 << 16) + 2);
+      MutableRoaringArray array = bitmap.getMappeableRoaringArray();
+      LongBuffer words = ((MappeableBitmapContainer) array.values[0]).bitmap;
+      ShortBuffer content = ((MappeableArrayContainer) array.values[1]).content;
+
+      bitmap.add(20000);
+      bitmap.remove(5);
+      bitmap.flip(6);
+      bitmap.add(30000L, 30100L);
+      bitmap.remove(100L, 200L);
+      bitmap.or(MutableRoaringBitmap.bitmapOf(40000, 50000));
+      bitmap.xor(MutableRoaringBitmap.bitmapOf(7, 8));
+      MutableRoaringBitmap mask = new MutableRoaringBitmap();
+      mask.add(0L, 70000L);
+      mask.removeRunCompression();
+      bitmap.and(mask);
+      bitmap.andNot(MutableRoaringBitmap.bitmapOf(9));
+      bitmap.add((1 << 16) + 1);
+      bitmap.remove((1 << 16) + 2);
+      Assert.assertSame(words, ((MappeableBitmapContainer) array.values[0]).bitmap);
+      Assert.assertSame(content, ((MappeableArrayContainer) array.values[1]).content);
+    }
+  }
+
+  @Test
+  public void testSerialization() throws IOException {
+    RoaringBitmap source = randomBitmap(30);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    source.serialize(new DataOutputStream(bos));
+    try (OffHeapRoaringBitmap bitmap = new OffHeapRoaringBitmap()) {
+      bitmap.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+      assertOffHeap(bitmap);
+      Assert.assertEquals(source, bitmap.toRoaringBitmap());
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      bitmap.serialize(new DataOutputStream(out));
+      Assert.assertEquals(bitmap, new ImmutableRoaringBitmap(ByteBuffer.wrap(out.toByteArray())));
+    }
+  }
+
+  @Test
+  public void testArenaRecyclesBuffers() {
+    try (DirectMemoryArena arena = new DirectMemoryArena(1 << 13)) {
+      ByteBuffer first = arena.allocate(100);
+      Assert.assertEquals(128, first.capacity());
+      Assert.assertTrue(first.isDirect());
+      arena.free(first);
+      Assert.assertSame(first, arena.allocate(120));
+      ByteBuffer large = arena.allocate(100000);
+      Assert.assertEquals(100000, large.capacity());
+      Assert.assertEquals(128 + 100000, arena.getAllocatedBytes());
+      arena.free(large);
+      Assert.assertEquals(128, arena.getAllocatedBytes());
+    }
+  }
+
+  @Test
+  public void testArenaFreesItsMemoryOnClose() {
+    BufferPoolMXBean direct = null;
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if ("direct".equals(pool.getName())) {
+        direct = pool;
+      }
+    }
+    Assert.assertNotNull(direct);
+    DirectMemoryArena arena = new DirectMemoryArena();
+    ByteBuffer small = arena.allocate(100);
+    arena.free(arena.allocate(1 << 22));
+    ByteBuffer large = arena.allocate(1 << 21);
+    long used = direct.getMemoryUsed();
+    arena.free(small);
+    arena.free(large);
+    arena.close();
+    Assert.assertEquals(0, arena.getReservedBytes());
+    Assert.assertTrue(used - direct.getMemoryUsed() >= (1 << 20) + (1 << 21));
+  }
+
+  @Test
+  public void testBitmapOutlivingItsArena() {
+    DirectMemoryArena arena = new DirectMemoryArena();
+    OffHeapRoaringBitmap bitmap = new OffHeapRoaringBitmap(arena);
+    bitmap.add(0L, 100000L);
+    bitmap.add(1 << 20);
+    arena.close();
+    Assert.assertEquals(1 << 20, arena.getReservedBytes());
+    Assert.assertEquals(100001, bitmap.getCardinality());
+    Assert.assertTrue(bitmap.contains(1 << 20));
+    try {
+      bitmap.add(1 << 30);
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals(100001, bitmap.getCardinality());
+    }
+    bitmap.close();
+    Assert.assertEquals(0, arena.getAllocatedBytes());
+    Assert.assertEquals(0, arena.getReservedBytes());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosedArena() {
+    DirectMemoryArena arena = new DirectMemoryArena();
+    arena.close();
+    arena.allocate(10);
+  }
+}
@@ -0,0 +1,135 @@
+package org.roaringbitmap.buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.function.LongPredicate;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.InvalidRoaringFormat;
+
+public class TestRangeBitmap {
+
+  private static MutableRoaringBitmap expected(long[] values, LongPredicate predicate) {
+    MutableRoaringBitmap rows = new MutableRoaringBitmap();
+    for (int i = 0; i < values.length; ++i) {
+      if (predicate.test(values[i])) {
+        rows.add(i);
+      }
+    }
+    return rows;
+  }
+
+  private static void checkPredicates(long[] values, RangeBitmap index, long threshold) {
+    Assert.assertEquals(expected(values, v -> Long.compareUnsigned(v, threshold) < 0),
+        index.lt(threshold));
+    Assert.assertEquals(expected(values, v -> Long.compareUnsigned(v, threshold) <= 0),
+        index.lte(threshold));
+    Assert.assertEquals(expected(values, v -> Long.compareUnsigned(v, threshold) > 0),
+        index.gt(threshold));
+    Assert.assertEquals(expected(values, v -> Long.compareUnsigned(v, threshold) >= 0),
+        index.gte(threshold));
+    Assert.assertEquals(expected(values, v -> v == threshold), index.eq(threshold));
+    Assert.assertEquals(expected(values, v -> v != threshold), index.neq(threshold));
+    long max = threshold + 100;
+    Assert.assertEquals(expected(values,
+        v -> Long.compareUnsigned(v, threshold) >= 0 && Long.compareUnsigned(v, max) <= 0),
+        index.between(threshold, max));
+  }
+
+  private static RangeBitmap build(long[] values, long maxValue) {
+    RangeBitmap.Appender appender = RangeBitmap.appender(maxValue);
+    for (long value : values) {
+      appender.add(value);
+    }
+    return appender.build();
+  }
+
+  private static ByteBuffer serialize(RangeBitmap index, boolean direct) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    index.serialize(new DataOutputStream(bos));
+    Assert.assertEquals(index.serializedSizeInBytes(), bos.size());
+    byte[] bytes = bos.toByteArray();
+    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+    buffer.put(bytes).flip();
+    return buffer;
+  }
+
+  @Test
+  public void testRandomValues() {
+    Random random = new Random(1234);
+    long[] values = new long[10000];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = random.nextInt(1000);
+    }
+    RangeBitmap index = build(values, 999);
+    Assert.assertEquals(values.length, index.getRowCount());
+    for (long threshold : new long[] {0, 1, 2, 499, 500, 998, 999, 1000, 1023, 1024, -1}) {
+      checkPredicates(values, index, threshold);
+    }
+  }
+
+  @Test
+  public void testRunsOfValues() {
+    long[] values = new long[200000];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = i / 1000;
+    }
+    RangeBitmap index = build(values, 199);
+    for (long threshold : new long[] {0, 63, 64, 100, 127, 128, 199}) {
+      checkPredicates(values, index, threshold);
+    }
+  }
+
+  @Test
+  public void testUnsignedValues() {
+    long[] values = {-1L, 0L, Long.MAX_VALUE, Long.MIN_VALUE, 42L, -2L};
+    RangeBitmap index = build(values, -1L);
+    for (long value : values) {
+      checkPredicates(values, index, value);
+    }
+  }
+
+  @Test
+  public void testZeroMaxValue() {
+    long[] values = new long[10];
+    RangeBitmap index = build(values, 0);
+    checkPredicates(values, index, 0);
+    checkPredicates(values, index, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testValueAboveMax() {
+    RangeBitmap.appender(10).add(11);
+  }
+
+  @Test
+  public void testMapped() throws IOException {
+    Random random = new Random(42);
+    long[] values = new long[50000];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = random.nextInt(1 << 20);
+    }
+    RangeBitmap index = build(values, (1 << 20) - 1);
+    for (boolean direct : new boolean[] {false, true}) {
+      ByteBuffer buffer = serialize(index, direct);
+      RangeBitmap mapped = RangeBitmap.map(buffer);
+      Assert.assertEquals(0, buffer.position());
+      Assert.assertEquals(index.getRowCount(), mapped.getRowCount());
+      Assert.assertEquals(index.getMaxValue(), mapped.getMaxValue());
+      for (long threshold : new long[] {0, 12345, 1 << 19, (1 << 20) - 1}) {
+        checkPredicates(values, mapped, threshold);
+      }
+    }
+  }
+
+  @Test(expected = InvalidRoaringFormat.class)
+  public void testInvalidCookie() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    MutableRoaringBitmap.bitmapOf(1, 2, 3).serialize(new DataOutputStream(bos));
+    RangeBitmap.map(ByteBuffer.wrap(bos.toByteArray()));
+  }
+}
@@ -0,0 +1,104 @@
+package org.roaringbitmap.buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.InvalidRoaringFormat;
+import org.roaringbitmap.RoaringBitmap;
+
+import static org.roaringbitmap.SeededTestData.randomBitmap;
+
+public class TestStreamingAggregation {
+
+  private static byte[] serialize(RoaringBitmap bitmap) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bitmap.serialize(new DataOutputStream(bos));
+    return bos.toByteArray();
+  }
+
+  private static RoaringBitmap[] bitmaps(int count, boolean overlapping) {
+    RoaringBitmap shared = overlapping ? randomBitmap(40) : new RoaringBitmap();
+    RoaringBitmap[] bitmaps = new RoaringBitmap[count];
+    for (int i = 0; i < count; ++i) {
+      bitmaps[i] = RoaringBitmap.or(shared, randomBitmap(40));
+      // mix the serialization formats: with and without run containers
+      if (i % 2 == 0) {
+        bitmaps[i].runOptimize();
+      } else {
+        bitmaps[i].removeRunCompression();
+      }
+    }
+    return bitmaps;
+  }
+
+  private static byte[][] serialize(RoaringBitmap... bitmaps) throws IOException {
+    byte[][] serialized = new byte[bitmaps.length][];
+    for (int i = 0; i < bitmaps.length; ++i) {
+      serialized[i] = serialize(bitmaps[i]);
+    }
+    return serialized;
+  }
+
+  @Test
+  public void testAggregations() throws IOException {
+    for (int count = 1; count <= 8; ++count) {
+      for (boolean overlapping : new boolean[] {false, true}) {
+        RoaringBitmap[] bitmaps = bitmaps(count, overlapping);
+        byte[][] serialized = serialize(bitmaps);
+        Assert.assertEquals(FastAggregation.naive_or(bitmaps),
+            StreamingAggregation.or(serialized));
+        Assert.assertEquals(FastAggregation.naive_and(bitmaps),
+            StreamingAggregation.and(serialized));
+        Assert.assertEquals(FastAggregation.naive_xor(bitmaps),
+            StreamingAggregation.xor(serialized));
+      }
+    }
+  }
+
+  @Test
+  public void testSmallRunBitmaps() throws IOException {
+    // fewer than four containers with runs are serialized without offsets
+    RoaringBitmap first = new RoaringBitmap();
+    first.add(0L, 100000L);
+    first.add(200000);
+    first.runOptimize();
+    RoaringBitmap second = RoaringBitmap.bitmapOf(5, 70000, 99999, 100000, 200000);
+    byte[][] serialized = serialize(first, second);
+    Assert.assertEquals(RoaringBitmap.or(first, second), StreamingAggregation.or(serialized));
+    Assert.assertEquals(RoaringBitmap.and(first, second), StreamingAggregation.and(serialized));
+    Assert.assertEquals(RoaringBitmap.xor(first, second), StreamingAggregation.xor(serialized));
+  }
+
+  @Test
+  public void testEmptyInputs() throws IOException {
+    byte[] empty = serialize(new RoaringBitmap());
+    byte[] full = serialize(RoaringBitmap.bitmapOf(1, 2, 3));
+    Assert.assertTrue(StreamingAggregation.or(new byte[0][]).isEmpty());
+    Assert.assertTrue(StreamingAggregation.and(new ByteBuffer[0]).isEmpty());
+    Assert.assertTrue(StreamingAggregation.and(full, empty).isEmpty());
+    Assert.assertEquals(RoaringBitmap.bitmapOf(1, 2, 3), StreamingAggregation.or(empty, full));
+    Assert.assertTrue(StreamingAggregation.xor(full, full).isEmpty());
+  }
+
+  @Test
+  public void testBufferPositionIsPreserved() throws IOException {
+    RoaringBitmap bitmap = randomBitmap(10);
+    byte[] serialized = serialize(bitmap);
+    ByteBuffer buffer = ByteBuffer.allocate(serialized.length + 3);
+    buffer.position(3);
+    buffer.put(serialized);
+    buffer.position(3);
+    Assert.assertEquals(bitmap, StreamingAggregation.or(buffer));
+    Assert.assertEquals(3, buffer.position());
+  }
+
+  @Test(expected = InvalidRoaringFormat.class)
+  public void testInvalidCookie() {
+    StreamingAggregation.or(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+  }
+}
@@ -0,0 +1,240 @@
+package org.roaringbitmap.longlong;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.InvalidRoaringFormat;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmap;
+import org.roaringbitmap.buffer.MutableRoaringBitmapSupplier;
+
+public class TestImmutableRoaring64NavigableMap {
+
+  private static ByteBuffer toMappable(Roaring64NavigableMap bitmap) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bitmap.serializeMappable(new DataOutputStream(bos));
+    Assert.assertEquals(bos.size(), bitmap.mappableSerializedSizeInBytes());
+    return ByteBuffer.wrap(bos.toByteArray());
+  }
+
+  private static void assertSameContent(Roaring64NavigableMap expected,
+      ImmutableRoaring64NavigableMap actual) {
+    Assert.assertEquals(expected.getLongCardinality(), actual.getLongCardinality());
+    Assert.assertArrayEquals(expected.toArray(), actual.toArray());
+
+    LongIterator expectedReverse = expected.getReverseLongIterator();
+    LongIterator actualReverse = actual.getReverseLongIterator();
+    while (expectedReverse.hasNext()) {
+      Assert.assertEquals(expectedReverse.next(), actualReverse.next());
+    }
+    Assert.assertFalse(actualReverse.hasNext());
+
+    for (long i = 0; i < expected.getLongCardinality(); i += 7) {
+      long value = expected.select(i);
+      Assert.assertEquals(value, actual.select(i));
+      Assert.assertTrue(actual.contains(value));
+      Assert.assertFalse(actual.contains(value + 1) != expected.contains(value + 1));
+      Assert.assertEquals(expected.rankLong(value), actual.rankLong(value));
+      Assert.assertEquals(expected.rankLong(value + 12345), actual.rankLong(value + 12345));
+    }
+  }
+
+  private static Roaring64NavigableMap randomBitmap(boolean signed, long seed) {
+    Random random = new Random(seed);
+    Roaring64NavigableMap bitmap = new Roaring64NavigableMap(signed);
+    for (int i = 0; i < 5000; i++) {
+      long high = random.nextInt(20) - 10;
+      bitmap.addLong((high << 32) | random.nextInt(1 << 20));
+    }
+    for (long i = Long.MAX_VALUE - 100; i < Long.MAX_VALUE; i++) {
+      bitmap.addLong(i);
+    }
+    bitmap.addLong(Long.MIN_VALUE);
+    bitmap.runOptimize();
+    return bitmap;
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    ImmutableRoaring64NavigableMap bitmap =
+        new ImmutableRoaring64NavigableMap(toMappable(new Roaring64NavigableMap()));
+    Assert.assertTrue(bitmap.isEmpty());
+    Assert.assertEquals(0, bitmap.getBucketCount());
+    Assert.assertFalse(bitmap.contains(0L));
+    Assert.assertEquals(0L, bitmap.rankLong(-1L));
+    Assert.assertFalse(bitmap.getLongIterator().hasNext());
+  }
+
+  @Test
+  public void testUnsigned() throws IOException {
+    Roaring64NavigableMap expected = randomBitmap(false, 1);
+    assertSameContent(expected, new ImmutableRoaring64NavigableMap(toMappable(expected)));
+  }
+
+  @Test
+  public void testSigned() throws IOException {
+    Roaring64NavigableMap expected = randomBitmap(true, 2);
+    ImmutableRoaring64NavigableMap actual = new ImmutableRoaring64NavigableMap(toMappable(expected));
+    Assert.assertTrue(actual.isSignedLongs());
+    assertSameContent(expected, actual);
+  }
+
+  @Test
+  public void testBufferedBuckets() throws IOException {
+    Roaring64NavigableMap expected = new Roaring64NavigableMap(new MutableRoaringBitmapSupplier());
+    expected.add(1L, 3L, (5L << 32) + 8L, -1L);
+    ImmutableRoaring64NavigableMap actual = new ImmutableRoaring64NavigableMap(toMappable(expected));
+    assertSameContent(expected, actual);
+
+    ImmutableRoaringBitmap bucket = actual.getBucket(5);
+    Assert.assertEquals(MutableRoaringBitmap.bitmapOf(8), bucket);
+    Assert.assertNull(actual.getBucket(4));
+  }
+
+  @Test
+  public void testEmptyBucketsAreSkipped() throws IOException {
+    Roaring64NavigableMap expected = Roaring64NavigableMap.bitmapOf(1L, (3L << 32) + 1, 5L << 32);
+    expected.removeLong((3L << 32) + 1);
+    ImmutableRoaring64NavigableMap actual = new ImmutableRoaring64NavigableMap(toMappable(expected));
+    Assert.assertEquals(2, actual.getBucketCount());
+    assertSameContent(expected, actual);
+  }
+
+  @Test
+  public void testAtPosition() throws IOException {
+    Roaring64NavigableMap expected = randomBitmap(false, 3);
+    ByteBuffer mappable = toMappable(expected);
+    ByteBuffer shifted = ByteBuffer.allocate(mappable.limit() + 20);
+    shifted.position(13);
+    shifted.put(mappable);
+    shifted.position(13);
+    ImmutableRoaring64NavigableMap actual = new ImmutableRoaring64NavigableMap(shifted);
+    Assert.assertEquals(13, shifted.position());
+    assertSameContent(expected, actual);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    actual.serialize(new DataOutputStream(bos));
+    Assert.assertEquals(actual.serializedSizeInBytes(), bos.size());
+    Assert.assertArrayEquals(mappable.array(), bos.toByteArray());
+  }
+
+  @Test
+  public void testMemoryMapped() throws IOException {
+    Roaring64NavigableMap expected = randomBitmap(false, 4);
+    File tmpfile = File.createTempFile("roaring64", "bin");
+    tmpfile.deleteOnExit();
+    try (FileOutputStream fos = new FileOutputStream(tmpfile)) {
+      DataOutputStream dos = new DataOutputStream(fos);
+      expected.serializeMappable(dos);
+      dos.flush();
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(tmpfile, "r")) {
+      MappedByteBuffer mbb =
+          raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, tmpfile.length());
+      ImmutableRoaring64NavigableMap actual = new ImmutableRoaring64NavigableMap(mbb);
+      assertSameContent(expected, actual);
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      actual.serialize(new DataOutputStream(bos));
+      Assert.assertEquals(tmpfile.length(), bos.size());
+    }
+  }
+
+  @Test
+  public void testDeserializeMappableToHeap() throws IOException {
+    for (boolean signed : new boolean[] {true, false}) {
+      Roaring64NavigableMap expected = randomBitmap(signed, 5);
+      ByteBuffer mappable = toMappable(expected);
+
+      Roaring64NavigableMap fromStream = Roaring64NavigableMap.bitmapOf(42L);
+      fromStream.deserializeMappable(
+          new DataInputStream(new ByteArrayInputStream(mappable.array())));
+      Assert.assertEquals(expected, fromStream);
+      Assert.assertArrayEquals(expected.toArray(), fromStream.toArray());
+
+      Roaring64NavigableMap fromBuffer = new Roaring64NavigableMap();
+      fromBuffer.deserializeMappable(mappable);
+      Assert.assertEquals(expected, fromBuffer);
+      Assert.assertArrayEquals(expected.toArray(), fromBuffer.toArray());
+      Assert.assertEquals(0, mappable.position());
+
+      Roaring64NavigableMap copy = new ImmutableRoaring64NavigableMap(mappable)
+          .toRoaring64NavigableMap();
+      Assert.assertArrayEquals(expected.toArray(), copy.toArray());
+      copy.addLong(-7L);
+      Assert.assertTrue(copy.contains(-7L));
+    }
+  }
+
+  @Test
+  public void testBucketDirectory() throws IOException {
+    Roaring64NavigableMap expected = randomBitmap(false, 6);
+    ByteBuffer mappable = toMappable(expected);
+    ImmutableRoaring64NavigableMap actual = new ImmutableRoaring64NavigableMap(mappable);
+    long total = 0;
+    for (int i = 0; i < actual.getBucketCount(); i++) {
+      ImmutableRoaringBitmap bucket = actual.getBucketAtIndex(i);
+      Assert.assertEquals(bucket.getLongCardinality(), actual.getCardinalityAtIndex(i));
+      Assert.assertEquals(bucket.serializedSizeInBytes(), actual.getBucketSizeInBytes(i));
+      total += actual.getBucketSizeInBytes(i);
+    }
+    Assert.assertEquals(expected.getLongCardinality(), actual.getLongCardinality());
+    Assert.assertEquals(mappable.limit(),
+        total + ImmutableRoaring64NavigableMap.headerSizeInBytes(actual.getBucketCount()));
+  }
+
+  @Test(expected = InvalidRoaringFormat.class)
+  public void testDeserializeMappableInvalidCookie() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Roaring64NavigableMap.bitmapOf(1L).serialize(new DataOutputStream(bos));
+    new Roaring64NavigableMap().deserializeMappable(
+        new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+  }
+
+  @Test(expected = InvalidRoaringFormat.class)
+  public void testInvalidCookie() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    Roaring64NavigableMap.bitmapOf(1L).serialize(new DataOutputStream(bos));
+    new ImmutableRoaring64NavigableMap(ByteBuffer.wrap(bos.toByteArray()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSelectOutOfBounds() throws IOException {
+    new ImmutableRoaring64NavigableMap(toMappable(Roaring64NavigableMap.bitmapOf(1L, 2L)))
+        .select(2);
+  }
+
+  @Test
+  public void testIteratorClone() throws IOException {
+    Roaring64NavigableMap expected = randomBitmap(false, 3);
+    ImmutableRoaring64NavigableMap bitmap =
+        new ImmutableRoaring64NavigableMap(toMappable(expected));
+    long[] values = expected.toArray();
+    for (boolean reversed : new boolean[] {false, true}) {
+      LongIterator it = reversed ? bitmap.getReverseLongIterator() : bitmap.getLongIterator();
+      for (int i = 0; i < values.length; i++) {
+        if (i % 397 == 0) {
+          LongIterator clone = it.clone();
+          for (int j = i; j < values.length; j++) {
+            Assert.assertEquals(values[reversed ? values.length - 1 - j : j], clone.next());
+          }
+          Assert.assertFalse(clone.hasNext());
+        }
+        Assert.assertEquals(values[reversed ? values.length - 1 - i : i], it.next());
+      }
+      Assert.assertFalse(it.clone().hasNext());
+    }
+  }
+}
@@ -0,0 +1,322 @@
+package org.roaringbitmap.longlong;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+public class TestRoaring64Bitmap {
+
+  private static TreeSet<Long> unsignedTreeSet() {
+    return new TreeSet<>(Long::compareUnsigned);
+  }
+
+  private static void assertSameContent(TreeSet<Long> expected, Roaring64Bitmap bitmap) {
+    Assert.assertEquals(expected.size(), bitmap.getLongCardinality());
+    Iterator<Long> expectedIt = expected.iterator();
+    LongIterator it = bitmap.getLongIterator();
+    while (expectedIt.hasNext()) {
+      Assert.assertTrue(it.hasNext());
+      Assert.assertEquals(expectedIt.next().longValue(), it.next());
+    }
+    Assert.assertFalse(it.hasNext());
+
+    Iterator<Long> expectedReverseIt = expected.descendingIterator();
+    LongIterator reverseIt = bitmap.getReverseLongIterator();
+    while (expectedReverseIt.hasNext()) {
+      Assert.assertTrue(reverseIt.hasNext());
+      Assert.assertEquals(expectedReverseIt.next().longValue(), reverseIt.next());
+    }
+    Assert.assertFalse(reverseIt.hasNext());
+  }
+
+  @Test
+  public void testEmpty() {
+    Roaring64Bitmap bitmap = new Roaring64Bitmap();
+    Assert.assertTrue(bitmap.isEmpty());
+    Assert.assertEquals(0, bitmap.getLongCardinality());
+    Assert.assertFalse(bitmap.contains(0));
+    Assert.assertFalse(bitmap.getLongIterator().hasNext());
+    Assert.assertFalse(bitmap.getReverseLongIterator().hasNext());
+    Assert.assertEquals(0, bitmap.rankLong(Long.MAX_VALUE));
+    Assert.assertEquals("{}", bitmap.toString());
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testFirstOnEmpty() {
+    new Roaring64Bitmap().first();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSelectOutOfBounds() {
+    Roaring64Bitmap.bitmapOf(1L, 2L).select(2);
+  }
+
+  @Test
+  public void testAddRemoveExtremes() {
+    Roaring64Bitmap bitmap = Roaring64Bitmap.bitmapOf(0L, -1L, Long.MAX_VALUE, Long.MIN_VALUE);
+    Assert.assertEquals(4, bitmap.getLongCardinality());
+    Assert.assertEquals(0L, bitmap.first());
+    Assert.assertEquals(-1L, bitmap.last());
+    Assert.assertEquals(Long.MAX_VALUE, bitmap.select(1));
+    Assert.assertEquals(Long.MIN_VALUE, bitmap.select(2));
+    Assert.assertEquals(3, bitmap.rankLong(Long.MIN_VALUE));
+    Assert.assertArrayEquals(new long[] {0L, Long.MAX_VALUE, Long.MIN_VALUE, -1L},
+        bitmap.toArray());
+    Assert.assertEquals("{0,9223372036854775807,9223372036854775808,18446744073709551615}",
+        bitmap.toString());
+
+    bitmap.removeLong(-1L);
+    bitmap.removeLong(0L);
+    bitmap.removeLong(12345L);
+    Assert.assertArrayEquals(new long[] {Long.MAX_VALUE, Long.MIN_VALUE}, bitmap.toArray());
+
+    bitmap.flip(Long.MAX_VALUE);
+    bitmap.flip(7L);
+    Assert.assertArrayEquals(new long[] {7L, Long.MIN_VALUE}, bitmap.toArray());
+  }
+
+  @Test
+  public void testRandomAgainstTreeSet() {
+    Random random = new Random(1234);
+    Roaring64Bitmap bitmap = new Roaring64Bitmap();
+    TreeSet<Long> expected = unsignedTreeSet();
+    for (int i = 0; i < 20000; i++) {
+      // mix sparse values with clustered ones to exercise every node type
+      long value = random.nextBoolean() ? random.nextLong()
+          : (random.nextInt(1 << 12) << 16) + random.nextInt(8);
+      bitmap.addLong(value);
+      expected.add(value);
+    }
+    assertSameContent(expected, bitmap);
+
+    int rank = 0;
+    for (Long value : expected) {
+      Assert.assertTrue(bitmap.contains(value));
+      Assert.assertEquals(rank + 1, bitmap.rankLong(value));
+      if (rank % 97 == 0) {
+        Assert.assertEquals(value.longValue(), bitmap.select(rank));
+      }
+      rank++;
+    }
+
+    List<Long> values = new ArrayList<>(expected);
+    for (int i = 0; i < values.size(); i += 2) {
+      bitmap.removeLong(values.get(i));
+      expected.remove(values.get(i));
+    }
+    assertSameContent(expected, bitmap);
+
+    for (Long value : values) {
+      bitmap.removeLong(value);
+    }
+    Assert.assertTrue(bitmap.isEmpty());
+  }
+
+  @Test
+  public void testNodeGrowthAndShrink() {
+    Roaring64Bitmap bitmap = new Roaring64Bitmap();
+    TreeSet<Long> expected = unsignedTreeSet();
+    // 256 siblings below a common prefix, in a shuffled order
+    for (int i = 0; i < 256; i++) {
+      long value = ((long) ((i * 37) & 0xFF) << 40) | ((i * 7L) << 16) | i;
+      bitmap.addLong(value);
+      expected.add(value);
+    }
+    assertSameContent(expected, bitmap);
+    for (int i = 0; i < 256; i++) {
+      long value = ((long) ((i * 37) & 0xFF) << 40) | ((i * 7L) << 16) | i;
+      bitmap.removeLong(value);
+      expected.remove(value);
+      if (i % 16 == 0) {
+        assertSameContent(expected, bitmap);
+      }
+    }
+    Assert.assertTrue(bitmap.isEmpty());
+  }
+
+  @Test
+  public void testAddRange() {
+    Roaring64Bitmap bitmap = new Roaring64Bitmap();
+    long start = (5L << 32) - 10;
+    long end = (5L << 32) + 3 * 65536 + 10;
+    bitmap.add(start, end);
+    Assert.assertEquals(end - start, bitmap.getLongCardinality());
+    Assert.assertEquals(start, bitmap.first());
+    Assert.assertEquals(end - 1, bitmap.last());
+    Assert.assertFalse(bitmap.contains(end));
+    Assert.assertFalse(bitmap.contains(start - 1));
+
+    Roaring64Bitmap top = new Roaring64Bitmap();
+    top.add(-5L, -1L);
+    Assert.assertArrayEquals(new long[] {-5L, -4L, -3L, -2L}, top.toArray());
+
+    Roaring64Bitmap empty = new Roaring64Bitmap();
+    empty.add(10L, 10L);
+    Assert.assertTrue(empty.isEmpty());
+  }
+
+  @Test
+  public void testLogicalOperations() {
+    Random random = new Random(42);
+    Roaring64Bitmap b1 = new Roaring64Bitmap();
+    Roaring64Bitmap b2 = new Roaring64Bitmap();
+    TreeSet<Long> s1 = unsignedTreeSet();
+    TreeSet<Long> s2 = unsignedTreeSet();
+    for (int i = 0; i < 5000; i++) {
+      long v1 = (random.nextInt(64) << 20) + random.nextInt(1 << 18);
+      long v2 = (random.nextInt(64) << 20) + random.nextInt(1 << 18);
+      b1.addLong(v1);
+      s1.add(v1);
+      b2.addLong(v2);
+      s2.add(v2);
+    }
+
+    Roaring64Bitmap or = Roaring64Bitmap.bitmapOf(b1.toArray());
+    or.or(b2);
+    TreeSet<Long> expectedOr = unsignedTreeSet();
+    expectedOr.addAll(s1);
+    expectedOr.addAll(s2);
+    assertSameContent(expectedOr, or);
+
+    Roaring64Bitmap and = Roaring64Bitmap.bitmapOf(b1.toArray());
+    and.and(b2);
+    TreeSet<Long> expectedAnd = unsignedTreeSet();
+    expectedAnd.addAll(s1);
+    expectedAnd.retainAll(s2);
+    assertSameContent(expectedAnd, and);
+
+    Roaring64Bitmap andNot = Roaring64Bitmap.bitmapOf(b1.toArray());
+    andNot.andNot(b2);
+    TreeSet<Long> expectedAndNot = unsignedTreeSet();
+    expectedAndNot.addAll(s1);
+    expectedAndNot.removeAll(s2);
+    assertSameContent(expectedAndNot, andNot);
+
+    Roaring64Bitmap xor = Roaring64Bitmap.bitmapOf(b1.toArray());
+    xor.xor(b2);
+    TreeSet<Long> expectedXor = unsignedTreeSet();
+    expectedXor.addAll(expectedOr);
+    expectedXor.removeAll(expectedAnd);
+    assertSameContent(expectedXor, xor);
+
+    Roaring64Bitmap self = Roaring64Bitmap.bitmapOf(b1.toArray());
+    self.xor(b1);
+    Assert.assertTrue(self.isEmpty());
+  }
+
+  @Test
+  public void testSerializationRoundTrip() throws IOException, ClassNotFoundException {
+    Roaring64Bitmap bitmap = new Roaring64Bitmap();
+    bitmap.add(0L, 100000L);
+    bitmap.addLong(Long.MAX_VALUE);
+    bitmap.addLong(-1L);
+    bitmap.addLong(1L << 40);
+    bitmap.runOptimize();
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bitmap.serialize(new DataOutputStream(bos));
+    Assert.assertEquals(bos.size(), bitmap.serializedSizeInBytes());
+
+    Roaring64Bitmap copy = new Roaring64Bitmap();
+    copy.deserialize(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    Assert.assertEquals(bitmap, copy);
+    Assert.assertEquals(bitmap.hashCode(), copy.hashCode());
+
+    ByteArrayOutputStream javaBos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(javaBos)) {
+      oos.writeObject(bitmap);
+    }
+    try (ObjectInputStream ois =
+        new ObjectInputStream(new ByteArrayInputStream(javaBos.toByteArray()))) {
+      Assert.assertEquals(bitmap, ois.readObject());
+    }
+  }
+
+  @Test
+  public void testSerializationIsPortableFormat() throws IOException {
+    Roaring64Bitmap bitmap = Roaring64Bitmap.bitmapOf(3L, (7L << 32) | 5L, (7L << 32) | 70000L);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    bitmap.serialize(new DataOutputStream(bos));
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    Assert.assertEquals(2L, Long.reverseBytes(in.readLong()));
+    Assert.assertEquals(0, Integer.reverseBytes(in.readInt()));
+    RoaringBitmap first = new RoaringBitmap();
+    first.deserialize(in);
+    Assert.assertEquals(RoaringBitmap.bitmapOf(3), first);
+    Assert.assertEquals(7, Integer.reverseBytes(in.readInt()));
+    RoaringBitmap second = new RoaringBitmap();
+    second.deserialize(in);
+    Assert.assertEquals(RoaringBitmap.bitmapOf(5, 70000), second);
+  }
+
+  @Test
+  public void testLimit() {
+    Roaring64Bitmap bitmap = new Roaring64Bitmap();
+    bitmap.add(0L, 200000L);
+    Roaring64Bitmap limited = (Roaring64Bitmap) bitmap.limit(70000);
+    Assert.assertEquals(70000, limited.getLongCardinality());
+    Assert.assertEquals(69999L, limited.last());
+  }
+
+  @Test
+  public void testSizeInBytesIsSmallerThanNavigableMapOnSparseData() {
+    Random random = new Random(7);
+    Roaring64Bitmap bitmap = new Roaring64Bitmap();
+    Roaring64NavigableMap navigable = new Roaring64NavigableMap();
+    for (int i = 0; i < 10000; i++) {
+      long value = random.nextLong();
+      bitmap.addLong(value);
+      navigable.addLong(value);
+    }
+    Assert.assertEquals(navigable.getLongCardinality(), bitmap.getLongCardinality());
+    Assert.assertTrue(bitmap.getLongSizeInBytes() < navigable.getLongSizeInBytes());
+  }
+
+  @Test
+  public void testIteratorClone() {
+    Random random = new Random(11);
+    Roaring64Bitmap bitmap = new Roaring64Bitmap();
+    for (int i = 0; i < 1000; i++) {
+      bitmap.addLong(random.nextLong());
+    }
+    bitmap.add(0L, 10000L);
+    TreeSet<Long> expected = unsignedTreeSet();
+    bitmap.forEach(expected::add);
+    long[] values = expected.stream().mapToLong(Long::longValue).toArray();
+    for (boolean reversed : new boolean[] {false, true}) {
+      LongIterator it = reversed ? bitmap.getReverseLongIterator() : bitmap.getLongIterator();
+      for (int i = 0; i < values.length; i++) {
+        if (i % 397 == 0) {
+          assertRemaining(values, i, reversed, it.clone());
+        }
+        Assert.assertEquals(values[reversed ? values.length - 1 - i : i], it.next());
+      }
+      Assert.assertFalse(it.clone().hasNext());
+    }
+  }
+
+  private static void assertRemaining(long[] values, int from, boolean reversed,
+      LongIterator it) {
+    for (int i = from; i < values.length; i++) {
+      Assert.assertTrue(it.hasNext());
+      Assert.assertEquals(values[reversed ? values.length - 1 - i : i], it.next());
+    }
+    Assert.assertFalse(it.hasNext());
+  }
+}
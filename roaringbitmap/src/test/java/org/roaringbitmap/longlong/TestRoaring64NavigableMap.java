@@ -11,8 +11,10 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.NavigableMap;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -47,14 +49,15 @@ public class TestRoaring64NavigableMap {
   }
 
   protected void checkCardinalities(Roaring64NavigableMap bitmap) {
-    NavigableMap<Integer, BitmapDataProvider> highToBitmap = bitmap.getHighToBitmap();
-    int lowestHighNotValid = bitmap.getLowestInvalidHigh();
+    BucketRanks ranks = bitmap.getRanks();
+    if (ranks == null) {
+      // Nothing is cached
+      return;
+    }
 
-    NavigableMap<Integer, BitmapDataProvider> expectedToBeCorrect =
-        highToBitmap.headMap(lowestHighNotValid, false);
-    long[] expectedCardinalities = new long[expectedToBeCorrect.size()];
+    long[] expectedCardinalities = new long[bitmap.getHighToBitmap().size()];
 
-    Iterator<BitmapDataProvider> it = expectedToBeCorrect.values().iterator();
+    Iterator<BitmapDataProvider> it = bitmap.getHighToBitmap().values().iterator();
     int index = 0;
     while (it.hasNext()) {
       BitmapDataProvider next = it.next();
@@ -68,8 +71,7 @@ public class TestRoaring64NavigableMap {
       index++;
     }
 
-    Assert.assertArrayEquals(expectedCardinalities,
-        Arrays.copyOf(bitmap.getSortedCumulatedCardinality(), expectedCardinalities.length));
+    Assert.assertArrayEquals(expectedCardinalities, ranks.cumulatedCardinalities());
   }
 
   @Test
@@ -1497,4 +1499,476 @@ public class TestRoaring64NavigableMap {
     map.select(16);
     Assert.assertEquals(264, map.getLongSizeInBytes());
   }
+
+  @Test
+  public void testAddManyMatchesAddLong() {
+    Random r = new Random(22);
+    long[] values = new long[20000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = ((long) (r.nextInt(8) - 4) << 32) | r.nextInt(1 << 18);
+    }
+    values[0] = Long.MIN_VALUE;
+    values[1] = Long.MAX_VALUE;
+    values[2] = -1L;
+    Arrays.sort(values, 3, 10000);
+
+    Roaring64NavigableMap[] maps = {newUnsignedHeap(), newSignedBuffered(), newNoCache()};
+    boolean[] signed = {false, true, true};
+    for (int m = 0; m < maps.length; m++) {
+      Roaring64NavigableMap map = maps[m];
+      Roaring64NavigableMap expected = new Roaring64NavigableMap(signed[m]);
+      for (int i = 7; i < 7 + 15000; i++) {
+        expected.addLong(values[i]);
+      }
+      map.addLong(values[7]);
+      // computes the cumulated cardinalities, to check their invalidation
+      Assert.assertEquals(1, map.getLongCardinality());
+      map.addMany(values, 7, 15000);
+
+      Assert.assertEquals(expected.getLongCardinality(), map.getLongCardinality());
+      Assert.assertArrayEquals(expected.toArray(), map.toArray());
+      Assert.assertEquals(expected.select(1234), map.select(1234));
+      Assert.assertEquals(expected.rankLong(values[8000]), map.rankLong(values[8000]));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAddManyOutOfBounds() {
+    newDefaultCtor().addMany(new long[4], 2, 3);
+  }
+
+  private static Roaring64NavigableMap manyBuckets(Roaring64NavigableMap map) {
+    Random r = new Random(23);
+    for (int i = 0; i < 30000; i++) {
+      map.addLong(((long) (r.nextInt(64) - 32) << 32) | r.nextInt(1 << 17));
+    }
+    map.add((100L << 32) - 100000, (100L << 32) + 100000);
+    map.addLong(Long.MAX_VALUE);
+    map.addLong(-1L);
+    map.addLong(Long.MIN_VALUE);
+    return map;
+  }
+
+  @Test
+  public void testLongBatchIterator() {
+    for (Roaring64NavigableMap map : Arrays.asList(manyBuckets(newUnsignedHeap()),
+        manyBuckets(newSignedBuffered()), newDefaultCtor())) {
+      long[] expected = map.toArray();
+      for (int size : new int[] {1, 7, 256, 10000}) {
+        LongBatchIterator it = map.getLongBatchIterator();
+        long[] buffer = new long[size];
+        long[] actual = new long[expected.length];
+        int count = 0;
+        while (it.hasNext()) {
+          int n = it.nextBatch(buffer);
+          Assert.assertTrue(n > 0);
+          System.arraycopy(buffer, 0, actual, count, n);
+          count += n;
+        }
+        Assert.assertEquals(0, it.nextBatch(buffer));
+        Assert.assertEquals(expected.length, count);
+        Assert.assertArrayEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testLongBatchIteratorClone() {
+    Roaring64NavigableMap map = manyBuckets(newUnsignedHeap());
+    LongBatchIterator it = map.getLongBatchIterator();
+    long[] buffer = new long[1000];
+    it.nextBatch(buffer);
+    it.nextBatch(buffer);
+    LongBatchIterator clone = it.clone();
+    long[] cloneBuffer = new long[1000];
+    while (it.hasNext()) {
+      int n = it.nextBatch(buffer);
+      Assert.assertEquals(n, clone.nextBatch(cloneBuffer));
+      Assert.assertArrayEquals(buffer, cloneBuffer);
+    }
+    Assert.assertFalse(clone.hasNext());
+  }
+
+  @Test
+  public void testStream() {
+    for (Roaring64NavigableMap map : Arrays.asList(manyBuckets(newUnsignedHeap()),
+        manyBuckets(newSignedBuffered()), newDefaultCtor())) {
+      long[] expected = map.toArray();
+      Assert.assertArrayEquals(expected, map.stream().toArray());
+      Assert.assertArrayEquals(expected, map.stream().parallel().toArray());
+      Assert.assertEquals(map.getLongCardinality(), map.stream().parallel().count());
+      Assert.assertEquals(Arrays.stream(expected).sum(), map.stream().parallel().sum());
+    }
+  }
+
+  @Test
+  public void testSpliterator() {
+    Roaring64NavigableMap map = manyBuckets(newUnsignedHeap());
+    long[] expected = map.toArray();
+    Spliterator.OfLong suffix = map.spliterator();
+    Assert.assertEquals(expected.length, suffix.estimateSize());
+    Assert.assertTrue(suffix.hasCharacteristics(Spliterator.SORTED | Spliterator.SUBSIZED));
+    Assert.assertNotNull(suffix.getComparator());
+    Assert.assertNull(manyBuckets(newSignedBuffered()).spliterator().getComparator());
+
+    Spliterator.OfLong prefix = suffix.trySplit();
+    Assert.assertEquals(expected.length, prefix.estimateSize() + suffix.estimateSize());
+    Assert.assertTrue(prefix.estimateSize() > expected.length / 4);
+    Assert.assertTrue(suffix.estimateSize() > expected.length / 4);
+
+    List<Long> values = new ArrayList<>();
+    Assert.assertTrue(prefix.tryAdvance((long value) -> values.add(value)));
+    Assert.assertEquals(expected[0], values.get(0).longValue());
+    Assert.assertNull(prefix.trySplit());
+    long prefixSize = prefix.estimateSize();
+    prefix.forEachRemaining((long value) -> values.add(value));
+    Assert.assertEquals(prefixSize + 1, values.size());
+    Assert.assertEquals(0, prefix.estimateSize());
+    suffix.forEachRemaining((long value) -> values.add(value));
+    Assert.assertEquals(0, suffix.estimateSize());
+    Assert.assertArrayEquals(expected, Longs.toArray(values));
+
+    Spliterator.OfLong single = Roaring64NavigableMap.bitmapOf(1L, 2L, 3L).spliterator();
+    Assert.assertNull(single.trySplit());
+    Assert.assertEquals(3, single.estimateSize());
+    while (single.tryAdvance((long value) -> { })) {
+      Assert.assertTrue(single.estimateSize() >= 0);
+    }
+    Assert.assertEquals(0, single.estimateSize());
+  }
+
+  private static Roaring64NavigableMap fewBuckets(Roaring64NavigableMap map) {
+    Random r = new Random(24);
+    for (int i = 0; i < 3000; i++) {
+      map.addLong(((long) (r.nextInt(8) - 4) << 32) | (r.nextInt(1 << 12) - 1024));
+    }
+    map.add((7L << 32) - 5000, (7L << 32) + 5000);
+    map.addLong(Long.MIN_VALUE);
+    map.addLong(Long.MAX_VALUE);
+    return map;
+  }
+
+  private static int compare(boolean signed, long x, long y) {
+    return signed ? Long.compare(x, y) : Long.compareUnsigned(x, y);
+  }
+
+  @Test
+  public void testRangeOperations() {
+    Random r = new Random(25);
+    boolean[] signed = {false, true};
+    Roaring64NavigableMap[] maps =
+        {fewBuckets(newUnsignedHeap()), fewBuckets(newSignedBuffered())};
+    for (int m = 0; m < maps.length; m++) {
+      Roaring64NavigableMap map = maps[m];
+      long[] values = map.toArray();
+      for (int k = 0; k < 200; k++) {
+        long start = values[r.nextInt(values.length)] + r.nextInt(5000) - 2500;
+        long end = values[r.nextInt(values.length)] + r.nextInt(5000) - 2500;
+        long expected = 0;
+        for (long value : values) {
+          if (compare(signed[m], start, value) <= 0 && compare(signed[m], value, end) < 0) {
+            expected++;
+          }
+        }
+        Assert.assertEquals(expected, map.rangeCardinality(start, end));
+        boolean empty = compare(signed[m], start, end) >= 0;
+        Assert.assertEquals(empty || expected == end - start, map.contains(start, end));
+
+        long next = -1;
+        for (long value : values) {
+          if (compare(signed[m], start, value) <= 0) {
+            next = value;
+            break;
+          }
+        }
+        if (compare(signed[m], values[values.length - 1], start) >= 0) {
+          Assert.assertEquals(next, map.nextValue(start));
+        }
+        long previous = -1;
+        for (long value : values) {
+          if (compare(signed[m], value, end) <= 0) {
+            previous = value;
+          }
+        }
+        if (compare(signed[m], values[0], end) <= 0) {
+          Assert.assertEquals(previous, map.previousValue(end));
+        }
+      }
+      Assert.assertEquals(values[0], map.first());
+      Assert.assertEquals(values[values.length - 1], map.last());
+    }
+  }
+
+  @Test
+  public void testContainsRange() {
+    Roaring64NavigableMap map = newUnsignedHeap();
+    map.add((3L << 32) - 10, (5L << 32) + 10);
+    Assert.assertTrue(map.contains((3L << 32) - 10, (5L << 32) + 10));
+    Assert.assertTrue(map.contains(4L << 32, 5L << 32));
+    Assert.assertFalse(map.contains((3L << 32) - 11, 5L << 32));
+    Assert.assertFalse(map.contains(3L << 32, (5L << 32) + 11));
+    Assert.assertTrue(map.contains(7L, 7L));
+    map.removeLong(4L << 32);
+    Assert.assertFalse(map.contains(3L << 32, 5L << 32));
+  }
+
+  @Test
+  public void testRemoveRange() {
+    boolean[] signed = {false, true};
+    Roaring64NavigableMap[] maps =
+        {fewBuckets(newUnsignedHeap()), fewBuckets(newSignedBuffered())};
+    for (int m = 0; m < maps.length; m++) {
+      Roaring64NavigableMap map = maps[m];
+      long start = -(2L << 32) + 17;
+      long end = (7L << 32) + 100;
+      long[] values = map.toArray();
+      // computes the cumulated cardinalities, to check their invalidation
+      map.select(values.length / 2);
+
+      map.remove(start, end);
+      List<Long> expected = new ArrayList<>();
+      for (long value : values) {
+        if (compare(signed[m], value, start) < 0 || compare(signed[m], end, value) <= 0) {
+          expected.add(value);
+        }
+      }
+      Assert.assertArrayEquals(Longs.toArray(expected), map.toArray());
+      Assert.assertEquals(expected.size(), map.getLongCardinality());
+      Assert.assertEquals(expected.get(expected.size() / 2).longValue(),
+          map.select(expected.size() / 2));
+      Assert.assertEquals(0, map.rangeCardinality(start, end));
+    }
+  }
+
+  @Test
+  public void testRangesEndingInTheLastBucket() {
+    Roaring64NavigableMap map = new Roaring64NavigableMap(true);
+    map.add(Long.MAX_VALUE - 100, Long.MAX_VALUE);
+    Assert.assertEquals(100, map.getLongCardinality());
+    Assert.assertTrue(map.contains(Long.MAX_VALUE - 100, Long.MAX_VALUE));
+    Assert.assertEquals(100, map.rangeCardinality(0, Long.MAX_VALUE));
+    map.remove(Long.MAX_VALUE - 50, Long.MAX_VALUE);
+    Assert.assertEquals(Long.MAX_VALUE - 51, map.last());
+
+    Roaring64NavigableMap unsigned = newUnsignedHeap();
+    unsigned.add(Long.MAX_VALUE - 10, Long.MIN_VALUE + 10);
+    Assert.assertEquals(21, unsigned.getLongCardinality());
+    Assert.assertEquals(Long.MIN_VALUE + 9, unsigned.last());
+    Assert.assertEquals(Long.MAX_VALUE - 10, unsigned.first());
+  }
+
+  @Test
+  public void testNextAndPreviousValueAcrossEmptyBuckets() {
+    Roaring64NavigableMap map = Roaring64NavigableMap.bitmapOf(1L, 2L << 32, 4L << 32);
+    map.removeLong(2L << 32);
+    Assert.assertEquals(4L << 32, map.nextValue(2L));
+    Assert.assertEquals(1L, map.previousValue((4L << 32) - 1));
+    Assert.assertEquals(1L, map.first());
+    Assert.assertEquals(4L << 32, map.last());
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testNextValueAfterLast() {
+    Roaring64NavigableMap.bitmapOf(1L, 5L).nextValue(6L);
+  }
+
+  @Test(expected = NoSuchElementException.class)
+  public void testFirstOfEmpty() {
+    newDefaultCtor().first();
+  }
+
+  @Test
+  public void testIntersectsAndAndCardinality() {
+    Random r = new Random(26);
+    for (int k = 0; k < 20; k++) {
+      Roaring64NavigableMap x1 = k % 2 == 0 ? newUnsignedHeap() : newSignedBuffered();
+      Roaring64NavigableMap x2 = k % 2 == 0 ? newUnsignedHeap() : newSignedBuffered();
+      for (int i = 0; i < 1000; i++) {
+        x1.addLong(((long) r.nextInt(4) << 32) | r.nextInt(1 << 14));
+        x2.addLong(((long) (r.nextInt(4) + k / 4) << 32) | r.nextInt(1 << 14));
+      }
+      Roaring64NavigableMap and = new Roaring64NavigableMap(k % 2 != 0);
+      and.or(x1);
+      and.and(x2);
+      Assert.assertEquals(and.getLongCardinality(), Roaring64NavigableMap.andCardinality(x1, x2));
+      Assert.assertEquals(!and.isEmpty(), x1.intersects(x2));
+      Assert.assertEquals(!and.isEmpty(), x2.intersects(x1));
+    }
+    Roaring64NavigableMap mixed = newUnsignedHeap();
+    mixed.add(0L, 100L);
+    Roaring64NavigableMap other = Roaring64NavigableMap.bitmapOf(50L, 150L);
+    Assert.assertTrue(mixed.intersects(other));
+    Assert.assertEquals(1, Roaring64NavigableMap.andCardinality(mixed, other));
+  }
+
+  @Test
+  public void testRanksUpdatedInPlace() {
+    Roaring64NavigableMap map = newUnsignedHeap();
+    for (long high = 0; high < 8; high++) {
+      map.add(high << 32, (high << 32) + 100);
+    }
+    Assert.assertEquals(3L << 32, map.select(300));
+    BucketRanks ranks = map.getRanks();
+    Assert.assertNotNull(ranks);
+
+    map.addLong((2L << 32) + 1000);
+    map.removeLong(5L << 32);
+    map.removeLong(5L << 32);
+    map.flip(7L << 32);
+    map.flip((7L << 32) + 500);
+
+    // Values in existing buckets update the cumulated cardinalities
+    Assert.assertSame(ranks, map.getRanks());
+    checkCardinalities(map);
+    Assert.assertEquals(800, map.getLongCardinality());
+    Assert.assertEquals(302, map.rankLong(3L << 32));
+    Assert.assertEquals((5L << 32) + 1, map.select(501));
+
+    // A new bucket, or a bulk operation, require computing them again
+    map.addLong(9L << 32);
+    Assert.assertNull(map.getRanks());
+    Assert.assertEquals(801, map.getLongCardinality());
+    checkCardinalities(map);
+    map.remove(1L, 3L);
+    Assert.assertNull(map.getRanks());
+  }
+
+  @Test
+  public void testRemovingTheLastValueOfABucket() {
+    Roaring64NavigableMap map = Roaring64NavigableMap.bitmapOf(1L, 1L << 32, 2L << 32);
+    Assert.assertEquals(3, map.getLongCardinality());
+    map.removeLong(1L << 32);
+    Assert.assertEquals(2, map.getHighToBitmap().size());
+    Assert.assertEquals(2L << 32, map.select(1));
+    map.addLong((1L << 32) + 1);
+    Assert.assertEquals((1L << 32) + 1, map.select(1));
+
+    map.remove(0L, 2L << 32);
+    Assert.assertEquals(1, map.getHighToBitmap().size());
+    map.andNot(Roaring64NavigableMap.bitmapOf(2L << 32));
+    Assert.assertTrue(map.getHighToBitmap().isEmpty());
+  }
+
+  @Test
+  public void testRandomUpdatesAgainstNoCache() {
+    Random r = new Random(25);
+    for (boolean signed : new boolean[] {true, false}) {
+      Roaring64NavigableMap cached = new Roaring64NavigableMap(signed, true);
+      Roaring64NavigableMap notCached = new Roaring64NavigableMap(signed, false);
+      for (int i = 0; i < 5000; i++) {
+        // a few buckets, around 0 and the unsigned sign bit, so some get emptied
+        long high = r.nextInt(6) - 3 + (signed ? 0 : 1L << 31);
+        long value = (high << 32) | r.nextInt(64);
+        switch (r.nextInt(3)) {
+          case 0:
+            cached.addLong(value);
+            notCached.addLong(value);
+            break;
+          case 1:
+            cached.removeLong(value);
+            notCached.removeLong(value);
+            break;
+          default:
+            cached.flip(value);
+            notCached.flip(value);
+        }
+        if (i % 7 == 0) {
+          checkCardinalities(cached);
+          long cardinality = notCached.getLongCardinality();
+          Assert.assertEquals(cardinality, cached.getLongCardinality());
+          Assert.assertEquals(notCached.rankLong(value), cached.rankLong(value));
+          if (cardinality > 0) {
+            long j = (long) r.nextInt((int) cardinality);
+            Assert.assertEquals(notCached.select(j), cached.select(j));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentSelectAndRank() throws InterruptedException {
+    final Roaring64NavigableMap map = newUnsignedHeap();
+    Random r = new Random(25);
+    for (int i = 0; i < 10000; i++) {
+      map.addLong(((long) r.nextInt(64) << 32) | r.nextInt(1 << 16));
+    }
+    final long[] values = map.toArray();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int offset = t;
+      threads[t] = new Thread(() -> {
+        try {
+          for (int j = offset; j < values.length; j += 3) {
+            Assert.assertEquals(values[j], map.select(j));
+            Assert.assertEquals(j + 1, map.rankLong(values[j]));
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertNull(failure.get());
+  }
+
+  @Test
+  public void testSelectAndRankWhileWriting() throws InterruptedException {
+    final Roaring64NavigableMap map = newUnsignedHeap();
+    Random r = new Random(25);
+    for (int i = 0; i < 10000; i++) {
+      map.addLong(((long) r.nextInt(64) << 32) | r.nextInt(1 << 16));
+    }
+    final long[] values = map.toArray();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    // the writer changes values above all the others, in the last bucket and in new buckets
+    Thread writer = new Thread(() -> {
+      Random random = new Random(26);
+      try {
+        for (int i = 0; i < 200000; i++) {
+          long value = ((long) (63 + random.nextInt(4)) << 32) | (1 << 20) + random.nextInt(64);
+          if (random.nextBoolean()) {
+            map.addLong(value);
+          } else {
+            map.removeLong(value);
+          }
+        }
+      } catch (Throwable e) {
+        failure.compareAndSet(null, e);
+      }
+    });
+    Thread[] readers = new Thread[3];
+    for (int t = 0; t < readers.length; t++) {
+      final int offset = t;
+      readers[t] = new Thread(() -> {
+        try {
+          for (int round = 0; round < 20; round++) {
+            for (int j = offset; j < values.length; j += readers.length) {
+              Assert.assertEquals(values[j], map.select(j));
+              Assert.assertEquals(j + 1, map.rankLong(values[j]));
+            }
+            Assert.assertTrue(map.getLongCardinality() >= values.length);
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+    }
+    writer.start();
+    for (Thread reader : readers) {
+      reader.start();
+    }
+    writer.join();
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    Assert.assertNull(failure.get());
+    checkCardinalities(map);
+  }
 }
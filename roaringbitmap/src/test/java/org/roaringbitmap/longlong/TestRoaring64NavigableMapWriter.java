@@ -0,0 +1,130 @@
+package org.roaringbitmap.longlong;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmapWriter;
+
+public class TestRoaring64NavigableMapWriter {
+
+  private static long[] randomValues(long seed, int count) {
+    Random r = new Random(seed);
+    long[] values = new long[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = ((long) (r.nextInt(16) - 8) << 32) | r.nextInt();
+    }
+    values[0] = Long.MIN_VALUE;
+    values[1] = Long.MAX_VALUE;
+    values[2] = -1L;
+    values[3] = 0L;
+    return values;
+  }
+
+  private static void assertWritten(boolean signed, Roaring64NavigableMapWriter writer,
+      long[] values) {
+    Roaring64NavigableMap expected = new Roaring64NavigableMap(signed);
+    expected.add(values);
+    writer.addMany(values);
+    Roaring64NavigableMap actual = writer.get();
+    Assert.assertEquals(expected, actual);
+    Assert.assertArrayEquals(expected.toArray(), actual.toArray());
+    Assert.assertEquals(expected.getLongCardinality(), actual.getLongCardinality());
+    Assert.assertEquals(expected.select(100), actual.select(100));
+  }
+
+  @Test
+  public void testSortedValues() {
+    for (boolean signed : new boolean[] {true, false}) {
+      long[] values = randomValues(1, 50000);
+      if (signed) {
+        Arrays.sort(values);
+      } else {
+        values = Arrays.stream(values).map(v -> v ^ Long.MIN_VALUE).sorted()
+            .map(v -> v ^ Long.MIN_VALUE).toArray();
+      }
+      assertWritten(signed, new Roaring64NavigableMapWriter(signed), values);
+    }
+  }
+
+  @Test
+  public void testUnsortedValues() {
+    assertWritten(false, new Roaring64NavigableMapWriter(), randomValues(2, 50000));
+  }
+
+  @Test
+  public void testWizard() {
+    long[] values = randomValues(3, 20000);
+    Arrays.sort(values);
+    assertWritten(true,
+        new Roaring64NavigableMapWriter(true, RoaringBitmapWriter.writer().optimiseForRuns()),
+        values);
+    assertWritten(true,
+        new Roaring64NavigableMapWriter(true, RoaringBitmapWriter.writer().constantMemory()),
+        values);
+  }
+
+  @Test
+  public void testRanges() {
+    Roaring64NavigableMapWriter writer = new Roaring64NavigableMapWriter(true);
+    writer.add(5L);
+    writer.add((1L << 32) - 10, (3L << 32) + 10);
+    writer.add(Long.MAX_VALUE - 5, Long.MAX_VALUE);
+    writer.add(Long.MAX_VALUE);
+    Roaring64NavigableMap actual = writer.get();
+
+    Assert.assertEquals(1 + (2L << 32) + 20 + 5 + 1, actual.getLongCardinality());
+    Assert.assertTrue(actual.contains(5L));
+    Assert.assertFalse(actual.contains((1L << 32) - 11));
+    Assert.assertTrue(actual.contains((1L << 32) - 10));
+    Assert.assertTrue(actual.contains((3L << 32) + 9));
+    Assert.assertFalse(actual.contains((3L << 32) + 10));
+    Assert.assertTrue(actual.contains(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testUnsignedRangeAcrossTheSignBit() {
+    Roaring64NavigableMapWriter writer = new Roaring64NavigableMapWriter();
+    writer.add(Long.MAX_VALUE - 4, Long.MIN_VALUE + 5);
+    writer.add(-10L, -1L);
+    Roaring64NavigableMap actual = writer.get();
+
+    Roaring64NavigableMap expected = new Roaring64NavigableMap();
+    expected.add(Long.MAX_VALUE - 4, Long.MIN_VALUE + 5);
+    expected.add(-10L, -1L);
+    Assert.assertEquals(19, actual.getLongCardinality());
+    Assert.assertArrayEquals(expected.toArray(), actual.toArray());
+
+    // a reversed range is empty, in the unsigned order
+    writer.add(Long.MIN_VALUE, Long.MAX_VALUE);
+    Assert.assertEquals(19, writer.get().getLongCardinality());
+  }
+
+  @Test
+  public void testReset() {
+    Roaring64NavigableMapWriter writer = new Roaring64NavigableMapWriter();
+    writer.add(1L);
+    writer.add(1L << 40);
+    Roaring64NavigableMap first = writer.get();
+    writer.reset();
+    writer.add(2L);
+    Roaring64NavigableMap second = writer.get();
+
+    Assert.assertNotSame(first, second);
+    Assert.assertArrayEquals(new long[] {1L, 1L << 40}, first.toArray());
+    Assert.assertArrayEquals(new long[] {2L}, second.toArray());
+  }
+
+  @Test
+  public void testFlushMergesBuckets() {
+    Roaring64NavigableMapWriter writer = new Roaring64NavigableMapWriter();
+    writer.add(3L);
+    writer.flush();
+    Assert.assertArrayEquals(new long[] {3L}, writer.getUnderlying().toArray());
+    writer.add(1L);
+    writer.add(1L << 33);
+    writer.add(2L);
+    Assert.assertArrayEquals(new long[] {1L, 2L, 3L, 1L << 33}, writer.get().toArray());
+  }
+}
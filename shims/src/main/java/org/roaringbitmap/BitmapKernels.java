@@ -0,0 +1,101 @@
+package org.roaringbitmap;
+
+/**
+ * Word loops over the bitmaps of bitmap containers, shimmed to support multi-release: on JDK 17
+ * and later, when the jdk.incubator.vector module is available (--add-modules
+ * jdk.incubator.vector), they run on the Vector API.
+ */
+public final class BitmapKernels {
+
+  private BitmapKernels() {
+  }
+
+  /**
+   * Checks whether the loops run on the Vector API.
+   * @return true if the loops are vectorized
+   */
+  public static boolean isVectorized() {
+    return false;
+  }
+
+  /**
+   * Counts the bits set in the words.
+   * @param words the words
+   * @return the number of bits set
+   */
+  public static int cardinality(long[] words) {
+    return ScalarBitmapKernels.cardinality(words);
+  }
+
+  /**
+   * Counts the bits set in both arrays of words, which have the same length.
+   * @param x the first words
+   * @param y the second words
+   * @return the cardinality of the intersection
+   */
+  public static int andCardinality(long[] x, long[] y) {
+    return ScalarBitmapKernels.andCardinality(x, y);
+  }
+
+  /**
+   * Counts the bits set in the first array of words but not in the second, of the same length.
+   * @param x the first words
+   * @param y the second words
+   * @return the cardinality of the difference
+   */
+  public static int andNotCardinality(long[] x, long[] y) {
+    return ScalarBitmapKernels.andNotCardinality(x, y);
+  }
+
+  /**
+   * Counts the bits set in exactly one of the arrays of words, which have the same length.
+   * @param x the first words
+   * @param y the second words
+   * @return the cardinality of the symmetric difference
+   */
+  public static int xorCardinality(long[] x, long[] y) {
+    return ScalarBitmapKernels.xorCardinality(x, y);
+  }
+
+  /**
+   * Computes the intersection of two arrays of words into a third one, which may be either.
+   * @param x the first words
+   * @param y the second words
+   * @param dest the words receiving the result
+   */
+  public static void and(long[] x, long[] y, long[] dest) {
+    ScalarBitmapKernels.and(x, y, dest);
+  }
+
+  /**
+   * Computes the difference of two arrays of words into a third one, which may be either.
+   * @param x the first words
+   * @param y the second words
+   * @param dest the words receiving the result
+   */
+  public static void andNot(long[] x, long[] y, long[] dest) {
+    ScalarBitmapKernels.andNot(x, y, dest);
+  }
+
+  /**
+   * Computes the union of two arrays of words into a third one, which may be either.
+   * @param x the first words
+   * @param y the second words
+   * @param dest the words receiving the result
+   * @return the cardinality of the union
+   */
+  public static int or(long[] x, long[] y, long[] dest) {
+    return ScalarBitmapKernels.or(x, y, dest);
+  }
+
+  /**
+   * Computes the symmetric difference of two arrays of words into a third one, which may be
+   * either.
+   * @param x the first words
+   * @param y the second words
+   * @param dest the words receiving the result
+   */
+  public static void xor(long[] x, long[] y, long[] dest) {
+    ScalarBitmapKernels.xor(x, y, dest);
+  }
+}
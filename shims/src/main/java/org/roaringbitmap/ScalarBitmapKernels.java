@@ -0,0 +1,70 @@
+package org.roaringbitmap;
+
+/**
+ * Scalar implementation of {@link BitmapKernels}, also used where the Vector API is missing.
+ */
+final class ScalarBitmapKernels {
+
+  private ScalarBitmapKernels() {
+  }
+
+  static int cardinality(long[] words) {
+    int cardinality = 0;
+    for (long word : words) {
+      cardinality += Long.bitCount(word);
+    }
+    return cardinality;
+  }
+
+  static int andCardinality(long[] x, long[] y) {
+    int cardinality = 0;
+    for (int k = 0; k < x.length; ++k) {
+      cardinality += Long.bitCount(x[k] & y[k]);
+    }
+    return cardinality;
+  }
+
+  static int andNotCardinality(long[] x, long[] y) {
+    int cardinality = 0;
+    for (int k = 0; k < x.length; ++k) {
+      cardinality += Long.bitCount(x[k] & (~y[k]));
+    }
+    return cardinality;
+  }
+
+  static int xorCardinality(long[] x, long[] y) {
+    int cardinality = 0;
+    for (int k = 0; k < x.length; ++k) {
+      cardinality += Long.bitCount(x[k] ^ y[k]);
+    }
+    return cardinality;
+  }
+
+  static void and(long[] x, long[] y, long[] dest) {
+    for (int k = 0; k < x.length; ++k) {
+      dest[k] = x[k] & y[k];
+    }
+  }
+
+  static void andNot(long[] x, long[] y, long[] dest) {
+    for (int k = 0; k < x.length; ++k) {
+      dest[k] = x[k] & (~y[k]);
+    }
+  }
+
+  static int or(long[] x, long[] y, long[] dest) {
+    int cardinality = 0;
+    for (int k = 0; k < x.length; ++k) {
+      long w = x[k] | y[k];
+      dest[k] = w;
+      cardinality += Long.bitCount(w);
+    }
+    return cardinality;
+  }
+
+  static void xor(long[] x, long[] y, long[] dest) {
+    for (int k = 0; k < x.length; ++k) {
+      dest[k] = x[k] ^ y[k];
+    }
+  }
+}
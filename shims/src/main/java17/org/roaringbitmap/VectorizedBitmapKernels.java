@@ -0,0 +1,179 @@
+package org.roaringbitmap;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of {@link BitmapKernels} on the Vector API, only loaded when the
+ * jdk.incubator.vector module is available.
+ *
+ * There is no lane-wise bit count before JDK 19, so the bits are counted with the classic SWAR
+ * reduction: the counts per byte of the lanes, at most 8 each, are added up over blocks of
+ * vectors, and folded into 64-bit lane counts at the end of each block, before any byte can
+ * overflow. The vectors stay in local variables, so that they are not boxed.
+ */
+final class VectorizedBitmapKernels {
+
+  private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+  // a block of 31 vectors adds at most 248 to each byte of the counts
+  private static final int BLOCK = 31 * SPECIES.length();
+
+  private static final long M1 = 0x5555555555555555L;
+  private static final long M2 = 0x3333333333333333L;
+  private static final long M4 = 0x0F0F0F0F0F0F0F0FL;
+  private static final long M8 = 0x00FF00FF00FF00FFL;
+  private static final long M16 = 0x0000FFFF0000FFFFL;
+  private static final long M32 = 0x00000000FFFFFFFFL;
+
+  private VectorizedBitmapKernels() {
+  }
+
+  // the number of bits set in each byte of the lanes
+  private static LongVector byteCounts(LongVector v) {
+    v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(M1));
+    v = v.and(M2).add(v.lanewise(VectorOperators.LSHR, 2).and(M2));
+    return v.add(v.lanewise(VectorOperators.LSHR, 4)).and(M4);
+  }
+
+  // sums the bytes of each lane, each of them at most 248
+  private static LongVector foldBytes(LongVector v) {
+    v = v.and(M8).add(v.lanewise(VectorOperators.LSHR, 8).and(M8));
+    v = v.and(M16).add(v.lanewise(VectorOperators.LSHR, 16).and(M16));
+    return v.and(M32).add(v.lanewise(VectorOperators.LSHR, 32));
+  }
+
+  static int cardinality(long[] words) {
+    LongVector lanes = LongVector.zero(SPECIES);
+    int k = 0;
+    final int bound = SPECIES.loopBound(words.length);
+    while (k < bound) {
+      LongVector bytes = LongVector.zero(SPECIES);
+      for (int end = Math.min(bound, k + BLOCK); k < end; k += SPECIES.length()) {
+        bytes = bytes.add(byteCounts(LongVector.fromArray(SPECIES, words, k)));
+      }
+      lanes = lanes.add(foldBytes(bytes));
+    }
+    int cardinality = (int) lanes.reduceLanes(VectorOperators.ADD);
+    for (; k < words.length; ++k) {
+      cardinality += Long.bitCount(words[k]);
+    }
+    return cardinality;
+  }
+
+  static int andCardinality(long[] x, long[] y) {
+    LongVector lanes = LongVector.zero(SPECIES);
+    int k = 0;
+    final int bound = SPECIES.loopBound(x.length);
+    while (k < bound) {
+      LongVector bytes = LongVector.zero(SPECIES);
+      for (int end = Math.min(bound, k + BLOCK); k < end; k += SPECIES.length()) {
+        bytes = bytes.add(byteCounts(LongVector.fromArray(SPECIES, x, k)
+            .and(LongVector.fromArray(SPECIES, y, k))));
+      }
+      lanes = lanes.add(foldBytes(bytes));
+    }
+    int cardinality = (int) lanes.reduceLanes(VectorOperators.ADD);
+    for (; k < x.length; ++k) {
+      cardinality += Long.bitCount(x[k] & y[k]);
+    }
+    return cardinality;
+  }
+
+  static int andNotCardinality(long[] x, long[] y) {
+    LongVector lanes = LongVector.zero(SPECIES);
+    int k = 0;
+    final int bound = SPECIES.loopBound(x.length);
+    while (k < bound) {
+      LongVector bytes = LongVector.zero(SPECIES);
+      for (int end = Math.min(bound, k + BLOCK); k < end; k += SPECIES.length()) {
+        bytes = bytes.add(byteCounts(LongVector.fromArray(SPECIES, x, k)
+            .lanewise(VectorOperators.AND_NOT, LongVector.fromArray(SPECIES, y, k))));
+      }
+      lanes = lanes.add(foldBytes(bytes));
+    }
+    int cardinality = (int) lanes.reduceLanes(VectorOperators.ADD);
+    for (; k < x.length; ++k) {
+      cardinality += Long.bitCount(x[k] & (~y[k]));
+    }
+    return cardinality;
+  }
+
+  static int xorCardinality(long[] x, long[] y) {
+    LongVector lanes = LongVector.zero(SPECIES);
+    int k = 0;
+    final int bound = SPECIES.loopBound(x.length);
+    while (k < bound) {
+      LongVector bytes = LongVector.zero(SPECIES);
+      for (int end = Math.min(bound, k + BLOCK); k < end; k += SPECIES.length()) {
+        bytes = bytes.add(byteCounts(LongVector.fromArray(SPECIES, x, k)
+            .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, y, k))));
+      }
+      lanes = lanes.add(foldBytes(bytes));
+    }
+    int cardinality = (int) lanes.reduceLanes(VectorOperators.ADD);
+    for (; k < x.length; ++k) {
+      cardinality += Long.bitCount(x[k] ^ y[k]);
+    }
+    return cardinality;
+  }
+
+  static void and(long[] x, long[] y, long[] dest) {
+    int k = 0;
+    for (int bound = SPECIES.loopBound(x.length); k < bound; k += SPECIES.length()) {
+      LongVector.fromArray(SPECIES, x, k).and(LongVector.fromArray(SPECIES, y, k))
+          .intoArray(dest, k);
+    }
+    for (; k < x.length; ++k) {
+      dest[k] = x[k] & y[k];
+    }
+  }
+
+  static void andNot(long[] x, long[] y, long[] dest) {
+    int k = 0;
+    for (int bound = SPECIES.loopBound(x.length); k < bound; k += SPECIES.length()) {
+      LongVector.fromArray(SPECIES, x, k)
+          .lanewise(VectorOperators.AND_NOT, LongVector.fromArray(SPECIES, y, k))
+          .intoArray(dest, k);
+    }
+    for (; k < x.length; ++k) {
+      dest[k] = x[k] & (~y[k]);
+    }
+  }
+
+  static int or(long[] x, long[] y, long[] dest) {
+    LongVector lanes = LongVector.zero(SPECIES);
+    int k = 0;
+    final int bound = SPECIES.loopBound(x.length);
+    while (k < bound) {
+      LongVector bytes = LongVector.zero(SPECIES);
+      for (int end = Math.min(bound, k + BLOCK); k < end; k += SPECIES.length()) {
+        LongVector v = LongVector.fromArray(SPECIES, x, k)
+            .or(LongVector.fromArray(SPECIES, y, k));
+        v.intoArray(dest, k);
+        bytes = bytes.add(byteCounts(v));
+      }
+      lanes = lanes.add(foldBytes(bytes));
+    }
+    int cardinality = (int) lanes.reduceLanes(VectorOperators.ADD);
+    for (; k < x.length; ++k) {
+      long w = x[k] | y[k];
+      dest[k] = w;
+      cardinality += Long.bitCount(w);
+    }
+    return cardinality;
+  }
+
+  static void xor(long[] x, long[] y, long[] dest) {
+    int k = 0;
+    for (int bound = SPECIES.loopBound(x.length); k < bound; k += SPECIES.length()) {
+      LongVector.fromArray(SPECIES, x, k)
+          .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, y, k))
+          .intoArray(dest, k);
+    }
+    for (; k < x.length; ++k) {
+      dest[k] = x[k] ^ y[k];
+    }
+  }
+}
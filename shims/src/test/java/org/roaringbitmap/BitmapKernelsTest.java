@@ -0,0 +1,117 @@
+package org.roaringbitmap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+public class BitmapKernelsTest {
+
+  // whole vectors, tails of every width up to 8 lanes, and more than one block of vectors
+  private static final int[] LENGTHS = {0, 1, 2, 3, 4, 5, 7, 8, 9, 15, 16, 17, 31, 33, 63, 65,
+      247, 248, 249, 250, 255, 257, 500, 1023, 1024, 1025, 2051};
+
+  private static long[][] inputs(int length) {
+    SplittableRandom random = new SplittableRandom(length);
+    long[] dense = new long[length];
+    long[] sparse = new long[length];
+    long[] full = new long[length];
+    long[] empty = new long[length];
+    for (int i = 0; i < length; ++i) {
+      dense[i] = random.nextLong();
+      sparse[i] = random.nextInt(8) == 0 ? 1L << random.nextInt(64) : 0L;
+      full[i] = -1L;
+    }
+    return new long[][] {dense, sparse, full, empty};
+  }
+
+  @Test
+  public void testVectorizedWhenTheModuleIsAdded() {
+    Assert.assertEquals(Boolean.getBoolean("roaring.kernels.vectorized"),
+        BitmapKernels.isVectorized());
+  }
+
+  @Test
+  public void testCardinality() {
+    for (int length : LENGTHS) {
+      for (long[] words : inputs(length)) {
+        Assert.assertEquals(ScalarBitmapKernels.cardinality(words),
+            BitmapKernels.cardinality(words));
+      }
+    }
+  }
+
+  @Test
+  public void testCardinalityOfFullWords() {
+    // every byte count of the vectors reaches its maximum within a block
+    long[] full = inputs(1024)[2];
+    Assert.assertEquals(1 << 16, BitmapKernels.cardinality(full));
+    Assert.assertEquals(1 << 16, BitmapKernels.andCardinality(full, full));
+    Assert.assertEquals(1 << 16, BitmapKernels.xorCardinality(full, new long[1024]));
+  }
+
+  @Test
+  public void testBinaryCardinalities() {
+    for (int length : LENGTHS) {
+      long[][] inputs = inputs(length);
+      for (long[] x : inputs) {
+        for (long[] y : inputs) {
+          Assert.assertEquals(ScalarBitmapKernels.andCardinality(x, y),
+              BitmapKernels.andCardinality(x, y));
+          Assert.assertEquals(ScalarBitmapKernels.andNotCardinality(x, y),
+              BitmapKernels.andNotCardinality(x, y));
+          Assert.assertEquals(ScalarBitmapKernels.xorCardinality(x, y),
+              BitmapKernels.xorCardinality(x, y));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBinaryOperations() {
+    for (int length : LENGTHS) {
+      long[][] inputs = inputs(length);
+      for (long[] x : inputs) {
+        for (long[] y : inputs) {
+          long[] expected = new long[length];
+          long[] actual = new long[length];
+
+          ScalarBitmapKernels.and(x, y, expected);
+          BitmapKernels.and(x, y, actual);
+          Assert.assertArrayEquals(expected, actual);
+
+          ScalarBitmapKernels.andNot(x, y, expected);
+          BitmapKernels.andNot(x, y, actual);
+          Assert.assertArrayEquals(expected, actual);
+
+          ScalarBitmapKernels.xor(x, y, expected);
+          BitmapKernels.xor(x, y, actual);
+          Assert.assertArrayEquals(expected, actual);
+
+          Assert.assertEquals(ScalarBitmapKernels.or(x, y, expected),
+              BitmapKernels.or(x, y, actual));
+          Assert.assertArrayEquals(expected, actual);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testOperationsInPlace() {
+    for (int length : LENGTHS) {
+      long[][] inputs = inputs(length);
+      long[] x = inputs[0];
+      long[] y = inputs[1];
+      long[] expected = new long[length];
+      ScalarBitmapKernels.xor(x, y, expected);
+      long[] actual = x.clone();
+      BitmapKernels.xor(actual, y, actual);
+      Assert.assertArrayEquals(expected, actual);
+
+      int cardinality = ScalarBitmapKernels.or(x, y, expected);
+      actual = y.clone();
+      Assert.assertEquals(cardinality, BitmapKernels.or(x, actual, actual));
+      Assert.assertArrayEquals(expected, actual);
+    }
+  }
+}